@@ -1,6 +1,8 @@
 package org.semm.android.ctrlappdemo;
 
+import org.semm.android.vcf.app.CommandCompletion;
 import org.semm.android.vcf.app.ControlledActivity;
+import org.semm.android.vcf.app.OnCommand;
 
 import android.os.Bundle;
 import android.os.Handler;
@@ -55,61 +57,70 @@ public class ControlledAppDemoActivity extends ControlledActivity {
 		});
 	}
     
-    @Override
-    protected void onExecute(Bundle params) {
-		Log.i(LOG_TAG, "onExecute(): " + params);
-		
-		if (params.containsKey("command01")) {
-			Log.i(LOG_TAG, "onExecute(): " + params.getString("command01"));
-			mHandler.post(new Runnable(){
-				@Override
-				public void run() {
-					Toast
-					.makeText(ControlledAppDemoActivity.this, "Comando 1...", Toast.LENGTH_LONG)
-					.show();
-				}
-			});
-			try {
-				Thread.sleep(3000);
-				setExecuteResult(true, params.getString("command01") + " completato"); // msg personalizzato
-			} catch (InterruptedException e) {
-				Log.e(LOG_TAG, "Thread: " + e.getMessage());
+    /* Comando 1: esecuzione prolungata, completata in modo asincrono senza bloccare alcun thread. */
+    @OnCommand("command01")
+    void primoComando(Bundle params) {
+		Log.i(LOG_TAG, "primoComando(): " + params.getString("command01"));
+		final CommandCompletion completion = getCommandCompletion();
+		final String text = params.getString("command01");
+		mHandler.post(new Runnable(){
+			@Override
+			public void run() {
+				Toast
+				.makeText(ControlledAppDemoActivity.this, "Comando 1...", Toast.LENGTH_LONG)
+				.show();
 			}
-		}
-		else if (params.containsKey("command02")) {
-			Log.i(LOG_TAG, "onExecute(): " + params.getString("command02"));
-			mHandler.post(new Runnable(){
-				@Override
-				public void run() {
-					Toast
-					.makeText(ControlledAppDemoActivity.this, "Comando 2...", Toast.LENGTH_LONG)
-					.show();
-				}
-			});
-			try {
-				Thread.sleep(3000);
-				setExecuteResult(true, null); // msg di default
-			} catch (InterruptedException e) {
-				Log.e(LOG_TAG, "Thread: " + e.getMessage());
+		});
+		mHandler.postDelayed(new Runnable(){
+			@Override
+			public void run() {
+				completion.complete(true, text + " completato"); // msg personalizzato
 			}
-		}
-		else {
-			Log.w(LOG_TAG, "onExecute() - comando sconosciuto: " + params);
-			setExecuteResult(false, "comando sconosciuto");
+		}, 3000);
+	}
+    
+    /* Comando 2: interagisce soltanto con la UI, per cui viene eseguito nel main thread. */
+    @OnCommand(value = "command02", thread = OnCommand.UI)
+    void secondoComando(Bundle params) {
+		Log.i(LOG_TAG, "secondoComando(): " + params.getString("command02"));
+		Toast
+		.makeText(this, "Comando 2...", Toast.LENGTH_LONG)
+		.show();
+		setExecuteResult(true, null); // msg di default
+	}
+    
+    /* Comando 3: "volte"  il valore del parametro {volte:numero} pronunciato dall'utente. */
+    @OnCommand("command03")
+    void terzoComando(Bundle params) {
+		final int volte = params.getInt("volte", 1);
+		Log.i(LOG_TAG, "terzoComando(): " + params.getString("command03") + " x" + volte);
+		mHandler.post(new Runnable(){
+			@Override
+			public void run() {
+				Toast
+				.makeText(ControlledAppDemoActivity.this, "Comando 3 (" + volte + " volte)...", Toast.LENGTH_LONG)
+				.show();
+			}
+		});
+		try {
+			Thread.sleep(1000 * Math.min(volte, 3));
+			setExecuteResult(true, params.getString("command03") + " ripetuto " + volte + " volte");
+		} catch (InterruptedException e) {
+			Log.e(LOG_TAG, "Thread: " + e.getMessage());
 		}
 	}
 
+    /* Chiusura immediata, senza bloccare il thread della libreria: la conferma viene inviata da onDestroy(). */
     @Override
     protected void onClose(Bundle params) {
 		Log.i(LOG_TAG, "onClose(): " + params);
-		try {
-			Thread.sleep(3000);
-		} catch (InterruptedException e) {
-			Log.e(LOG_TAG, "Thread: " + e.getMessage());
-		}
-		
-		Log.i(LOG_TAG, "onClose(): chiama finish()");
-		finish(); // l'activity principale  quella corrente
+		mHandler.post(new Runnable(){
+			@Override
+			public void run() {
+				Log.i(LOG_TAG, "onClose(): chiama finish()");
+				finish(); // l'activity principale  quella corrente
+			}
+		});
 	}
     
 }
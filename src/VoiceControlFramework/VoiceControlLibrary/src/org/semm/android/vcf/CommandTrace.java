@@ -0,0 +1,24 @@
+package org.semm.android.vcf;
+
+/**
+ * La classe <code>CommandTrace</code> definisce le chiavi del <code>Bundle</code> con cui
+ * un'applicazione restituisce al servizio di controllo vocale, insieme all'esito di un comando,
+ * gli istanti di inizio e fine della sua esecuzione. Gli istanti sono espressi in nanosecondi
+ * e misurati con <code>System.nanoTime()</code>, il cui orologio  comune a tutti i processi,
+ * per cui il servizio pu confrontarli con i propri.
+ * 
+ * @author vincenzo
+ * @see IService#resultFromExecute(long, boolean, String, android.os.Bundle)
+ */
+public final class CommandTrace {
+	
+	/** Istante in cui l'applicazione ha ricevuto il comando. */
+	public static final String KEY_EXECUTE_START = "org.semm.android.vcf.trace.EXECUTE_START";
+	
+	/** Istante in cui l'applicazione ha restituito l'esito del comando. */
+	public static final String KEY_EXECUTE_END = "org.semm.android.vcf.trace.EXECUTE_END";
+	
+	private CommandTrace() {
+	}
+	
+}
@@ -0,0 +1,83 @@
+package org.semm.android.vcf.app;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * La classe <code>CommandCompletion</code> rappresenta l'esecuzione di un comando ricevuto
+ * da una {@link ControlledActivity}, di cui permette di inviare l'esito al servizio di
+ * controllo vocale da qualsiasi thread e in qualsiasi momento, anche dopo che
+ * {@link ControlledActivity#onExecute(android.os.Bundle)}  terminato.
+ * <p>
+ * Un'applicazione che completa un comando in modo asincrono (per esempio al termine di
+ * un'animazione o di un'operazione di rete) ottiene l'istanza relativa al comando tramite
+ * {@link ControlledActivity#getCommandCompletion()} durante <code>onExecute()</code> (o durante
+ * il metodo annotato con {@link OnCommand}) e invoca
+ * {@link #complete(boolean, String)} al termine, senza bloccare alcun thread nel frattempo.
+ * L'esito viene inviato una sola volta: le invocazioni successive vengono ignorate, per cui
+ * pi percorsi di esecuzione (per esempio il completamento e un timeout) possono tentare di
+ * inviarlo senza sincronizzarsi tra loro.
+ *
+ * @author vincenzo
+ * @see ControlledActivity#setExecuteResult(boolean, String)
+ */
+public final class CommandCompletion {
+
+	/* Activity che ha ricevuto il comando. */
+	private final ControlledActivity mActivity;
+
+	/* ID del comando e istante di ricezione (System.nanoTime()). */
+	private final long mCommandId;
+	private final long mStart;
+
+	/* Indica se l'esito  gi stato inviato. */
+	private final AtomicBoolean mDone = new AtomicBoolean(false);
+
+
+	/* Le istanze vengono create da ControlledActivity alla ricezione di un comando. */
+	CommandCompletion(ControlledActivity activity, long commandId, long start) {
+		mActivity = activity;
+		mCommandId = commandId;
+		mStart = start;
+	}
+
+	/**
+	 * Invia al servizio di controllo vocale l'esito del comando, se non  gi stato inviato.
+	 * Pu essere invocato da qualsiasi thread.
+	 *
+	 * @param success l'esito relativo all'esecuzione del comando
+	 * @param utterance il messaggio che deve essere pronunziato dal servizio, oppure
+	 *                  <code>null</code> per quello predefinito
+	 * @return <code>true</code> se l'esito  stato inviato, <code>false</code> se era gi
+	 *         stato inviato in precedenza
+	 */
+	public boolean complete(boolean success, String utterance) {
+		if (!mDone.compareAndSet(false, true))
+			return false;
+		mActivity.sendExecuteResult(mCommandId, mStart, success, utterance);
+		return true;
+	}
+
+	/**
+	 * Verifica se l'esito del comando  gi stato inviato.
+	 *
+	 * @return <code>true</code> se l'esito  stato inviato
+	 */
+	public boolean isDone() {
+		return mDone.get();
+	}
+
+	/**
+	 * Restituisce l'ID del comando assegnato dal servizio di controllo vocale.
+	 *
+	 * @return l'ID del comando
+	 */
+	public long getCommandId() {
+		return mCommandId;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CommandCompletion[id=%d, done=%b]", mCommandId, mDone.get());
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.semm.android.vcf.app;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * La classe <code>CommandDispatcher</code> invia i comandi ricevuti da una {@link ControlledActivity}
+ * ai metodi annotati con {@link OnCommand}, anzich ad una sequenza di controlli
+ * <code>containsKey()</code> all'interno di {@link ControlledActivity#onExecute(Bundle)}.
+ * <p>
+ * La tabella dei metodi, indicizzata per chiave del comando, viene costruita una sola volta per
+ * ciascuna classe, tramite reflection, e conservata per le istanze successive; l'individuazione
+ * del metodo richiede quindi una ricerca in tabella per ciascuna chiave del <code>Bundle</code>
+ * ricevuto, indipendentemente dal numero di comandi dell'applicazione. I metodi annotati vengono
+ * cercati nella classe e nelle sue superclassi, fino a {@link ControlledActivity}; un metodo di
+ * una sottoclasse prevale su quello di una superclasse con la stessa chiave.
+ * <p>
+ * Ogni metodo viene eseguito tramite l'<code>Executor</code> restituito da
+ * {@link ControlledActivity#getCommandExecutor(int)} per il thread indicato nell'annotazione.
+ * Le istanze sono immutabili e possono essere utilizzate da pi thread.
+ *
+ * @author vincenzo
+ */
+final class CommandDispatcher {
+
+	/* Tag per logging. */
+	private static final String LOG_TAG = CommandDispatcher.class.getSimpleName();
+
+	/* Tabelle gi costruite, per classe. */
+	private static final Map<Class<?>, CommandDispatcher> sDispatchers = new HashMap<Class<?>, CommandDispatcher>();
+
+	/* Metodi e relativi thread, per chiave del comando. */
+	private final HashMap<String, CommandMethod> mMethods = new HashMap<String, CommandMethod>();
+
+
+	/* Metodo che esegue un comando e thread in cui eseguirlo. */
+	private static final class CommandMethod {
+		final Method method;
+		final int thread;
+
+		CommandMethod(Method method, int thread) {
+			this.method = method;
+			this.thread = thread;
+		}
+	}
+
+	/* Le istanze si ottengono tramite forClass(). */
+	private CommandDispatcher(Class<?> cls) {
+		for (Class<?> c = cls; c != null && c != ControlledActivity.class; c = c.getSuperclass()) {
+			HashMap<String, CommandMethod> declared = new HashMap<String, CommandMethod>();
+			for (Method method : c.getDeclaredMethods()) {
+				OnCommand annotation = method.getAnnotation(OnCommand.class);
+				if (annotation == null)
+					continue;
+
+				Class<?>[] types = method.getParameterTypes();
+				if (types.length != 1 || types[0] != Bundle.class)
+					throw new IllegalArgumentException(String.format(
+							"Il metodo %s deve avere un solo parametro di tipo Bundle", method));
+				if (annotation.thread() != OnCommand.UI && annotation.thread() != OnCommand.BACKGROUND)
+					throw new IllegalArgumentException(String.format("Thread non valido per il metodo %s", method));
+				if (declared.containsKey(annotation.value()))
+					throw new IllegalArgumentException(String.format(
+							"Comando \"%s\" associato a pi metodi di %s", annotation.value(), c.getName()));
+
+				method.setAccessible(true);
+				declared.put(annotation.value(), new CommandMethod(method, annotation.thread()));
+			}
+
+			// I metodi delle sottoclassi, gi inseriti, prevalgono.
+			for (Map.Entry<String, CommandMethod> handler : declared.entrySet())
+				if (!mMethods.containsKey(handler.getKey()))
+					mMethods.put(handler.getKey(), handler.getValue());
+		}
+	}
+
+	/**
+	 * Restituisce la tabella dei metodi della classe specificata, costruendola se necessario.
+	 *
+	 * @param cls la classe dell'activity
+	 * @return la tabella dei metodi
+	 * @throws IllegalArgumentException se un metodo annotato non  valido
+	 */
+	static CommandDispatcher forClass(Class<? extends ControlledActivity> cls) {
+		synchronized (sDispatchers) {
+			CommandDispatcher dispatcher = sDispatchers.get(cls);
+			if (dispatcher == null) {
+				dispatcher = new CommandDispatcher(cls);
+				sDispatchers.put(cls, dispatcher);
+				Log.v(LOG_TAG, String.format("%s: %d comandi %s", cls.getSimpleName(),
+						dispatcher.mMethods.size(), dispatcher.mMethods.keySet()));
+			}
+			return dispatcher;
+		}
+	}
+
+	/**
+	 * Esegue il metodo relativo al comando specificato, cio alla prima chiave del
+	 * <code>Bundle</code> associata ad un metodo, nel thread indicato dall'annotazione.
+	 * Durante l'invocazione, il comando viene associato al thread del metodo, per cui
+	 * {@link ControlledActivity#setExecuteResult(boolean, String)} completa proprio questo
+	 * comando. Se il metodo termina con un'eccezione, l'esito del comando  negativo, purch il
+	 * metodo non lo abbia gi inviato.
+	 *
+	 * @param activity l'activity che ha ricevuto il comando
+	 * @param params i parametri del comando
+	 * @return <code>true</code> se il comando  associato ad un metodo, <code>false</code> altrimenti
+	 */
+	boolean dispatch(final ControlledActivity activity, final Bundle params) {
+		for (String key : params.keySet()) {
+			final CommandMethod handler = mMethods.get(key);
+			if (handler == null)
+				continue;
+
+			// Il metodo completa il comando ricevuto ora, anche se nel frattempo ne arriva un altro.
+			final CommandCompletion completion = activity.getCommandCompletion();
+			Executor executor = activity.getCommandExecutor(handler.thread);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					CommandCompletion previous = activity.bindCommand(completion);
+					try {
+						handler.method.invoke(activity, params);
+					}
+					catch (InvocationTargetException e) {
+						Log.e(LOG_TAG, String.format("%s: %s", handler.method.getName(), e.getCause()));
+						completion.complete(false, null);
+					}
+					catch (IllegalAccessException e) {
+						Log.e(LOG_TAG, String.format("%s: %s", handler.method.getName(), e));
+						completion.complete(false, null);
+					}
+					finally {
+						activity.bindCommand(previous);
+					}
+				}
+			});
+			return true;
+		}
+		return false;
+	}
+
+}
@@ -1,7 +1,13 @@
 package org.semm.android.vcf.app;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.semm.android.vcf.CommandTrace;
 import org.semm.android.vcf.IService;
 import org.semm.android.vcf.IServiceCallback;
 
@@ -12,6 +18,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
@@ -24,7 +31,8 @@ import android.util.Log;
  * Per realizzare un'applicazione in grado di comunicare col servizio di controllo vocale,
  * cio che sia VCF-capable,  sufficiente che lo sviluppatore derivi tutte le activity che
  * la compongono dalla <code>ControlledActivity</code>, effettuando l'override dei metodi
- * astratti in essa definiti.
+ * astratti in essa definiti. I comandi possono essere eseguiti da metodi annotati con
+ * {@link OnCommand}, anzich da {@link #onExecute(Bundle)}.
  * 
  * @author vincenzo
  * @see android.app.Activity
@@ -41,24 +49,119 @@ public abstract class ControlledActivity extends Activity {
 	private final Intent VCS_INTENT = new Intent("org.semm.android.vcf.IService");
 	
 	/* Interfaccia per comunicare col servizio. */
-	private IService service = null;
+	private volatile IService service = null;
 	
 	/* Segnala se l'applicazione si  collegata col servizio. */
 	private boolean bound = false;
 	
+	/* Numero di thread dell'executor predefinito dei metodi annotati con OnCommand.BACKGROUND. */
+	private static final int BACKGROUND_THREADS = 2;
+	
+	/* Executor predefinito dei metodi eseguiti in un thread secondario, comune a tutte le activity. */
+	private static ExecutorService sBackgroundExecutor;
+	
+	/* Executor dei metodi eseguiti nel main thread. */
+	private final Executor mUiExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			runOnUiThread(command);
+		}
+	};
+	
+	/* Tabella dei metodi annotati con OnCommand, per chiave del comando. */
+	private CommandDispatcher mDispatcher;
+	
+	/*
+	 * Esecuzione del comando il cui codice  in corso nel thread corrente: impostata durante
+	 * onExecute() e durante l'invocazione del metodo annotato con OnCommand, in modo che
+	 * setExecuteResult() completi sempre il comando eseguito dal chiamante, anche se nel
+	 * frattempo ne  stato ricevuto un altro.
+	 */
+	private final ThreadLocal<CommandCompletion> mRunningCommand = new ThreadLocal<CommandCompletion>();
+	
+	/*
+	 * Comandi ricevuti il cui esito non  ancora stato inviato, per ID: se setExecuteResult()
+	 * viene invocato in un thread a cui non  associato alcun comando (per esempio dopo un
+	 * runOnUiThread()), l'esito viene associato all'unico comando in attesa. Il servizio invia
+	 * un nuovo comando soltanto dopo l'esito del precedente o la sua scadenza, per cui alla
+	 * ricezione di un comando quelli ancora in attesa vengono dimenticati (le relative istanze
+	 * di CommandCompletion restano comunque valide). Sincronizzato su se stesso.
+	 */
+	private final LinkedHashMap<Long, CommandCompletion> mOutstanding = new LinkedHashMap<Long, CommandCompletion>();
+
+	/*
+	 * Thread in cui vengono eseguiti onExecute() e onClose(), anzich nel thread del binder:
+	 * un solo thread, affinch le richieste vengano eseguite nell'ordine di arrivo.
+	 */
+	private ExecutorService mCallbackExecutor;
+	
+	/* Notifiche non ancora inviate al servizio, da reinviare al ripristino del collegamento. */
+	private final ServiceOutbox mOutbox = new ServiceOutbox();
+	
+	/*
+	 * Attesa prima di ciascun tentativo di ricollegamento, raddoppiata ad ogni tentativo fino al
+	 * massimo. Dopo la distruzione dell'activity i tentativi proseguono, finch l'attesa non
+	 * raggiunge il massimo, soltanto per inviare le notifiche in attesa.
+	 */
+	private static final long RECONNECT_INITIAL_DELAY_MS = 50;
+	private static final long RECONNECT_MAX_DELAY_MS = 5000;
+	private long mReconnectDelay = RECONNECT_INITIAL_DELAY_MS;
+	
+	/* Handler associato al main thread, per i tentativi di ricollegamento. */
+	private Handler mHandler;
+	
+	/* Segnala se l'activity  stata distrutta. */
+	private boolean mDestroyed = false;
+	
 	/* Connessione col servizio di controllo vocale. */
 	private ServiceConnection svcConn = new ServiceConnection() {
 		public void onServiceConnected(ComponentName component, IBinder binder) {
 	    	service = IService.Stub.asInterface(binder);
 	    	Log.i(LOG_TAG, "onServiceConnected(): " + component.getClassName());
 	    	Log.i(LOG_TAG, "onServiceConnected(): binder " + binder);
-	    	doRegisterCallback();
+	    	mHandler.removeCallbacks(mReconnect);
+	    	mReconnectDelay = RECONNECT_INITIAL_DELAY_MS;
+	    	
+	    	// Dopo un riavvio del servizio, la callback deve essere registrata nuovamente
+	    	// prima di reinviare le notifiche, affinch il servizio riconosca l'applicazione.
+	    	if (!mDestroyed)
+	    		doRegisterCallback();
+	    	if (mOutbox.flush(service) && mDestroyed)
+	    		doUnbind();
 	    }
 	    public void onServiceDisconnected(ComponentName component) {
 	    	service = null;
 	    	Log.i(LOG_TAG, "onServiceDisconnected(): " + component.getClassName());
+	    	
+	    	// Il sistema ristabilisce il collegamento quando il servizio viene riavviato;
+	    	// i tentativi servono nel caso in cui il servizio non venga riavviato.
+	    	scheduleReconnect();
 	    }
 	};
+	
+	/* Tentativo di ricollegamento col servizio, se il collegamento  ancora interrotto. */
+	private final Runnable mReconnect = new Runnable() {
+		@Override
+		public void run() {
+			if (service != null || !bound)
+				return;
+			
+			if (mDestroyed && mReconnectDelay >= RECONNECT_MAX_DELAY_MS) {
+				Log.w(LOG_TAG, String.format("Ricollegamento abbandonato, notifiche perse: %s", mOutbox));
+				doUnbind();
+				return;
+			}
+			
+			Log.i(LOG_TAG, String.format("Tentativo di ricollegamento (attesa: %d ms)", mReconnectDelay));
+			getApplicationContext().unbindService(svcConn);
+			bound = getApplicationContext().bindService(VCS_INTENT, svcConn, Context.BIND_AUTO_CREATE);
+			if (!bound) {
+				Log.e(LOG_TAG, "Impossibile collegarsi al servizio di controllo vocale");
+				return;
+			}
+			scheduleReconnect();
+		}
+	};
     
     /* Callback per ricevere comandi dal servizio di controllo vocale. */
     private IServiceCallback.Stub callback = new IServiceCallback.Stub() {
@@ -68,14 +171,39 @@ public abstract class ControlledActivity extends Activity {
 			onListening(active, error);
 		}
 		@Override
-		public void execute(Bundle params) throws RemoteException {
-			Log.v(LOG_TAG, String.format("Nuovo comando ricevuto (dati: %s)", params));
-			onExecute(params);
+		public void execute(long commandId, final Bundle params) throws RemoteException {
+			Log.v(LOG_TAG, String.format("Nuovo comando ricevuto (ID: %d, dati: %s)", commandId, params));
+			final CommandCompletion completion = new CommandCompletion(
+					ControlledActivity.this, commandId, System.nanoTime());
+			synchronized (mOutstanding) {
+				if (!mOutstanding.isEmpty())
+					Log.w(LOG_TAG, String.format("Comandi scaduti senza esito: %s", mOutstanding.keySet()));
+				mOutstanding.clear();
+				mOutstanding.put(commandId, completion);
+			}
+
+			// Il thread del binder (e quindi il servizio) non attende l'esecuzione del comando.
+			postCallback(new Runnable() {
+				@Override
+				public void run() {
+					CommandCompletion previous = bindCommand(completion);
+					try {
+						onExecute(params);
+					} finally {
+						bindCommand(previous);
+					}
+				}
+			}, completion);
 		}
 		@Override
-		public void close(Bundle params) throws RemoteException {
+		public void close(final Bundle params) throws RemoteException {
 			Log.v(LOG_TAG, String.format("Richiesta di chiusura applicazione (parametri: %s)", params));
-			onClose(params);
+			postCallback(new Runnable() {
+				@Override
+				public void run() {
+					onClose(params);
+				}
+			}, null);
 		}
 	};
 	
@@ -91,6 +219,11 @@ public abstract class ControlledActivity extends Activity {
         super.onCreate(savedInstanceState);
         Log.i(LOG_TAG, "onCreate()");
         
+        // La tabella dei comandi viene costruita una sola volta per classe, prima di ricevere comandi.
+        mDispatcher = CommandDispatcher.forClass(getClass());
+        mCallbackExecutor = Executors.newSingleThreadExecutor();
+        mHandler = new Handler();
+        
         if (this.isVoiceControlServiceRunning()) {
         	Log.v(LOG_TAG, "onCreate(): collegamento al servizio di controllo vocale");
             bound = getApplicationContext().bindService(
@@ -115,21 +248,28 @@ public abstract class ControlledActivity extends Activity {
     @Override
     protected void onDestroy() {
     	Log.i(LOG_TAG, "onDestroy()");
+    	mDestroyed = true;
+    	
+    	// Conferma la chiusura dell'applicazione, dopo gli eventuali esiti in attesa.
+    	Log.v(LOG_TAG, "onDestroy(): invio conferma di chiusura al servizio di controllo vocale");
+    	boolean sent = mOutbox.sendClosing(service);
     	
     	if (service != null) {
-    		try {   // conferma la chiusura dell'applicazione
-    			Log.v(LOG_TAG, "onDestroy(): invio conferma di chiusura al servizio di controllo vocale");
-    			service.confirmClosing();
+    		try {
+    			service.unregisterCallback(callback);
     		} catch (RemoteException e) {
     			Log.e(LOG_TAG, "onDestroy(): RemoteException " + e.getMessage());
     		}
     	}
     	
-    	if (bound) {   // interrompe la comunicazione col servizio
-    		Log.v(LOG_TAG, "onDestroy(): interrompo la comunicazione col servizio di controllo vocale");
-    		getApplicationContext().unbindService(svcConn);
-    		bound = false;
-    	}
+    	// Se il servizio non  collegato, il collegamento viene mantenuto ( associato al
+    	// context dell'applicazione) finch le notifiche in attesa non vengono inviate.
+    	if (sent)
+    		doUnbind();
+    	else Log.w(LOG_TAG, String.format("onDestroy(): collegamento mantenuto, %s", mOutbox));
+    	
+    	// Le richieste gi accodate vengono completate, quelle successive rifiutate.
+    	mCallbackExecutor.shutdown();
     	
     	super.onDestroy();   // completa il rilascio delle risorse
     }
@@ -161,6 +301,37 @@ public abstract class ControlledActivity extends Activity {
 		}
 	}
 
+	/* Interrompe la comunicazione col servizio. */
+	private void doUnbind() {
+		mHandler.removeCallbacks(mReconnect);
+		if (bound) {
+			Log.v(LOG_TAG, "Interrompo la comunicazione col servizio di controllo vocale");
+			getApplicationContext().unbindService(svcConn);
+			bound = false;
+		}
+	}
+	
+	/* Pianifica un tentativo di ricollegamento, con attesa crescente. */
+	private void scheduleReconnect() {
+		mHandler.removeCallbacks(mReconnect);
+		mHandler.postDelayed(mReconnect, mReconnectDelay);
+		mReconnectDelay = Math.min(mReconnectDelay * 2, RECONNECT_MAX_DELAY_MS);
+	}
+	
+	/*
+	 * Accoda una richiesta del servizio nel thread delle callback. Se l'activity  gi stata
+	 * distrutta, la richiesta viene scartata e l'eventuale comando ha esito negativo.
+	 */
+	private void postCallback(Runnable request, CommandCompletion completion) {
+		try {
+			mCallbackExecutor.execute(request);
+		} catch (RejectedExecutionException e) {
+			Log.w(LOG_TAG, "Richiesta ricevuta dopo onDestroy(), ignorata");
+			if (completion != null)
+				completion.complete(false, null);
+		}
+	}
+
 	/**
 	 * Il servizio di controllo vocale notifica l'applicazione sul cambiamento di stato relativo
 	 * allo speech recognizer, specificando se  attivo e l'eventuale codice d'errore restituito.
@@ -184,10 +355,20 @@ public abstract class ControlledActivity extends Activity {
 
 	/**
 	 * Il servizio di controllo vocale ha richiesto l'esecuzione di un comando.
-	 * Una tipica implementazione di questo metodo prevede l'analisi dell'argomento specificato
-	 * al fine di individuare il comando inviato, quindi la sua esecuzione. Dopo che il comando
-	 *  stato eseguito, bisogna chiamare il metodo {@link #setExecuteResult(boolean, String)}
-	 * per inviarne l'esito al servizio di controllo vocale.
+	 * L'implementazione predefinita esegue il metodo annotato con {@link OnCommand} relativo al
+	 * comando, nel thread indicato dall'annotazione, oppure restituisce un esito negativo se il
+	 * comando non  associato ad alcun metodo. In alternativa, le sottoclassi possono effettuare
+	 * l'override di questo metodo, analizzando l'argomento specificato al fine di individuare il
+	 * comando inviato, quindi eseguendolo. Dopo che il comando  stato eseguito, bisogna chiamare
+	 * il metodo {@link #setExecuteResult(boolean, String)} per inviarne l'esito al servizio di
+	 * controllo vocale.
+	 * <p>
+	 * Questo metodo viene eseguito in un thread della libreria, n nel main thread n in quello del
+	 * binder, per cui il servizio non ne attende la terminazione; i comandi e le richieste di chiusura
+	 * vengono comunque eseguiti uno alla volta, nell'ordine di arrivo. Il comando non deve
+	 * necessariamente essere completato prima della terminazione del metodo: un'esecuzione asincrona
+	 * pu ottenere tramite {@link #getCommandCompletion()} l'istanza relativa al comando e inviarne
+	 * l'esito in seguito, senza bloccare il thread.
 	 * <p>
 	 * Per l'implementazione di questo metodo, bisogna tenere presente che le eventuali istruzioni
 	 * che interagiscono con la UI devono essere eseguite nel main thread. A tal fine, per esempio,
@@ -195,13 +376,38 @@ public abstract class ControlledActivity extends Activity {
 	 * il metodo {@link android.app.Activity#runOnUiThread(Runnable) runOnUiThread}.
 	 * 
 	 * @param params parametri impostati dal servizio di controllo vocale.
+	 * @see OnCommand
 	 * @see #setExecuteResult(boolean, String)
+	 * @see #getCommandCompletion()
 	 * @see android.app.Activity#runOnUiThread(Runnable) runOnUiThread
 	 * @see android.os.Handler#post(Runnable) post
 	 */
-	protected abstract void onExecute(Bundle params); /*{
-		Log.i(LOG_TAG, String.format("onExecute(params: %s)", params));
-	}*/
+	protected void onExecute(Bundle params) {
+		if (!mDispatcher.dispatch(this, params)) {
+			Log.w(LOG_TAG, String.format("onExecute(): nessun metodo per il comando %s", params));
+			setExecuteResult(false, null);
+		}
+	}
+	
+	/**
+	 * Restituisce l'executor con cui eseguire i metodi annotati con {@link OnCommand}. Per
+	 * {@link OnCommand#UI} l'implementazione predefinita utilizza {@link #runOnUiThread(Runnable)},
+	 * per {@link OnCommand#BACKGROUND} un pool di thread comune a tutte le activity. Le sottoclassi
+	 * possono effettuare l'override di questo metodo per utilizzare executor diversi.
+	 * 
+	 * @param thread il thread indicato dall'annotazione
+	 * @return l'executor
+	 */
+	protected Executor getCommandExecutor(int thread) {
+		if (thread == OnCommand.UI)
+			return mUiExecutor;
+		
+		synchronized (ControlledActivity.class) {
+			if (sBackgroundExecutor == null)
+				sBackgroundExecutor = Executors.newFixedThreadPool(BACKGROUND_THREADS);
+			return sBackgroundExecutor;
+		}
+	}
 
 	/**
 	 * Il servizio di controllo vocale ha richiesto la chiusura dell'applicazione.
@@ -210,6 +416,9 @@ public abstract class ControlledActivity extends Activity {
 	 * metodo devono chiamare esplicitamente il metodo {@link android.app.Activity#finish() finish}
 	 * dell'activity principale.
 	 * <p>
+	 * Come {@link #onExecute(Bundle)}, questo metodo viene eseguito in un thread della libreria,
+	 * dopo i comandi ricevuti in precedenza.
+	 * <p>
 	 * Per l'implementazione di questo metodo, bisogna tenere presente che le eventuali istruzioni
 	 * che interagiscono con la UI devono essere eseguite nel main thread. A tal fine, per esempio,
 	 *  possibile usare il metodo {@link android.os.Handler#post(Runnable) post} oppure anche
@@ -224,25 +433,95 @@ public abstract class ControlledActivity extends Activity {
 		finish();
 	}*/
 	
+	/**
+	 * Restituisce l'istanza che rappresenta l'esecuzione del comando in corso, con cui inviarne
+	 * l'esito anche dopo la terminazione di {@link #onExecute(Bundle)}, da qualsiasi thread.
+	 * Se invocato durante <code>onExecute()</code> o nel metodo annotato con {@link OnCommand},
+	 * nel thread in cui vengono eseguiti, restituisce sempre il comando eseguito dal chiamante;
+	 * in un altro thread restituisce l'unico comando il cui esito non  ancora stato inviato.
+	 * 
+	 * @return l'esecuzione del comando in corso, oppure <code>null</code> se non  possibile
+	 *         individuarla (nessun comando in attesa di esito, oppure pi di uno)
+	 */
+	protected final CommandCompletion getCommandCompletion() {
+		CommandCompletion completion = mRunningCommand.get();
+		return (completion != null ? completion : getOutstandingCommand());
+	}
+	
+	/* Restituisce l'unico comando il cui esito non  ancora stato inviato, oppure null. */
+	private CommandCompletion getOutstandingCommand() {
+		synchronized (mOutstanding) {
+			if (mOutstanding.size() != 1) {
+				Log.w(LOG_TAG, String.format("Comandi in attesa di esito: %d, impossibile scegliere",
+						mOutstanding.size()));
+				return null;
+			}
+			return mOutstanding.values().iterator().next();
+		}
+	}
+	
+	/*
+	 * Associa al thread corrente l'esecuzione specificata (null per rimuoverla) e restituisce
+	 * quella associata in precedenza, da ripristinare al termine.
+	 */
+	CommandCompletion bindCommand(CommandCompletion completion) {
+		CommandCompletion previous = mRunningCommand.get();
+		if (completion != null)
+			mRunningCommand.set(completion);
+		else mRunningCommand.remove();
+		return previous;
+	}
+
 	/**
 	 * Permette di notificare il servizio di controllo vocale in merito al completamento dell'esecuzione
 	 * di un comando precedentemente inviato. Deve essere invocato non appena l'esecuzione di un comando
 	 *  terminata, indipendentemente dall'esito.
-	 *  
+	 * <p>
+	 * L'esito viene associato al comando in esecuzione nel thread corrente, cio a quello di
+	 * {@link #onExecute(Bundle)} o del metodo annotato con {@link OnCommand} da cui il metodo
+	 * viene invocato, oppure, se invocato da un altro thread (per esempio dopo un
+	 * <code>post()</code>), all'unico comando il cui esito non  ancora stato inviato. L'esito
+	 *  accompagnato dagli istanti di inizio e fine dell'esecuzione, che il servizio utilizza per
+	 * misurare le latenze. L'esito di ciascun comando viene inviato una sola volta e le
+	 * invocazioni successive vengono ignorate. Equivale a
+	 * <code>getCommandCompletion().complete(success, utterance)</code>: per associare con
+	 * certezza l'esito al comando anche quando pi comandi attendono l'esito, bisogna ottenere
+	 * l'istanza tramite {@link #getCommandCompletion()} durante l'esecuzione del comando.
+	 *
 	 * @param success l'esito relativo all'esecuzione del comando (<code>true</code> se positivo,
 	 * <code>false</code> altrimenti).
 	 * @param utterance il messaggio che deve essere pronunziato dal servizio di controllo vocale
 	 * per confermare l'esecuzione del comando o per segnalare un eventuale errore. Se la stringa
 	 * specificata  vuota oppure <code>null</code>, allora viene ignorata e ne viene pronunziata
 	 * una predefinita.
+	 * @see CommandCompletion#complete(boolean, String)
 	 */
 	protected final void setExecuteResult(boolean success, String utterance) {
 		Log.i(LOG_TAG, String.format("setExecuteResult(success: %b, utterance: %s)", success, utterance));
-		try {
-			service.resultFromExecute(success, utterance);
-		} catch (RemoteException e) {
-			Log.e(LOG_TAG, "setExecuteResult(): RemoteException " + e.getMessage());
+		
+		CommandCompletion completion = getCommandCompletion();
+		if (completion == null)
+			Log.e(LOG_TAG, "setExecuteResult(): comando non individuabile, utilizzare getCommandCompletion()");
+		else if (!completion.complete(success, utterance))
+			Log.w(LOG_TAG, String.format("setExecuteResult(): esito gi inviato (%s), ignorato", completion));
+	}
+
+	/* Invia l'esito di un comando al servizio; invocato una sola volta per comando da CommandCompletion. */
+	void sendExecuteResult(long commandId, long executeStart, boolean success, String utterance) {
+		synchronized (mOutstanding) {
+			mOutstanding.remove(commandId);
 		}
+		
+		// Istanti di inizio e fine dell'esecuzione, per la misura delle latenze.
+		Bundle trace = new Bundle();
+		trace.putLong(CommandTrace.KEY_EXECUTE_START, executeStart);
+		trace.putLong(CommandTrace.KEY_EXECUTE_END, System.nanoTime());
+		Log.v(LOG_TAG, String.format("trace cmd=%d app_execute_us=%d", commandId,
+				(trace.getLong(CommandTrace.KEY_EXECUTE_END) - executeStart) / 1000));
+		
+		// Se il servizio non  collegato, l'esito viene reinviato al ripristino del collegamento.
+		if (!mOutbox.sendResult(service, commandId, success, utterance, trace))
+			Log.w(LOG_TAG, String.format("sendExecuteResult(): esito del comando %d in attesa, %s", commandId, mOutbox));
 	}
 
 }
@@ -0,0 +1,51 @@
+package org.semm.android.vcf.app;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * L'annotazione <code>OnCommand</code> indica che un metodo di una {@link ControlledActivity}
+ * esegue il comando vocale identificato dalla chiave specificata, cio dalla chiave presente
+ * nel <code>Bundle</code> del comando (per esempio "command01"). Il metodo deve avere un solo
+ * parametro di tipo <code>Bundle</code>, con cui riceve i parametri del comando, e deve invocare
+ * {@link ControlledActivity#setExecuteResult(boolean, String)} al termine dell'esecuzione (da un
+ * altro thread l'esito viene associato all'unico comando in attesa di esito; per associarlo con
+ * certezza si pu completare l'istanza ottenuta tramite
+ * {@link ControlledActivity#getCommandCompletion()}), come {@link ControlledActivity#onExecute(Bundle)}:
+ * <pre>
+ * &#64;OnCommand("command01")
+ * void primoComando(Bundle params) {
+ *     ...
+ *     setExecuteResult(true, null);
+ * }
+ * </pre>
+ * Il metodo viene eseguito nel thread indicato da {@link #thread()}: nel main thread, se
+ * interagisce con la UI, oppure in un thread secondario (predefinito), se l'esecuzione
+ * richiede tempo.
+ *
+ * @author vincenzo
+ * @see CommandDispatcher
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OnCommand {
+
+	/** Esecuzione nel main thread dell'applicazione. */
+	int UI = 0;
+
+	/** Esecuzione in un thread secondario. */
+	int BACKGROUND = 1;
+
+	/**
+	 * La chiave del comando nel <code>Bundle</code> inviato dal servizio.
+	 */
+	String value();
+
+	/**
+	 * Il thread in cui eseguire il metodo: {@link #UI} oppure {@link #BACKGROUND}.
+	 */
+	int thread() default BACKGROUND;
+
+}
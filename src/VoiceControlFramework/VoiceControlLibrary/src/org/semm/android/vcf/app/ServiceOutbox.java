@@ -0,0 +1,169 @@
+package org.semm.android.vcf.app;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import org.semm.android.vcf.IService;
+
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * La classe <code>ServiceOutbox</code> conserva le notifiche di una {@link ControlledActivity}
+ * che non  stato possibile inviare al servizio di controllo vocale, perch il collegamento era
+ * interrotto (per esempio durante il riavvio del servizio), e le reinvia nell'ordine originale
+ * non appena il collegamento viene ristabilito.
+ * <p>
+ * Ogni notifica  identificata da una chiave di idempotenza: l'ID del comando, per gli esiti,
+ * oppure {@link #KEY_CLOSING} per la conferma di chiusura. Una notifica con la stessa chiave di
+ * una gi in attesa la sostituisce, anzich accodarsi, e il servizio ignora gli esiti relativi
+ * a comandi che non sono pi in attesa, per cui il reinvio non produce effetti duplicati. La
+ * coda ha una capacit limitata: quando  piena, la notifica pi vecchia viene scartata.
+ * <p>
+ * Le istanze possono essere utilizzate da pi thread.
+ *
+ * @author vincenzo
+ */
+final class ServiceOutbox {
+
+	/* Tag per logging. */
+	private static final String LOG_TAG = ServiceOutbox.class.getSimpleName();
+
+	/** Chiave della conferma di chiusura (gli ID dei comandi sono positivi). */
+	static final long KEY_CLOSING = -1;
+
+	/* Numero massimo di notifiche in attesa. */
+	private static final int CAPACITY = 8;
+
+	/* Notifiche in attesa, dalla pi vecchia. */
+	private final ArrayDeque<Request> mPending = new ArrayDeque<Request>(CAPACITY);
+
+	/* Statistiche: notifiche reinviate e scartate. */
+	private long mReplayedCount = 0;
+	private long mDroppedCount = 0;
+
+
+	/* Notifica da inviare al servizio: esito di un comando oppure conferma di chiusura. */
+	private static final class Request {
+		final long key;
+		final boolean success;
+		final String utterance;
+		final Bundle trace;
+		boolean replayed = false;
+
+		Request(long key, boolean success, String utterance, Bundle trace) {
+			this.key = key;
+			this.success = success;
+			this.utterance = utterance;
+			this.trace = trace;
+		}
+
+		void send(IService service) throws RemoteException {
+			if (key == KEY_CLOSING)
+				service.confirmClosing();
+			else service.resultFromExecute(key, success, utterance, trace);
+		}
+
+		@Override
+		public String toString() {
+			return key == KEY_CLOSING ? "chiusura" : String.format("esito %d (%b)", key, success);
+		}
+	}
+
+	/**
+	 * Invia l'esito di un comando, oppure lo conserva se il servizio non  collegato.
+	 *
+	 * @param service il servizio, oppure <code>null</code> se non  collegato
+	 * @param commandId l'ID del comando, chiave di idempotenza
+	 * @param success l'esito del comando
+	 * @param utterance il messaggio da pronunziare, oppure <code>null</code>
+	 * @param trace gli istanti di inizio e fine dell'esecuzione
+	 * @return <code>true</code> se tutte le notifiche, compresa questa, sono state inviate
+	 */
+	boolean sendResult(IService service, long commandId, boolean success, String utterance, Bundle trace) {
+		return send(service, new Request(commandId, success, utterance, trace));
+	}
+
+	/**
+	 * Invia la conferma di chiusura, oppure la conserva se il servizio non  collegato.
+	 *
+	 * @param service il servizio, oppure <code>null</code> se non  collegato
+	 * @return <code>true</code> se tutte le notifiche, compresa questa, sono state inviate
+	 */
+	boolean sendClosing(IService service) {
+		return send(service, new Request(KEY_CLOSING, true, null, null));
+	}
+
+	/* Accoda la notifica, sostituendo quella con la stessa chiave, e invia quelle in attesa. */
+	private synchronized boolean send(IService service, Request request) {
+		Iterator<Request> it = mPending.iterator();
+		while (it.hasNext())
+			if (it.next().key == request.key)
+				it.remove();
+
+		if (mPending.size() >= CAPACITY) {
+			Log.w(LOG_TAG, String.format("Coda piena, scartata notifica: %s", mPending.pollFirst()));
+			mDroppedCount++;
+		}
+		mPending.addLast(request);
+		return flush(service);
+	}
+
+	/**
+	 * Invia, nell'ordine originale, le notifiche in attesa. Si interrompe alla prima che non 
+	 * possibile inviare, che viene conservata insieme alle successive.
+	 *
+	 * @param service il servizio, oppure <code>null</code> se non  collegato
+	 * @return <code>true</code> se non resta alcuna notifica in attesa
+	 */
+	synchronized boolean flush(IService service) {
+		if (service == null) {
+			if (mPending.isEmpty())
+				return true;
+			Log.w(LOG_TAG, String.format("Servizio non collegato, %d notifiche in attesa", mPending.size()));
+			markReplayed();
+			return false;
+		}
+
+		Request request;
+		while ((request = mPending.peekFirst()) != null) {
+			try {
+				request.send(service);
+			}
+			catch (RemoteException e) {
+				Log.w(LOG_TAG, String.format("Invio fallito (%s), %d notifiche in attesa", e, mPending.size()));
+				markReplayed();
+				return false;
+			}
+			mPending.pollFirst();
+			if (request.replayed) {
+				mReplayedCount++;
+				Log.i(LOG_TAG, String.format("Notifica reinviata: %s", request));
+			}
+		}
+		return true;
+	}
+
+	/* Le notifiche in attesa verranno inviate dopo il ripristino del collegamento. */
+	private void markReplayed() {
+		for (Request request : mPending)
+			request.replayed = true;
+	}
+
+	/**
+	 * Restituisce il numero di notifiche in attesa.
+	 *
+	 * @return il numero di notifiche non ancora inviate
+	 */
+	synchronized int size() {
+		return mPending.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("ServiceOutbox[in attesa=%d, reinviate=%d, scartate=%d]",
+				mPending.size(), mReplayedCount, mDroppedCount);
+	}
+
+}
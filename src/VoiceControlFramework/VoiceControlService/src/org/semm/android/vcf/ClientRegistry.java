@@ -0,0 +1,219 @@
+package org.semm.android.vcf;
+
+import java.util.HashMap;
+
+import android.os.IBinder;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * La classe <code>ClientRegistry</code> mantiene l'elenco delle applicazioni VCF-capable
+ * collegate al servizio di controllo vocale, ciascuna identificata dal proprio ID (nome
+ * univoco configurato nelle preferenze) e dal nome del package.
+ * <p>
+ * Le callback sono conservate in una {@link android.os.RemoteCallbackList}, per cui quelle
+ * relative ad applicazioni il cui processo termina inaspettatamente vengono rimosse in modo
+ * automatico e il listener eventualmente impostato viene informato.
+ *
+ * @author vincenzo
+ * @see android.os.RemoteCallbackList
+ */
+public class ClientRegistry {
+
+	/* Tag per i messaggi di log. */
+	private final static String LOG_TAG = ClientRegistry.class.getSimpleName();
+
+	/**
+	 * Un'applicazione collegata al servizio di controllo vocale.
+	 */
+	public static final class Client {
+		/** Il nome univoco dell'applicazione. */
+		public final String appId;
+		/** Il nome del package dell'applicazione. */
+		public final String packageName;
+		/** La callback per inviare comandi all'applicazione. */
+		public final IServiceCallback callback;
+
+		private Client(String appId, String packageName, IServiceCallback callback) {
+			this.appId = appId;
+			this.packageName = packageName;
+			this.callback = callback;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s (%s)", appId, packageName);
+		}
+	}
+
+	/**
+	 * Permette di essere informati quando il processo di un'applicazione registrata termina
+	 * senza aver prima rimosso la propria callback.
+	 */
+	public interface OnClientDiedListener {
+		/**
+		 * Invocato da un thread del binder quando il processo del client termina.
+		 *
+		 * @param client l'applicazione il cui processo  terminato
+		 */
+		void onClientDied(Client client);
+	}
+
+	/* Callback registrate, con rimozione automatica in caso di terminazione del client. */
+	private final RemoteCallbackList<IServiceCallback> mCallbacks = new RemoteCallbackList<IServiceCallback>() {
+		@Override
+		public void onCallbackDied(IServiceCallback callback) {
+			Client client = remove(callback.asBinder());
+			Log.w(LOG_TAG, String.format("onCallbackDied(): %s", client));
+
+			OnClientDiedListener listener = mListener;
+			if (client != null && listener != null)
+				listener.onClientDied(client);
+		}
+	};
+
+	/* Applicazioni registrate, indicizzate per ID e per binder della callback. */
+	private final HashMap<String, Client> mByAppId = new HashMap<String, Client>();
+	private final HashMap<IBinder, Client> mByBinder = new HashMap<IBinder, Client>();
+
+	/* Listener da informare in caso di terminazione di un client. */
+	private volatile OnClientDiedListener mListener;
+
+
+	/**
+	 * Imposta il listener da informare quando il processo di un client termina.
+	 *
+	 * @param listener il listener, oppure <code>null</code> per rimuoverlo
+	 */
+	public void setOnClientDiedListener(OnClientDiedListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Registra la callback dell'applicazione specificata. Se la stessa applicazione aveva gi
+	 * registrato una callback, quest'ultima viene sostituita; se la stessa callback era gi
+	 * registrata per un'altra applicazione, non  pi associata a quest'ultima.
+	 *
+	 * @param appId il nome univoco dell'applicazione
+	 * @param packageName il nome del package dell'applicazione
+	 * @param callback la callback per pilotare l'applicazione
+	 * @return <code>true</code> se la registrazione  andata a buon fine, <code>false</code>
+	 *         se il processo dell'applicazione  gi terminato
+	 */
+	public boolean register(String appId, String packageName, IServiceCallback callback) {
+		if (appId == null || callback == null)
+			throw new IllegalArgumentException("L'ID dell'applicazione e la callback non possono essere null");
+
+		Client client = new Client(appId, packageName, callback);
+		synchronized (this) {
+			Client previous = mByAppId.get(appId);
+			if (previous != null && previous.callback.asBinder() != callback.asBinder())
+				unregister(previous.callback);
+
+			Client stale = mByBinder.get(callback.asBinder());
+			if (stale != null && mByAppId.get(stale.appId) == stale)
+				mByAppId.remove(stale.appId);   // registrata in precedenza con un altro ID
+
+			mByAppId.put(appId, client);
+			mByBinder.put(callback.asBinder(), client);
+		}
+
+		if (!mCallbacks.register(callback)) {
+			remove(callback.asBinder());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Rimuove la callback specificata, se registrata.
+	 *
+	 * @param callback la callback da rimuovere
+	 * @return l'applicazione a cui era associata la callback, oppure <code>null</code>
+	 */
+	public Client unregister(IServiceCallback callback) {
+		if (callback == null)
+			return null;
+
+		mCallbacks.unregister(callback);
+		return remove(callback.asBinder());
+	}
+
+	/**
+	 * Restituisce l'applicazione registrata con l'ID specificato.
+	 *
+	 * @param appId il nome univoco dell'applicazione
+	 * @return l'applicazione registrata, oppure <code>null</code>
+	 */
+	public synchronized Client get(String appId) {
+		return appId == null ? null : mByAppId.get(appId);
+	}
+
+	/**
+	 * Restituisce la callback dell'applicazione registrata con l'ID specificato.
+	 *
+	 * @param appId il nome univoco dell'applicazione
+	 * @return la callback dell'applicazione, oppure <code>null</code> se non registrata
+	 */
+	public IServiceCallback getCallback(String appId) {
+		Client client = get(appId);
+		return client == null ? null : client.callback;
+	}
+
+	/**
+	 * Restituisce il numero di applicazioni correntemente registrate.
+	 *
+	 * @return il numero di applicazioni registrate
+	 */
+	public synchronized int size() {
+		return mByAppId.size();
+	}
+
+	/**
+	 * Informa tutte le applicazioni registrate circa lo stato del riconoscitore vocale.
+	 * Deve essere invocato sempre dallo stesso thread, poich le operazioni di broadcast
+	 * su una <code>RemoteCallbackList</code> non possono essere annidate.
+	 *
+	 * @param active <code>true</code> se lo speech recognizer  attivo,
+	 *               <code>false</code> altrimenti
+	 * @param error il codice dell'eventuale errore
+	 */
+	public void broadcastListening(boolean active, int error) {
+		int n = mCallbacks.beginBroadcast();
+		try {
+			for (int i=0; i < n; i++) {
+				try {
+					mCallbacks.getBroadcastItem(i).listening(active, error);
+				} catch (RemoteException e) {
+					// Il client verr rimosso dalla RemoteCallbackList.
+					Log.e(LOG_TAG, "broadcastListening(): RemoteException " + e.getMessage());
+				}
+			}
+		}
+		finally {
+			mCallbacks.finishBroadcast();
+		}
+	}
+
+	/**
+	 * Rimuove tutte le callback registrate. Dopo l'invocazione di questo metodo
+	 * non  pi possibile registrare nuove callback.
+	 */
+	public void kill() {
+		mCallbacks.kill();
+		synchronized (this) {
+			mByAppId.clear();
+			mByBinder.clear();
+		}
+	}
+
+	/* Rimuove dagli indici il client associato al binder specificato. */
+	private synchronized Client remove(IBinder binder) {
+		Client client = mByBinder.remove(binder);
+		if (client != null && mByAppId.get(client.appId) == client)
+			mByAppId.remove(client.appId);
+		return client;
+	}
+
+}
@@ -0,0 +1,228 @@
+package org.semm.android.vcf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semm.android.vcf.util.CommandGrammar;
+import org.semm.android.vcf.util.TextNormalizer;
+
+import android.os.Bundle;
+
+/**
+ * La classe <code>CommandConfiguration</code>  un'istantanea immutabile della configurazione
+ * dei comandi: le applicazioni disponibili, il package di ciascuna di esse e i relativi comandi
+ * vocali, con i parametri da inviare all'applicazione.
+ * <p>
+ * Le istanze vengono pubblicate tramite un unico riferimento <code>volatile</code> e sostituite
+ * per intero ad ogni modifica (copy-on-write, si veda {@link Builder}), per cui chi le legge
+ * ottiene sempre una configurazione coerente, senza sincronizzazione e senza doverne copiare
+ * il contenuto. Le liste restituite non sono modificabili e rispettano l'ordine di inserimento;
+ * i parametri dei comandi vengono invece copiati, poich <code>Bundle</code>  modificabile.
+ * <p>
+ * Ogni istantanea ha una versione, che cresce ad ogni modifica: i dati derivati dalla
+ * configurazione (per esempio i risultati delle decisioni) possono essere invalidati
+ * confrontando la versione.
+ *
+ * @author vincenzo
+ */
+public final class CommandConfiguration {
+
+	/* Versione della configurazione. */
+	private final int mVersion;
+
+	/* Applicazioni disponibili e package corrispondenti. */
+	private final List<String> mApps;
+	private final Map<String, String> mPackages;
+
+	/* Nomi dei comandi e parametri, per applicazione. */
+	private final Map<String, List<String>> mCommandNames;
+	private final Map<String, Map<String, Bundle>> mCommands;
+
+
+	/* Le istanze vengono create tramite Builder. */
+	private CommandConfiguration(Builder builder, int version) {
+		mVersion = version;
+		mApps = Collections.unmodifiableList(new ArrayList<String>(builder.mPackages.keySet()));
+		mPackages = new HashMap<String, String>(builder.mPackages);
+
+		mCommandNames = new HashMap<String, List<String>>();
+		mCommands = new HashMap<String, Map<String, Bundle>>();
+		for (Map.Entry<String, LinkedHashMap<String, Bundle>> app : builder.mCommands.entrySet()) {
+			mCommandNames.put(app.getKey(),
+					Collections.unmodifiableList(new ArrayList<String>(app.getValue().keySet())));
+			mCommands.put(app.getKey(), new HashMap<String, Bundle>(app.getValue()));
+		}
+	}
+
+	/**
+	 * Restituisce la versione di questa configurazione.
+	 *
+	 * @return la versione
+	 */
+	public int getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * Restituisce gli ID delle applicazioni disponibili.
+	 *
+	 * @return la lista non modificabile degli ID
+	 */
+	public List<String> getAvailableApps() {
+		return mApps;
+	}
+
+	/**
+	 * Restituisce il nome del package dell'applicazione specificata.
+	 *
+	 * @param appId l'ID dell'applicazione
+	 * @param def il valore da restituire se l'applicazione non  configurata
+	 * @return il nome del package oppure def
+	 */
+	public String getPackageName(String appId, String def) {
+		String packageName = mPackages.get(appId);
+		return (packageName != null ? packageName : def);
+	}
+
+	/**
+	 * Restituisce l'ID dell'applicazione associata al package specificato.
+	 *
+	 * @param packageName il nome del package
+	 * @param def il valore da restituire se nessuna applicazione  associata al package
+	 * @return l'ID dell'applicazione oppure def
+	 */
+	public String getAppId(String packageName, String def) {
+		for (Map.Entry<String, String> app : mPackages.entrySet())
+			if (packageName.equals(app.getValue()))
+				return app.getKey();
+		return def;
+	}
+
+	/**
+	 * Restituisce i nomi dei comandi vocali dell'applicazione specificata.
+	 *
+	 * @param appId l'ID dell'applicazione
+	 * @return la lista non modificabile dei comandi (vuota se l'applicazione non ne ha)
+	 */
+	public List<String> getAppCommands(String appId) {
+		List<String> names = mCommandNames.get(appId);
+		return (names != null ? names : Collections.<String>emptyList());
+	}
+
+	/**
+	 * Restituisce una copia dei parametri del comando specificato.
+	 *
+	 * @param appId l'ID dell'applicazione
+	 * @param command il nome del comando
+	 * @return i parametri da inviare all'applicazione, oppure <code>null</code>
+	 *         se il comando non  configurato
+	 */
+	public Bundle getAppCommand(String appId, String command) {
+		Map<String, Bundle> commands = mCommands.get(appId);
+		if (commands == null || !commands.containsKey(command))
+			return null;
+		Bundle params = commands.get(command);
+		return (params != null ? new Bundle(params) : new Bundle());
+	}
+
+
+	/**
+	 * Costruisce una nuova configurazione, eventualmente a partire da una esistente,
+	 * che non viene modificata.
+	 */
+	public static final class Builder {
+
+		private final LinkedHashMap<String, String> mPackages = new LinkedHashMap<String, String>();
+		private final LinkedHashMap<String, LinkedHashMap<String, Bundle>> mCommands =
+				new LinkedHashMap<String, LinkedHashMap<String, Bundle>>();
+
+		/**
+		 * Crea un builder per una configurazione vuota.
+		 */
+		public Builder() {
+		}
+
+		/**
+		 * Crea un builder inizializzato con il contenuto della configurazione specificata.
+		 *
+		 * @param base la configurazione di partenza
+		 */
+		public Builder(CommandConfiguration base) {
+			for (String appId : base.mApps) {
+				mPackages.put(appId, base.mPackages.get(appId));
+				Map<String, Bundle> commands = base.mCommands.get(appId);
+				if (commands == null)
+					continue;
+
+				LinkedHashMap<String, Bundle> copy = new LinkedHashMap<String, Bundle>();
+				for (String command : base.mCommandNames.get(appId))
+					copy.put(command, commands.get(command));
+				mCommands.put(appId, copy);
+			}
+		}
+
+		/**
+		 * Aggiunge un'applicazione o ne modifica il package.
+		 *
+		 * @param appId l'ID dell'applicazione
+		 * @param packageName il nome del package, oppure <code>null</code> se non  ancora noto
+		 * @return questo builder
+		 */
+		public Builder putApp(String appId, String packageName) {
+			mPackages.put(appId, packageName);
+			return this;
+		}
+
+		/**
+		 * Rimuove un'applicazione e i relativi comandi.
+		 *
+		 * @param appId l'ID dell'applicazione
+		 * @return questo builder
+		 */
+		public Builder removeApp(String appId) {
+			mPackages.remove(appId);
+			mCommands.remove(appId);
+			return this;
+		}
+
+		/**
+		 * Aggiunge un comando vocale ad un'applicazione gi aggiunta, o ne modifica i parametri.
+		 *
+		 * @param appId l'ID dell'applicazione
+		 * @param command il nome del comando, eventualmente con parametri (si veda {@link CommandGrammar})
+		 * @param params i parametri da inviare all'applicazione (vengono copiati), a cui si
+		 *               aggiungono i valori dei parametri del comando pronunciato, oppure
+		 *               <code>null</code> se non ce ne sono
+		 * @return questo builder
+		 * @throws IllegalArgumentException se l'applicazione non  configurata o il comando non  valido
+		 */
+		public Builder putCommand(String appId, String command, Bundle params) {
+			if (!mPackages.containsKey(appId))
+				throw new IllegalArgumentException("Applicazione non configurata: " + appId);
+			CommandGrammar.compile(command, TextNormalizer.getDefault());
+
+			LinkedHashMap<String, Bundle> commands = mCommands.get(appId);
+			if (commands == null) {
+				commands = new LinkedHashMap<String, Bundle>();
+				mCommands.put(appId, commands);
+			}
+			commands.put(command, (params != null ? new Bundle(params) : null));
+			return this;
+		}
+
+		/**
+		 * Crea la configurazione.
+		 *
+		 * @param version la versione della configurazione
+		 * @return la nuova configurazione
+		 */
+		public CommandConfiguration build(int version) {
+			return new CommandConfiguration(this, version);
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+package org.semm.android.vcf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semm.android.vcf.util.CommandGrammar;
+import org.semm.android.vcf.util.CommandShards;
+import org.semm.android.vcf.util.CommandSpotter;
+import org.semm.android.vcf.util.TextNormalizer;
+
+/**
+ * La classe <code>CommandIndex</code> contiene, per una determinata {@link CommandConfiguration},
+ * le stringhe complete attese dal servizio in ciascuno stato: le richieste di avvio delle
+ * applicazioni disponibili (per esempio "android avvia demo") e, per ciascuna applicazione,
+ * i suoi comandi seguiti da quello di chiusura (per esempio "android chiudi applicazione"),
+ * compilati come {@link CommandGrammar} poich possono avere parametri.
+ * <p>
+ * Le stringhe vengono composte una sola volta, alla costruzione dell'indice, per cui il motore
+ * decisionale le riceve gi pronte anzich concatenare il prefisso ad ogni decisione. Ogni lista
+ * di stringhe  parallela alla lista delle opzioni corrispondente (applicazioni o comandi), con
+ * cui condivide gli indici.
+ * <p>
+ * L'indice comprende anche il {@link TextNormalizer} da applicare alle ipotesi del riconoscitore,
+ * il cui vocabolario  formato dalle parole delle stringhe attese; le stringhe stesse vengono
+ * normalizzate allo stesso modo. Per ogni lista l'indice contiene inoltre il {@link CommandSpotter}
+ * che permette di individuare i comandi all'interno di enunciati pi lunghi e le {@link CommandShards}
+ * che permettono di valutare soltanto i comandi con la prima parola significativa pi vicina a
+ * quella delle ipotesi. L'indice  immutabile e pu quindi essere costruito in un thread
+ * qualsiasi e pubblicato tramite un riferimento <code>volatile</code>; quando la configurazione
+ * cambia, viene costruito un nuovo indice.
+ *
+ * @author vincenzo
+ */
+public final class CommandIndex {
+
+	/* Configurazione da cui  ricavato l'indice. */
+	private final CommandConfiguration mConfig;
+
+	/* Richieste di avvio, parallele alle applicazioni disponibili, e relativo automa. */
+	private final List<String> mLaunchStrings;
+	private final CommandSpotter mLaunchSpotter;
+	private final CommandShards mLaunchShards;
+
+	/* Comandi previsti per ciascuna applicazione (compreso quello di chiusura) e comandi compilati. */
+	private final Map<String, List<String>> mAppOptions = new HashMap<String, List<String>>();
+	private final Map<String, List<CommandGrammar>> mAppCommands = new HashMap<String, List<CommandGrammar>>();
+	private final Map<String, CommandSpotter> mAppSpotters = new HashMap<String, CommandSpotter>();
+	private final Map<String, CommandShards> mAppShards = new HashMap<String, CommandShards>();
+
+	/* Normalizzatore delle ipotesi e delle stringhe attese. */
+	private final TextNormalizer mNormalizer;
+
+	/* Risposte alle scelte proposte all'utente (per esempio "primo" e "secondo"). */
+	private final List<String> mChoiceStrings;
+
+	/* Opzioni e comandi previsti per un'applicazione non configurata: la sola chiusura. */
+	private final List<String> mCloseOptions;
+	private final List<CommandGrammar> mCloseCommands;
+	private final CommandSpotter mCloseSpotter;
+	private final CommandShards mCloseShards;
+
+
+	/**
+	 * Crea l'indice relativo alla configurazione specificata.
+	 *
+	 * @param config la configurazione dei comandi
+	 * @param launchPrefix il prefisso delle richieste di avvio (per esempio "android avvia ")
+	 * @param commandPrefix il prefisso dei comandi delle applicazioni (per esempio "android ")
+	 * @param closeCommand il comando di chiusura delle applicazioni
+	 * @param choiceStrings le risposte alle scelte proposte all'utente, nell'ordine delle opzioni
+	 * @param normalizer il builder del normalizzatore (con le eventuali riparazioni note e le
+	 *                   altre parole attese), a cui vengono aggiunte le stringhe dell'indice
+	 * @throws IllegalArgumentException se un comando ha parametri non validi
+	 */
+	public CommandIndex(CommandConfiguration config, String launchPrefix, String commandPrefix,
+			String closeCommand, List<String> choiceStrings, TextNormalizer.Builder normalizer) {
+		mConfig = config;
+		normalizer.addVocabulary(choiceStrings);
+
+		List<String> apps = config.getAvailableApps();
+		ArrayList<String> launchStrings = new ArrayList<String>(apps.size());
+		for (String appId : apps)
+			launchStrings.add(launchPrefix + appId);
+		normalizer.addVocabulary(launchStrings);
+
+		mCloseOptions = Collections.singletonList(closeCommand);
+		normalizer.addVocabulary(CommandGrammar.getPhrases(commandPrefix + closeCommand));
+
+		for (String appId : apps) {
+			List<String> commands = config.getAppCommands(appId);
+			ArrayList<String> options = new ArrayList<String>(commands.size() + 1);
+			options.addAll(commands);
+			options.add(closeCommand);
+			for (String option : commands)
+				normalizer.addVocabulary(CommandGrammar.getPhrases(commandPrefix + option));
+			mAppOptions.put(appId, Collections.unmodifiableList(options));
+		}
+
+		mNormalizer = normalizer.build();
+		mChoiceStrings = normalize(choiceStrings);
+		mLaunchStrings = normalize(launchStrings);
+		mLaunchSpotter = new CommandSpotter(mLaunchStrings);
+		mLaunchShards = new CommandShards(mLaunchStrings);
+		mCloseCommands = compile(commandPrefix, mCloseOptions);
+		mCloseSpotter = spotter(mCloseCommands);
+		mCloseShards = shards(mCloseCommands);
+		for (Map.Entry<String, List<String>> options : mAppOptions.entrySet()) {
+			List<CommandGrammar> commands = compile(commandPrefix, options.getValue());
+			mAppCommands.put(options.getKey(), commands);
+			mAppSpotters.put(options.getKey(), spotter(commands));
+			mAppShards.put(options.getKey(), shards(commands));
+		}
+	}
+
+	/* Restituisce le partizioni dei comandi specificati, in base alla loro parte iniziale senza parametri. */
+	private static CommandShards shards(List<CommandGrammar> commands) {
+		ArrayList<String> prefixes = new ArrayList<String>(commands.size());
+		for (CommandGrammar command : commands)
+			prefixes.add(command.getLiteralPrefix());
+		return new CommandShards(prefixes);
+	}
+
+	/* Restituisce l'automa relativo ai comandi specificati: quelli con parametri non vengono individuati. */
+	private static CommandSpotter spotter(List<CommandGrammar> commands) {
+		ArrayList<String> texts = new ArrayList<String>(commands.size());
+		for (CommandGrammar command : commands)
+			texts.add(command.getText());
+		return new CommandSpotter(texts);
+	}
+
+	/* Restituisce i comandi specificati, con il prefisso, compilati in una lista non modificabile. */
+	private List<CommandGrammar> compile(String prefix, List<String> options) {
+		ArrayList<CommandGrammar> commands = new ArrayList<CommandGrammar>(options.size());
+		for (String option : options)
+			commands.add(CommandGrammar.compile(prefix + option, mNormalizer));
+		return Collections.unmodifiableList(commands);
+	}
+
+	/* Restituisce una copia non modificabile delle stringhe specificate, normalizzate. */
+	private List<String> normalize(List<String> strings) {
+		ArrayList<String> normalized = new ArrayList<String>(strings.size());
+		for (String string : strings)
+			normalized.add(mNormalizer.normalize(string));
+		return Collections.unmodifiableList(normalized);
+	}
+
+	/**
+	 * Restituisce la configurazione da cui  ricavato l'indice.
+	 *
+	 * @return la configurazione
+	 */
+	public CommandConfiguration getConfiguration() {
+		return mConfig;
+	}
+
+	/**
+	 * Restituisce il normalizzatore da applicare alle ipotesi del riconoscitore vocale.
+	 *
+	 * @return il normalizzatore
+	 */
+	public TextNormalizer getNormalizer() {
+		return mNormalizer;
+	}
+
+	/**
+	 * Restituisce le risposte normalizzate alle scelte proposte all'utente, nell'ordine delle
+	 * opzioni proposte.
+	 *
+	 * @return la lista non modificabile delle risposte
+	 */
+	public List<String> getChoiceStrings() {
+		return mChoiceStrings;
+	}
+
+	/**
+	 * Restituisce le applicazioni che  possibile avviare.
+	 *
+	 * @return la lista non modificabile degli ID delle applicazioni
+	 */
+	public List<String> getLaunchOptions() {
+		return mConfig.getAvailableApps();
+	}
+
+	/**
+	 * Restituisce le richieste di avvio normalizzate, parallele a {@link #getLaunchOptions()}.
+	 *
+	 * @return la lista non modificabile delle richieste di avvio
+	 */
+	public List<String> getLaunchStrings() {
+		return mLaunchStrings;
+	}
+
+	/**
+	 * Restituisce l'automa che individua le richieste di avvio all'interno delle ipotesi,
+	 * con gli indici di {@link #getLaunchOptions()}.
+	 *
+	 * @return l'automa delle richieste di avvio
+	 */
+	public CommandSpotter getLaunchSpotter() {
+		return mLaunchSpotter;
+	}
+
+	/**
+	 * Restituisce le partizioni delle richieste di avvio, con gli indici di {@link #getLaunchOptions()}.
+	 *
+	 * @return le partizioni delle richieste di avvio
+	 */
+	public CommandShards getLaunchShards() {
+		return mLaunchShards;
+	}
+
+	/**
+	 * Restituisce i comandi previsti per l'applicazione specificata: i suoi comandi
+	 * seguiti da quello di chiusura, che  sempre l'ultimo.
+	 *
+	 * @param appId l'ID dell'applicazione
+	 * @return la lista non modificabile dei comandi
+	 */
+	public List<String> getAppOptions(String appId) {
+		List<String> options = mAppOptions.get(appId);
+		return (options != null ? options : mCloseOptions);
+	}
+
+	/**
+	 * Restituisce i comandi previsti per l'applicazione specificata, completi e compilati,
+	 * paralleli a {@link #getAppOptions(String)}.
+	 *
+	 * @param appId l'ID dell'applicazione
+	 * @return la lista non modificabile dei comandi compilati
+	 */
+	public List<CommandGrammar> getAppCommands(String appId) {
+		List<CommandGrammar> commands = mAppCommands.get(appId);
+		return (commands != null ? commands : mCloseCommands);
+	}
+
+	/**
+	 * Restituisce l'automa che individua i comandi dell'applicazione specificata all'interno
+	 * delle ipotesi, con gli indici di {@link #getAppOptions(String)}. I comandi con parametri
+	 * non vengono individuati.
+	 *
+	 * @param appId l'ID dell'applicazione
+	 * @return l'automa dei comandi
+	 */
+	public CommandSpotter getAppSpotter(String appId) {
+		CommandSpotter spotter = mAppSpotters.get(appId);
+		return (spotter != null ? spotter : mCloseSpotter);
+	}
+
+	/**
+	 * Restituisce le partizioni dei comandi dell'applicazione specificata, con gli indici di
+	 * {@link #getAppOptions(String)}.
+	 *
+	 * @param appId l'ID dell'applicazione
+	 * @return le partizioni dei comandi
+	 */
+	public CommandShards getAppShards(String appId) {
+		CommandShards shards = mAppShards.get(appId);
+		return (shards != null ? shards : mCloseShards);
+	}
+
+}
@@ -0,0 +1,172 @@
+package org.semm.android.vcf;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * La classe <code>ListeningNotifier</code> si occupa di informare le applicazioni collegate
+ * circa lo stato del riconoscitore vocale, riducendo al minimo le chiamate tramite il binder.
+ * <p>
+ * Una notifica viene inviata soltanto se lo stato (attivo/non attivo e codice d'errore) 
+ * effettivamente cambiato rispetto all'ultimo inviato. Inoltre, se pi cambiamenti di stato
+ * si susseguono entro un breve intervallo di tempo, viene inviato soltanto il primo e, al
+ * termine dell'intervallo, l'ultimo stato rilevato (se diverso da quello gi inviato).
+ * <p>
+ * Tutti i metodi devono essere invocati dal thread associato all'handler specificato.
+ *
+ * @author vincenzo
+ * @see ClientRegistry#broadcastListening(boolean, int)
+ */
+public class ListeningNotifier {
+
+	/* Tag per i messaggi di log. */
+	private final static String LOG_TAG = ListeningNotifier.class.getSimpleName();
+
+	/** Intervallo predefinito di accorpamento delle notifiche, in millisecondi. */
+	public static final long DEFAULT_WINDOW_MS = 100;
+
+	/* Registro delle applicazioni da notificare. */
+	private final ClientRegistry mClients;
+
+	/* Handler del thread in cui vengono inviate le notifiche. */
+	private final Handler mHandler;
+
+	/* Intervallo di accorpamento delle notifiche. */
+	private final long mWindow;
+
+	/* Ultimo stato inviato alle applicazioni. */
+	private boolean mSentActive = false;
+	private int mSentError = 0;
+
+	/* Ultimo stato ricevuto, in attesa di essere inviato. */
+	private boolean mPendingActive = false;
+	private int mPendingError = 0;
+
+	/* Istante dell'ultimo invio e presenza di un invio programmato. */
+	private long mLastSentTime = Long.MIN_VALUE / 2;
+	private boolean mFlushScheduled = false;
+
+	/* Numero di notifiche ricevute e di quelle effettivamente inviate. */
+	private long mRequested = 0;
+	private long mSent = 0;
+
+	/* Invia lo stato in attesa al termine dell'intervallo di accorpamento. */
+	private final Runnable mFlush = new Runnable() {
+		@Override
+		public void run() {
+			mFlushScheduled = false;
+			send();
+		}
+	};
+
+
+	/**
+	 * Crea un nuovo notificatore con l'intervallo di accorpamento predefinito.
+	 *
+	 * @param clients il registro delle applicazioni da notificare
+	 * @param handler l'handler del thread in cui inviare le notifiche
+	 */
+	public ListeningNotifier(ClientRegistry clients, Handler handler) {
+		this(clients, handler, DEFAULT_WINDOW_MS);
+	}
+
+	/**
+	 * Crea un nuovo notificatore con l'intervallo di accorpamento specificato.
+	 *
+	 * @param clients il registro delle applicazioni da notificare
+	 * @param handler l'handler del thread in cui inviare le notifiche
+	 * @param window l'intervallo di accorpamento, in millisecondi
+	 */
+	public ListeningNotifier(ClientRegistry clients, Handler handler, long window) {
+		mClients = clients;
+		mHandler = handler;
+		mWindow = window;
+	}
+
+	/**
+	 * Aggiorna lo stato del riconoscitore vocale. La notifica alle applicazioni viene inviata
+	 * immediatamente se nessun'altra  stata inviata durante l'intervallo di accorpamento,
+	 * altrimenti viene rimandata al termine di quest'ultimo.
+	 *
+	 * @param active <code>true</code> se lo speech recognizer  attivo,
+	 *               <code>false</code> altrimenti
+	 * @param error il codice dell'eventuale errore
+	 */
+	public void update(boolean active, int error) {
+		mRequested++;
+		mPendingActive = active;
+		mPendingError = error;
+
+		if (mFlushScheduled)
+			return;   // verr inviato l'ultimo stato al termine dell'intervallo
+
+		long elapsed = SystemClock.uptimeMillis() - mLastSentTime;
+		if (elapsed >= mWindow) {
+			send();
+		}
+		else {
+			mFlushScheduled = true;
+			mHandler.postDelayed(mFlush, mWindow - elapsed);
+		}
+	}
+
+	/**
+	 * Restituisce l'ultimo stato noto del riconoscitore vocale.
+	 *
+	 * @return <code>true</code> se lo speech recognizer  attivo
+	 */
+	public boolean isActive() {
+		return mPendingActive;
+	}
+
+	/**
+	 * Restituisce l'ultimo codice d'errore noto del riconoscitore vocale.
+	 *
+	 * @return il codice dell'eventuale errore
+	 */
+	public int getError() {
+		return mPendingError;
+	}
+
+	/**
+	 * Restituisce il numero di aggiornamenti di stato ricevuti.
+	 *
+	 * @return il numero di aggiornamenti ricevuti
+	 */
+	public long getRequestedCount() {
+		return mRequested;
+	}
+
+	/**
+	 * Restituisce il numero di notifiche effettivamente inviate alle applicazioni.
+	 *
+	 * @return il numero di notifiche inviate
+	 */
+	public long getSentCount() {
+		return mSent;
+	}
+
+	/**
+	 * Annulla l'eventuale invio programmato.
+	 */
+	public void cancel() {
+		mHandler.removeCallbacks(mFlush);
+		mFlushScheduled = false;
+	}
+
+	/* Invia lo stato in attesa, se diverso dall'ultimo inviato. */
+	private void send() {
+		if (mPendingActive == mSentActive && mPendingError == mSentError)
+			return;
+
+		Log.v(LOG_TAG, String.format("send(active: %b, error: %d)", mPendingActive, mPendingError));
+
+		mSentActive = mPendingActive;
+		mSentError = mPendingError;
+		mLastSentTime = SystemClock.uptimeMillis();
+		mSent++;
+		mClients.broadcastListening(mSentActive, mSentError);
+	}
+
+}
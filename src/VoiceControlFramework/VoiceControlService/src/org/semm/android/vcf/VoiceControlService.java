@@ -1,24 +1,61 @@
 package org.semm.android.vcf;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.semm.android.vcf.CommandTrace;
 import org.semm.android.vcf.IService;
 import org.semm.android.vcf.IServiceCallback;
 import org.semm.android.vcf.temp.Preferenze;
+import org.semm.android.vcf.speech.UtteranceCache;
+import org.semm.android.vcf.speech.ContinuousRecognizer;
+import org.semm.android.vcf.speech.HalfDuplexCoordinator;
+import org.semm.android.vcf.speech.ListRecognitionSource;
+import org.semm.android.vcf.speech.RecognitionSource;
+import org.semm.android.vcf.speech.ReplayRecognitionSource;
+import org.semm.android.vcf.speech.TtsScheduler;
+import org.semm.android.vcf.speech.UtterancePlayer;
+import org.semm.android.vcf.speech.WakeWordDetector;
+import org.semm.android.vcf.speech.WakeWordGate;
 import org.semm.android.vcf.temp.Voce;
+import org.semm.android.vcf.util.CommandGrammar;
+import org.semm.android.vcf.util.CommandShards;
+import org.semm.android.vcf.util.CommandSpotter;
+import org.semm.android.vcf.util.DecisionCache;
 import org.semm.android.vcf.util.DecisionEngine;
+import org.semm.android.vcf.util.DecisionResult;
+import org.semm.android.vcf.util.EditWeightLearner;
+import org.semm.android.vcf.util.HypothesisBuffer;
+import org.semm.android.vcf.util.LatencyTracer;
+import org.semm.android.vcf.util.StartupTimeline;
+import org.semm.android.vcf.util.StateWatchdog;
+import org.semm.android.vcf.util.TextNormalizer;
 
+import android.app.ActivityManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
+import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.speech.SpeechRecognizer;
 import android.speech.tts.TextToSpeech;
 import android.speech.tts.TextToSpeech.OnInitListener;
 import android.util.Log;
@@ -48,9 +85,90 @@ public class VoiceControlService extends Service implements OnInitListener {
 	/* Motore di sinteti vocale. */
 	private TextToSpeech mTTS;
 	
+	/* Enunciati gi sintetizzati e riproduzione degli enunciati. */
+	private UtteranceCache mUtteranceCache;
+	private UtterancePlayer mPlayer;
+	
+	/* Stabilisce l'ordine e la priorit degli enunciati. */
+	private TtsScheduler mTtsScheduler;
+	
+	/* Enunciati fissi, sintetizzati in anticipo al termine dell'inizializzazione del TTS. */
+	private static final int[] TTS_PROMPTS = {
+		R.string.tts_start_error, R.string.tts_launching_app, R.string.tts_launching_error,
+		R.string.tts_app_started, R.string.tts_invalid_cmd, R.string.tts_repeat_cmd,
+		R.string.tts_sending_cmd, R.string.tts_sending_cmd_error, R.string.tts_cmd_completed,
+		R.string.tts_cmd_error, R.string.tts_closing_app, R.string.tts_closing_error,
+		R.string.tts_app_closed, R.string.tts_app_not_launched, R.string.tts_init_ok
+	};
+	
+	/* Limiti della cache relativi agli enunciati dinamici. */
+	private static final int TTS_CACHE_MAX_ENTRIES = 64;
+	private static final long TTS_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+	
 	/* Motore decisionale post riconoscimento vocale. */
 	private DecisionEngine mDE = new DecisionEngine();
 	
+	/** Soglia massima per la distanza dei comandi riconosciuti (utilizzata anche dai test di carico). */
+	public static final double DECISION_THRESHOLD = 15;
+	
+	/* Risultati delle decisioni pi recenti, per le liste di ipotesi ripetute. */
+	private static final int DECISION_CACHE_MAX_ENTRIES = 64;
+	private final DecisionCache mDecisionCache = new DecisionCache(DECISION_CACHE_MAX_ENTRIES);
+	
+	/*
+	 * Comandi tra cui l'utente deve scegliere ("primo" o "secondo") in seguito ad
+	 * un'indecisione del motore decisionale, indici corrispondenti e stato a cui si
+	 * riferiscono, con gli eventuali parametri estratti dalle ipotesi. L'elenco  null se
+	 * non  in corso alcuna scelta.
+	 */
+	private List<String> mChoiceOptions = null;
+	private final int[] mChoiceIndexes = new int[2];
+	private final Bundle[] mChoiceSlots = new Bundle[2];
+	private ApplicationStatus mChoiceStatus;
+	private CommandConfiguration mChoiceConfig;
+	
+	/*
+	 * Stringhe attese in ciascuno stato, ricavate dalla configurazione corrente. L'indice
+	 * viene costruito durante l'avvio in un thread secondario e ricostruito nel main thread
+	 * quando la configurazione cambia.
+	 */
+	private volatile CommandIndex mCommandIndex;
+	
+	/*
+	 * Intent di avvio delle applicazioni configurate, per package, risolti in anticipo
+	 * durante l'avvio del servizio.
+	 */
+	private final ConcurrentHashMap<String, Intent> mLaunchIntents = new ConcurrentHashMap<String, Intent>();
+	
+	/*
+	 * Fasi dell'avvio del servizio (indice dei comandi, intent di avvio, riconoscitore vocale),
+	 * eseguite in parallelo tra loro e con l'inizializzazione del TTS, e relativi tempi.
+	 */
+	private static final int STARTUP_THREADS = 3;
+	private ExecutorService mStartupExecutor;
+	private StartupTimeline mStartup;
+	
+	/* Indica se il servizio  stato distrutto, per ignorare le fasi di avvio tardive. */
+	private boolean mDestroyed = false;
+	
+	/*
+	 * Apprende i pesi delle sostituzioni dai comandi eseguiti con successo. I conteggi
+	 * vengono conservati nel file specificato, nella directory dei file del servizio, e
+	 * vengono elaborati in un thread dedicato; i nuovi pesi sostituiscono quelli del
+	 * motore decisionale senza interromperlo.
+	 */
+	private static final String EDIT_WEIGHTS_FILE = "edit_weights.bin";
+	private EditWeightLearner mLearner;
+	private ExecutorService mLearnerExecutor;
+	
+	/*
+	 * Comando inviato in attesa dell'esito: ID, stringa ammessa (null per i comandi con
+	 * parametri, da cui non si apprendono i pesi) e ipotesi da cui  stato individuato.
+	 */
+	private long mConfirmCommand = LatencyTracer.NO_COMMAND;
+	private String mConfirmExpected;
+	private String mConfirmHypothesis;
+	
 	/*
 	 * I possibili stati del servizio sono: NOTHING (nessuna app avviata), LAUNCHING_APP
 	 * (app in fase di avvio), APP_RUNNING (app in esecuzione), EXECUTING_CMD (esecuzione
@@ -65,31 +183,151 @@ public class VoiceControlService extends Service implements OnInitListener {
     // cio dallo stato di avvio a quello di chiusura.
 	private String mCurrentApp = null;
 	
+	/*
+	 * Durata massima, in millisecondi, degli stati in cui si attende una risposta da parte
+	 * dell'applicazione corrente: la registrazione dopo l'avvio, l'esito di un comando e la
+	 * conferma di chiusura. Allo scadere, il servizio abbandona l'attesa e torna ad accettare
+	 * comandi (si veda onStateTimeout).
+	 */
+	private static final long LAUNCH_TIMEOUT_MS = 10000;
+	private static final long EXECUTE_TIMEOUT_MS = 15000;
+	private static final long CLOSE_TIMEOUT_MS = 5000;
+	
+	/* Scadenza dello stato corrente e relative statistiche per applicazione. */
+	private final StateWatchdog mWatchdog = createWatchdog();
+	
+	/* Timer della scadenza dello stato corrente, riprogrammato ad ogni cambiamento di stato. */
+	private final Runnable mWatchdogTimer = new Runnable() {
+		@Override
+		public void run() {
+			onStateTimeout();
+		}
+	};
+	
 	// ==================================================
 	// TODO: simulano riconoscitore vocale e preferenze.
-	private Timer timer;
+	private static final long SIMULATION_INTERVAL_MS = 25000;
 	private Preferenze prefs = new Preferenze();
 	// ==================================================
 	
-	// Callback per inviare comandi all'applicazione.
-	private IServiceCallback mApplicationCallback = null;
+	// Callback delle applicazioni collegate, indicizzate per ID.
+	private final ClientRegistry mClients = new ClientRegistry();
+	
+	/*
+	 * Handler associato al main thread: tutte le transizioni di stato vengono eseguite
+	 * in questo thread, indipendentemente dal thread del binder che riceve la chiamata.
+	 */
+	private Handler mHandler;
+	
+	/* Sospende il riconoscimento mentre il servizio parla. */
+	private HalfDuplexCoordinator mCoordinator;
+	
+	/* Sorgente dei risultati del riconoscimento vocale. */
+	private RecognitionSource mRecognitionSource;
+	
+	/* Lingua della sintesi e del riconoscimento vocale (quest'ultimo richiede il tag IETF). */
+	private static final Locale SPEECH_LOCALE = Locale.ITALY;
+	private static final String RECOGNIZER_LANGUAGE =
+			SPEECH_LOCALE.getLanguage() + "-" + SPEECH_LOCALE.getCountry();
+	
+	/*
+	 * Log di risultati registrati da riprodurre al posto del riconoscitore, se presente
+	 * nella directory dei file del servizio, e relativa velocit di riproduzione.
+	 */
+	private static final String REPLAY_LOG = "replay.log";
+	private static final double REPLAY_RATE = 1.0;
+	
+	/*
+	 * Directory, nella directory dei file del servizio, contenente le registrazioni WAV
+	 * (mono, 16 kHz) della parola di attivazione. In loro assenza il riconoscitore vocale
+	 * resta sempre in ascolto.
+	 */
+	private static final String WAKE_WORD_DIR = "wakeword";
+	
+	/* Notifica alle applicazioni lo stato del riconoscitore, solo se cambiato. */
+	private ListeningNotifier mListeningNotifier;
+	
+	/* Tag per il log strutturato delle latenze. */
+	private final static String TRACE_TAG = "VcfTrace";
+	
+	/* Misura le latenze delle fasi di elaborazione di ogni comando vocale. */
+	private final LatencyTracer mTracer = new LatencyTracer(SystemClock.elapsedRealtime() * 1000);
+	
+	/*
+	 * ID del comando vocale corrente: quello in corso di elaborazione oppure, dopo la
+	 * ricezione dell'esito da parte dell'applicazione, quello a cui l'esito si riferisce.
+	 */
+	private long mCurrentCommand = LatencyTracer.NO_COMMAND;
+	
+	/*
+	 * ID del comando inviato all'applicazione corrente di cui si attende l'esito.  la chiave
+	 * di idempotenza degli esiti: le applicazioni reinviano quelli non consegnati quando il
+	 * collegamento viene ristabilito, per cui un esito viene applicato solo se corrisponde.
+	 */
+	private long mExecutingCommand = LatencyTracer.NO_COMMAND;
+	
+	/*
+	 * Gli ID dei comandi partono dall'istante di creazione del servizio (in microsecondi dall'avvio
+	 * del dispositivo), per cui quelli assegnati da un'istanza precedente, terminata e riavviata dal
+	 * sistema, sono minori di mTracer.getBaseId(). L'esito di un comando di un'istanza precedente,
+	 * reinviato dall'applicazione dopo il riavvio, viene applicato una sola volta (si veda
+	 * isExpectedResult): ultimo comando di questo tipo applicato ed esiti applicati e rifiutati.
+	 */
+	private long mLastReplayedCommand = LatencyTracer.NO_COMMAND;
+	private long mReplayedResults = 0;
+	private long mRejectedResults = 0;
 		
 	/* Consente il collegamento da parte delle applicazioni. */
 	private final IService.Stub binder = new IService.Stub() {
 		@Override
-		public void registerCallback(IServiceCallback callback)
+		public void registerCallback(final IServiceCallback callback)
 				throws RemoteException {
-			registerCallbackImpl(callback);
+			final String[] packages = getCallingPackages();
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					registerCallbackImpl(callback, packages);
+				}
+			});
 		}
 		@Override
-		public void resultFromExecute(boolean success, String message)
-				throws RemoteException {
-			resultFromExecuteImpl(success, message);
+		public void resultFromExecute(final long commandId, final boolean success,
+				final String message, final Bundle trace) throws RemoteException {
+			final long received = System.nanoTime();
+			final String[] packages = getCallingPackages();
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (isCurrentApp(packages) && isExpectedResult(commandId)) {
+						traceResult(commandId, trace, received);
+						confirmCommand(commandId, success);
+						resultFromExecuteImpl(success, message);
+					}
+					else mRejectedResults++;
+				}
+			});
 		}
 		@Override
 		public void confirmClosing()
 				throws RemoteException {
-			confirmClosingImpl();
+			final String[] packages = getCallingPackages();
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (isCurrentApp(packages))
+						confirmClosingImpl();
+				}
+			});
+		}
+		@Override
+		public void unregisterCallback(final IServiceCallback callback)
+				throws RemoteException {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					unregisterCallbackImpl(callback);
+				}
+			});
 		}
 	};
 	
@@ -123,7 +361,10 @@ public class VoiceControlService extends Service implements OnInitListener {
 	@Override
 	public boolean onUnbind(Intent intent) {
 		Log.i(LOG_TAG, String.format("onUnbind(intent: %s)", intent));
-		mApplicationCallback = null;
+		
+		// Le callback non vengono rimosse in questa fase: ogni applicazione rimuove
+		// la propria tramite unregisterCallback, mentre quelle relative a processi
+		// terminati vengono rimosse automaticamente dal registro.
 		return super.onUnbind(intent);
 	}
 	
@@ -137,12 +378,159 @@ public class VoiceControlService extends Service implements OnInitListener {
 		super.onCreate();
 		Log.i(LOG_TAG, "onCreate()");
 		
+		mStartup = new StartupTimeline(System.nanoTime());
+		mHandler = new Handler();
+		mListeningNotifier = new ListeningNotifier(mClients, mHandler);
+		mClients.setOnClientDiedListener(new ClientRegistry.OnClientDiedListener() {
+			@Override
+			public void onClientDied(final ClientRegistry.Client client) {
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						clientDiedImpl(client);
+					}
+				});
+			}
+		});
+		
 		/*
 		 * Per semplicit, si suppone che il device abbia i file di risorsa
 		 * installati correttamente, quindi non si effettua alcuna verifica
 		 * in tal senso.
 		 */
 		mTTS = new TextToSpeech(this, this);
+		mUtteranceCache = new UtteranceCache(mTTS, mHandler, new File(getTtsCacheDir(), "tts"),
+				TTS_CACHE_MAX_ENTRIES, TTS_CACHE_MAX_BYTES);
+		mPlayer = new UtterancePlayer(mTTS, mUtteranceCache, mHandler);
+		mTtsScheduler = new TtsScheduler(mPlayer);
+		mTtsScheduler.setReady(false);   // fino al termine di onInit
+		mTtsScheduler.setUtteranceListener(new TtsScheduler.UtteranceListener() {
+			@Override
+			public void onUtteranceStarted(long tag) {
+				mTracer.mark(tag, LatencyTracer.STAGE_TTS_START, System.nanoTime());
+			}
+			
+			@Override
+			public void onUtteranceFinished(long tag, boolean completed) {
+				if (completed) {
+					mTracer.mark(tag, LatencyTracer.STAGE_TTS_END, System.nanoTime());
+					String line = mTracer.finish(tag);
+					if (line != null)
+						Log.i(TRACE_TAG, line);
+				}
+				else mTracer.discard(tag);
+			}
+		});
+		
+		mLearner = new EditWeightLearner(mDE.getCosts());
+		mLearnerExecutor = Executors.newSingleThreadExecutor();
+		mLearnerExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				File file = new File(getFilesDir(), EDIT_WEIGHTS_FILE);
+				if (!file.exists())
+					return;
+				try {
+					mLearner.load(file);
+					mDE.setCosts(mLearner.rebuild());
+					Log.i(LOG_TAG, String.format("Pesi appresi caricati: %d coppie", mLearner.getPairCount()));
+				}
+				catch (IOException e) {
+					Log.e(LOG_TAG, String.format("Impossibile caricare i pesi appresi (%s)", e.getMessage()));
+				}
+			}
+		});
+		
+		/*
+		 * Le fasi dell'avvio che non richiedono il main thread vengono eseguite in parallelo,
+		 * mentre il TTS si inizializza: il riconoscitore vocale viene avviato non appena 
+		 * pronto, senza attendere il TTS, mentre gli enunciati richiesti nel frattempo
+		 * restano in attesa nello scheduler.
+		 */
+		mStartupExecutor = Executors.newFixedThreadPool(STARTUP_THREADS);
+		mStartupExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final RecognitionSource source = createRecognitionSource();
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						startRecognition(source);
+					}
+				});
+			}
+		});
+		mStartupExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				getCommandIndex(prefs.getConfiguration());
+				markStartup(StartupTimeline.STAGE_COMMAND_INDEX);
+			}
+		});
+		mStartupExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				prefetchLaunchIntents(prefs.getConfiguration());
+				markStartup(StartupTimeline.STAGE_LAUNCH_INTENTS);
+			}
+		});
+		mStartupExecutor.shutdown();
+	}
+	
+	/**
+	 * Collega la sorgente dei risultati del riconoscimento vocale, creata durante l'avvio,
+	 * e avvia il riconoscimento. Se il servizio sta gi parlando (per esempio per il messaggio
+	 * iniziale), il riconoscimento resta sospeso fino al termine del parlato.
+	 * 
+	 * @param source la sorgente dei risultati
+	 */
+	private void startRecognition(RecognitionSource source) {
+		if (mDestroyed) {
+			source.release();
+			return;
+		}
+		
+		mRecognitionSource = source;
+		mCoordinator = new HalfDuplexCoordinator(mRecognitionSource,
+				new HalfDuplexCoordinator.OnListeningChangedListener() {
+			@Override
+			public void onListeningChanged(boolean active, int error) {
+				setListeningStatus(active, error);
+			}
+		});
+		mRecognitionSource.setCallback(new RecognitionSource.Callback() {
+			@Override
+			public void onListeningChanged(boolean active, int error) {
+				mCoordinator.onListeningChanged(active, error);
+			}
+			
+			@Override
+			public void onResults(ArrayList<String> results) {
+				long received = System.nanoTime();
+				if (mCoordinator.acceptResults()) {
+					mCurrentCommand = mTracer.begin(received);
+					processingResults(results);
+				}
+			}
+		});
+		mTtsScheduler.setSpeechListener(mCoordinator);
+		if (mTtsScheduler.isSpeaking())
+			mCoordinator.onSpeechStarted();
+		
+		// Avvia lo speech recognizer, oppure la sua simulazione.
+		mCoordinator.start();
+		markStartup(StartupTimeline.STAGE_RECOGNIZER);
+	}
+	
+	/**
+	 * Registra il completamento di una fase dell'avvio e, quando sono state completate
+	 * tutte, scrive i relativi tempi nel log strutturato. Pu essere invocato da qualsiasi thread.
+	 * 
+	 * @param stage la fase completata
+	 */
+	private void markStartup(int stage) {
+		if (mStartup.mark(stage, System.nanoTime()))
+			Log.i(TRACE_TAG, mStartup.toString());
 	}
 	
 	/**
@@ -160,11 +548,17 @@ public class VoiceControlService extends Service implements OnInitListener {
 		if (status == TextToSpeech.SUCCESS) {
 			Log.v(LOG_TAG, "TTS engine inizializzato con successo");
 			
-			mTTS.setLanguage(Locale.ITALIAN);   // TODO: solo per emulatore
-			mTTS.speak(getString(R.string.tts_init_ok), TextToSpeech.QUEUE_FLUSH, null);
+			mTTS.setLanguage(SPEECH_LOCALE);   // TODO: solo per emulatore
+			mUtteranceCache.setVoice(mTTS.getDefaultEngine(), SPEECH_LOCALE, 1.0f, 1.0f);
+			speak(R.string.tts_init_ok, TtsScheduler.PRIORITY_RESULT);
+			mTtsScheduler.setReady(true);
+			markStartup(StartupTimeline.STAGE_TTS);
 			
-			// Avvia la simulazione dello speech recognizer.
-			this.simulaRiconoscimentoVocale();
+			// Sintetizza in anticipo gli enunciati fissi, dopo quello iniziale.
+			ArrayList<String> prompts = new ArrayList<String>(TTS_PROMPTS.length);
+			for (int id : TTS_PROMPTS)
+				prompts.add(getString(id));
+			mUtteranceCache.preSynthesize(prompts);
 		}
 		else {
 			Log.e(LOG_TAG, "Errore durante l'inizializzazione del TTS engine");
@@ -189,6 +583,24 @@ public class VoiceControlService extends Service implements OnInitListener {
 		}
 	}
 	
+	/**
+	 * Restituisce la directory in cui conservare gli enunciati sintetizzati. I file vengono
+	 * scritti dal processo del motore TTS, che non ha accesso alla directory privata del
+	 * servizio, per cui si utilizza la cache sulla memoria esterna; se questa non  disponibile
+	 * si ripiega sulla cache privata, nella quale le sintesi su file falliranno senza effetti
+	 * sulla riproduzione.
+	 * 
+	 * @return la directory della cache
+	 */
+	private File getTtsCacheDir() {
+		File dir = getExternalCacheDir();
+		if (dir == null) {
+			Log.w(LOG_TAG, "getTtsCacheDir(): memoria esterna non disponibile, uso la cache privata");
+			dir = getCacheDir();
+		}
+		return dir;
+	}
+	
 	/**
 	 * Dealloca le risorse utilizzate dal servizio, tra cui quelle impegnate
 	 * dal motore di sintesi vocale e dal riconoscitore vocale.
@@ -199,12 +611,39 @@ public class VoiceControlService extends Service implements OnInitListener {
 	public void onDestroy() {
 		Log.i(LOG_TAG, "onDestroy()");
 		
-		if (timer != null) {
-			timer.cancel();
-			timer.purge();
-			timer = null;
+		mDestroyed = true;
+		if (mStartupExecutor != null)
+			mStartupExecutor.shutdownNow();
+		
+		if (mCoordinator != null)
+			mCoordinator.stop();
+		
+		if (mRecognitionSource != null) {
+			mRecognitionSource.release();
+			mRecognitionSource = null;
 		}
 		
+		mListeningNotifier.cancel();
+		mHandler.removeCallbacksAndMessages(null);
+		mClients.kill();
+		
+		if (mLearnerExecutor != null) {
+			mLearnerExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (mLearner.getPendingCount() > 0)
+						saveEditWeights();
+				}
+			});
+			mLearnerExecutor.shutdown();
+		}
+		
+		// La cache viene rilasciata per prima, affinch l'arresto non avvii altre sintesi su file.
+		if (mUtteranceCache != null)
+			mUtteranceCache.release();
+		if (mTtsScheduler != null)
+			mTtsScheduler.stop();
+		
 		if (mTTS != null) {  // Ferma la riproduzione dell'enunciato
 			mTTS.stop();     // corrente e dealloca tutte le risorse
 			mTTS.shutdown(); // utilizzate.
@@ -214,6 +653,31 @@ public class VoiceControlService extends Service implements OnInitListener {
 		super.onDestroy(); // invocato per ultimo
 	}
 	
+	/**
+	 * Richiede la riproduzione dell'enunciato specificato tramite lo scheduler del TTS.
+	 * 
+	 * @param resId l'ID della string resource da pronunciare
+	 * @param priority la priorit dell'enunciato
+	 * @see #speak(String, int)
+	 */
+	private void speak(int resId, int priority) {
+		speak(getString(resId), priority);
+	}
+	
+	/**
+	 * Richiede la riproduzione dell'enunciato specificato tramite lo scheduler del TTS.
+	 * Gli esiti e gli errori vengono associati al comando vocale corrente, per cui il
+	 * termine della loro riproduzione conclude la misura delle latenze del comando.
+	 * 
+	 * @param text il testo da pronunciare
+	 * @param priority la priorit dell'enunciato
+	 * @see TtsScheduler#schedule(String, int, long)
+	 */
+	private void speak(String text, int priority) {
+		long tag = (priority > TtsScheduler.PRIORITY_PROGRESS ? mCurrentCommand : TtsScheduler.NO_TAG);
+		mTtsScheduler.schedule(text, priority, tag);
+	}
+	
 	/**
 	 * Avvia l'applicazione a cui  stato associato l'ID (nome univoco) specificato.
 	 * Se a questo ID non  stata associata alcuna applicazione, il servizio riproduce
@@ -225,32 +689,88 @@ public class VoiceControlService extends Service implements OnInitListener {
 	 * di comunicare con essa.
 	 *  
 	 * @param appId il nome univoco associato al package dell'applicazione
-	 * @see #registerCallbackImpl(IServiceCallback)
+	 * @see #registerCallbackImpl(IServiceCallback, String[])
 	 */
 	private void launchApp(String appId) {
 		Log.i(LOG_TAG, String.format("launchApp(appId: %s)", appId));
 		
 		// Ottiene il nome del package dell'applicazione.
-		String appPackageName = prefs.getPackageName(appId, null);
+		String appPackageName = prefs.getConfiguration().getPackageName(appId, null);
 		
 		Log.i(LOG_TAG, String.format("launchApp() - package name: %s", appPackageName));
 		
 		if (appPackageName != null && !appPackageName.isEmpty()) {
+			Intent launchIntent = getLaunchIntent(appPackageName);
+			if (launchIntent == null) {
+				Log.e(LOG_TAG, String.format("launchApp() package non installato: %s", appPackageName));
+				
+				speak(R.string.tts_app_not_launched, TtsScheduler.PRIORITY_ERROR);
+				return;
+			}
+			
+			if (mClients.get(appId) != null) {
+				// L'applicazione  gi collegata al servizio:  sufficiente portarla
+				// in primo piano, senza attendere una nuova registrazione.
+				// L'applicazione corrente va impostata prima dello stato, che ne dipende.
+				mCurrentApp = appId;
+				setAppStatus(ApplicationStatus.APP_RUNNING);
+				
+				startActivity(launchIntent);
+				speak(R.string.tts_app_started, TtsScheduler.PRIORITY_RESULT);
+				return;
+			}
+			
 			// Imposta lo stato.
-			mCurrentAppStatus = ApplicationStatus.LAUNCHING_APP;
 			mCurrentApp = appId;
+			setAppStatus(ApplicationStatus.LAUNCHING_APP);
 			
 			// Invia feedback vocale.
-			mTTS.speak(getString(R.string.tts_launching_app), TextToSpeech.QUEUE_ADD, null);
+			speak(R.string.tts_launching_app, TtsScheduler.PRIORITY_PROGRESS);
 			
 			// Avvia l'applicazione specificata.
-			Intent launchIntent = getPackageManager().getLaunchIntentForPackage(appPackageName);
 			startActivity(launchIntent);
 		}
 		else {
 			Log.e(LOG_TAG, String.format("launchApp() package non valido: %s", appPackageName));
 			
-			mTTS.speak(getString(R.string.tts_launching_error), TextToSpeech.QUEUE_ADD, null);
+			speak(R.string.tts_launching_error, TtsScheduler.PRIORITY_ERROR);
+		}
+	}
+	
+	/**
+	 * Restituisce una copia dell'intent di avvio dell'applicazione specificata, risolto
+	 * in anticipo durante l'avvio del servizio oppure, se necessario, al momento.
+	 * 
+	 * @param packageName il nome del package dell'applicazione
+	 * @return l'intent di avvio, oppure <code>null</code> se il package non  installato
+	 */
+	private Intent getLaunchIntent(String packageName) {
+		Intent launchIntent = mLaunchIntents.get(packageName);
+		if (launchIntent == null) {
+			launchIntent = getPackageManager().getLaunchIntentForPackage(packageName);
+			if (launchIntent == null)
+				return null;
+			mLaunchIntents.put(packageName, launchIntent);
+		}
+		return new Intent(launchIntent);
+	}
+	
+	/**
+	 * Risolve in anticipo gli intent di avvio delle applicazioni configurate, in modo che
+	 * l'avvio di un'applicazione non debba interrogare il PackageManager. Viene invocato
+	 * durante l'avvio del servizio, in un thread secondario.
+	 * 
+	 * @param config la configurazione dei comandi
+	 */
+	private void prefetchLaunchIntents(CommandConfiguration config) {
+		for (String appId : config.getAvailableApps()) {
+			String packageName = config.getPackageName(appId, null);
+			if (packageName == null || packageName.isEmpty() || mLaunchIntents.containsKey(packageName))
+				continue;
+			
+			Intent launchIntent = getPackageManager().getLaunchIntentForPackage(packageName);
+			if (launchIntent != null)
+				mLaunchIntents.put(packageName, launchIntent);
 		}
 	}
 	
@@ -260,22 +780,221 @@ public class VoiceControlService extends Service implements OnInitListener {
 	 * chiusura.
 	 * <p>
 	 * Questo metodo  invocato dall'applicazione controllata dopo che ha completato la procedura
-	 * di avvio e consente ad essa di inviare un riferimento all'interfaccia di callback.
+	 * di avvio e consente ad essa di inviare un riferimento all'interfaccia di callback. Pi
+	 * applicazioni possono restare collegate contemporaneamente: soltanto la registrazione da
+	 * parte dell'applicazione in fase di avvio comporta il passaggio allo stato APP_RUNNING.
 	 * 
 	 * @param callback la callback per pilotare l'applicazione
+	 * @param packages i package associati al processo chiamante
 	 * @see #launchApp(String)
 	 */
-	private void registerCallbackImpl(IServiceCallback callback) {
+	private void registerCallbackImpl(IServiceCallback callback, String[] packages) {
 		Log.i(LOG_TAG, "registerCallbackImpl()");
 		
+		String appId = null, appPackageName = null;
+		for (int i=0; packages != null && i < packages.length && appId == null; i++) {
+			appId = prefs.getConfiguration().getAppId(packages[i], null);
+			appPackageName = packages[i];
+		}
+		
+		if (appId == null) {
+			Log.e(LOG_TAG, "registerCallbackImpl(): applicazione non configurata");
+			return;
+		}
+		
 		// Salva un riferimento alla callback per poter successivamente
 		// inviare dei messaggi contenenti comandi per l'applicazione.
-		mApplicationCallback = callback;
+		if (!mClients.register(appId, appPackageName, callback)) {
+			Log.e(LOG_TAG, String.format("registerCallbackImpl(): %s non pi attiva", appId));
+			return;
+		}
+		
+		// Le notifiche vengono inviate solo ai cambiamenti di stato,
+		// quindi la nuova applicazione riceve subito lo stato corrente.
+		try {
+			callback.listening(mListeningNotifier.isActive(), mListeningNotifier.getError());
+		} catch (RemoteException e) {
+			Log.e(LOG_TAG, "registerCallbackImpl(): RemoteException " + e.getMessage());
+		}
 		
 		// Imposta lo stato e invia un feedback all'utente.
-		mCurrentAppStatus = ApplicationStatus.APP_RUNNING;
-		mTTS.playSilence(250, TextToSpeech.QUEUE_FLUSH, null);
-		mTTS.speak(getString(R.string.tts_app_started), TextToSpeech.QUEUE_ADD, null);
+		if (mCurrentAppStatus == ApplicationStatus.LAUNCHING_APP && appId.equals(mCurrentApp)) {
+			setAppStatus(ApplicationStatus.APP_RUNNING);
+			speak(R.string.tts_app_started, TtsScheduler.PRIORITY_RESULT);
+		}
+		else if (mCurrentAppStatus == ApplicationStatus.NOTHING && isForeground(appPackageName)) {
+			// Dopo un riavvio del servizio le applicazioni in esecuzione si registrano di nuovo:
+			// quella in primo piano torna ad essere l'applicazione corrente, senza feedback, e
+			// gli esiti che reinvia vengono accettati (si veda isExpectedResult).
+			Log.i(LOG_TAG, String.format("registerCallbackImpl(): %s in primo piano, riadottata", appId));
+			mCurrentApp = appId;
+			setAppStatus(ApplicationStatus.APP_RUNNING);
+		}
+	}
+	
+	/**
+	 * Rimuove la callback registrata in precedenza da un'applicazione, tipicamente
+	 * invocato dall'applicazione stessa subito prima di chiudersi.
+	 * 
+	 * @param callback la callback da rimuovere
+	 */
+	private void unregisterCallbackImpl(IServiceCallback callback) {
+		ClientRegistry.Client client = mClients.unregister(callback);
+		Log.i(LOG_TAG, String.format("unregisterCallbackImpl(): %s", client));
+	}
+	
+	/**
+	 * Gestisce la terminazione inattesa del processo di un'applicazione collegata:
+	 * se si tratta dell'applicazione corrente, il servizio torna allo stato iniziale.
+	 * 
+	 * @param client l'applicazione il cui processo  terminato
+	 */
+	private void clientDiedImpl(ClientRegistry.Client client) {
+		Log.w(LOG_TAG, String.format("clientDiedImpl(client: %s)", client));
+		
+		if (client.appId.equals(mCurrentApp) && mCurrentAppStatus != ApplicationStatus.LAUNCHING_APP) {
+			setAppStatus(ApplicationStatus.NOTHING);
+			mCurrentApp = null;
+		}
+	}
+	
+	/**
+	 * Verifica se il package specificato appartiene ad un processo in primo piano.
+	 * 
+	 * @param packageName il package dell'applicazione
+	 * @return <code>true</code> se l'applicazione  in primo piano
+	 */
+	private boolean isForeground(String packageName) {
+		ActivityManager manager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+		List<ActivityManager.RunningAppProcessInfo> processes = manager.getRunningAppProcesses();
+		for (int i=0; processes != null && i < processes.size(); i++) {
+			ActivityManager.RunningAppProcessInfo process = processes.get(i);
+			if (process.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND
+					&& process.pkgList != null && Arrays.asList(process.pkgList).contains(packageName))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Restituisce i package associati al processo che ha effettuato la chiamata corrente
+	 * tramite il binder. Deve essere invocato dal thread del binder.
+	 * 
+	 * @return i package del processo chiamante, oppure <code>null</code>
+	 */
+	private String[] getCallingPackages() {
+		return getPackageManager().getPackagesForUid(Binder.getCallingUid());
+	}
+	
+	/**
+	 * Verifica se uno dei package specificati appartiene all'applicazione corrente.
+	 * 
+	 * @param packages i package del processo chiamante
+	 * @return <code>true</code> se il chiamante  l'applicazione corrente
+	 */
+	private boolean isCurrentApp(String[] packages) {
+		ClientRegistry.Client client = mClients.get(mCurrentApp);
+		if (client != null && packages != null)
+			for (String packageName : packages)
+				if (packageName.equals(client.packageName))
+					return true;
+		
+		Log.w(LOG_TAG, String.format("isCurrentApp(): chiamata ignorata, app corrente %s", mCurrentApp));
+		return false;
+	}
+	
+	/**
+	 * Crea il watchdog degli stati, con le durate massime di ciascuno stato.
+	 * 
+	 * @return il watchdog
+	 */
+	private static StateWatchdog createWatchdog() {
+		ApplicationStatus[] states = ApplicationStatus.values();
+		String[] names = new String[states.length];
+		long[] timeouts = new long[states.length];
+		for (ApplicationStatus state : states)
+			names[state.ordinal()] = state.name();
+		timeouts[ApplicationStatus.LAUNCHING_APP.ordinal()] = LAUNCH_TIMEOUT_MS;
+		timeouts[ApplicationStatus.EXECUTING_CMD.ordinal()] = EXECUTE_TIMEOUT_MS;
+		timeouts[ApplicationStatus.CLOSING_APP.ordinal()] = CLOSE_TIMEOUT_MS;
+		return new StateWatchdog(names, timeouts);
+	}
+	
+	/**
+	 * Imposta lo stato corrente e ne attiva la scadenza, in sostituzione di quella dello
+	 * stato precedente. Deve essere invocato, dal main thread, ad ogni cambiamento di stato.
+	 * 
+	 * @param status il nuovo stato
+	 */
+	private void setAppStatus(ApplicationStatus status) {
+		mCurrentAppStatus = status;
+		mHandler.removeCallbacks(mWatchdogTimer);
+		long deadline = mWatchdog.arm(status.ordinal(), mCurrentApp, SystemClock.uptimeMillis());
+		if (deadline > 0)
+			mHandler.postAtTime(mWatchdogTimer, deadline);
+	}
+	
+	/**
+	 * Gestisce la scadenza dello stato corrente, cio un'applicazione che non si  registrata
+	 * dopo l'avvio, non ha inviato l'esito di un comando oppure non ha confermato la chiusura:
+	 * il servizio abbandona l'attesa, in modo che l'applicazione non possa bloccarlo, e ne
+	 * informa l'utente. Un'eventuale risposta successiva viene ignorata.
+	 */
+	private void onStateTimeout() {
+		int expired = mWatchdog.expire(SystemClock.uptimeMillis());
+		if (expired == StateWatchdog.NO_STATE)
+			return;
+		
+		ApplicationStatus status = ApplicationStatus.values()[expired];
+		Log.w(LOG_TAG, String.format("onStateTimeout(): %s scaduto dopo %d ms (app corrente: %s)",
+				status, mWatchdog.getTimeout(expired), mCurrentApp));
+		switch (status) {
+		case LAUNCHING_APP:
+			mCurrentApp = null;
+			setAppStatus(ApplicationStatus.NOTHING);
+			speak(R.string.tts_launch_timeout, TtsScheduler.PRIORITY_ERROR);
+			break;
+		case EXECUTING_CMD:
+			mExecutingCommand = LatencyTracer.NO_COMMAND;
+			setAppStatus(ApplicationStatus.APP_RUNNING);
+			speak(R.string.tts_cmd_timeout, TtsScheduler.PRIORITY_ERROR);
+			break;
+		case CLOSING_APP:
+			mCurrentApp = null;
+			setAppStatus(ApplicationStatus.NOTHING);
+			speak(R.string.tts_closing_timeout, TtsScheduler.PRIORITY_ERROR);
+			break;
+		default:
+			break;
+		}
+	}
+	
+	/**
+	 * Verifica se l'esito ricevuto si riferisce al comando di cui si attende l'esito. Dopo un
+	 * riavvio del servizio, viene accettato anche l'esito di un comando inviato da un'istanza
+	 * precedente, se l'applicazione che lo invia  stata riadottata come applicazione corrente
+	 * (si veda {@link #registerCallbackImpl(IServiceCallback, String[])}) e non  in corso un
+	 * altro comando; ciascuno di questi esiti viene applicato una sola volta. Gli esiti duplicati
+	 * oppure relativi a comandi gi conclusi vengono rifiutati e registrati nelle statistiche.
+	 * 
+	 * @param commandId l'ID del comando a cui si riferisce l'esito
+	 * @return <code>true</code> se l'esito deve essere applicato
+	 */
+	private boolean isExpectedResult(long commandId) {
+		if (mCurrentAppStatus == ApplicationStatus.EXECUTING_CMD && commandId == mExecutingCommand)
+			return true;
+		
+		if (mCurrentAppStatus == ApplicationStatus.APP_RUNNING && commandId <= mTracer.getBaseId()
+				&& commandId > mLastReplayedCommand) {
+			Log.i(LOG_TAG, String.format("isExpectedResult(): esito del comando %d di un'istanza precedente", commandId));
+			mLastReplayedCommand = commandId;
+			mReplayedResults++;
+			return true;
+		}
+		
+		Log.w(LOG_TAG, String.format("isExpectedResult(): esito del comando %d rifiutato (stato: %s, atteso: %d)",
+				commandId, mCurrentAppStatus, mExecutingCommand));
+		return false;
 	}
 	
 	/**
@@ -292,18 +1011,20 @@ public class VoiceControlService extends Service implements OnInitListener {
 	private void executeCommand(Bundle params) {
 		Log.i(LOG_TAG, String.format("executeCommand(params: %s)", params.toString()));
 		
-		if (mApplicationCallback != null) {
+		IServiceCallback callback = mClients.getCallback(mCurrentApp);
+		if (callback != null) {
 			try {
-				mCurrentAppStatus = ApplicationStatus.EXECUTING_CMD;
-				mTTS.speak(getString(R.string.tts_sending_cmd), TextToSpeech.QUEUE_ADD, null);
-				mApplicationCallback.execute(params);   // invia il comando
+				setAppStatus(ApplicationStatus.EXECUTING_CMD);
+				mExecutingCommand = mCurrentCommand;
+				speak(R.string.tts_sending_cmd, TtsScheduler.PRIORITY_PROGRESS);
+				mTracer.mark(mCurrentCommand, LatencyTracer.STAGE_DISPATCH, System.nanoTime());
+				callback.execute(mCurrentCommand, params);   // invia il comando
 			}
 			catch (RemoteException e) {
 				Log.e(LOG_TAG, "executeCommand(): RemoteException " + e.getMessage());
 				
-				mCurrentAppStatus = ApplicationStatus.APP_RUNNING;
-				mTTS.playSilence(250, TextToSpeech.QUEUE_FLUSH, null);
-				mTTS.speak(getString(R.string.tts_sending_cmd_error), TextToSpeech.QUEUE_ADD, null);
+				setAppStatus(ApplicationStatus.APP_RUNNING);
+				speak(R.string.tts_sending_cmd_error, TtsScheduler.PRIORITY_ERROR);
 			}
 		}
 		else {
@@ -332,15 +1053,13 @@ public class VoiceControlService extends Service implements OnInitListener {
 	private void resultFromExecuteImpl(boolean success, String utterance) {
 		Log.i(LOG_TAG, String.format("resultFromExecuteImpl(success: %b, utterance: %s)", success, utterance));
 		
-		mCurrentAppStatus = ApplicationStatus.APP_RUNNING;
-		mTTS.playSilence(250, TextToSpeech.QUEUE_FLUSH, null);
+		setAppStatus(ApplicationStatus.APP_RUNNING);
+		mExecutingCommand = LatencyTracer.NO_COMMAND;
+		int priority = (success ? TtsScheduler.PRIORITY_RESULT : TtsScheduler.PRIORITY_ERROR);
 		if (utterance == null || utterance.isEmpty()) {
-			mTTS.speak(
-					getString(success ? R.string.tts_cmd_completed : R.string.tts_cmd_error),
-					TextToSpeech.QUEUE_ADD,
-					null);
+			speak(success ? R.string.tts_cmd_completed : R.string.tts_cmd_error, priority);
 		}
-		else mTTS.speak(utterance, TextToSpeech.QUEUE_ADD, null);
+		else speak(utterance, priority);
 	}
 	
 	/**
@@ -355,18 +1074,18 @@ public class VoiceControlService extends Service implements OnInitListener {
 	private void closeApp(Bundle params) {
 		Log.i(LOG_TAG, String.format("closeApp(params: %s)", params));
 		
-		if (mApplicationCallback != null) {
+		IServiceCallback callback = mClients.getCallback(mCurrentApp);
+		if (callback != null) {
 			try {
-				mCurrentAppStatus = ApplicationStatus.CLOSING_APP;
-				mTTS.speak(getString(R.string.tts_closing_app), TextToSpeech.QUEUE_ADD, null);
-				mApplicationCallback.close(params);   // invia la richiesta di chiusura
+				setAppStatus(ApplicationStatus.CLOSING_APP);
+				speak(R.string.tts_closing_app, TtsScheduler.PRIORITY_PROGRESS);
+				callback.close(params);   // invia la richiesta di chiusura
 			}
 			catch (RemoteException e) {
 				Log.e(LOG_TAG, "closeApp(): RemoteException " + e.getMessage());
 				
-				mCurrentAppStatus = ApplicationStatus.APP_RUNNING;
-				mTTS.playSilence(250, TextToSpeech.QUEUE_FLUSH, null);
-				mTTS.speak(getString(R.string.tts_closing_error), TextToSpeech.QUEUE_ADD, null);
+				setAppStatus(ApplicationStatus.APP_RUNNING);
+				speak(R.string.tts_closing_error, TtsScheduler.PRIORITY_ERROR);
 			}
 		}
 		else {
@@ -387,15 +1106,16 @@ public class VoiceControlService extends Service implements OnInitListener {
 	private void confirmClosingImpl() {
 		Log.i(LOG_TAG, "confirmClosingImpl()");
 		
-		mCurrentAppStatus = ApplicationStatus.NOTHING;
-		mTTS.playSilence(250, TextToSpeech.QUEUE_FLUSH, null);
-		mTTS.speak(getString(R.string.tts_app_closed), TextToSpeech.QUEUE_ADD, null);
+		setAppStatus(ApplicationStatus.NOTHING);
+		mCurrentApp = null;
+		speak(R.string.tts_app_closed, TtsScheduler.PRIORITY_RESULT);
 	}
 	
 	/**
-	 * Consente di informare l'applicazione controllata circa i cambiamenti di stato
+	 * Consente di informare le applicazioni collegate circa i cambiamenti di stato
 	 * del riconoscitore vocale, cio quando viene attivato o disattivato, oppure se
-	 * si verificano errori durante la sua esecuzione.
+	 * si verificano errori durante la sua esecuzione. Le notifiche ridondanti vengono
+	 * scartate e quelle ravvicinate accorpate (si veda {@link ListeningNotifier}).
 	 * <p>
 	 * Questo metodo dovrebbe essere invocato da determinati metodi dell'interfaccia
 	 * di callback <code>RecognitionListener</code> associata allo speech recognizer,
@@ -420,13 +1140,7 @@ public class VoiceControlService extends Service implements OnInitListener {
 	private void setListeningStatus(boolean active, int error) {
 		Log.i(LOG_TAG, String.format("setListeningStatus(active: %b, error: %d)", active, error));
 		
-		if (mApplicationCallback != null && mCurrentAppStatus == ApplicationStatus.APP_RUNNING)
-			try {
-				Log.v(LOG_TAG, "setListeningStatus(): richiama listening");
-				mApplicationCallback.listening(active, error);
-			} catch (RemoteException e) {
-				Log.e(LOG_TAG, "setListeningStatus(): RemoteException " + e.getMessage());
-			}
+		mListeningNotifier.update(active, error);
 	}
 	
 	/**
@@ -446,39 +1160,72 @@ public class VoiceControlService extends Service implements OnInitListener {
 	 *                ad un'operazione di riconoscimento vocale
 	 */
 	private void processingResults(ArrayList<String> results) {
-		Log.i(LOG_TAG, String.format("processingResults(results: %s)", results.toString()));
+		Log.i(LOG_TAG, String.format("processingResults(results: %s)", results));
+		
+		// Configurazione e stringhe attese coerenti per l'intera elaborazione.
+		CommandIndex index = getCommandIndex(prefs.getConfiguration());
+		
+		// Le ipotesi normalizzate vengono lette direttamente dal motore decisionale.
+		HypothesisBuffer hypotheses = HypothesisBuffer.obtain().fill(results, index.getNormalizer());
+		try {
+			processingResults(index, results, hypotheses);
+		}
+		finally {
+			hypotheses.recycle();
+		}
+	}
+	
+	/**
+	 * Elabora i risultati del riconoscimento vocale, gi normalizzati.
+	 * 
+	 * @param index le stringhe attese, relative alla configurazione corrente
+	 * @param results la lista dei risultati relativi ad un'operazione di riconoscimento vocale
+	 * @param hypotheses gli stessi risultati, normalizzati
+	 * @see #processingResults(ArrayList)
+	 */
+	private void processingResults(CommandIndex index, ArrayList<String> results, HypothesisBuffer hypotheses) {
+		boolean verbose = Log.isLoggable(LOG_TAG, Log.VERBOSE);
+		
+		/*
+		 * Risposta ad una scelta tra due comandi proposta in precedenza.
+		 */
+		if (processingChoice(hypotheses))
+			return;
 		
 		/*
 		 * Nessuna applicazione attiva.
 		 * Ci si aspetta una richiesta vocale per avviare un'applicazione.
 		 */
+		CommandConfiguration config = index.getConfiguration();
+		
 		if (mCurrentAppStatus == ApplicationStatus.NOTHING) {
-			// Comando atteso per l'avvio di un'applicazione.
-			String expected_cmd_prefix = getString(R.string.keywords_cats) // call attention to speech
-					+ ' ' + getString(R.string.keywords_launch) + ' ';
-			
-			// Applicazioni disponibili da avviare.
-			ArrayList<String> available_apps = new ArrayList<String>(
-					prefs.getStringSet("AvailableApps", null));
+			// Applicazioni disponibili da avviare e relativi comandi di avvio
+			// ("android avvia <app>", dove android richiama l'attenzione).
+			List<String> available_apps = index.getLaunchOptions();
+			List<String> expected_cmds = index.getLaunchStrings();
 			
-			Log.v(LOG_TAG, String.format("Rilevazione comando: %s", results.toString()));
-			Log.v(LOG_TAG, String.format("Comandi attesi: %s%s", expected_cmd_prefix, available_apps.toString()));
+			if (verbose)
+				Log.v(LOG_TAG, String.format("Rilevazione comando: %s, comandi attesi: %s", hypotheses, expected_cmds));
 			
 			// Indice restituito dal motore decisionale: se non  negativo,
 			// permette di accedere al nome dell'applicazione da avviare.
-			int decision_index = mDE.getExpectedString(expected_cmd_prefix, available_apps, results, 15);
+			mTracer.mark(mCurrentCommand, LatencyTracer.STAGE_DECISION_START, System.nanoTime());
+			DecisionResult decision = decide(config, expected_cmds, index.getLaunchShards(),
+					index.getLaunchSpotter(), results, hypotheses);
+			mTracer.mark(mCurrentCommand, LatencyTracer.STAGE_DECISION_END, System.nanoTime());
 			
-			if (decision_index == DecisionEngine.NO_MATCH) {
+			if (decision.getIndex() == DecisionEngine.NO_MATCH) {
 				Log.v(LOG_TAG, "Comando non valido o applicazione non configurata");
-				mTTS.speak(getString(R.string.tts_start_error), TextToSpeech.QUEUE_FLUSH, null);
+				speak(R.string.tts_start_error, TtsScheduler.PRIORITY_ERROR);
 			}
-			else if (decision_index == DecisionEngine.MULTIPLE_MATCHES) {
-				Log.v(LOG_TAG, "Indecisione tra almeno due comandi");
-				mTTS.speak(getString(R.string.tts_repeat_cmd), TextToSpeech.QUEUE_FLUSH, null);
+			else if (decision.getIndex() == DecisionEngine.MULTIPLE_MATCHES) {
+				Log.v(LOG_TAG, String.format("Indecisione tra almeno due comandi: %s", decision));
+				askChoice(config, available_apps, decision, null, hypotheses);
 			}
 			else {
-				launchApp(available_apps.get(decision_index));
+				applyDecision(config, available_apps, decision.getIndex(), null);
 			}
+			decision.recycle();
 			return;
 		}
 		
@@ -487,86 +1234,427 @@ public class VoiceControlService extends Service implements OnInitListener {
 		 * Ci si aspetta uno dei comandi specifici dell'applicazione.
 		 */
 		if (mCurrentAppStatus == ApplicationStatus.APP_RUNNING) {
-			// Comandi attesi per l'applicazione corrente.
-			String expected_cmd_prefix = getString(R.string.keywords_cats) + ' ';
-			ArrayList<String> expected_commands_app = new ArrayList<String>(prefs.getAppCommands(mCurrentApp));
-			expected_commands_app.add(getString(R.string.keywords_finish));
+			// Comandi attesi per l'applicazione corrente (compreso quello di chiusura).
+			List<String> expected_commands_app = index.getAppOptions(mCurrentApp);
+			List<CommandGrammar> expected_cmds = index.getAppCommands(mCurrentApp);
 			
-			Log.v(LOG_TAG, String.format("Rilevazione comando: %s", results.toString()));
-			Log.v(LOG_TAG, String.format("Comandi attesi: %s%s", expected_cmd_prefix, expected_commands_app.toString()));
+			if (verbose)
+				Log.v(LOG_TAG, String.format("Rilevazione comando: %s, comandi attesi: %s", hypotheses, expected_cmds));
 			
-			int decision_index = mDE.getExpectedString(expected_cmd_prefix, expected_commands_app, results, 15);
+			mTracer.mark(mCurrentCommand, LatencyTracer.STAGE_DECISION_START, System.nanoTime());
+			DecisionResult decision = decideCommands(config, expected_cmds, index.getAppShards(mCurrentApp),
+					index.getAppSpotter(mCurrentApp), results, hypotheses);
+			mTracer.mark(mCurrentCommand, LatencyTracer.STAGE_DECISION_END, System.nanoTime());
 			
-			if (decision_index == DecisionEngine.NO_MATCH) {
+			if (decision.getIndex() == DecisionEngine.NO_MATCH) {
 				Log.v(LOG_TAG, "Comando non valido");
 				
-				mTTS.playSilence(250, TextToSpeech.QUEUE_FLUSH, null);
-				mTTS.speak(getString(R.string.tts_invalid_cmd), TextToSpeech.QUEUE_FLUSH, null);
+				speak(R.string.tts_invalid_cmd, TtsScheduler.PRIORITY_ERROR);
 			}
-			else if (decision_index == DecisionEngine.MULTIPLE_MATCHES) {
-				Log.v(LOG_TAG, "Indecisione tra almeno due comandi");
+			else if (decision.getIndex() == DecisionEngine.MULTIPLE_MATCHES) {
+				Log.v(LOG_TAG, String.format("Indecisione tra almeno due comandi: %s", decision));
 				
-				mTTS.playSilence(250, TextToSpeech.QUEUE_FLUSH, null);
-				mTTS.speak(getString(R.string.tts_repeat_cmd), TextToSpeech.QUEUE_FLUSH, null);
+				askChoice(config, expected_commands_app, decision, expected_cmds, hypotheses);
+			}
+			else {
+				CommandGrammar command = expected_cmds.get(decision.getIndex());
+				mConfirmCommand = mCurrentCommand;
+				// Un comando individuato tra altre parole non  utile per apprendere i pesi.
+				mConfirmExpected = (decision.isSpotted() ? null : command.getText());
+				mConfirmHypothesis = hypotheses.getString(decision.getHypothesisIndex());
+				applyDecision(config, expected_commands_app, decision.getIndex(),
+						extractSlots(command, hypotheses, decision.getHypothesisIndex()));
+			}
+			decision.recycle();
+			return;
+		}
+	}
+	
+	/**
+	 * Restituisce l'indice delle stringhe attese relativo alla configurazione specificata,
+	 * costruendolo se l'indice corrente si riferisce ad una configurazione diversa (oppure
+	 * se la sua costruzione, avviata in un thread secondario, non  ancora terminata).
+	 * Pu essere invocato da qualsiasi thread.
+	 * 
+	 * @param config la configurazione corrente
+	 * @return l'indice relativo alla configurazione
+	 */
+	private CommandIndex getCommandIndex(CommandConfiguration config) {
+		CommandIndex index = mCommandIndex;
+		if (index == null || index.getConfiguration() != config) {
+			String cats = getString(R.string.keywords_cats);   // call attention to speech
+			TextNormalizer.Builder normalizer = new TextNormalizer.Builder()
+					.addRepairs(getResources().getStringArray(R.array.keywords_repairs));
+			index = new CommandIndex(config, cats + ' ' + getString(R.string.keywords_launch) + ' ',
+					cats + ' ', getString(R.string.keywords_finish),
+					Arrays.asList(getString(R.string.keywords_first), getString(R.string.keywords_second)),
+					normalizer);
+			mCommandIndex = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * Stabilisce quale comando  il pi probabile tra quelli previsti nello stato corrente,
+	 * restituendo il risultato conservato in cache se la stessa lista di ipotesi  gi stata
+	 * elaborata nelle stesse condizioni (stato, applicazione corrente, versione della
+	 * configurazione e dei pesi del motore decisionale). Se nessuna ipotesi rappresenta
+	 * un comando, il comando viene cercato all'interno delle ipotesi, che possono contenere
+	 * altre parole (per esempio "per favore").
+	 * 
+	 * @param config la configurazione da cui sono ricavati i comandi previsti
+	 * @param expected le stringhe complete dei comandi previsti
+	 * @param shards le partizioni dei comandi previsti, per valutare soltanto quelli pi vicini alle ipotesi
+	 * @param spotter l'automa che individua gli stessi comandi all'interno delle ipotesi
+	 * @param results la lista dei risultati del riconoscimento vocale, che identifica la decisione
+	 * @param hypotheses gli stessi risultati, normalizzati
+	 * @return il risultato, da restituire tramite {@link DecisionResult#recycle()}
+	 */
+	private DecisionResult decide(CommandConfiguration config, List<String> expected, CommandShards shards,
+			CommandSpotter spotter, ArrayList<String> results, HypothesisBuffer hypotheses) {
+		DecisionResult decision = DecisionResult.obtain();
+		DecisionCache.Key key = new DecisionCache.Key(mCurrentAppStatus.name(), mCurrentApp,
+				config.getVersion(), mDE.getCostsVersion(), results);
+		if (mDecisionCache.get(key, decision))
+			return decision;
+		
+		mDE.decide(expected, shards, hypotheses, DECISION_THRESHOLD, decision);
+		spotIfNoMatch(spotter, hypotheses, decision);
+		mDecisionCache.put(key, decision);
+		return decision;
+	}
+	
+	/**
+	 * Come {@link #decide(CommandConfiguration, List, CommandShards, CommandSpotter, ArrayList, HypothesisBuffer)},
+	 * per i comandi delle applicazioni, che possono avere parametri.
+	 * 
+	 * @param config la configurazione da cui sono ricavati i comandi previsti
+	 * @param commands i comandi previsti, compilati
+	 * @param shards le partizioni dei comandi previsti
+	 * @param spotter l'automa che individua gli stessi comandi (senza parametri) all'interno delle ipotesi
+	 * @param results la lista dei risultati del riconoscimento vocale, che identifica la decisione
+	 * @param hypotheses gli stessi risultati, normalizzati
+	 * @return il risultato, da restituire tramite {@link DecisionResult#recycle()}
+	 */
+	private DecisionResult decideCommands(CommandConfiguration config, List<CommandGrammar> commands,
+			CommandShards shards, CommandSpotter spotter, ArrayList<String> results, HypothesisBuffer hypotheses) {
+		DecisionResult decision = DecisionResult.obtain();
+		DecisionCache.Key key = new DecisionCache.Key(mCurrentAppStatus.name(), mCurrentApp,
+				config.getVersion(), mDE.getCostsVersion(), results);
+		if (mDecisionCache.get(key, decision))
+			return decision;
+		
+		mDE.decideCommands(commands, shards, hypotheses, DECISION_THRESHOLD, decision);
+		spotIfNoMatch(spotter, hypotheses, decision);
+		mDecisionCache.put(key, decision);
+		return decision;
+	}
+	
+	/**
+	 * Se la decisione specificata non ha individuato alcun comando, la sostituisce con
+	 * quella ottenuta cercando i comandi all'interno delle ipotesi.
+	 * 
+	 * @param spotter l'automa relativo ai comandi previsti
+	 * @param hypotheses i risultati normalizzati del riconoscimento vocale
+	 * @param decision la decisione da completare
+	 */
+	private void spotIfNoMatch(CommandSpotter spotter, HypothesisBuffer hypotheses, DecisionResult decision) {
+		if (decision.getIndex() != DecisionEngine.NO_MATCH)
+			return;
+		
+		mDE.spot(spotter, hypotheses, DECISION_THRESHOLD, decision);
+		if (decision.getIndex() != DecisionEngine.NO_MATCH)
+			Log.v(LOG_TAG, String.format("Comando individuato all'interno delle ipotesi: %s", decision));
+	}
+	
+	/**
+	 * Estrae dall'ipotesi specificata i valori dei parametri di un comando, da aggiungere
+	 * al Bundle inviato all'applicazione: i numeri come <code>int</code>, le alternative
+	 * e il testo come <code>String</code>.
+	 * 
+	 * @param command il comando scelto
+	 * @param hypotheses i risultati normalizzati del riconoscimento vocale
+	 * @param hypothesis l'indice dell'ipotesi da cui  stato individuato il comando
+	 * @return i parametri, oppure <code>null</code> se il comando non ha parametri
+	 */
+	private Bundle extractSlots(CommandGrammar command, HypothesisBuffer hypotheses, int hypothesis) {
+		if (!command.hasSlots())
+			return null;
+		
+		HashMap<String, Object> values = new HashMap<String, Object>();
+		mDE.extractSlots(command, hypotheses, hypothesis, values);
+		Bundle slots = new Bundle();
+		for (Map.Entry<String, Object> value : values.entrySet()) {
+			if (value.getValue() instanceof Integer)
+				slots.putInt(value.getKey(), (Integer) value.getValue());
+			else slots.putString(value.getKey(), (String) value.getValue());
+		}
+		Log.v(LOG_TAG, String.format("Parametri di \"%s\": %s", command, values));
+		return slots;
+	}
+	
+	/**
+	 * Verifica se i risultati specificati rappresentano la risposta ad una scelta proposta
+	 * all'utente (si veda {@link #askChoice(CommandConfiguration, List, DecisionResult, List, HypothesisBuffer)})
+	 * e, in tal caso,
+	 * intraprende l'azione relativa al comando scelto. La scelta proposta viene comunque
+	 * annullata: se i risultati non rappresentano una risposta, vengono elaborati come
+	 * un nuovo comando.
+	 * 
+	 * @param hypotheses i risultati normalizzati relativi ad un'operazione di riconoscimento vocale
+	 * @return <code>true</code> se i risultati rappresentano la risposta ad una scelta
+	 */
+	private boolean processingChoice(HypothesisBuffer hypotheses) {
+		List<String> options = mChoiceOptions;
+		CommandConfiguration config = mChoiceConfig;
+		mChoiceOptions = null;
+		mChoiceConfig = null;
+		if (options == null || mChoiceStatus != mCurrentAppStatus)
+			return false;
+		
+		// Le risposte sono composte una sola volta, insieme all'indice delle stringhe attese.
+		List<String> ordinals = getCommandIndex(config).getChoiceStrings();
+		
+		mTracer.mark(mCurrentCommand, LatencyTracer.STAGE_DECISION_START, System.nanoTime());
+		int choice = mDE.getExpectedString(ordinals, hypotheses, DECISION_THRESHOLD);
+		mTracer.mark(mCurrentCommand, LatencyTracer.STAGE_DECISION_END, System.nanoTime());
+		
+		if (choice < 0)
+			return false;
+		
+		Log.v(LOG_TAG, String.format("Scelta: %s", options.get(mChoiceIndexes[choice])));
+		applyDecision(config, options, mChoiceIndexes[choice], mChoiceSlots[choice]);
+		return true;
+	}
+	
+	/**
+	 * Propone all'utente di scegliere tra i due comandi migliori di una decisione che si
+	 *  conclusa con un'indecisione, anzich chiedere di ripetere l'intero comando.
+	 * 
+	 * @param config la configurazione da cui sono ricavati i comandi
+	 * @param options la lista dei comandi (applicazioni o comandi dell'applicazione corrente)
+	 *                a cui si riferisce la decisione
+	 * @param decision il risultato della decisione
+	 * @param commands i comandi compilati, paralleli ad options, oppure <code>null</code>
+	 *                 se la decisione riguarda l'avvio di un'applicazione
+	 * @param hypotheses i risultati normalizzati a cui si riferisce la decisione
+	 */
+	private void askChoice(CommandConfiguration config, List<String> options, DecisionResult decision,
+			List<CommandGrammar> commands, HypothesisBuffer hypotheses) {
+		mChoiceOptions = options;
+		mChoiceConfig = config;
+		mChoiceStatus = mCurrentAppStatus;
+		String[] labels = new String[mChoiceIndexes.length];
+		for (int k=0; k < mChoiceIndexes.length; k++) {
+			mChoiceIndexes[k] = decision.getCandidateIndex(k);
+			labels[k] = options.get(mChoiceIndexes[k]);
+			mChoiceSlots[k] = null;
+			if (commands != null && commands.get(mChoiceIndexes[k]).hasSlots()) {
+				// Un comando con parametri viene proposto cos come  stato pronunciato.
+				mChoiceSlots[k] = extractSlots(commands.get(mChoiceIndexes[k]), hypotheses,
+						decision.getCandidateHypothesis(k));
+				labels[k] = hypotheses.getString(decision.getCandidateHypothesis(k));
 			}
-			else if (decision_index < expected_commands_app.size()-1) {
-				this.executeCommand(prefs.getAppCommand(mCurrentApp,
-						expected_commands_app.get(decision_index)));
+		}
+		
+		speak(getString(R.string.tts_choose_cmd, labels[0], labels[1]), TtsScheduler.PRIORITY_ERROR);
+	}
+	
+	/**
+	 * Intraprende l'azione relativa al comando scelto: l'avvio di un'applicazione, se non
+	 *  attiva alcuna applicazione, altrimenti l'invio di un comando all'applicazione corrente
+	 * oppure la sua chiusura (l'ultimo elemento della lista).
+	 * 
+	 * @param config la configurazione da cui sono ricavati i comandi
+	 * @param options la lista dei comandi a cui si riferisce la decisione
+	 * @param index l'indice del comando scelto
+	 * @param slots i parametri estratti dall'ipotesi, da aggiungere a quelli del comando,
+	 *              oppure <code>null</code>
+	 */
+	private void applyDecision(CommandConfiguration config, List<String> options, int index, Bundle slots) {
+		if (mCurrentAppStatus == ApplicationStatus.NOTHING) {
+			launchApp(options.get(index));
+		}
+		else if (mCurrentAppStatus == ApplicationStatus.APP_RUNNING) {
+			if (index < options.size()-1) {
+				Bundle params = config.getAppCommand(mCurrentApp, options.get(index));
+				if (slots != null)
+					params.putAll(slots);
+				this.executeCommand(params);
 			}
 			else {
 				this.closeApp(null);
 			}
-			return;
 		}
 	}
 	
 	
 	/**
-	 * Questo metodo consente di simulare l'arrivo dei risultati dallo speech recognizer.
+	 * Se il comando a cui si riferisce l'esito  stato eseguito con successo, lo considera
+	 * confermato dall'utente e lo utilizza per apprendere i pesi delle sostituzioni. Ogni
+	 * {@link EditWeightLearner#REBUILD_INTERVAL} comandi confermati, i pesi vengono
+	 * ricalcolati, sostituiti a quelli del motore decisionale e salvati.
+	 * 
+	 * @param commandId l'ID del comando a cui si riferisce l'esito
+	 * @param success l'esito dell'esecuzione
 	 */
-	private void simulaRiconoscimentoVocale() {
-		// TODO: questo metodo serve soltanto per simulare l'arrivo dei risultati dallo speech recognizer.
-		// Al suo posto si dovrebbe implementare il metodo onResults() dell'interfaccia RecognitionListener
-		// e al suo interno invocare il metodo processingResults() sui risultati ricevuti.
+	private void confirmCommand(long commandId, boolean success) {
+		if (commandId != mConfirmCommand || commandId == LatencyTracer.NO_COMMAND)
+			return;
 		
-		TimerTask task = new TimerTask() {
-			int counter = 0;
-			
+		final String expected = mConfirmExpected;
+		final String hypothesis = mConfirmHypothesis;
+		mConfirmCommand = LatencyTracer.NO_COMMAND;
+		mConfirmExpected = mConfirmHypothesis = null;
+		if (!success || expected == null)
+			return;
+		
+		mLearnerExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
-				Log.v(LOG_TAG, "Servizio in esecuzione: " + counter);
-				setListeningStatus(true, 0);
-				
-				switch(counter) {
-				case 5:
-					setListeningStatus(false, 0);
-					processingResults(Voce.getSimulatedVoice01()); // android avvia demo
-					break;
-				case 10:
-					setListeningStatus(false, 0);
-					processingResults(Voce.getSimulatedVoice02()); // android esegui primo comando
-					break;
-				case 15:
-					setListeningStatus(false, 0);
-					processingResults(Voce.getSimulatedVoice03()); // android esegui secondo comando
-					break;
-				case 20:
-					setListeningStatus(false, 0);
-					processingResults(Voce.getSimulatedVoice04()); // android esegui terzo comando
-					break;
-				case 25:
-					setListeningStatus(false, 0);
-					processingResults(Voce.getSimulatedVoice05()); // android chiudi applicazione
-					break;
-				default:
-					break;
+				if (mLearner.observe(expected, hypothesis)) {
+					mDE.setCosts(mLearner.rebuild());
+					Log.i(LOG_TAG, String.format("Pesi ricalcolati: %d coppie", mLearner.getPairCount()));
+					saveEditWeights();
 				}
-				
-				counter++;
+			}
+		});
+	}
+	
+	/**
+	 * Salva i conteggi del learner. Deve essere invocato nel thread del learner.
+	 */
+	private void saveEditWeights() {
+		try {
+			mLearner.save(new File(getFilesDir(), EDIT_WEIGHTS_FILE));
+		}
+		catch (IOException e) {
+			Log.e(LOG_TAG, String.format("Impossibile salvare i pesi appresi (%s)", e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Registra le fasi relative all'esecuzione di un comando da parte dell'applicazione,
+	 * il cui esito  appena stato ricevuto, e lo rende il comando vocale corrente.
+	 * 
+	 * @param commandId l'ID del comando a cui si riferisce l'esito
+	 * @param trace gli istanti di inizio e fine dell'esecuzione, oppure <code>null</code>
+	 * @param received l'istante di ricezione dell'esito
+	 */
+	private void traceResult(long commandId, Bundle trace, long received) {
+		if (trace != null) {
+			mTracer.mark(commandId, LatencyTracer.STAGE_APP_EXECUTE_START, trace.getLong(CommandTrace.KEY_EXECUTE_START));
+			mTracer.mark(commandId, LatencyTracer.STAGE_APP_EXECUTE_END, trace.getLong(CommandTrace.KEY_EXECUTE_END));
+		}
+		mTracer.mark(commandId, LatencyTracer.STAGE_RESULT_RECEIVED, received);
+		mCurrentCommand = commandId;
+	}
+	
+	/**
+	 * Scrive lo stato del servizio e le statistiche raccolte, tra cui la distribuzione
+	 * delle latenze di ciascuna fase dei comandi vocali. Viene invocato tramite
+	 * <code>adb shell dumpsys activity service org.semm.android.vcf/.VoiceControlService</code>.
+	 * 
+	 * @see android.app.Service#dump(FileDescriptor, PrintWriter, String[]) dump
+	 */
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		writer.println(String.format("Stato: %s (app corrente: %s, app collegate: %d)",
+				mCurrentAppStatus, mCurrentApp, mClients.size()));
+		writer.println(String.format("Riconoscitore: %s, in ascolto: %b",
+				(mRecognitionSource != null ? mRecognitionSource.getClass().getSimpleName() : null),
+				mListeningNotifier.isActive()));
+		if (mCoordinator != null)
+			writer.println(String.format("Half-duplex: sospensioni %d, risultati scartati %d, ripresa media %.1f ms",
+					mCoordinator.getSuspendCount(), mCoordinator.getDiscardedCount(),
+					mCoordinator.getMeanResumeMillis()));
+		writer.println(String.format("TTS: pronunciati %d, scartati %d, interrotti %d, cache %d/%d",
+				mTtsScheduler.getSpokenCount(), mTtsScheduler.getDroppedCount(),
+				mTtsScheduler.getInterruptedCount(), mUtteranceCache.getHitCount(),
+				mUtteranceCache.getHitCount() + mUtteranceCache.getMissCount()));
+		writer.println("Motore decisionale:");
+		mDE.getMetrics().dump(writer, "  ");
+		writer.println(String.format("  cache: %d risultati, successi %d (%.1f%%), fallimenti %d, scartati %d",
+				mDecisionCache.size(), mDecisionCache.getHitCount(), mDecisionCache.getHitRate(),
+				mDecisionCache.getMissCount(), mDecisionCache.getEvictionCount()));
+		writer.println(String.format("  pesi appresi: comandi %d, coppie osservate %d, ricalcoli %d, simboli %d",
+				mLearner.getObservationCount(), mLearner.getPairCount(), mLearner.getRebuildCount(),
+				mDE.getCosts().getSymbolCount()));
+		CommandIndex index = mCommandIndex;
+		if (index != null) {
+			writer.println("Partizioni dei comandi (chiave(comandi):scelte):");
+			index.getLaunchShards().dump(writer, "  avvio: ");
+			if (mCurrentApp != null)
+				index.getAppShards(mCurrentApp).dump(writer, String.format("  %s: ", mCurrentApp));
+		}
+		writer.println(String.format("Esiti: di istanze precedenti applicati %d, rifiutati %d",
+				mReplayedResults, mRejectedResults));
+		writer.println("Scadenze per applicazione (stato scadute/attivate):");
+		mWatchdog.dump(writer, "  ");
+		writer.println("Latenze per fase (dalla fase precedente):");
+		mTracer.dump(writer, "  ");
+		writer.println("Avvio (dalla creazione del servizio):");
+		mStartup.dump(writer, "  ");
+	}
+	
+	/**
+	 * Crea la sorgente dei risultati del riconoscimento vocale: la riproduzione di un log
+	 * registrato, se presente, altrimenti il riconoscitore del dispositivo oppure, in sua
+	 * assenza, la simulazione. Se sono disponibili le registrazioni della parola di attivazione,
+	 * il riconoscitore del dispositivo viene avviato soltanto dopo averla rilevata.
+	 * 
+	 * @return la sorgente dei risultati
+	 */
+	private RecognitionSource createRecognitionSource() {
+		// I risultati delle sorgenti simulate vengono elaborati nel main thread.
+		Executor mainThread = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				mHandler.post(command);
 			}
 		};
-		timer = new Timer();
-		timer.schedule(task, 0, 5000);
+		
+		File log = new File(getFilesDir(), REPLAY_LOG);
+		if (log.exists()) {
+			try {
+				Log.i(LOG_TAG, String.format("createRecognitionSource(): riproduzione di %s", log));
+				return new ReplayRecognitionSource(log, REPLAY_RATE, false, mainThread);
+			}
+			catch (IOException e) {
+				Log.e(LOG_TAG, String.format("createRecognitionSource(): log non valido (%s)", e.getMessage()));
+			}
+		}
+		
+		if (SpeechRecognizer.isRecognitionAvailable(this)) {
+			ContinuousRecognizer recognizer = new ContinuousRecognizer(this, mHandler, RECOGNIZER_LANGUAGE);
+			
+			WakeWordDetector detector = new WakeWordDetector();
+			int templates = detector.loadTemplates(new File(getFilesDir(), WAKE_WORD_DIR));
+			if (templates == 0)
+				return recognizer;
+			
+			Log.i(LOG_TAG, String.format("createRecognitionSource(): %d template della parola di attivazione", templates));
+			return new WakeWordGate(recognizer, detector, mHandler, getString(R.string.keywords_cats));
+		}
+		return simulaRiconoscimentoVocale(mainThread);
+	}
+	
+	/**
+	 * Questo metodo consente di simulare l'arrivo dei risultati dallo speech recognizer,
+	 * qualora il dispositivo non disponga di un riconoscitore vocale.
+	 * 
+	 * @param executor l'executor tramite cui consegnare i risultati
+	 * @return la sorgente dei risultati simulati
+	 * @see ContinuousRecognizer
+	 */
+	private RecognitionSource simulaRiconoscimentoVocale(Executor executor) {
+		ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>();
+		results.add(Voce.getSimulatedVoice01());   // android avvia demo
+		results.add(Voce.getSimulatedVoice02());   // android esegui primo comando
+		results.add(Voce.getSimulatedVoice03());   // android esegui secondo comando
+		results.add(Voce.getSimulatedVoice04());   // android esegui terzo comando
+		results.add(Voce.getSimulatedVoice05());   // android chiudi applicazione
+		return new ListRecognitionSource(results, SIMULATION_INTERVAL_MS, false, executor);
 	}
 
 }
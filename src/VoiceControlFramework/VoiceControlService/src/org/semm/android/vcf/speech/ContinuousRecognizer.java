@@ -0,0 +1,303 @@
+package org.semm.android.vcf.speech;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.speech.RecognitionListener;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+/**
+ * La classe <code>ContinuousRecognizer</code> implementa l'ascolto continuo tramite lo
+ * {@link android.speech.SpeechRecognizer} di sistema.
+ * <p>
+ * Viene utilizzata un'unica istanza del riconoscitore per tutta la durata del servizio, per cui
+ * ogni nuova sessione di riconoscimento riutilizza la connessione gi stabilita. Al termine di
+ * una sessione, sia in seguito alla ricezione dei risultati sia in caso di errore, ne viene
+ * avviata immediatamente un'altra, con un ritardo che dipende dal tipo di errore: nullo per
+ * il silenzio o per l'assenza di corrispondenze, breve per il riconoscitore occupato e crescente
+ * in modo esponenziale per gli errori di rete, del server o dell'audio.
+ * <p>
+ * I risultati vengono consegnati alla callback non appena ricevuti. Tutti i metodi devono essere
+ * invocati dal main thread, come richiesto dallo <code>SpeechRecognizer</code>.
+ *
+ * @author vincenzo
+ * @see android.speech.RecognitionListener
+ * @see RecognitionSource
+ */
+public class ContinuousRecognizer implements RecognitionListener, RecognitionSource {
+
+	/* Tag per i messaggi di log. */
+	private final static String LOG_TAG = ContinuousRecognizer.class.getSimpleName();
+
+	/* Numero massimo di ipotesi richieste al riconoscitore. */
+	private static final int MAX_RESULTS = 5;
+
+	/* Ritardi di riavvio dopo un errore, in millisecondi. */
+	private static final long BUSY_RETRY_MS = 100;
+	private static final long CLIENT_RETRY_MS = 50;
+	private static final long BACKOFF_BASE_MS = 500;
+	private static final long BACKOFF_MAX_MS = 30000;
+
+	/* Indica che non deve essere effettuato alcun riavvio. */
+	private static final long NO_RETRY = -1;
+
+	/* Contesto in cui viene creato il riconoscitore. */
+	private final Context mContext;
+
+	/* Handler del main thread, per i riavvii ritardati. */
+	private final Handler mHandler;
+
+	/* Callback dei risultati e dello stato di ascolto. */
+	private Callback mCallback;
+
+	/* Riconoscitore vocale, creato una sola volta e poi riutilizzato. */
+	private SpeechRecognizer mRecognizer = null;
+
+	/* Intent di riconoscimento, anch'esso riutilizzato per ogni sessione. */
+	private final Intent mIntent;
+
+	/* Indica se l'ascolto  richiesto e se  in corso una sessione. */
+	private boolean mWanted = false;
+	private boolean mSessionActive = false;
+
+	/*
+	 * Numero di errori consecutivi, per il calcolo del ritardo di riavvio: viene azzerato
+	 * soltanto da un risultato o da una nuova richiesta di ascolto, non dall'inizio di una
+	 * sessione, che precede anche gli errori di rete o del server.
+	 */
+	private int mConsecutiveErrors = 0;
+
+	/* Statistiche: sessioni avviate, risultati ricevuti ed errori per codice. */
+	private long mSessionCount = 0;
+	private long mResultsCount = 0;
+	private final long[] mErrorCounts = new long[16];
+
+	/* Avvia una nuova sessione di riconoscimento. */
+	private final Runnable mRestart = new Runnable() {
+		@Override
+		public void run() {
+			startSession();
+		}
+	};
+
+
+	/**
+	 * Crea un nuovo riconoscitore continuo.
+	 *
+	 * @param context il contesto in cui creare il riconoscitore
+	 * @param handler l'handler del main thread
+	 * @param language la lingua del riconoscimento (per esempio "it-IT")
+	 */
+	public ContinuousRecognizer(Context context, Handler handler, String language) {
+		mContext = context;
+		mHandler = handler;
+
+		mIntent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
+		mIntent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+		mIntent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, language);
+		mIntent.putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, MAX_RESULTS);
+		mIntent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, context.getPackageName());
+	}
+
+	@Override
+	public void setCallback(Callback callback) {
+		mCallback = callback;
+	}
+
+	/**
+	 * Crea il riconoscitore, se non ancora creato.
+	 *
+	 * @see RecognitionSource#prepare()
+	 */
+	@Override
+	public void prepare() {
+		if (mRecognizer == null) {
+			mRecognizer = SpeechRecognizer.createSpeechRecognizer(mContext);
+			mRecognizer.setRecognitionListener(this);
+		}
+	}
+
+	/**
+	 * Avvia l'ascolto continuo.
+	 *
+	 * @see RecognitionSource#startListening()
+	 */
+	@Override
+	public void startListening() {
+		mWanted = true;
+		mConsecutiveErrors = 0;
+		mHandler.removeCallbacks(mRestart);
+		if (!mSessionActive)
+			startSession();
+	}
+
+	/**
+	 * Interrompe l'ascolto continuo, annullando l'eventuale sessione in corso.
+	 *
+	 * @see RecognitionSource#stopListening()
+	 */
+	@Override
+	public void stopListening() {
+		mWanted = false;
+		mHandler.removeCallbacks(mRestart);
+		if (mSessionActive && mRecognizer != null)
+			mRecognizer.cancel();
+		mSessionActive = false;
+		notifyListening(false, 0);
+	}
+
+	/**
+	 * Rilascia definitivamente il riconoscitore.
+	 *
+	 * @see RecognitionSource#release()
+	 */
+	@Override
+	public void release() {
+		stopListening();
+		if (mRecognizer != null) {
+			mRecognizer.destroy();
+			mRecognizer = null;
+		}
+	}
+
+	/**
+	 * Restituisce il numero di sessioni di riconoscimento avviate.
+	 *
+	 * @return il numero di sessioni avviate
+	 */
+	public long getSessionCount() {
+		return mSessionCount;
+	}
+
+	/**
+	 * Restituisce il numero di sessioni concluse con dei risultati.
+	 *
+	 * @return il numero di risultati ricevuti
+	 */
+	public long getResultsCount() {
+		return mResultsCount;
+	}
+
+	/**
+	 * Restituisce il numero di errori ricevuti con il codice specificato.
+	 *
+	 * @param error il codice d'errore dello <code>SpeechRecognizer</code>
+	 * @return il numero di errori con il codice specificato
+	 */
+	public long getErrorCount(int error) {
+		return (error >= 0 && error < mErrorCounts.length ? mErrorCounts[error] : 0);
+	}
+
+	@Override
+	public void onReadyForSpeech(Bundle params) {
+		notifyListening(true, 0);
+	}
+
+	@Override
+	public void onBeginningOfSpeech() {
+	}
+
+	@Override
+	public void onRmsChanged(float rmsdB) {
+	}
+
+	@Override
+	public void onBufferReceived(byte[] buffer) {
+	}
+
+	@Override
+	public void onEndOfSpeech() {
+		// La sessione termina con onResults oppure con onError.
+		notifyListening(false, 0);
+	}
+
+	@Override
+	public void onError(int error) {
+		Log.v(LOG_TAG, String.format("onError(error: %d)", error));
+
+		mSessionActive = false;
+		if (error >= 0 && error < mErrorCounts.length)
+			mErrorCounts[error]++;
+		notifyListening(false, error);
+
+		if (!mWanted)
+			return;
+
+		long delay = retryDelay(error);
+		if (delay == NO_RETRY) {
+			Log.e(LOG_TAG, String.format("onError(): ascolto interrotto (errore %d)", error));
+			mWanted = false;
+		}
+		else if (delay == 0) {
+			startSession();
+		}
+		else {
+			mHandler.postDelayed(mRestart, delay);
+		}
+	}
+
+	@Override
+	public void onResults(Bundle results) {
+		mSessionActive = false;
+		mConsecutiveErrors = 0;
+		mResultsCount++;
+
+		ArrayList<String> hypotheses = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+		if (hypotheses != null && !hypotheses.isEmpty() && mCallback != null)
+			mCallback.onResults(hypotheses);
+
+		// Il listener potrebbe aver interrotto l'ascolto (per esempio per il feedback vocale).
+		if (mWanted && !mSessionActive)
+			startSession();
+	}
+
+	@Override
+	public void onPartialResults(Bundle partialResults) {
+	}
+
+	@Override
+	public void onEvent(int eventType, Bundle params) {
+	}
+
+	/* Avvia una sessione di riconoscimento con il riconoscitore gi creato. */
+	private void startSession() {
+		if (!mWanted)
+			return;
+
+		prepare();
+		mSessionActive = true;
+		mSessionCount++;
+		mRecognizer.startListening(mIntent);
+	}
+
+	/* Calcola il ritardo di riavvio in base al codice d'errore. */
+	private long retryDelay(int error) {
+		switch (error) {
+		case SpeechRecognizer.ERROR_NO_MATCH:
+		case SpeechRecognizer.ERROR_SPEECH_TIMEOUT:
+			return 0;   // nessuno ha parlato: si riprende subito
+		case SpeechRecognizer.ERROR_RECOGNIZER_BUSY:
+			mRecognizer.cancel();
+			return BUSY_RETRY_MS;
+		case SpeechRecognizer.ERROR_CLIENT:
+			return CLIENT_RETRY_MS;
+		case SpeechRecognizer.ERROR_INSUFFICIENT_PERMISSIONS:
+			return NO_RETRY;
+		default:   // rete, server, audio
+			long delay = BACKOFF_BASE_MS << Math.min(mConsecutiveErrors++, 6);
+			return Math.min(delay, BACKOFF_MAX_MS);
+		}
+	}
+
+	/* Informa la callback circa lo stato di ascolto. */
+	private void notifyListening(boolean active, int error) {
+		if (mCallback != null)
+			mCallback.onListeningChanged(active, error);
+	}
+
+}
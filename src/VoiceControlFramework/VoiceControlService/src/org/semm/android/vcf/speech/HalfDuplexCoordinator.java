@@ -0,0 +1,192 @@
+package org.semm.android.vcf.speech;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * La classe <code>HalfDuplexCoordinator</code> impedisce che il riconoscitore vocale ascolti
+ * gli enunciati pronunciati dal servizio stesso: il riconoscimento viene sospeso non appena il
+ * servizio inizia a parlare e riattivato subito dopo che l'ultimo enunciato  stato completato.
+ * <p>
+ * Quando viene avviato l'ultimo enunciato in attesa, il riconoscitore viene preparato in anticipo
+ * (per esempio creando l'intent e la sessione di riconoscimento), in modo che l'ascolto possa
+ * riprendere con un ritardo minimo. Gli eventuali risultati ricevuti mentre il servizio parla
+ * vengono scartati prima di essere elaborati.
+ * <p>
+ * Il coordinatore inoltre riceve dal riconoscitore le variazioni dello stato di ascolto e le
+ * inoltra al listener impostato, per cui le applicazioni vengono informate circa lo stato
+ * effettivo del riconoscitore. Tutti i metodi devono essere invocati dallo stesso thread
+ * dello scheduler del TTS.
+ *
+ * @author vincenzo
+ * @see TtsScheduler
+ * @see RecognitionSource
+ */
+public class HalfDuplexCoordinator implements TtsScheduler.SpeechListener {
+
+	/* Tag per i messaggi di log. */
+	private final static String LOG_TAG = HalfDuplexCoordinator.class.getSimpleName();
+
+	/**
+	 * Permette di essere informati circa lo stato effettivo del riconoscitore vocale.
+	 */
+	public interface OnListeningChangedListener {
+		/**
+		 * Invocato quando il riconoscitore vocale viene attivato o disattivato.
+		 *
+		 * @param active <code>true</code> se il riconoscitore  in ascolto
+		 * @param error il codice dell'eventuale errore
+		 */
+		void onListeningChanged(boolean active, int error);
+	}
+
+	/* Sorgente dei risultati e listener dello stato di ascolto. */
+	private final RecognitionSource mRecognizer;
+	private final OnListeningChangedListener mListener;
+
+	/* Indica se l'ascolto continuo  stato richiesto. */
+	private boolean mEnabled = false;
+
+	/* Indica se il servizio sta parlando, per cui l'ascolto  sospeso. */
+	private boolean mSuspended = false;
+
+	/* Istante in cui il servizio ha terminato di parlare, in attesa della ripresa dell'ascolto. */
+	private long mResumeRequestTime = -1;
+
+	/* Statistiche: sospensioni, risultati scartati e tempo di ripresa dell'ascolto. */
+	private long mSuspendCount = 0;
+	private long mDiscardedCount = 0;
+	private long mResumeCount = 0;
+	private long mResumeMillis = 0;
+
+
+	/**
+	 * Crea un nuovo coordinatore per il riconoscitore specificato.
+	 *
+	 * @param recognizer la sorgente dei risultati da controllare
+	 * @param listener il listener da informare circa lo stato di ascolto
+	 */
+	public HalfDuplexCoordinator(RecognitionSource recognizer, OnListeningChangedListener listener) {
+		mRecognizer = recognizer;
+		mListener = listener;
+	}
+
+	/**
+	 * Avvia l'ascolto continuo, che comincia immediatamente se il servizio non sta parlando.
+	 */
+	public void start() {
+		mEnabled = true;
+		if (!mSuspended) {
+			mRecognizer.prepare();
+			mRecognizer.startListening();
+		}
+	}
+
+	/**
+	 * Interrompe l'ascolto continuo.
+	 */
+	public void stop() {
+		mEnabled = false;
+		mResumeRequestTime = -1;
+		mRecognizer.stopListening();
+	}
+
+	/**
+	 * Verifica se i risultati del riconoscitore possono essere elaborati, cio se l'ascolto
+	 *  attivo e il servizio non sta parlando. I risultati non accettati vengono conteggiati
+	 * come scartati.
+	 *
+	 * @return <code>true</code> se i risultati possono essere elaborati
+	 */
+	public boolean acceptResults() {
+		if (mEnabled && !mSuspended)
+			return true;
+
+		mDiscardedCount++;
+		Log.v(LOG_TAG, "acceptResults(): risultati scartati durante il parlato");
+		return false;
+	}
+
+	/**
+	 * Deve essere invocato dal riconoscitore quando il suo stato di ascolto cambia.
+	 *
+	 * @param active <code>true</code> se il riconoscitore  in ascolto
+	 * @param error il codice dell'eventuale errore
+	 */
+	public void onListeningChanged(boolean active, int error) {
+		if (active && mResumeRequestTime >= 0) {
+			mResumeMillis += SystemClock.uptimeMillis() - mResumeRequestTime;
+			mResumeCount++;
+			mResumeRequestTime = -1;
+		}
+		mListener.onListeningChanged(active, error);
+	}
+
+	/**
+	 * Sospende l'ascolto prima che il servizio inizi a parlare.
+	 *
+	 * @see TtsScheduler.SpeechListener#onSpeechStarted()
+	 */
+	@Override
+	public void onSpeechStarted() {
+		mSuspended = true;
+		mResumeRequestTime = -1;
+		if (mEnabled) {
+			mSuspendCount++;
+			mRecognizer.stopListening();
+		}
+	}
+
+	/**
+	 * Prepara la sessione di riconoscimento successiva durante l'ultimo enunciato.
+	 *
+	 * @see TtsScheduler.SpeechListener#onSpeechEnding()
+	 */
+	@Override
+	public void onSpeechEnding() {
+		if (mEnabled)
+			mRecognizer.prepare();
+	}
+
+	/**
+	 * Riprende l'ascolto non appena il servizio ha terminato di parlare.
+	 *
+	 * @see TtsScheduler.SpeechListener#onSpeechFinished()
+	 */
+	@Override
+	public void onSpeechFinished() {
+		mSuspended = false;
+		if (mEnabled) {
+			mResumeRequestTime = SystemClock.uptimeMillis();
+			mRecognizer.startListening();
+		}
+	}
+
+	/**
+	 * Restituisce il numero di volte in cui l'ascolto  stato sospeso.
+	 *
+	 * @return il numero di sospensioni
+	 */
+	public long getSuspendCount() {
+		return mSuspendCount;
+	}
+
+	/**
+	 * Restituisce il numero di risultati scartati perch ricevuti mentre il servizio parlava.
+	 *
+	 * @return il numero di risultati scartati
+	 */
+	public long getDiscardedCount() {
+		return mDiscardedCount;
+	}
+
+	/**
+	 * Restituisce il tempo medio trascorso tra il termine del parlato e la ripresa dell'ascolto.
+	 *
+	 * @return il tempo medio di ripresa, in millisecondi
+	 */
+	public double getMeanResumeMillis() {
+		return (mResumeCount == 0 ? 0 : (double)mResumeMillis / mResumeCount);
+	}
+
+}
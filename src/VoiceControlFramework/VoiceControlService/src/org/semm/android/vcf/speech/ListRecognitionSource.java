@@ -0,0 +1,41 @@
+package org.semm.android.vcf.speech;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * La classe <code>ListRecognitionSource</code> produce i risultati contenuti in una lista
+ * predefinita, a intervalli regolari di ascolto. Viene utilizzata per simulare il
+ * riconoscimento vocale quando il riconoscitore di sistema non  disponibile.
+ *
+ * @author vincenzo
+ * @see org.semm.android.vcf.temp.Voce
+ */
+public class ListRecognitionSource extends ScriptedRecognitionSource {
+
+	/**
+	 * Crea una nuova sorgente che produce i risultati specificati, uno ogni
+	 * <code>interval</code> millisecondi di ascolto.
+	 *
+	 * @param results le ipotesi relative a ciascun enunciato
+	 * @param interval l'intervallo tra due enunciati, in millisecondi
+	 * @param loop <code>true</code> per ripetere la lista indefinitamente
+	 * @param executor l'executor tramite cui consegnare i risultati
+	 */
+	public ListRecognitionSource(List<ArrayList<String>> results, long interval, boolean loop, Executor executor) {
+		super(toScript(results, interval), 1, loop, executor);
+	}
+
+	/* Associa a ciascun enunciato il relativo istante di consegna. */
+	private static List<Utterance> toScript(List<ArrayList<String>> results, long interval) {
+		ArrayList<Utterance> script = new ArrayList<Utterance>(results.size());
+		long offset = 0;
+		for (ArrayList<String> hypotheses : results) {
+			offset += interval;
+			script.add(new Utterance(offset, hypotheses));
+		}
+		return script;
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.semm.android.vcf.speech;
+
+import java.util.ArrayList;
+
+/**
+ * L'interfaccia <code>RecognitionSource</code> rappresenta una sorgente di risultati di
+ * riconoscimento vocale: il riconoscitore di sistema ({@link ContinuousRecognizer}), una
+ * lista di risultati predefiniti ({@link ListRecognitionSource}) oppure la riproduzione di
+ * risultati registrati in precedenza ({@link ReplayRecognitionSource}).
+ * <p>
+ * Ogni sorgente produce risultati soltanto mentre l'ascolto  attivo, cio tra le invocazioni
+ * di {@link #startListening()} e {@link #stopListening()}, e li consegna alla callback impostata
+ * insieme alle variazioni dello stato di ascolto.
+ *
+ * @author vincenzo
+ * @see HalfDuplexCoordinator
+ */
+public interface RecognitionSource {
+
+	/**
+	 * Riceve i risultati e le variazioni dello stato di ascolto di una sorgente.
+	 */
+	public interface Callback {
+		/**
+		 * Invocato quando la sorgente inizia o smette di ascoltare.
+		 *
+		 * @param active <code>true</code> se la sorgente  in ascolto
+		 * @param error il codice dell'eventuale errore
+		 */
+		void onListeningChanged(boolean active, int error);
+
+		/**
+		 * Invocato quando la sorgente produce i risultati di un enunciato.
+		 *
+		 * @param results le ipotesi relative all'enunciato, dalla pi probabile alla meno probabile
+		 */
+		void onResults(ArrayList<String> results);
+	}
+
+	/**
+	 * Imposta la callback a cui consegnare i risultati.
+	 *
+	 * @param callback la callback della sorgente
+	 */
+	void setCallback(Callback callback);
+
+	/** Prepara la successiva sessione di riconoscimento, senza avviare l'ascolto. */
+	void prepare();
+
+	/** Avvia l'ascolto. */
+	void startListening();
+
+	/** Interrompe l'ascolto, scartando l'eventuale sessione in corso. */
+	void stopListening();
+
+	/** Rilascia definitivamente le risorse della sorgente. */
+	void release();
+
+}
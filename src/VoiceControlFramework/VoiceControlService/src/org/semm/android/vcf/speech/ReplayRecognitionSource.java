@@ -0,0 +1,216 @@
+package org.semm.android.vcf.speech;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.semm.android.vcf.CommandConfiguration;
+import org.semm.android.vcf.CommandIndex;
+import org.semm.android.vcf.VoiceControlService;
+import org.semm.android.vcf.util.DecisionEngine;
+import org.semm.android.vcf.util.DecisionResult;
+import org.semm.android.vcf.util.HypothesisBuffer;
+import org.semm.android.vcf.util.TextNormalizer;
+
+/**
+ * La classe <code>ReplayRecognitionSource</code> riproduce un log di risultati registrati
+ * in precedenza, rispettandone gli intervalli di tempo scalati in base alla velocit di
+ * riproduzione oppure alla massima velocit possibile.
+ * <p>
+ * Il log  un file di testo UTF-8 con un enunciato per riga, nel formato
+ * <pre>
+ * &lt;istante in ms&gt;&lt;TAB&gt;&lt;ipotesi 1&gt;|&lt;ipotesi 2&gt;|...
+ * </pre>
+ * dove gli istanti sono crescenti e vengono considerati relativamente al primo enunciato.
+ * Le righe vuote e quelle che iniziano con <code>#</code> vengono ignorate.
+ * <p>
+ * Il metodo {@link #main(String[])} permette di utilizzare la riproduzione per il test di carico
+ * del motore decisionale su una JVM standard.
+ *
+ * @author vincenzo
+ */
+public class ReplayRecognitionSource extends ScriptedRecognitionSource {
+
+	/* Separatore tra le ipotesi di un enunciato. */
+	private static final String HYPOTHESES_SEPARATOR = "\\|";
+
+	/*
+	 * Applicazione e parole chiave utilizzate da main(), come nelle risorse del servizio
+	 * (res/values/strings.xml), che non sono disponibili al di fuori di Android.
+	 */
+	private static final String REPLAY_APP = "replay";
+	private static final String KEYWORDS_CATS = "android";
+	private static final String KEYWORDS_LAUNCH = "avvia";
+	private static final String KEYWORDS_FINISH = "chiudi applicazione";
+	private static final String[] KEYWORDS_CHOICES = { "primo", "secondo" };
+	private static final String[] KEYWORDS_REPAIRS = { "a via=avvia", "chi di=chiudi" };
+
+	/**
+	 * Crea una nuova sorgente che riproduce il log specificato.
+	 *
+	 * @param log il file contenente il log
+	 * @param rate la velocit di riproduzione (non positiva per la massima velocit)
+	 * @param loop <code>true</code> per ripetere il log indefinitamente
+	 * @param executor l'executor tramite cui consegnare i risultati
+	 * @throws IOException se il log non pu essere letto oppure non  valido
+	 */
+	public ReplayRecognitionSource(File log, double rate, boolean loop, Executor executor) throws IOException {
+		super(load(log), rate, loop, executor);
+	}
+
+	/**
+	 * Legge un log di risultati.
+	 *
+	 * @param log il file contenente il log
+	 * @return gli enunciati contenuti nel log
+	 * @throws IOException se il log non pu essere letto oppure non  valido
+	 */
+	public static List<Utterance> load(File log) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(log), "UTF-8");
+		try {
+			return load(reader);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Legge un log di risultati.
+	 *
+	 * @param reader il reader da cui leggere il log
+	 * @return gli enunciati contenuti nel log
+	 * @throws IOException se il log non pu essere letto oppure non  valido
+	 */
+	public static List<Utterance> load(Reader reader) throws IOException {
+		ArrayList<Utterance> script = new ArrayList<Utterance>();
+		BufferedReader in = new BufferedReader(reader);
+		long first = -1;
+		long previous = 0;
+		int lineNumber = 0;
+
+		String line;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.length() == 0 || line.charAt(0) == '#')
+				continue;
+
+			int tab = line.indexOf('\t');
+			if (tab < 0)
+				throw new IOException(String.format("Riga %d: istante mancante", lineNumber));
+
+			long timestamp;
+			try {
+				timestamp = Long.parseLong(line.substring(0, tab).trim());
+			}
+			catch (NumberFormatException e) {
+				throw new IOException(String.format("Riga %d: istante non valido", lineNumber));
+			}
+			if (first < 0)
+				first = timestamp;
+			if (timestamp - first < previous)
+				throw new IOException(String.format("Riga %d: istante non crescente", lineNumber));
+			previous = timestamp - first;
+
+			ArrayList<String> hypotheses = new ArrayList<String>();
+			for (String hypothesis : line.substring(tab + 1).split(HYPOTHESES_SEPARATOR)) {
+				hypothesis = hypothesis.trim();
+				if (hypothesis.length() > 0)
+					hypotheses.add(hypothesis);
+			}
+			if (!hypotheses.isEmpty())
+				script.add(new Utterance(previous, hypotheses));
+		}
+
+		return script;
+	}
+
+	/**
+	 * Riproduce un log di risultati sottoponendo ogni enunciato al motore decisionale, e
+	 * stampa il numero di enunciati elaborati al secondo e l'esito delle decisioni.
+	 * <p>
+	 * Uso: <code>ReplayRecognitionSource &lt;log&gt; &lt;velocit&gt; &lt;comando&gt; [&lt;comando&gt; ...]</code>,
+	 * dove una velocit pari a 0 indica la massima velocit possibile. I comandi (eventualmente
+	 * con parametri, si veda {@link org.semm.android.vcf.util.CommandGrammar}) vengono configurati
+	 * per un'unica applicazione in esecuzione, e ogni enunciato segue lo stesso percorso del
+	 * servizio: normalizzazione tramite il {@link CommandIndex}, valutazione delle partizioni
+	 * dei comandi compilati con la soglia {@link VoiceControlService#DECISION_THRESHOLD} e, in
+	 * mancanza di corrispondenze, ricerca dei comandi all'interno delle ipotesi. Soltanto la
+	 * cache delle decisioni viene esclusa, per misurare il costo del motore decisionale.
+	 *
+	 * @param args il log, la velocit di riproduzione e i comandi ammessi
+	 * @throws Exception se il log non pu essere letto
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Uso: ReplayRecognitionSource <log> <velocit> <comando> [<comando> ...]");
+			System.exit(2);
+		}
+
+		CommandConfiguration.Builder builder = new CommandConfiguration.Builder().putApp(REPLAY_APP, null);
+		for (int i=2; i < args.length; i++)
+			builder.putCommand(REPLAY_APP, args[i], null);
+		final CommandIndex index = new CommandIndex(builder.build(1),
+				KEYWORDS_CATS + ' ' + KEYWORDS_LAUNCH + ' ', KEYWORDS_CATS + ' ', KEYWORDS_FINISH,
+				Arrays.asList(KEYWORDS_CHOICES), new TextNormalizer.Builder().addRepairs(KEYWORDS_REPAIRS));
+		final List<String> expected = index.getAppOptions(REPLAY_APP);   // compreso il comando di chiusura
+
+		final DecisionEngine engine = new DecisionEngine();
+		final long[] decisions = new long[expected.size() + 2];   // NO_MATCH, MULTIPLE_MATCHES, comandi
+
+		ReplayRecognitionSource source = new ReplayRecognitionSource(new File(args[0]),
+				Double.parseDouble(args[1]), false, new Executor() {
+					@Override
+					public void execute(Runnable command) {
+						command.run();
+					}
+				});
+		source.setCallback(new Callback() {
+			@Override
+			public void onListeningChanged(boolean active, int error) {
+			}
+
+			@Override
+			public void onResults(ArrayList<String> results) {
+				double threshold = VoiceControlService.DECISION_THRESHOLD;
+				HypothesisBuffer hypotheses = HypothesisBuffer.obtain().fill(results, index.getNormalizer());
+				DecisionResult decision = DecisionResult.obtain();
+				try {
+					engine.decideCommands(index.getAppCommands(REPLAY_APP), index.getAppShards(REPLAY_APP),
+							hypotheses, threshold, decision);
+					if (decision.getIndex() == DecisionEngine.NO_MATCH)
+						engine.spot(index.getAppSpotter(REPLAY_APP), hypotheses, threshold, decision);
+					decisions[decision.getIndex() + 2]++;
+				}
+				finally {
+					decision.recycle();
+					hypotheses.recycle();
+				}
+			}
+		});
+
+		source.startListening();
+		source.awaitCompletion();
+
+		System.out.println(String.format("%d enunciati, %.1f enunciati/s",
+				source.getDeliveredCount(), source.getThroughput()));
+		System.out.println(String.format("NO_MATCH: %d", decisions[DecisionEngine.NO_MATCH + 2]));
+		System.out.println(String.format("MULTIPLE_MATCHES: %d", decisions[DecisionEngine.MULTIPLE_MATCHES + 2]));
+		for (int i=0; i < expected.size(); i++)
+			System.out.println(String.format("%s: %d", expected.get(i), decisions[i + 2]));
+
+		PrintWriter writer = new PrintWriter(System.out, true);
+		engine.getMetrics().dump(writer, "");
+		writer.flush();
+	}
+
+}
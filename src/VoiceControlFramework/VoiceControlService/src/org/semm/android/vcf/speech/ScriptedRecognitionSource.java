@@ -0,0 +1,267 @@
+package org.semm.android.vcf.speech;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * La classe <code>ScriptedRecognitionSource</code>  la base delle sorgenti che producono
+ * una sequenza prestabilita di risultati, ciascuno associato all'istante (relativo all'inizio
+ * della sequenza) in cui deve essere consegnato.
+ * <p>
+ * La sequenza viene riprodotta da un thread dedicato con la velocit specificata: 1 indica
+ * tempo reale, valori maggiori accelerano la riproduzione e un valore non positivo (oppure
+ * infinito) consegna i risultati il pi velocemente possibile. Il tempo avanza soltanto mentre
+ * l'ascolto  attivo, per cui la sequenza si interrompe quando l'ascolto viene sospeso.
+ * <p>
+ * I risultati vengono consegnati tramite l'{@link java.util.concurrent.Executor} specificato
+ * (per esempio quello che li inoltra al main thread del servizio), attendendo il completamento
+ * di ciascuna consegna prima della successiva. Questa classe non dipende dalle API di Android.
+ *
+ * @author vincenzo
+ */
+public abstract class ScriptedRecognitionSource implements RecognitionSource {
+
+	/**
+	 * Un enunciato della sequenza.
+	 */
+	public static final class Utterance {
+		/** Istante di consegna, in millisecondi dall'inizio della sequenza. */
+		public final long offset;
+		/** Le ipotesi relative all'enunciato. */
+		public final ArrayList<String> hypotheses;
+
+		public Utterance(long offset, ArrayList<String> hypotheses) {
+			this.offset = offset;
+			this.hypotheses = hypotheses;
+		}
+	}
+
+	/* Sequenza degli enunciati, velocit di riproduzione e ripetizione. */
+	private final List<Utterance> mScript;
+	private final double mRate;
+	private final boolean mLoop;
+
+	/* Executor tramite cui consegnare i risultati. */
+	private final Executor mExecutor;
+
+	/* Callback della sorgente. */
+	private volatile Callback mCallback;
+
+	/* Thread di riproduzione e relativo stato (protetti da this). */
+	private Thread mThread = null;
+	private boolean mListening = false;
+	private boolean mReleased = false;
+	private boolean mFinished = false;
+
+	/* Statistiche di riproduzione (protette da this). */
+	private long mDelivered = 0;
+	private long mStartNanos = 0;
+	private long mEndNanos = 0;
+
+
+	/**
+	 * Crea una nuova sorgente con la sequenza di enunciati specificata.
+	 *
+	 * @param script gli enunciati, in ordine di istante di consegna
+	 * @param rate la velocit di riproduzione (non positiva per la massima velocit)
+	 * @param loop <code>true</code> per ripetere la sequenza indefinitamente
+	 * @param executor l'executor tramite cui consegnare i risultati
+	 */
+	protected ScriptedRecognitionSource(List<Utterance> script, double rate, boolean loop, Executor executor) {
+		mScript = script;
+		mRate = rate;
+		mLoop = loop;
+		mExecutor = executor;
+	}
+
+	@Override
+	public void setCallback(Callback callback) {
+		mCallback = callback;
+	}
+
+	@Override
+	public void prepare() {
+	}
+
+	@Override
+	public void startListening() {
+		synchronized (this) {
+			if (mReleased || mFinished)
+				return;
+
+			mListening = true;
+			if (mThread == null) {
+				mThread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						play();
+					}
+				}, getClass().getSimpleName());
+				mThread.setDaemon(true);
+				mThread.start();
+			}
+			notifyAll();
+		}
+		notifyListening(true);
+	}
+
+	@Override
+	public void stopListening() {
+		synchronized (this) {
+			mListening = false;
+			notifyAll();
+		}
+		notifyListening(false);
+	}
+
+	@Override
+	public void release() {
+		synchronized (this) {
+			mReleased = true;
+			mListening = false;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Attende che l'intera sequenza sia stata consegnata, oppure che la sorgente venga rilasciata.
+	 *
+	 * @throws InterruptedException se il thread corrente viene interrotto durante l'attesa
+	 */
+	public synchronized void awaitCompletion() throws InterruptedException {
+		while (!mFinished && !mReleased)
+			wait();
+	}
+
+	/**
+	 * Restituisce il numero di enunciati consegnati.
+	 *
+	 * @return il numero di enunciati consegnati
+	 */
+	public synchronized long getDeliveredCount() {
+		return mDelivered;
+	}
+
+	/**
+	 * Restituisce il numero medio di enunciati consegnati al secondo, dalla prima consegna
+	 * all'ultima.
+	 *
+	 * @return il numero di enunciati al secondo
+	 */
+	public synchronized double getThroughput() {
+		long elapsed = (mFinished ? mEndNanos : System.nanoTime()) - mStartNanos;
+		return (mDelivered == 0 || elapsed <= 0 ? 0 : mDelivered * 1e9 / elapsed);
+	}
+
+	/* Riproduce la sequenza degli enunciati. */
+	private void play() {
+		boolean asap = (mRate <= 0 || Double.isInfinite(mRate));
+		long previousOffset = 0;
+		int position = 0;
+
+		synchronized (this) {
+			mStartNanos = System.nanoTime();
+		}
+
+		try {
+			while (position < mScript.size()) {
+				Utterance utterance = mScript.get(position);
+
+				// Attende l'istante di consegna, considerando soltanto il tempo di ascolto.
+				long remaining = (asap ? 0 : (long)((utterance.offset - previousOffset) / mRate));
+				if (!awaitListening(remaining))
+					return;
+
+				if (!deliver(utterance.hypotheses))
+					return;
+				previousOffset = utterance.offset;
+
+				if (++position == mScript.size() && mLoop) {
+					position = 0;
+					previousOffset = 0;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			synchronized (this) {
+				mFinished = true;
+				mEndNanos = System.nanoTime();
+				notifyAll();
+			}
+		}
+	}
+
+	/* Attende che trascorrano i millisecondi di ascolto specificati; false se rilasciata. */
+	private synchronized boolean awaitListening(long millis) throws InterruptedException {
+		long remaining = millis;
+		for (;;) {
+			while (!mListening && !mReleased)
+				wait();
+			if (mReleased)
+				return false;
+			if (remaining <= 0)
+				return true;
+
+			long start = System.currentTimeMillis();
+			wait(remaining);
+			if (mListening)
+				remaining -= System.currentTimeMillis() - start;
+		}
+	}
+
+	/*
+	 * Consegna i risultati tramite l'executor e ne attende il completamento; false se la
+	 * sorgente viene rilasciata prima, poich la consegna potrebbe non essere mai eseguita
+	 * (per esempio se l'handler del servizio scarta i messaggi in attesa).
+	 */
+	private boolean deliver(final ArrayList<String> hypotheses) throws InterruptedException {
+		final boolean[] done = { false };
+
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Callback callback = mCallback;
+					if (callback != null && isListening()) {
+						callback.onListeningChanged(false, 0);
+						callback.onResults(new ArrayList<String>(hypotheses));
+						if (isListening())   // l'ascolto non  stato sospeso
+							callback.onListeningChanged(true, 0);
+					}
+				}
+				finally {
+					synchronized (ScriptedRecognitionSource.this) {
+						done[0] = true;
+						ScriptedRecognitionSource.this.notifyAll();
+					}
+				}
+			}
+		});
+
+		synchronized (this) {
+			while (!done[0] && !mReleased)
+				wait();
+			if (!done[0])
+				return false;
+			mDelivered++;
+			return true;
+		}
+	}
+
+	/* Verifica se l'ascolto  attivo. */
+	private synchronized boolean isListening() {
+		return mListening;
+	}
+
+	/* Informa la callback circa lo stato di ascolto. */
+	private void notifyListening(boolean active) {
+		Callback callback = mCallback;
+		if (callback != null)
+			callback.onListeningChanged(active, 0);
+	}
+
+}
@@ -0,0 +1,350 @@
+package org.semm.android.vcf.speech;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * La classe <code>TtsScheduler</code> stabilisce l'ordine in cui vengono pronunciati gli
+ * enunciati del servizio di controllo vocale, in base alla loro priorit:
+ * <ul>
+ * <li>{@link #PRIORITY_ERROR}: segnalazioni di errore, pronunciate per prime;</li>
+ * <li>{@link #PRIORITY_RESULT}: esiti delle operazioni richieste dall'utente;</li>
+ * <li>{@link #PRIORITY_PROGRESS}: operazioni in corso (per esempio "invio comando in corso").</li>
+ * </ul>
+ * Gli enunciati con la stessa priorit vengono pronunciati nell'ordine in cui sono stati richiesti.
+ * Un enunciato di tipo PROGRESS viene superato da qualsiasi esito o errore richiesto dopo di
+ * esso: se non  ancora stato pronunciato viene scartato, altrimenti viene interrotto, in modo
+ * che l'utente non debba attendere un feedback ormai obsoleto. Gli esiti e gli errori non vengono
+ * invece mai interrotti n scartati.
+ * <p>
+ * Per ogni enunciato viene misurato il tempo di attesa prima della riproduzione e la durata
+ * della riproduzione stessa. Un eventuale {@link SpeechListener} viene informato quando il
+ * servizio inizia a parlare, quando avvia l'ultimo enunciato in attesa e quando termina di
+ * parlare. Gli enunciati possono inoltre essere contrassegnati con un'etichetta (per esempio
+ * l'ID del comando a cui si riferiscono), nel qual caso un eventuale {@link UtteranceListener}
+ * viene informato del loro inizio e del loro termine. Tutti i metodi devono essere invocati
+ * dal thread in cui viene utilizzato il riproduttore.
+ * <p>
+ * Gli enunciati possono essere richiesti anche prima che il riproduttore sia pronto (per
+ * esempio mentre il motore di sintesi vocale  ancora in fase di inizializzazione): in tal
+ * caso restano in attesa, con le stesse regole di priorit, finch non viene invocato
+ * {@link #setReady(boolean)}.
+ *
+ * @author vincenzo
+ * @see UtterancePlayer
+ */
+public class TtsScheduler implements UtterancePlayer.OnCompletionListener {
+
+	/* Tag per i messaggi di log. */
+	private final static String LOG_TAG = TtsScheduler.class.getSimpleName();
+
+	/** Priorit relativa alle operazioni in corso. */
+	public static final int PRIORITY_PROGRESS = 0;
+
+	/** Priorit relativa agli esiti delle operazioni. */
+	public static final int PRIORITY_RESULT = 1;
+
+	/** Priorit relativa alle segnalazioni di errore. */
+	public static final int PRIORITY_ERROR = 2;
+
+	/** Etichetta degli enunciati da non segnalare all'{@link UtteranceListener}. */
+	public static final long NO_TAG = 0;
+
+	/**
+	 * Permette di essere informati quando il servizio inizia e termina di parlare.
+	 */
+	public interface SpeechListener {
+		/** Invocato prima di avviare il primo enunciato, quando lo scheduler era inattivo. */
+		void onSpeechStarted();
+		/** Invocato all'avvio dell'ultimo enunciato in attesa. */
+		void onSpeechEnding();
+		/** Invocato quando non ci sono pi enunciati da pronunciare. */
+		void onSpeechFinished();
+	}
+
+	/**
+	 * Permette di essere informati circa l'inizio e il termine degli enunciati etichettati.
+	 */
+	public interface UtteranceListener {
+		/**
+		 * Invocato all'avvio di un enunciato etichettato.
+		 *
+		 * @param tag l'etichetta dell'enunciato
+		 */
+		void onUtteranceStarted(long tag);
+		/**
+		 * Invocato al termine di un enunciato etichettato, anche se scartato o interrotto.
+		 *
+		 * @param tag l'etichetta dell'enunciato
+		 * @param completed <code>true</code> se l'enunciato  stato pronunciato interamente
+		 */
+		void onUtteranceFinished(long tag, boolean completed);
+	}
+
+	/** Un enunciato in attesa o in corso di riproduzione. */
+	private static final class Utterance {
+		final String text;
+		final int priority;
+		final long tag;
+		final long enqueueTime;
+
+		Utterance(String text, int priority, long tag, long enqueueTime) {
+			this.text = text;
+			this.priority = priority;
+			this.tag = tag;
+			this.enqueueTime = enqueueTime;
+		}
+	}
+
+	/* Riproduttore degli enunciati. */
+	private final UtterancePlayer mPlayer;
+
+	/* Enunciati in attesa, ordinati per priorit decrescente e ordine di arrivo. */
+	private final LinkedList<Utterance> mPending = new LinkedList<Utterance>();
+
+	/* Listener da informare all'inizio e al termine del parlato. */
+	private SpeechListener mSpeechListener;
+
+	/* Listener da informare circa gli enunciati etichettati. */
+	private UtteranceListener mUtteranceListener;
+
+	/* Indica se il riproduttore  pronto a pronunciare gli enunciati. */
+	private boolean mReady = true;
+
+	/* Enunciato in corso di riproduzione e relativo istante di avvio. */
+	private Utterance mCurrent = null;
+	private long mCurrentStartTime = 0;
+
+	/* Statistiche: enunciati pronunciati, scartati, interrotti e tempi complessivi. */
+	private long mSpokenCount = 0;
+	private long mDroppedCount = 0;
+	private long mInterruptedCount = 0;
+	private long mWaitMillis = 0;
+	private long mSpeakMillis = 0;
+
+
+	/**
+	 * Crea un nuovo scheduler che utilizza il riproduttore specificato.
+	 *
+	 * @param player il riproduttore degli enunciati
+	 */
+	public TtsScheduler(UtterancePlayer player) {
+		mPlayer = player;
+		mPlayer.setOnCompletionListener(this);
+	}
+
+	/**
+	 * Imposta il listener da informare all'inizio e al termine del parlato.
+	 *
+	 * @param listener il listener, oppure <code>null</code> per rimuoverlo
+	 */
+	public void setSpeechListener(SpeechListener listener) {
+		mSpeechListener = listener;
+	}
+	
+	/**
+	 * Imposta il listener da informare circa l'inizio e il termine degli enunciati etichettati.
+	 *
+	 * @param listener il listener, oppure <code>null</code> per rimuoverlo
+	 */
+	public void setUtteranceListener(UtteranceListener listener) {
+		mUtteranceListener = listener;
+	}
+
+	/**
+	 * Indica se il riproduttore  pronto. Finch non lo , gli enunciati richiesti restano
+	 * in attesa; quando lo diventa, viene avviato il primo enunciato in attesa.
+	 *
+	 * @param ready <code>true</code> se il riproduttore  pronto
+	 */
+	public void setReady(boolean ready) {
+		mReady = ready;
+		if (mReady && mCurrent == null && !mPending.isEmpty())
+			playNext();
+	}
+
+	/**
+	 * Richiede la riproduzione di un enunciato con la priorit specificata.
+	 *
+	 * @param text il testo da pronunciare
+	 * @param priority la priorit dell'enunciato ({@link #PRIORITY_PROGRESS},
+	 *                 {@link #PRIORITY_RESULT} o {@link #PRIORITY_ERROR})
+	 */
+	public void schedule(String text, int priority) {
+		schedule(text, priority, NO_TAG);
+	}
+
+	/**
+	 * Richiede la riproduzione di un enunciato etichettato con la priorit specificata.
+	 *
+	 * @param text il testo da pronunciare
+	 * @param priority la priorit dell'enunciato ({@link #PRIORITY_PROGRESS},
+	 *                 {@link #PRIORITY_RESULT} o {@link #PRIORITY_ERROR})
+	 * @param tag l'etichetta dell'enunciato, oppure {@link #NO_TAG}
+	 */
+	public void schedule(String text, int priority, long tag) {
+		if (text == null || text.length() == 0)
+			return;
+
+		Utterance utterance = new Utterance(text, priority, tag, SystemClock.uptimeMillis());
+		boolean wasIdle = !isSpeaking();
+
+		if (priority > PRIORITY_PROGRESS) {
+			// Gli enunciati PROGRESS in attesa sono ormai obsoleti.
+			for (Iterator<Utterance> it = mPending.iterator(); it.hasNext(); ) {
+				Utterance pending = it.next();
+				if (pending.priority == PRIORITY_PROGRESS) {
+					it.remove();
+					mDroppedCount++;
+					notifyFinished(pending, false);
+				}
+			}
+
+			// Lo stesso vale per quello eventualmente in corso.
+			if (mCurrent != null && mCurrent.priority == PRIORITY_PROGRESS) {
+				Log.v(LOG_TAG, String.format("schedule(): interrotto \"%s\"", mCurrent.text));
+				mPlayer.stop();
+				finishCurrent(false);
+				mInterruptedCount++;
+			}
+		}
+
+		// Inserisce dopo gli enunciati con priorit maggiore o uguale.
+		ListIterator<Utterance> it = mPending.listIterator();
+		while (it.hasNext())
+			if (it.next().priority < priority) {
+				it.previous();
+				break;
+			}
+		it.add(utterance);
+
+		if (wasIdle && mSpeechListener != null)
+			mSpeechListener.onSpeechStarted();
+		if (mCurrent == null && mReady)
+			playNext();
+	}
+
+	/**
+	 * Interrompe l'enunciato corrente e scarta quelli in attesa.
+	 */
+	public void stop() {
+		boolean wasSpeaking = isSpeaking();
+		mDroppedCount += mPending.size();
+		for (Utterance pending : mPending)
+			notifyFinished(pending, false);
+		mPending.clear();
+		if (mCurrent != null) {
+			mPlayer.stop();
+			finishCurrent(false);
+			mInterruptedCount++;
+		}
+		if (wasSpeaking && mSpeechListener != null)
+			mSpeechListener.onSpeechFinished();
+	}
+
+	/**
+	 * Verifica se  in corso o in attesa la riproduzione di almeno un enunciato.
+	 *
+	 * @return <code>true</code> se il servizio sta parlando o deve ancora parlare
+	 */
+	public boolean isSpeaking() {
+		return mCurrent != null || !mPending.isEmpty();
+	}
+
+	/**
+	 * Invocato dal riproduttore al termine dell'enunciato corrente.
+	 *
+	 * @see UtterancePlayer.OnCompletionListener#onCompletion()
+	 */
+	@Override
+	public void onCompletion() {
+		if (mCurrent == null)
+			return;
+
+		finishCurrent(true);
+		mSpokenCount++;
+		playNext();
+	}
+
+	/**
+	 * Restituisce il numero di enunciati pronunciati interamente.
+	 *
+	 * @return il numero di enunciati pronunciati
+	 */
+	public long getSpokenCount() {
+		return mSpokenCount;
+	}
+
+	/**
+	 * Restituisce il numero di enunciati scartati prima di essere pronunciati.
+	 *
+	 * @return il numero di enunciati scartati
+	 */
+	public long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	/**
+	 * Restituisce il numero di enunciati interrotti durante la riproduzione.
+	 *
+	 * @return il numero di enunciati interrotti
+	 */
+	public long getInterruptedCount() {
+		return mInterruptedCount;
+	}
+
+	/**
+	 * Restituisce il tempo complessivo trascorso dagli enunciati in attesa di essere pronunciati.
+	 *
+	 * @return il tempo di attesa complessivo, in millisecondi
+	 */
+	public long getWaitMillis() {
+		return mWaitMillis;
+	}
+
+	/**
+	 * Restituisce il tempo complessivo di riproduzione degli enunciati, inclusi quelli interrotti.
+	 *
+	 * @return il tempo di riproduzione complessivo, in millisecondi
+	 */
+	public long getSpeakMillis() {
+		return mSpeakMillis;
+	}
+
+	/* Avvia la riproduzione dell'enunciato successivo, se presente. */
+	private void playNext() {
+		mCurrent = mPending.poll();
+		if (mCurrent == null) {
+			if (mSpeechListener != null)
+				mSpeechListener.onSpeechFinished();
+			return;
+		}
+
+		mCurrentStartTime = SystemClock.uptimeMillis();
+		mWaitMillis += mCurrentStartTime - mCurrent.enqueueTime;
+		if (mPending.isEmpty() && mSpeechListener != null)
+			mSpeechListener.onSpeechEnding();
+		if (mCurrent.tag != NO_TAG && mUtteranceListener != null)
+			mUtteranceListener.onUtteranceStarted(mCurrent.tag);
+		mPlayer.play(mCurrent.text);
+	}
+
+	/* Aggiorna le statistiche relative all'enunciato corrente. */
+	private void finishCurrent(boolean completed) {
+		Utterance finished = mCurrent;
+		mSpeakMillis += SystemClock.uptimeMillis() - mCurrentStartTime;
+		mCurrent = null;
+		notifyFinished(finished, completed);
+	}
+
+	/* Informa il listener circa il termine di un enunciato etichettato. */
+	private void notifyFinished(Utterance utterance, boolean completed) {
+		if (utterance.tag != NO_TAG && mUtteranceListener != null)
+			mUtteranceListener.onUtteranceFinished(utterance.tag, completed);
+	}
+
+}
@@ -0,0 +1,627 @@
+package org.semm.android.vcf.speech;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.os.Handler;
+import android.speech.tts.TextToSpeech;
+import android.util.Log;
+
+/**
+ * La classe <code>UtteranceCache</code> conserva su disco gli enunciati sintetizzati dal
+ * motore TTS, in modo che quelli ricorrenti possano essere riprodotti direttamente senza
+ * doverli sintetizzare di nuovo.
+ * <p>
+ * Ogni enunciato viene identificato da una chiave calcolata a partire dal testo, dalla lingua,
+ * dal motore TTS e dai parametri della voce (velocit e tono), per cui una modifica di uno di
+ * questi elementi non comporta mai la riproduzione di un file obsoleto. Gli enunciati fissi
+ * (i messaggi di feedback del servizio) vengono sintetizzati in anticipo e mantenuti in memoria,
+ * mentre quelli dinamici (per esempio i messaggi personalizzati inviati dalle applicazioni)
+ * vengono sintetizzati a partire dalla seconda richiesta e rimossi secondo una politica LRU
+ * quando si supera il numero massimo di file o lo spazio massimo su disco.
+ * <p>
+ * Le sintesi su file condividono la coda del motore TTS con gli enunciati da pronunziare, per
+ * cui vengono accodate internamente e inviate al motore una alla volta, soltanto quando non 
+ * in corso alcun enunciato pronunziato dal motore (si veda {@link #setSpeaking(boolean)}): in
+ * questo modo non ritardano mai la riproduzione. Le sintesi annullate dallo svuotamento della
+ * coda del motore vengono riaccodate.
+ * <p>
+ * Tutti gli accessi al disco (il caricamento dell'indice, la lettura degli enunciati e la
+ * rimozione dei file) vengono eseguiti in un thread dedicato, per non rallentare l'avvio del
+ * servizio n la riproduzione: per questo {@link #lookup(String, OnClipListener)} restituisce
+ * l'audio tramite un listener. Finch l'indice non  stato caricato, la cache non contiene
+ * alcun enunciato e le sintesi in anticipo restano in attesa.
+ * <p>
+ * Tutti i metodi, a eccezione di {@link #onUtteranceCompleted(String)}, devono essere invocati
+ * dal thread associato all'handler specificato, in cui vengono informati anche i listener.
+ *
+ * @author vincenzo
+ * @see android.speech.tts.TextToSpeech#synthesizeToFile(String, HashMap, String)
+ */
+public class UtteranceCache {
+
+	/* Tag per i messaggi di log. */
+	private final static String LOG_TAG = UtteranceCache.class.getSimpleName();
+
+	/* Prefisso degli ID degli enunciati relativi alle sintesi su file. */
+	private static final String SYNTH_ID_PREFIX = "vcf-synth:";
+
+	/* Estensioni dei file completi e di quelli in fase di sintesi. */
+	private static final String WAV_EXT = ".wav";
+	private static final String TMP_EXT = ".tmp";
+
+	/* Numero massimo di testi dinamici di cui ricordare le richieste. */
+	private static final int MAX_TRACKED_MISSES = 64;
+
+	/**
+	 * Permette di ricevere l'audio di un enunciato richiesto alla cache.
+	 */
+	public interface OnClipListener {
+		/**
+		 * Invocato nel thread dell'handler, eventualmente prima che la richiesta termini.
+		 *
+		 * @param clip l'audio dell'enunciato, oppure <code>null</code> se non presente nella cache
+		 */
+		void onClip(WavClip clip);
+	}
+
+	/** Un enunciato presente su disco. */
+	private static final class Entry {
+		final String key;
+		final File file;
+		final long size;
+		boolean pinned;
+
+		Entry(String key, File file, long size) {
+			this.key = key;
+			this.file = file;
+			this.size = size;
+		}
+	}
+
+	/** Una sintesi su file in attesa o in corso. */
+	private static final class Synthesis {
+		final String text;
+		final String key;
+		final boolean pinned;
+
+		Synthesis(String text, String key, boolean pinned) {
+			this.text = text;
+			this.key = key;
+			this.pinned = pinned;
+		}
+	}
+
+	/* Motore di sintesi vocale. */
+	private final TextToSpeech mTTS;
+
+	/* Handler del thread in cui viene utilizzata la cache. */
+	private final Handler mHandler;
+
+	/* Thread in cui vengono eseguiti gli accessi al disco, nell'ordine in cui sono richiesti. */
+	private final ExecutorService mIo = Executors.newSingleThreadExecutor();
+
+	/* Directory in cui vengono salvati i file. */
+	private final File mDir;
+
+	/* Limiti relativi agli enunciati dinamici. */
+	private final int mMaxEntries;
+	private final long mMaxBytes;
+
+	/* Parametri della voce, inclusi nella chiave di ogni enunciato. */
+	private String mEngine = "";
+	private Locale mLocale = Locale.getDefault();
+	private float mRate = 1.0f;
+	private float mPitch = 1.0f;
+
+	/* Enunciati su disco, in ordine di utilizzo (dal meno recente). */
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/* Enunciati fissi mantenuti in memoria. */
+	private final HashMap<String, WavClip> mPinned = new HashMap<String, WavClip>();
+
+	/* Sintesi su file in corso (al pi una), indicizzate per ID dell'enunciato. */
+	private final HashMap<String, Synthesis> mSynthesizing = new HashMap<String, Synthesis>();
+
+	/* Sintesi su file in attesa che il motore TTS sia inattivo, dalla prima da avviare. */
+	private final ArrayDeque<Synthesis> mDeferred = new ArrayDeque<Synthesis>();
+
+	/* Indica se il motore TTS sta pronunziando un enunciato. */
+	private boolean mSpeaking = false;
+
+	/* Indica se l'indice  stato caricato e se la cache  stata rilasciata. */
+	private boolean mLoaded = false;
+	private boolean mReleased = false;
+
+	/* Enunciati fissi da sintetizzare in anticipo dopo il caricamento dell'indice. */
+	private List<String> mPendingPrompts = null;
+
+	/* Numero di richieste dei testi dinamici non ancora presenti nella cache. */
+	private final HashMap<String, Integer> mMisses = new HashMap<String, Integer>();
+
+	/* Spazio occupato dagli enunciati dinamici. */
+	private long mDynamicBytes = 0;
+	private int mDynamicCount = 0;
+
+	/* Statistiche di utilizzo. */
+	private long mHits = 0;
+	private long mMissCount = 0;
+	private int mSynthCounter = 0;
+
+
+	/**
+	 * Crea una nuova cache degli enunciati nella directory specificata e avvia, in un thread
+	 * secondario, il recupero dei file eventualmente sintetizzati durante le esecuzioni
+	 * precedenti.
+	 *
+	 * @param tts il motore di sintesi vocale
+	 * @param handler l'handler del thread in cui viene utilizzata la cache
+	 * @param dir la directory in cui salvare i file
+	 * @param maxEntries il numero massimo di enunciati dinamici
+	 * @param maxBytes lo spazio massimo occupato dagli enunciati dinamici, in byte
+	 */
+	public UtteranceCache(TextToSpeech tts, Handler handler, File dir, int maxEntries, long maxBytes) {
+		mTTS = tts;
+		mHandler = handler;
+		mDir = dir;
+		mMaxEntries = maxEntries;
+		mMaxBytes = maxBytes;
+
+		mIo.execute(new Runnable() {
+			@Override
+			public void run() {
+				final List<Entry> entries = loadIndex();
+				post(new Runnable() {
+					@Override
+					public void run() {
+						indexLoaded(entries);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Imposta i parametri della voce correntemente utilizzati dal motore TTS. Deve essere
+	 * invocato ogni volta che uno di essi viene modificato, prima di utilizzare la cache.
+	 *
+	 * @param engine il nome del package del motore TTS
+	 * @param locale la lingua della voce
+	 * @param rate la velocit della voce
+	 * @param pitch il tono della voce
+	 */
+	public void setVoice(String engine, Locale locale, float rate, float pitch) {
+		mEngine = (engine != null ? engine : "");
+		mLocale = (locale != null ? locale : Locale.getDefault());
+		mRate = rate;
+		mPitch = pitch;
+
+		// Le chiavi degli enunciati fissi non sono pi valide.
+		mPinned.clear();
+		for (Entry entry : mEntries.values())
+			if (entry.pinned) {
+				entry.pinned = false;
+				mDynamicBytes += entry.size;
+				mDynamicCount++;
+			}
+	}
+
+	/**
+	 * Sintetizza in anticipo gli enunciati fissi specificati, che saranno poi mantenuti in
+	 * memoria e mai rimossi dalla cache. Gli enunciati gi presenti su disco vengono caricati
+	 * direttamente, in un thread secondario. Se l'indice non  ancora stato caricato, la
+	 * richiesta viene eseguita al termine del caricamento.
+	 *
+	 * @param texts i testi degli enunciati fissi
+	 */
+	public void preSynthesize(Collection<String> texts) {
+		if (!mLoaded) {
+			mPendingPrompts = new ArrayList<String>(texts);
+			return;
+		}
+
+		for (String text : texts) {
+			String key = keyFor(text);
+			Entry entry = mEntries.get(key);
+			if (entry != null) {
+				pin(entry);
+				continue;
+			}
+			synthesize(text, key, true);
+		}
+		trim();
+	}
+
+	/**
+	 * Richiede l'audio relativo al testo specificato. Gli enunciati fissi vengono restituiti
+	 * immediatamente dalla memoria, quelli dinamici vengono letti dal disco in un thread
+	 * secondario. Se il testo non  presente e se  gi stato richiesto in precedenza, ne
+	 * avvia la sintesi su file in modo che sia disponibile alla richiesta successiva.
+	 *
+	 * @param text il testo dell'enunciato
+	 * @param listener il listener a cui restituire l'audio (anche prima che il metodo termini)
+	 */
+	public void lookup(String text, final OnClipListener listener) {
+		String key = keyFor(text);
+
+		WavClip clip = mPinned.get(key);
+		if (clip != null) {
+			mHits++;
+			listener.onClip(clip);
+			return;
+		}
+
+		final Entry entry = mEntries.get(key);   // aggiorna l'ordine LRU
+		if (entry != null) {
+			io(new Runnable() {
+				@Override
+				public void run() {
+					final WavClip clip = readClip(entry.file);
+					if (clip != null)
+						entry.file.setLastModified(System.currentTimeMillis());
+					post(new Runnable() {
+						@Override
+						public void run() {
+							if (clip != null)
+								mHits++;
+							else {
+								mMissCount++;
+								if (mEntries.get(entry.key) == entry)
+									remove(entry);
+							}
+							listener.onClip(clip);
+						}
+					});
+				}
+			});
+			return;
+		}
+
+		mMissCount++;
+		if (mLoaded) {
+			Integer misses = mMisses.get(text);
+			if (misses == null) {
+				if (mMisses.size() >= MAX_TRACKED_MISSES)
+					mMisses.clear();
+				mMisses.put(text, 1);
+			}
+			else if (misses == 1) {
+				mMisses.put(text, 2);
+				synthesize(text, key, false);   // richiesto pi volte
+			}
+		}
+		listener.onClip(null);
+	}
+
+	/**
+	 * Deve essere invocato quando il motore TTS completa un enunciato, da qualsiasi thread.
+	 *
+	 * @param utteranceId l'ID dell'enunciato completato
+	 * @return <code>true</code> se l'enunciato era una sintesi su file avviata dalla cache
+	 */
+	public boolean onUtteranceCompleted(final String utteranceId) {
+		if (utteranceId == null || !utteranceId.startsWith(SYNTH_ID_PREFIX))
+			return false;
+
+		post(new Runnable() {
+			@Override
+			public void run() {
+				synthesisCompleted(utteranceId);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Deve essere invocato quando la coda del motore TTS viene svuotata, poich le sintesi
+	 * su file ancora in coda vengono annullate e non saranno mai completate: esse vengono
+	 * riaccodate, prima di quelle in attesa, e riavviate quando il motore sar inattivo.
+	 */
+	public void onQueueFlushed() {
+		ArrayList<Synthesis> interrupted = new ArrayList<Synthesis>(mSynthesizing.values());
+		mSynthesizing.clear();
+		for (int i=interrupted.size() - 1; i >= 0; i--) {
+			Synthesis synthesis = interrupted.get(i);
+			delete(new File(mDir, synthesis.key + TMP_EXT));
+			mDeferred.addFirst(synthesis);
+			Log.v(LOG_TAG, String.format("onQueueFlushed(): sintesi riaccodata per \"%s\"", synthesis.text));
+		}
+	}
+
+	/**
+	 * Indica se il motore TTS sta pronunziando un enunciato. Le sintesi su file in attesa
+	 * vengono avviate soltanto quando il motore non sta pronunziando alcun enunciato, per
+	 * non ritardarne la riproduzione.
+	 *
+	 * @param speaking <code>true</code> prima di inviare un enunciato al motore,
+	 *                 <code>false</code> al suo completamento o alla sua interruzione
+	 */
+	public void setSpeaking(boolean speaking) {
+		mSpeaking = speaking;
+		if (!speaking)
+			startNext();
+	}
+
+	/**
+	 * Verifica se  in corso una sintesi su file.
+	 *
+	 * @return <code>true</code> se il motore TTS sta sintetizzando un enunciato su file
+	 */
+	public boolean isSynthesizing() {
+		return !mSynthesizing.isEmpty();
+	}
+
+	/**
+	 * Rilascia la cache: gli accessi al disco gi richiesti vengono completati, ma i relativi
+	 * risultati e le richieste successive vengono ignorati.
+	 */
+	public void release() {
+		mReleased = true;
+		mIo.shutdown();
+	}
+
+	/**
+	 * Restituisce il numero di richieste soddisfatte dalla cache.
+	 *
+	 * @return il numero di richieste soddisfatte
+	 */
+	public long getHitCount() {
+		return mHits;
+	}
+
+	/**
+	 * Restituisce il numero di richieste non soddisfatte dalla cache.
+	 *
+	 * @return il numero di richieste non soddisfatte
+	 */
+	public long getMissCount() {
+		return mMissCount;
+	}
+
+	/* Calcola la chiave relativa al testo e ai parametri correnti della voce (FNV-1a a 64 bit). */
+	private String keyFor(String text) {
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, mEngine);
+		hash = hash(hash, mLocale.toString());
+		hash = hash(hash, Float.toString(mRate));
+		hash = hash(hash, Float.toString(mPitch));
+		hash = hash(hash, text);
+		return Long.toHexString(hash);
+	}
+
+	/* Aggiorna l'hash FNV-1a con i caratteri della stringa specificata e un separatore. */
+	private static long hash(long hash, String s) {
+		for (int i=0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= 0xffff;
+		hash *= 0x100000001b3L;
+		return hash;
+	}
+
+	/* Accoda la sintesi su file del testo specificato, avviandola se il motore  inattivo. */
+	private void synthesize(String text, String key, boolean pinned) {
+		for (Synthesis synthesis : mSynthesizing.values())
+			if (synthesis.key.equals(key))
+				return;   // gi in corso
+		for (Synthesis synthesis : mDeferred)
+			if (synthesis.key.equals(key))
+				return;   // gi in attesa
+
+		mDeferred.addLast(new Synthesis(text, key, pinned));
+		startNext();
+	}
+
+	/* Avvia la prima sintesi su file in attesa, se il motore  inattivo e l'indice  caricato. */
+	private void startNext() {
+		Synthesis synthesis;
+		while (mLoaded && !mReleased && !mSpeaking && mSynthesizing.isEmpty()
+				&& (synthesis = mDeferred.pollFirst()) != null) {
+			String utteranceId = SYNTH_ID_PREFIX + (mSynthCounter++);
+			HashMap<String, String> params = new HashMap<String, String>();
+			params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
+
+			File tmp = new File(mDir, synthesis.key + TMP_EXT);
+			if (mTTS.synthesizeToFile(synthesis.text, params, tmp.getAbsolutePath()) == TextToSpeech.SUCCESS)
+				mSynthesizing.put(utteranceId, synthesis);
+			else
+				Log.e(LOG_TAG, String.format("startNext(): sintesi fallita per \"%s\"", synthesis.text));
+		}
+	}
+
+	/* Completa, nel thread di I/O, la sintesi su file relativa all'enunciato specificato. */
+	private void synthesisCompleted(String utteranceId) {
+		final Synthesis synthesis = mSynthesizing.remove(utteranceId);
+		if (synthesis == null)
+			return;   // annullata e riaccodata
+
+		io(new Runnable() {
+			@Override
+			public void run() {
+				File tmp = new File(mDir, synthesis.key + TMP_EXT);
+				final File file = new File(mDir, synthesis.key + WAV_EXT);
+				final boolean saved = tmp.renameTo(file);
+				if (!saved) {
+					Log.e(LOG_TAG, "synthesisCompleted(): impossibile salvare " + file);
+					tmp.delete();
+				}
+				final long size = file.length();
+				post(new Runnable() {
+					@Override
+					public void run() {
+						if (saved) {
+							Entry entry = new Entry(synthesis.key, file, size);
+							add(entry);
+							if (synthesis.pinned)
+								pin(entry);
+							else
+								trim();
+						}
+						startNext();
+					}
+				});
+			}
+		});
+	}
+
+	/* Esclude un enunciato fisso dalla rimozione e lo carica in memoria, nel thread di I/O. */
+	private void pin(final Entry entry) {
+		if (!entry.pinned) {
+			entry.pinned = true;
+			mDynamicBytes -= entry.size;
+			mDynamicCount--;
+		}
+
+		io(new Runnable() {
+			@Override
+			public void run() {
+				final WavClip clip = readClip(entry.file);
+				post(new Runnable() {
+					@Override
+					public void run() {
+						if (mEntries.get(entry.key) != entry)
+							return;   // rimosso nel frattempo
+						if (clip == null)
+							remove(entry);
+						else if (entry.pinned)   // non invalidato da setVoice()
+							mPinned.put(entry.key, clip);
+					}
+				});
+			}
+		});
+	}
+
+	/* Aggiunge un enunciato all'indice. */
+	private void add(Entry entry) {
+		Entry previous = mEntries.put(entry.key, entry);
+		if (previous != null && !previous.pinned) {
+			mDynamicBytes -= previous.size;
+			mDynamicCount--;
+		}
+		mDynamicBytes += entry.size;
+		mDynamicCount++;
+	}
+
+	/* Rimuove un enunciato dall'indice e dal disco. */
+	private void remove(Entry entry) {
+		mEntries.remove(entry.key);
+		mPinned.remove(entry.key);
+		if (!entry.pinned) {
+			mDynamicBytes -= entry.size;
+			mDynamicCount--;
+		}
+		delete(entry.file);
+	}
+
+	/* Rimuove gli enunciati dinamici meno recenti fino a rispettare i limiti. */
+	private void trim() {
+		Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+		while ((mDynamicCount > mMaxEntries || mDynamicBytes > mMaxBytes) && it.hasNext()) {
+			Entry entry = it.next().getValue();
+			if (entry.pinned)
+				continue;
+
+			it.remove();
+			mDynamicBytes -= entry.size;
+			mDynamicCount--;
+			delete(entry.file);
+			Log.v(LOG_TAG, "trim(): rimosso " + entry.file.getName());
+		}
+	}
+
+	/* Completa il caricamento dell'indice e avvia le operazioni che lo attendevano. */
+	private void indexLoaded(List<Entry> entries) {
+		for (Entry entry : entries)
+			add(entry);
+		mLoaded = true;
+		Log.v(LOG_TAG, String.format("Indice caricato: %d enunciati", entries.size()));
+
+		trim();
+		if (mPendingPrompts != null) {
+			List<String> prompts = mPendingPrompts;
+			mPendingPrompts = null;
+			preSynthesize(prompts);
+		}
+		startNext();
+	}
+
+	/* Recupera i file presenti su disco, in ordine di ultimo utilizzo; nel thread di I/O. */
+	private List<Entry> loadIndex() {
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		if (!mDir.isDirectory() && !mDir.mkdirs())
+			Log.e(LOG_TAG, "Impossibile creare la directory " + mDir);
+
+		File[] files = mDir.listFiles();
+		if (files == null)
+			return entries;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long t1 = f1.lastModified(), t2 = f2.lastModified();
+				return (t1 < t2 ? -1 : (t1 == t2 ? 0 : 1));
+			}
+		});
+
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(WAV_EXT))
+				entries.add(new Entry(name.substring(0, name.length() - WAV_EXT.length()), file, file.length()));
+			else if (name.endsWith(TMP_EXT))
+				file.delete();   // sintesi interrotta
+		}
+		return entries;
+	}
+
+	/* Legge un enunciato dal disco, nel thread di I/O; null se il file non  valido. */
+	private static WavClip readClip(File file) {
+		try {
+			return WavClip.read(file);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, String.format("readClip(): file non valido %s (%s)", file, e.getMessage()));
+			return null;
+		}
+	}
+
+	/* Rimuove un file dal disco, nel thread di I/O. */
+	private void delete(final File file) {
+		io(new Runnable() {
+			@Override
+			public void run() {
+				file.delete();
+			}
+		});
+	}
+
+	/* Esegue un accesso al disco nel thread di I/O, se la cache non  stata rilasciata. */
+	private void io(Runnable task) {
+		if (!mReleased)
+			mIo.execute(task);
+	}
+
+	/* Esegue un'operazione nel thread dell'handler, se la cache non  stata rilasciata. */
+	private void post(final Runnable task) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (!mReleased)
+					task.run();
+			}
+		});
+	}
+
+}
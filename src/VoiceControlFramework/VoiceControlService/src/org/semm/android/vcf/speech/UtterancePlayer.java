@@ -0,0 +1,264 @@
+package org.semm.android.vcf.speech;
+
+import java.util.HashMap;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Handler;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.TextToSpeech.OnUtteranceCompletedListener;
+import android.util.Log;
+
+/**
+ * La classe <code>UtterancePlayer</code> riproduce un enunciato alla volta e notifica
+ * il listener impostato quando la riproduzione  terminata.
+ * <p>
+ * Gli enunciati presenti nella {@link UtteranceCache} vengono riprodotti direttamente tramite
+ * una {@link android.media.AudioTrack} statica, evitando del tutto la sintesi (la cache li legge
+ * dal disco in un thread secondario, per cui la riproduzione inizia in modo asincrono); gli altri vengono
+ * invece inviati al motore TTS e il loro completamento viene rilevato tramite l'ID dell'enunciato.
+ * L'ordine e la priorit degli enunciati sono invece gestiti da {@link TtsScheduler}.
+ * <p>
+ * Tutti i metodi, a eccezione di {@link #onUtteranceCompleted(String)}, devono essere invocati
+ * dal thread associato all'handler specificato.
+ *
+ * @author vincenzo
+ * @see UtteranceCache
+ * @see TtsScheduler
+ */
+public class UtterancePlayer implements OnUtteranceCompletedListener {
+
+	/* Tag per i messaggi di log. */
+	private final static String LOG_TAG = UtterancePlayer.class.getSimpleName();
+
+	/* Prefisso degli ID degli enunciati inviati al motore TTS. */
+	private static final String SPEAK_ID_PREFIX = "vcf-speak:";
+
+	/* Margine oltre la durata di un frammento audio, per completarlo in ogni caso. */
+	private static final long CLIP_COMPLETION_SLACK_MS = 200;
+
+	/**
+	 * Permette di essere informati quando la riproduzione di un enunciato  terminata.
+	 */
+	public interface OnCompletionListener {
+		/**
+		 * Invocato nel thread dell'handler quando l'enunciato corrente  stato completato.
+		 * Non viene invocato se la riproduzione viene interrotta tramite {@link UtterancePlayer#stop()}.
+		 */
+		void onCompletion();
+	}
+
+	/* Motore di sintesi vocale. */
+	private final TextToSpeech mTTS;
+
+	/* Cache degli enunciati gi sintetizzati. */
+	private final UtteranceCache mCache;
+
+	/* Handler del thread in cui viene utilizzato il riproduttore. */
+	private final Handler mHandler;
+
+	/* Listener da informare al termine di ogni enunciato. */
+	private OnCompletionListener mListener;
+
+	/* Indica se  in corso la riproduzione di un enunciato. */
+	private boolean mPlaying = false;
+
+	/* ID dell'enunciato inviato al motore TTS, oppure traccia audio in riproduzione. */
+	private String mCurrentUtteranceId = null;
+	private AudioTrack mTrack = null;
+
+	/* Contatore per la generazione degli ID degli enunciati. */
+	private int mUtteranceCounter = 0;
+
+	/* Numero della richiesta di riproduzione corrente, per ignorare le risposte della cache obsolete. */
+	private int mRequestCounter = 0;
+
+	/* Completa l'enunciato corrente (frammenti audio). */
+	private final Runnable mCompleteCurrent = new Runnable() {
+		@Override
+		public void run() {
+			complete();
+		}
+	};
+
+	/* Rileva il termine della riproduzione di un frammento audio. */
+	private final AudioTrack.OnPlaybackPositionUpdateListener mTrackListener =
+			new AudioTrack.OnPlaybackPositionUpdateListener() {
+		@Override
+		public void onMarkerReached(AudioTrack track) {
+			if (track == mTrack)
+				complete();
+		}
+		@Override
+		public void onPeriodicNotification(AudioTrack track) {
+		}
+	};
+
+
+	/**
+	 * Crea un nuovo riproduttore di enunciati e lo imposta come listener del motore TTS.
+	 *
+	 * @param tts il motore di sintesi vocale
+	 * @param cache la cache degli enunciati gi sintetizzati
+	 * @param handler l'handler del thread in cui viene utilizzato il riproduttore
+	 */
+	public UtterancePlayer(TextToSpeech tts, UtteranceCache cache, Handler handler) {
+		mTTS = tts;
+		mCache = cache;
+		mHandler = handler;
+		mTTS.setOnUtteranceCompletedListener(this);
+	}
+
+	/**
+	 * Imposta il listener da informare al termine di ogni enunciato.
+	 *
+	 * @param listener il listener, oppure <code>null</code> per rimuoverlo
+	 */
+	public void setOnCompletionListener(OnCompletionListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Avvia la riproduzione dell'enunciato specificato, interrompendo quello corrente. Se
+	 * l'enunciato  presente nella cache, viene riprodotto direttamente non appena la cache
+	 * lo restituisce, altrimenti viene inviato al motore TTS.
+	 *
+	 * @param text il testo da pronunciare
+	 */
+	public void play(final String text) {
+		interrupt();
+		mPlaying = true;
+		final int request = ++mRequestCounter;
+
+		// Le sintesi su file richieste da lookup() attendono il termine dell'enunciato.
+		mCache.setSpeaking(true);
+		mCache.lookup(text, new UtteranceCache.OnClipListener() {
+			@Override
+			public void onClip(WavClip clip) {
+				if (mPlaying && request == mRequestCounter)
+					start(text, clip);
+			}
+		});
+	}
+
+	/* Riproduce l'audio restituito dalla cache, oppure invia l'enunciato al motore TTS. */
+	private void start(String text, WavClip clip) {
+		if (clip != null && playClip(clip)) {
+			mCache.setSpeaking(false);
+			return;
+		}
+
+		mCurrentUtteranceId = SPEAK_ID_PREFIX + (mUtteranceCounter++);
+		HashMap<String, String> params = new HashMap<String, String>();
+		params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, mCurrentUtteranceId);
+
+		// L'enunciato ha la precedenza sull'eventuale sintesi su file in corso, che viene riaccodata.
+		int queueMode = TextToSpeech.QUEUE_ADD;
+		if (mCache.isSynthesizing()) {
+			queueMode = TextToSpeech.QUEUE_FLUSH;
+			mCache.onQueueFlushed();
+		}
+		if (mTTS.speak(text, queueMode, params) != TextToSpeech.SUCCESS) {
+			Log.e(LOG_TAG, String.format("play(): errore TTS per \"%s\"", text));
+			mHandler.post(mCompleteCurrent);
+		}
+	}
+
+	/**
+	 * Interrompe l'enunciato corrente, senza informare il listener.
+	 */
+	public void stop() {
+		interrupt();
+		mCache.setSpeaking(false);
+	}
+
+	/**
+	 * Verifica se  in corso la riproduzione di un enunciato.
+	 *
+	 * @return <code>true</code> se  in corso la riproduzione di un enunciato
+	 */
+	public boolean isPlaying() {
+		return mPlaying;
+	}
+
+	/**
+	 * Invocato dal motore TTS al termine di ogni enunciato, da un thread qualsiasi.
+	 *
+	 * @see android.speech.tts.TextToSpeech.OnUtteranceCompletedListener#onUtteranceCompleted(String)
+	 */
+	@Override
+	public void onUtteranceCompleted(final String utteranceId) {
+		if (mCache.onUtteranceCompleted(utteranceId))
+			return;   // sintesi su file
+
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (utteranceId != null && utteranceId.equals(mCurrentUtteranceId))
+					complete();
+			}
+		});
+	}
+
+	/* Riproduce un frammento audio gi sintetizzato. */
+	private boolean playClip(WavClip clip) {
+		AudioTrack track;
+		try {
+			track = new AudioTrack(AudioManager.STREAM_MUSIC, clip.sampleRate,
+					(clip.channels == 2 ? AudioFormat.CHANNEL_OUT_STEREO : AudioFormat.CHANNEL_OUT_MONO),
+					AudioFormat.ENCODING_PCM_16BIT, clip.samples.length * 2, AudioTrack.MODE_STATIC);
+		} catch (IllegalArgumentException e) {
+			Log.e(LOG_TAG, "playClip(): formato non supportato " + e.getMessage());
+			return false;
+		}
+
+		if (track.getState() != AudioTrack.STATE_INITIALIZED
+				|| track.write(clip.samples, 0, clip.samples.length) < 0) {
+			track.release();
+			return false;
+		}
+
+		mTrack = track;
+		track.setNotificationMarkerPosition(clip.getFrameCount());
+		track.setPlaybackPositionUpdateListener(mTrackListener, mHandler);
+		track.play();
+
+		// Alcuni dispositivi non notificano il raggiungimento del marker.
+		mHandler.postDelayed(mCompleteCurrent, clip.getDurationMillis() + CLIP_COMPLETION_SLACK_MS);
+		return true;
+	}
+
+	/* Interrompe l'enunciato corrente, annullando anche le sintesi su file in coda. */
+	private void interrupt() {
+		if (mCurrentUtteranceId != null) {
+			mTTS.stop();
+			mCache.onQueueFlushed();
+		}
+		release();
+	}
+
+	/* Completa l'enunciato corrente e informa il listener. */
+	private void complete() {
+		if (!mPlaying)
+			return;
+
+		release();
+		mCache.setSpeaking(false);
+		if (mListener != null)
+			mListener.onCompletion();
+	}
+
+	/* Rilascia le risorse relative all'enunciato corrente. */
+	private void release() {
+		mHandler.removeCallbacks(mCompleteCurrent);
+		mPlaying = false;
+		mCurrentUtteranceId = null;
+		if (mTrack != null) {
+			mTrack.stop();
+			mTrack.release();
+			mTrack = null;
+		}
+	}
+
+}
@@ -0,0 +1,380 @@
+package org.semm.android.vcf.speech;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * La classe <code>WakeWordDetector</code> rileva la parola di attivazione (per esempio
+ * "android") in un flusso di campioni PCM, confrontandolo con alcune registrazioni di
+ * riferimento (template) tramite il Dynamic Time Warping.
+ * <p>
+ * Per ogni template viene mantenuta una colonna della matrice DTW in versione "subsequence",
+ * in cui il template pu iniziare in qualsiasi frame del flusso: ad ogni nuovo frame la colonna
+ * viene aggiornata in tempo proporzionale alla lunghezza del template, senza conservare il
+ * flusso stesso. La parola viene rilevata quando la distanza media per frame tra il template
+ * e la parte finale del flusso scende sotto la soglia impostata, purch la durata della parte
+ * di flusso allineata sia compresa tra la met e il doppio di quella del template. Il rilevamento
+ * viene confermato quando la distanza smette di diminuire, cio al termine della parola, dopodich
+ * il confronto riparte da zero, in modo che la stessa parola non venga rilevata pi volte.
+ * <p>
+ * Questa classe non dipende dalle API di Android, per cui pu essere verificata su una
+ * JVM standard tramite file WAV (vedere {@link #main(String[])}). I metodi non sono thread-safe.
+ *
+ * @author vincenzo
+ * @see WakeWordFeatures
+ */
+public class WakeWordDetector {
+
+	/**
+	 * Soglia predefinita, espressa come distanza media per banda tra due frame
+	 * (logaritmo in base 2 in formato Q8: 256 corrisponde a circa 6 dB).
+	 */
+	public static final int DEFAULT_THRESHOLD = 160;
+
+	/* Frame con energia inferiore a quella massima di questa quantit sono considerati silenzio. */
+	private static final int SILENCE_MARGIN = 8 << 8;   // circa 48 dB
+
+	/* Frame senza miglioramenti dopo i quali un rilevamento viene confermato. */
+	private static final int CONFIRM_FRAMES = 5;
+
+	/* Lunghezza minima di un template, in frame. */
+	private static final int MIN_TEMPLATE_FRAMES = 10;
+
+	/* Valore che rappresenta una distanza infinita. */
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	/** Un template e lo stato del relativo confronto. */
+	private static final class Template {
+		final int[][] frames;
+		final int[] cost;
+		final long[] start;
+		final int[] nextCost;
+		final long[] nextStart;
+
+		Template(int[][] frames) {
+			this.frames = frames;
+			cost = new int[frames.length];
+			start = new long[frames.length];
+			nextCost = new int[frames.length];
+			nextStart = new long[frames.length];
+		}
+	}
+
+	/* Estrattore delle caratteristiche del flusso. */
+	private final WakeWordFeatures mFeatures = new WakeWordFeatures();
+
+	/* Template della parola di attivazione. */
+	private final ArrayList<Template> mTemplates = new ArrayList<Template>();
+
+	/* Soglia di rilevamento. */
+	private int mThreshold = DEFAULT_THRESHOLD;
+
+	/* Indica se l'ultimo blocco elaborato contiene la parola di attivazione. */
+	private boolean mDetected = false;
+
+	/* Migliore distanza sotto la soglia, in attesa di conferma, e frame trascorsi da allora. */
+	private int mCandidateScore = INFINITY;
+	private int mCandidateAge = 0;
+
+	/* Statistiche: frame elaborati, rilevamenti e migliore distanza recente. */
+	private long mFrameCount = 0;
+	private long mDetectionCount = 0;
+	private int mBestScore = INFINITY;
+
+	/* Riceve le caratteristiche dei frame del flusso. */
+	private final WakeWordFeatures.FrameListener mStreamListener = new WakeWordFeatures.FrameListener() {
+		@Override
+		public void onFrame(int[] features, int energy) {
+			mFrameCount++;
+			if (!mDetected && match(features))
+				mDetected = true;
+		}
+	};
+
+
+	/**
+	 * Imposta la soglia di rilevamento.
+	 *
+	 * @param threshold la distanza media massima per banda (vedere {@link #DEFAULT_THRESHOLD})
+	 */
+	public void setThreshold(int threshold) {
+		mThreshold = threshold;
+	}
+
+	/**
+	 * Aggiunge un template, ricavato dalla registrazione specificata della parola di attivazione.
+	 * Il silenzio iniziale e finale della registrazione viene scartato.
+	 *
+	 * @param clip la registrazione, a 16 kHz
+	 * @return <code>true</code> se il template  stato aggiunto, <code>false</code> se la
+	 *         registrazione non  nel formato richiesto oppure  troppo breve
+	 */
+	public boolean addTemplate(WavClip clip) {
+		if (clip.sampleRate != WakeWordFeatures.SAMPLE_RATE)
+			return false;
+
+		final ArrayList<int[]> frames = new ArrayList<int[]>();
+		final ArrayList<Integer> energies = new ArrayList<Integer>();
+		short[] samples = toMono(clip);
+		new WakeWordFeatures().push(samples, 0, samples.length, new WakeWordFeatures.FrameListener() {
+			@Override
+			public void onFrame(int[] features, int energy) {
+				frames.add(features.clone());
+				energies.add(energy);
+			}
+		});
+
+		// Scarta il silenzio iniziale e finale.
+		int maxEnergy = Integer.MIN_VALUE;
+		for (int energy : energies)
+			maxEnergy = Math.max(maxEnergy, energy);
+		int first = 0;
+		int last = frames.size() - 1;
+		while (first <= last && energies.get(first) < maxEnergy - SILENCE_MARGIN)
+			first++;
+		while (last >= first && energies.get(last) < maxEnergy - SILENCE_MARGIN)
+			last--;
+		if (last - first + 1 < MIN_TEMPLATE_FRAMES)
+			return false;
+
+		mTemplates.add(new Template(frames.subList(first, last + 1).toArray(new int[0][])));
+		reset();
+		return true;
+	}
+
+	/**
+	 * Aggiunge i template ricavati dai file WAV contenuti nella directory specificata.
+	 *
+	 * @param directory la directory contenente le registrazioni
+	 * @return il numero di template aggiunti
+	 */
+	public int loadTemplates(File directory) {
+		int count = 0;
+		File[] files = directory.listFiles();
+		if (files == null)
+			return 0;
+
+		for (File file : files) {
+			if (!file.getName().endsWith(".wav"))
+				continue;
+			try {
+				if (addTemplate(WavClip.read(file)))
+					count++;
+			}
+			catch (IOException e) {
+				// Registrazione non valida: viene ignorata.
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Restituisce il numero di template.
+	 *
+	 * @return il numero di template
+	 */
+	public int getTemplateCount() {
+		return mTemplates.size();
+	}
+
+	/**
+	 * Elabora un blocco di campioni del flusso.
+	 *
+	 * @param samples i campioni PCM mono a 16 kHz
+	 * @param offset l'indice del primo campione da elaborare
+	 * @param length il numero di campioni da elaborare
+	 * @return <code>true</code> se la parola di attivazione termina nel blocco elaborato
+	 */
+	public boolean process(short[] samples, int offset, int length) {
+		mDetected = false;
+		mFeatures.push(samples, offset, length, mStreamListener);
+		return mDetected;
+	}
+
+	/**
+	 * Riporta il rilevatore allo stato iniziale, scartando il flusso elaborato fino a questo momento.
+	 */
+	public void reset() {
+		mFeatures.reset();
+		for (Template template : mTemplates)
+			clear(template);
+		mCandidateScore = INFINITY;
+		mBestScore = INFINITY;
+	}
+
+	/**
+	 * Restituisce il numero di frame elaborati.
+	 *
+	 * @return il numero di frame elaborati
+	 */
+	public long getFrameCount() {
+		return mFrameCount;
+	}
+
+	/**
+	 * Restituisce il numero di rilevamenti della parola di attivazione.
+	 *
+	 * @return il numero di rilevamenti
+	 */
+	public long getDetectionCount() {
+		return mDetectionCount;
+	}
+
+	/**
+	 * Restituisce la migliore distanza media per banda ottenuta dall'ultimo rilevamento
+	 * (o dall'ultimo reset), utile per tarare la soglia.
+	 *
+	 * @return la migliore distanza media per banda
+	 */
+	public int getBestScore() {
+		return mBestScore;
+	}
+
+	/* Aggiorna il confronto con tutti i template; true se la parola  stata rilevata. */
+	private boolean match(int[] features) {
+		int score = INFINITY;
+		for (Template template : mTemplates)
+			score = Math.min(score, advance(template, features));
+		mBestScore = Math.min(mBestScore, score);
+
+		// Il rilevamento viene confermato quando la distanza smette di diminuire,
+		// cio al termine della parola.
+		if (score <= mThreshold && score < mCandidateScore) {
+			mCandidateScore = score;
+			mCandidateAge = 0;
+			return false;
+		}
+		if (mCandidateScore == INFINITY || (score <= mThreshold && ++mCandidateAge < CONFIRM_FRAMES))
+			return false;
+
+		mDetectionCount++;
+		for (Template template : mTemplates)
+			clear(template);
+		mCandidateScore = INFINITY;
+		mBestScore = INFINITY;
+		return true;
+	}
+
+	/* Aggiorna la colonna DTW del template e restituisce la distanza media per banda. */
+	private int advance(Template template, int[] features) {
+		int[][] frames = template.frames;
+		int[] cost = template.cost;
+		long[] start = template.start;
+		int[] nextCost = template.nextCost;
+		long[] nextStart = template.nextStart;
+		int n = frames.length;
+		long frame = mFrameCount;
+
+		// Il template pu iniziare in qualsiasi frame del flusso.
+		nextCost[0] = distance(frames[0], features);
+		nextStart[0] = frame;
+
+		for (int i=1; i < n; i++) {
+			int bestCost = cost[i];   // il flusso avanza, il template no
+			long bestStart = start[i];
+			if (cost[i-1] <= bestCost) {   // entrambi avanzano
+				bestCost = cost[i-1];
+				bestStart = start[i-1];
+			}
+			if (nextCost[i-1] < bestCost) {   // il template avanza, il flusso no
+				bestCost = nextCost[i-1];
+				bestStart = nextStart[i-1];
+			}
+
+			// Le deformazioni eccessive (oltre il doppio della durata) non sono ammesse.
+			if (bestCost >= INFINITY || frame - bestStart + 1 > 2 * n) {
+				nextCost[i] = INFINITY;
+			}
+			else {
+				nextCost[i] = bestCost + distance(frames[i], features);
+				nextStart[i] = bestStart;
+			}
+		}
+
+		System.arraycopy(nextCost, 0, cost, 0, n);
+		System.arraycopy(nextStart, 0, start, 0, n);
+
+		// Lo stesso vale per le compressioni (meno della met della durata).
+		long span = frame - start[n-1] + 1;
+		if (cost[n-1] >= INFINITY || span < n / 2)
+			return INFINITY;
+		return (int)(cost[n-1] / ((n + span) * WakeWordFeatures.BANDS / 2));
+	}
+
+	/* Riporta la colonna DTW del template allo stato iniziale. */
+	private static void clear(Template template) {
+		for (int i=0; i < template.cost.length; i++)
+			template.cost[i] = INFINITY;
+	}
+
+	/* Distanza L1 tra due frame. */
+	private static int distance(int[] a, int[] b) {
+		int sum = 0;
+		for (int i=0; i < a.length; i++)
+			sum += Math.abs(a[i] - b[i]);
+		return sum;
+	}
+
+	/* Restituisce i campioni mono del frammento audio, mediando i canali se necessario. */
+	private static short[] toMono(WavClip clip) {
+		if (clip.channels == 1)
+			return clip.samples;
+
+		int frames = clip.getFrameCount();
+		short[] mono = new short[frames];
+		for (int f=0; f < frames; f++) {
+			int sum = 0;
+			for (int c=0; c < clip.channels; c++)
+				sum += clip.samples[f * clip.channels + c];
+			mono[f] = (short)(sum / clip.channels);
+		}
+		return mono;
+	}
+
+	/**
+	 * Verifica il rilevamento su file WAV, stampando l'istante di ogni rilevamento.
+	 * <p>
+	 * Uso: <code>WakeWordDetector &lt;directory dei template&gt; &lt;file WAV&gt; [&lt;file WAV&gt; ...]</code>
+	 *
+	 * @param args la directory dei template e i file da elaborare
+	 * @throws IOException se un file non pu essere letto
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Uso: WakeWordDetector <directory dei template> <file WAV> [<file WAV> ...]");
+			System.exit(2);
+		}
+
+		WakeWordDetector detector = new WakeWordDetector();
+		if (detector.loadTemplates(new File(args[0])) == 0) {
+			System.err.println("Nessun template valido in " + args[0]);
+			System.exit(1);
+		}
+
+		for (int a=1; a < args.length; a++) {
+			WavClip clip = WavClip.read(new File(args[a]));
+			short[] samples = toMono(clip);
+			detector.reset();
+			long startFrames = detector.getFrameCount();
+			long startNanos = System.nanoTime();
+			int detections = 0;
+
+			// Blocchi da 10 ms, come quelli letti dal microfono.
+			for (int offset=0; offset < samples.length; offset += WakeWordFeatures.FRAME_STEP) {
+				int length = Math.min(WakeWordFeatures.FRAME_STEP, samples.length - offset);
+				if (detector.process(samples, offset, length)) {
+					detections++;
+					System.out.println(String.format("%s: parola rilevata a %d ms",
+							args[a], (offset + length) * 1000L / WakeWordFeatures.SAMPLE_RATE));
+				}
+			}
+
+			long frames = detector.getFrameCount() - startFrames;
+			double millis = (System.nanoTime() - startNanos) / 1e6;
+			System.out.println(String.format("%s: %d rilevamenti, %d frame in %.1f ms (%.1f x tempo reale)",
+					args[a], detections, frames, millis, clip.getDurationMillis() / Math.max(millis, 0.001)));
+		}
+	}
+
+}
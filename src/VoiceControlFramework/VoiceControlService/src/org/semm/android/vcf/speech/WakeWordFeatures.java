@@ -0,0 +1,202 @@
+package org.semm.android.vcf.speech;
+
+/**
+ * La classe <code>WakeWordFeatures</code> estrae da un flusso di campioni PCM a 16 bit e 16 kHz
+ * le caratteristiche utilizzate dal rilevatore della parola di attivazione, impiegando
+ * esclusivamente l'aritmetica intera.
+ * <p>
+ * Il segnale viene suddiviso in frame di 25 ms con passo di 10 ms, ciascuno dei quali viene
+ * pesato con una finestra di Hamming in formato Q15. Per ogni frame viene calcolata l'energia
+ * di {@link #BANDS} bande spaziate secondo la scala mel tra 200 e 4000 Hz, sommando le energie
+ * delle componenti DFT della banda calcolate con l'algoritmo di Goertzel. Le energie vengono
+ * convertite in logaritmo in base 2 (formato Q8), limitate inferiormente a {@link #DYNAMIC_RANGE}
+ * sotto la banda pi intensa, in modo da ridurre l'influenza del rumore di fondo, e infine
+ * normalizzate sottraendone la media, per cui le caratteristiche non dipendono dal volume
+ * del segnale.
+ * <p>
+ * Questa classe non dipende dalle API di Android. I metodi non sono thread-safe.
+ *
+ * @author vincenzo
+ * @see WakeWordDetector
+ */
+public class WakeWordFeatures {
+
+	/** Frequenza di campionamento richiesta, in Hz. */
+	public static final int SAMPLE_RATE = 16000;
+
+	/** Numero di campioni di un frame (25 ms). */
+	public static final int FRAME_SIZE = 400;
+
+	/** Numero di campioni tra l'inizio di due frame consecutivi (10 ms). */
+	public static final int FRAME_STEP = 160;
+
+	/** Numero di bande, cio di caratteristiche per frame. */
+	public static final int BANDS = 12;
+
+	/** Dinamica delle caratteristiche di un frame (logaritmo in base 2, formato Q8: circa 36 dB). */
+	public static final int DYNAMIC_RANGE = 6 << 8;
+
+	/* Estremi delle bande e distanza tra le componenti DFT di una banda, in Hz. */
+	private static final double MIN_FREQUENCY = 200;
+	private static final double MAX_FREQUENCY = 4000;
+	private static final int BIN_SPACING = 2;   // una componente ogni 80 Hz
+
+	/* Finestra di Hamming, in formato Q15. */
+	private static final int[] WINDOW = new int[FRAME_SIZE];
+
+	/* Coefficienti di Goertzel (2cos(w), in formato Q14) e banda di ciascuna componente. */
+	private static final int[] COEFFICIENTS;
+	private static final int[] BIN_BAND;
+
+	static {
+		for (int n=0; n < FRAME_SIZE; n++)
+			WINDOW[n] = (int)Math.round(32767 * (0.54 - 0.46 * Math.cos(2 * Math.PI * n / (FRAME_SIZE - 1))));
+
+		// Estremi delle bande, equispaziati sulla scala mel.
+		double minMel = mel(MIN_FREQUENCY);
+		double maxMel = mel(MAX_FREQUENCY);
+		int[] edges = new int[BANDS + 1];
+		for (int b=0; b <= BANDS; b++) {
+			double hz = 700 * (Math.pow(10, (minMel + (maxMel - minMel) * b / BANDS) / 2595) - 1);
+			edges[b] = (int)Math.round(hz * FRAME_SIZE / SAMPLE_RATE);
+		}
+
+		// Componenti DFT di ciascuna banda (almeno una per banda).
+		int[] coefficients = new int[FRAME_SIZE];
+		int[] bands = new int[FRAME_SIZE];
+		int count = 0;
+		for (int b=0; b < BANDS; b++) {
+			int k = edges[b];
+			do {
+				coefficients[count] = (int)Math.round(16384 * 2 * Math.cos(2 * Math.PI * k / FRAME_SIZE));
+				bands[count++] = b;
+				k += BIN_SPACING;
+			} while (k < edges[b + 1]);
+		}
+		COEFFICIENTS = new int[count];
+		BIN_BAND = new int[count];
+		System.arraycopy(coefficients, 0, COEFFICIENTS, 0, count);
+		System.arraycopy(bands, 0, BIN_BAND, 0, count);
+	}
+
+	/**
+	 * Riceve le caratteristiche di ogni frame.
+	 */
+	public interface FrameListener {
+		/**
+		 * Invocato per ogni frame completo.
+		 *
+		 * @param features le caratteristiche del frame; l'array viene riutilizzato per il
+		 *                 frame successivo, per cui deve essere copiato se necessario
+		 * @param energy l'energia media del frame (logaritmo in base 2, formato Q8)
+		 */
+		void onFrame(int[] features, int energy);
+	}
+
+	/* Campioni del frame corrente (buffer circolare) e numero di campioni ricevuti. */
+	private final short[] mBuffer = new short[FRAME_SIZE];
+	private int mPosition = 0;
+	private int mFilled = 0;
+	private int mSinceLastFrame = 0;
+
+	/* Buffer riutilizzati per il frame finestrato, le energie e le caratteristiche. */
+	private final int[] mWindowed = new int[FRAME_SIZE];
+	private final long[] mEnergies = new long[BANDS];
+	private final int[] mFeatures = new int[BANDS];
+
+
+	/**
+	 * Elabora i campioni specificati, invocando il listener per ogni frame completato.
+	 *
+	 * @param samples i campioni PCM mono a 16 kHz
+	 * @param offset l'indice del primo campione da elaborare
+	 * @param length il numero di campioni da elaborare
+	 * @param listener il listener a cui consegnare le caratteristiche
+	 */
+	public void push(short[] samples, int offset, int length, FrameListener listener) {
+		for (int i=offset; i < offset + length; i++) {
+			mBuffer[mPosition] = samples[i];
+			mPosition = (mPosition + 1) % FRAME_SIZE;
+			if (mFilled < FRAME_SIZE)
+				mFilled++;
+
+			if (mFilled == FRAME_SIZE && ++mSinceLastFrame >= FRAME_STEP) {
+				mSinceLastFrame = 0;
+				int energy = computeFrame();
+				listener.onFrame(mFeatures, energy);
+			}
+		}
+	}
+
+	/**
+	 * Scarta i campioni ricevuti, per cui il frame successivo inizier con il prossimo campione.
+	 */
+	public void reset() {
+		mPosition = 0;
+		mFilled = 0;
+		mSinceLastFrame = 0;
+	}
+
+	/**
+	 * Restituisce il logaritmo in base 2 del valore specificato, in formato Q8. La parte
+	 * frazionaria viene approssimata interpolando linearmente tra due potenze di 2.
+	 *
+	 * @param value un valore positivo
+	 * @return il logaritmo in base 2, moltiplicato per 256 (0 se il valore non  positivo)
+	 */
+	public static int log2(long value) {
+		if (value <= 0)
+			return 0;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		long fraction = (exponent >= 8 ? value >>> (exponent - 8) : value << (8 - exponent)) & 0xFF;
+		return (exponent << 8) | (int)fraction;
+	}
+
+	/* Calcola le caratteristiche del frame corrente e restituisce l'energia media. */
+	private int computeFrame() {
+		// Il campione pi vecchio si trova nella posizione corrente del buffer circolare.
+		for (int n=0; n < FRAME_SIZE; n++)
+			mWindowed[n] = (mBuffer[(mPosition + n) % FRAME_SIZE] * WINDOW[n]) >> 15;
+
+		for (int b=0; b < BANDS; b++)
+			mEnergies[b] = 0;
+
+		for (int c=0; c < COEFFICIENTS.length; c++) {
+			long coefficient = COEFFICIENTS[c];
+			long s1 = 0, s2 = 0;
+			for (int n=0; n < FRAME_SIZE; n++) {
+				long s0 = mWindowed[n] + ((coefficient * s1) >> 14) - s2;
+				s2 = s1;
+				s1 = s0;
+			}
+			// |X(k)|^2, ridotto per evitare l'overflow nella somma delle componenti.
+			long power = s1 * s1 + s2 * s2 - (((coefficient * s1) >> 14) * s2);
+			mEnergies[BIN_BAND[c]] += (power >>> 8);
+		}
+
+		int max = 0;
+		int energy = 0;
+		for (int b=0; b < BANDS; b++) {
+			mFeatures[b] = log2(mEnergies[b] + 1);
+			max = Math.max(max, mFeatures[b]);
+			energy += mFeatures[b];
+		}
+
+		int mean = 0;
+		for (int b=0; b < BANDS; b++) {
+			mFeatures[b] = Math.max(mFeatures[b], max - DYNAMIC_RANGE);
+			mean += mFeatures[b];
+		}
+		mean /= BANDS;
+		for (int b=0; b < BANDS; b++)
+			mFeatures[b] -= mean;
+		return energy / BANDS;
+	}
+
+	/* Converte una frequenza in Hz nella scala mel. */
+	private static double mel(double hz) {
+		return 2595 * Math.log10(1 + hz / 700);
+	}
+
+}
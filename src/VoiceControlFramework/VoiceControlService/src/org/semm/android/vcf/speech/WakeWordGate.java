@@ -0,0 +1,327 @@
+package org.semm.android.vcf.speech;
+
+import java.util.ArrayList;
+
+import org.semm.android.vcf.util.TextNormalizer;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * La classe <code>WakeWordGate</code> antepone al riconoscitore vocale la rilevazione della
+ * parola di attivazione: finch la parola non viene pronunciata, il microfono viene letto
+ * direttamente tramite un {@link android.media.AudioRecord} ed elaborato localmente dal
+ * {@link WakeWordDetector}, senza avviare il riconoscitore. Dopo il rilevamento viene avviata
+ * un'unica sessione di riconoscimento, al termine della quale si torna ad attendere la parola.
+ * <p>
+ * Poich la parola di attivazione precede il comando e non viene quindi ascoltata dal
+ * riconoscitore, essa viene anteposta alle ipotesi che non la contengono, in modo che i
+ * risultati abbiano sempre la forma "&lt;parola&gt; &lt;comando&gt;".
+ * <p>
+ * Tutti i metodi devono essere invocati dal main thread.
+ *
+ * @author vincenzo
+ * @see WakeWordDetector
+ */
+public class WakeWordGate implements RecognitionSource {
+
+	/* Tag per i messaggi di log. */
+	private final static String LOG_TAG = WakeWordGate.class.getSimpleName();
+
+	/* Riconoscitore da avviare dopo il rilevamento e rilevatore della parola. */
+	private final RecognitionSource mRecognizer;
+	private final WakeWordDetector mDetector;
+
+	/* Handler del main thread. */
+	private final Handler mHandler;
+
+	/* Parola di attivazione, da anteporre alle ipotesi del riconoscitore, e sua forma normalizzata. */
+	private final String mKeyword;
+	private final String mNormalizedKeyword;
+
+	/* Callback della sorgente. */
+	private Callback mCallback;
+
+	/* Indica se l'ascolto  richiesto e se  in corso una sessione di riconoscimento. */
+	private boolean mWanted = false;
+	private boolean mRecognizing = false;
+
+	/* Valore di mActiveSession quando nessuna acquisizione  attiva. */
+	private static final int NO_SESSION = 0;
+
+	/*
+	 * Sessione di acquisizione attiva, letta dal thread di acquisizione: ciascun thread prosegue
+	 * finch la sessione attiva  la propria, per cui un'acquisizione interrotta non pu essere
+	 * ripresa da quella successiva.
+	 */
+	private volatile int mActiveSession = NO_SESSION;
+	private int mCaptureSession = NO_SESSION;
+
+	/*
+	 * Thread di acquisizione che non ha ancora rilasciato il microfono e indicazione di una
+	 * nuova acquisizione da avviare dopo il rilascio: una sola acquisizione alla volta legge
+	 * il microfono e utilizza il rilevatore.
+	 */
+	private Thread mCaptureThread = null;
+	private boolean mCapturePending = false;
+
+	/* Statistiche: rilevamenti della parola ed errori di acquisizione. */
+	private long mWakeCount = 0;
+	private long mCaptureErrorCount = 0;
+
+	/* Riceve i risultati del riconoscitore, durante le sessioni avviate dopo il rilevamento. */
+	private final Callback mRecognizerCallback = new Callback() {
+		@Override
+		public void onListeningChanged(boolean active, int error) {
+			if (!mRecognizing)
+				return;
+
+			if (error != 0)   // silenzio, nessuna corrispondenza o altri errori
+				endRecognition();
+			else if (mCallback != null)
+				mCallback.onListeningChanged(active, 0);
+		}
+
+		@Override
+		public void onResults(ArrayList<String> results) {
+			if (!mRecognizing)
+				return;
+
+			if (mCallback != null)
+				mCallback.onResults(prependKeyword(results));
+
+			// La callback potrebbe aver interrotto l'ascolto (per esempio per il feedback vocale).
+			if (mRecognizing)
+				endRecognition();
+		}
+	};
+
+
+	/**
+	 * Crea un nuovo filtro per il riconoscitore specificato.
+	 *
+	 * @param recognizer il riconoscitore da avviare dopo il rilevamento della parola
+	 * @param detector il rilevatore della parola di attivazione, con almeno un template
+	 * @param handler l'handler del main thread
+	 * @param keyword la parola di attivazione (per esempio "android")
+	 */
+	public WakeWordGate(RecognitionSource recognizer, WakeWordDetector detector, Handler handler, String keyword) {
+		mRecognizer = recognizer;
+		mDetector = detector;
+		mHandler = handler;
+		mKeyword = keyword;
+		mNormalizedKeyword = TextNormalizer.getDefault().normalize(keyword);
+		mRecognizer.setCallback(mRecognizerCallback);
+	}
+
+	@Override
+	public void setCallback(Callback callback) {
+		mCallback = callback;
+	}
+
+	@Override
+	public void prepare() {
+		if (mRecognizing)
+			mRecognizer.prepare();
+	}
+
+	@Override
+	public void startListening() {
+		mWanted = true;
+		if (mRecognizing)
+			mRecognizer.startListening();
+		else
+			startCapture();
+	}
+
+	@Override
+	public void stopListening() {
+		mWanted = false;
+		stopCapture();
+		if (mRecognizing) {
+			mRecognizing = false;
+			mRecognizer.stopListening();
+		}
+		notifyListening(false, 0);
+	}
+
+	@Override
+	public void release() {
+		stopListening();
+		mRecognizer.release();
+	}
+
+	/**
+	 * Restituisce il numero di rilevamenti della parola di attivazione.
+	 *
+	 * @return il numero di rilevamenti
+	 */
+	public long getWakeCount() {
+		return mWakeCount;
+	}
+
+	/**
+	 * Restituisce il numero di errori di acquisizione dal microfono.
+	 *
+	 * @return il numero di errori di acquisizione
+	 */
+	public long getCaptureErrorCount() {
+		return mCaptureErrorCount;
+	}
+
+	/*
+	 * Avvia la lettura del microfono per la rilevazione della parola, oppure, se l'acquisizione
+	 * precedente non ha ancora rilasciato il microfono, la rimanda al rilascio.
+	 */
+	private void startCapture() {
+		if (mActiveSession != NO_SESSION || mCapturePending)
+			return;
+
+		if (mCaptureThread != null)
+			mCapturePending = true;
+		else
+			launchCapture();
+		notifyListening(true, 0);
+	}
+
+	/* Avvia il thread di una nuova sessione di acquisizione. */
+	private void launchCapture() {
+		if (++mCaptureSession == NO_SESSION)
+			mCaptureSession++;
+		final int session = mCaptureSession;
+		mDetector.reset();   // nessun altro thread lo sta utilizzando
+		mActiveSession = session;
+		mCaptureThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				capture(session);
+			}
+		}, LOG_TAG);
+		mCaptureThread.start();
+	}
+
+	/* Interrompe la lettura del microfono, senza attenderne il rilascio. */
+	private void stopCapture() {
+		mActiveSession = NO_SESSION;
+		mCapturePending = false;
+	}
+
+	/* Legge il microfono fino al rilevamento della parola oppure all'interruzione. */
+	private void capture(final int session) {
+		int bufferSize = Math.max(
+				AudioRecord.getMinBufferSize(WakeWordFeatures.SAMPLE_RATE,
+						AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT),
+				WakeWordFeatures.SAMPLE_RATE / 5 * 2);   // almeno 200 ms
+		AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION,
+				WakeWordFeatures.SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+				AudioFormat.ENCODING_PCM_16BIT, bufferSize);
+
+		if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+			record.release();
+			postCaptureEnded(session, false);
+			return;
+		}
+
+		boolean detected = false;
+		record.startRecording();
+		try {
+			short[] buffer = new short[WakeWordFeatures.FRAME_STEP];
+			while (session == mActiveSession) {
+				int read = record.read(buffer, 0, buffer.length);
+				if (read < 0)
+					break;   // errore: la sessione resta attiva e viene segnalato il fallimento
+				if (mDetector.process(buffer, 0, read)) {
+					detected = true;
+					break;
+				}
+			}
+		}
+		finally {
+			record.stop();
+			record.release();
+		}
+
+		// Il riconoscitore, o la nuova acquisizione, viene avviato soltanto dopo il rilascio del microfono.
+		postCaptureEnded(session, detected);
+	}
+
+	/*
+	 * Elabora nel main thread il termine di un'acquisizione, dopo il rilascio del microfono: se
+	 * la sessione  ancora attiva, la parola  stata rilevata oppure l'acquisizione  fallita;
+	 * altrimenti l'acquisizione  stata interrotta e pu essere avviata quella in attesa.
+	 */
+	private void postCaptureEnded(final int session, final boolean detected) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mCaptureThread = null;
+				if (session != mActiveSession) {
+					if (mCapturePending) {
+						mCapturePending = false;
+						launchCapture();
+					}
+					return;
+				}
+
+				mActiveSession = NO_SESSION;
+				if (!mWanted || mRecognizing)
+					return;
+				if (detected) {
+					mWakeCount++;
+					Log.v(LOG_TAG, "Parola di attivazione rilevata");
+				}
+				else {
+					// Senza microfono il filtro non pu funzionare: si ascolta direttamente.
+					mCaptureErrorCount++;
+					Log.e(LOG_TAG, "capture(): acquisizione dal microfono non riuscita");
+				}
+				startRecognition();
+			}
+		});
+	}
+
+	/* Avvia una sessione di riconoscimento dopo il rilevamento della parola. */
+	private void startRecognition() {
+		mRecognizing = true;
+		mRecognizer.prepare();
+		mRecognizer.startListening();
+	}
+
+	/* Termina la sessione di riconoscimento e torna ad attendere la parola. */
+	private void endRecognition() {
+		mRecognizing = false;
+		mRecognizer.stopListening();
+		if (mWanted)
+			startCapture();
+	}
+
+	/* Antepone la parola di attivazione alle ipotesi che non la contengono. */
+	private ArrayList<String> prependKeyword(ArrayList<String> results) {
+		ArrayList<String> prefixed = new ArrayList<String>(results.size());
+		for (String hypothesis : results)
+			prefixed.add(startsWithKeyword(hypothesis) ? hypothesis : mKeyword + ' ' + hypothesis);
+		return prefixed;
+	}
+
+	/*
+	 * Verifica se l'ipotesi inizia con la parola di attivazione, seguita dalla fine dell'ipotesi
+	 * o da un'altra parola: il confronto avviene dopo la normalizzazione, per cui non dipende da
+	 * maiuscole, accenti e punteggiatura (per esempio "Android, apri ...").
+	 */
+	private boolean startsWithKeyword(String hypothesis) {
+		String normalized = TextNormalizer.getDefault().normalize(hypothesis);
+		int length = mNormalizedKeyword.length();
+		return normalized.startsWith(mNormalizedKeyword)
+				&& (normalized.length() == length || normalized.charAt(length) == ' ');
+	}
+
+	/* Informa la callback circa lo stato di ascolto. */
+	private void notifyListening(boolean active, int error) {
+		if (mCallback != null)
+			mCallback.onListeningChanged(active, error);
+	}
+
+}
@@ -0,0 +1,167 @@
+package org.semm.android.vcf.speech;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Un frammento audio PCM a 16 bit, tipicamente letto da un file WAV. Viene utilizzato per
+ * conservare in memoria gli enunciati sintetizzati in anticipo dal motore TTS, in modo da
+ * poterli riprodurre direttamente senza sintetizzarli nuovamente.
+ * <p>
+ * Questa classe non dipende dalle API di Android, per cui pu essere utilizzata anche
+ * al di fuori del dispositivo (per esempio per elaborare file WAV registrati).
+ *
+ * @author vincenzo
+ */
+public final class WavClip {
+
+	/** Frequenza di campionamento, in Hz. */
+	public final int sampleRate;
+
+	/** Numero di canali (1 per mono, 2 per stereo). */
+	public final int channels;
+
+	/** Campioni PCM a 16 bit, eventualmente interlacciati. */
+	public final short[] samples;
+
+
+	/**
+	 * Crea un nuovo frammento audio con i campioni specificati.
+	 *
+	 * @param sampleRate la frequenza di campionamento, in Hz
+	 * @param channels il numero di canali
+	 * @param samples i campioni PCM a 16 bit
+	 */
+	public WavClip(int sampleRate, int channels, short[] samples) {
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.samples = samples;
+	}
+
+	/**
+	 * Restituisce la durata del frammento audio.
+	 *
+	 * @return la durata in millisecondi
+	 */
+	public long getDurationMillis() {
+		return samples.length * 1000L / ((long)sampleRate * channels);
+	}
+
+	/**
+	 * Restituisce il numero di frame (campioni per canale) del frammento audio.
+	 *
+	 * @return il numero di frame
+	 */
+	public int getFrameCount() {
+		return samples.length / channels;
+	}
+
+	/**
+	 * Legge un file WAV in formato PCM a 16 bit.
+	 *
+	 * @param file il file da leggere
+	 * @return il frammento audio contenuto nel file
+	 * @throws IOException se il file non esiste, non  leggibile o non  nel formato previsto
+	 */
+	public static WavClip read(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return read(in, file.length());
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Legge un flusso in formato WAV PCM a 16 bit. Il flusso non viene chiuso.
+	 *
+	 * @param in il flusso da leggere
+	 * @return il frammento audio contenuto nel flusso
+	 * @throws IOException se il flusso non  leggibile o non  nel formato previsto
+	 */
+	public static WavClip read(InputStream in) throws IOException {
+		return read(in, Integer.MAX_VALUE);
+	}
+
+	/* Legge un flusso WAV la cui lunghezza non supera quella specificata, in byte. */
+	private static WavClip read(InputStream in, long length) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+
+		if (readTag(data) != 0x46464952 /* RIFF */)
+			throw new IOException("Intestazione RIFF mancante");
+		readIntLE(data);   // dimensione del file
+		if (readTag(data) != 0x45564157 /* WAVE */)
+			throw new IOException("Formato WAVE mancante");
+
+		int sampleRate = 0, channels = 0, bits = 0;
+		for (;;) {
+			int tag = readTag(data);
+			int size = readIntLE(data);
+			// Un'intestazione di streaming o danneggiata pu indicare 0xFFFFFFFF o una dimensione eccessiva.
+			if (size < 0 || size > length)
+				throw new IOException(String.format("Dimensione del blocco non valida (%d su %d byte)",
+						size & 0xffffffffL, length));
+
+			if (tag == 0x20746d66 /* fmt  */) {
+				int format = readShortLE(data);
+				channels = readShortLE(data);
+				sampleRate = readIntLE(data);
+				readIntLE(data);     // byte al secondo
+				readShortLE(data);   // allineamento dei blocchi
+				bits = readShortLE(data);
+				skipFully(data, size - 16);
+
+				if (format != 1 || bits != 16)
+					throw new IOException(String.format("Formato non supportato (formato %d, %d bit)", format, bits));
+			}
+			else if (tag == 0x61746164 /* data */) {
+				if (channels == 0)
+					throw new IOException("Blocco fmt mancante");
+
+				short[] samples = new short[size / 2];
+				byte[] buffer = new byte[size - (size & 1)];
+				data.readFully(buffer);
+				for (int i=0, j=0; i < samples.length; i++, j+=2)
+					samples[i] = (short)((buffer[j] & 0xff) | (buffer[j+1] << 8));
+				return new WavClip(sampleRate, channels, samples);
+			}
+			else {
+				skipFully(data, size + (size & 1));
+			}
+		}
+	}
+
+	/* Legge un identificativo di blocco di 4 byte (little endian). */
+	private static int readTag(DataInputStream in) throws IOException {
+		return readIntLE(in);
+	}
+
+	/* Legge un intero a 32 bit little endian. */
+	private static int readIntLE(DataInputStream in) throws IOException {
+		int b0 = in.read(), b1 = in.read(), b2 = in.read(), b3 = in.read();
+		if ((b0 | b1 | b2 | b3) < 0)
+			throw new EOFException();
+		return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+	}
+
+	/* Legge un intero a 16 bit little endian senza segno. */
+	private static int readShortLE(DataInputStream in) throws IOException {
+		int b0 = in.read(), b1 = in.read();
+		if ((b0 | b1) < 0)
+			throw new EOFException();
+		return b0 | (b1 << 8);
+	}
+
+	/* Salta il numero di byte specificato. */
+	private static void skipFully(DataInputStream in, int n) throws IOException {
+		if (n > 0)
+			in.readFully(new byte[n]);
+	}
+
+}
@@ -1,52 +1,86 @@
 package org.semm.android.vcf.temp;
 
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.semm.android.vcf.CommandConfiguration;
+
 import android.os.Bundle;
 
 /**
  * Una semplice classe per simulare le preferenze.
+ * <p>
+ * La configurazione dei comandi viene pubblicata come {@link CommandConfiguration}
+ * immutabile: ogni modifica crea una nuova istantanea, che sostituisce la precedente
+ * anche mentre il riconoscimento  in corso.
  * 
  * @author vincenzo
  *
  */
 public class Preferenze {
 	
-	private HashMap<String, HashMap<String, Bundle>> mApps;
+	// Configurazione corrente, sostituita per intero ad ogni modifica.
+	private volatile CommandConfiguration mConfig;
 	
 	public Preferenze() {
-		mApps = new HashMap<String, HashMap<String, Bundle>>();
-		
-		HashMap<String, Bundle> demoApp = new HashMap<String, Bundle>();
 		Bundle demoAppB1 = new Bundle(); demoAppB1.putString("command01", "comando 01");  // inviati dall'app
 		Bundle demoAppB2 = new Bundle(); demoAppB2.putString("command02", "comando 02");  // al servizio
-		demoApp.put("esegui primo comando", demoAppB1);     // impostati nell'app e inviati
-		demoApp.put("esegui secondo comando", demoAppB2);   // dall'app al servizio
-		mApps.put("demo", demoApp);
+		Bundle demoAppB3 = new Bundle(); demoAppB3.putString("command03", "comando 03");  // + parametro "volte"
+		mConfig = new CommandConfiguration.Builder()
+				.putApp("demo", "org.semm.android.ctrlappdemo")
+				.putApp("biglietteria", null)
+				.putCommand("demo", "esegui primo comando", demoAppB1)     // impostati nell'app e inviati
+				.putCommand("demo", "esegui secondo comando", demoAppB2)   // dall'app al servizio
+				.putCommand("demo", "ripeti comando {volte:numero} volte", demoAppB3)
+				.build(0);
 		// devono essere salvati con le shared preferences
 	}
 	
+	public CommandConfiguration getConfiguration() {
+		return mConfig;
+	}
+	
 	public Set<String> getStringSet(String pref, Set<String> def) {
 	    if (pref.equalsIgnoreCase("AvailableApps")) {
-		    return new HashSet<String>(Arrays.asList(new String[]{"demo", "biglietteria"}));
+		    return new HashSet<String>(mConfig.getAvailableApps());
 		}
 		return def;
 	}
 		
 	public String getPackageName(String appId, String def) {
-		if (appId.equalsIgnoreCase("demo"))
-			return "org.semm.android.ctrlappdemo";
-		return def;
+		return mConfig.getPackageName(appId, def);
+	}
+	
+	public String getAppId(String packageName, String def) {
+		return mConfig.getAppId(packageName, def);
 	}
 	
 	public Set<String> getAppCommands(String appId) {
-		return mApps.get(appId).keySet();
+		return new HashSet<String>(mConfig.getAppCommands(appId));
 	}
 	
 	public Bundle getAppCommand(String appId, String command) {
-		return mApps.get(appId).get(command);
+		return mConfig.getAppCommand(appId, command);
+	}
+	
+	public synchronized void putApp(String appId, String packageName) {
+		mConfig = new CommandConfiguration.Builder(mConfig)
+				.putApp(appId, packageName)
+				.build(mConfig.getVersion() + 1);
+	}
+	
+	public synchronized void putAppCommand(String appId, String command, Bundle params) {
+		mConfig = new CommandConfiguration.Builder(mConfig)
+				.putCommand(appId, command, params)
+				.build(mConfig.getVersion() + 1);
+	}
+	
+	public synchronized void setConfiguration(CommandConfiguration config) {
+		mConfig = new CommandConfiguration.Builder(config)
+				.build(mConfig.getVersion() + 1);
+	}
+	
+	public int getVersion() {
+		return mConfig.getVersion();
 	}
 }
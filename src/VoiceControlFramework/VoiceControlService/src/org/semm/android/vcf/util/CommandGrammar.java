@@ -0,0 +1,326 @@
+package org.semm.android.vcf.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * La classe <code>CommandGrammar</code> descrive un comando vocale con parametri, per esempio
+ * <code>"compra {quantita:numero} biglietti per {destinazione:roma|milano|napoli}"</code>:
+ * le parti letterali vengono confrontate con le ipotesi del riconoscitore tramite la distanza
+ * pesata del {@link DecisionEngine}, mentre i parametri (slot) accettano le parole corrispondenti
+ * al loro tipo, i cui valori vengono estratti e inviati all'applicazione insieme al comando.
+ * I tipi di parametro sono:
+ * <ul>
+ * <li>{@link #TYPE_NUMBER} ("numero"): un numero in cifre oppure in lettere, da zero a cento
+ * ("tre", "ventotto"), il cui valore  un <code>Integer</code>;</li>
+ * <li>{@link #TYPE_TEXT} ("testo"): il resto dell'enunciato, che deve essere l'ultimo
+ * elemento del comando e il cui valore  una <code>String</code>;</li>
+ * <li>un'enumerazione di alternative separate da "|", confrontate come le parti letterali,
+ * il cui valore  l'alternativa scelta, cos come  scritta nel comando.</li>
+ * </ul>
+ * In questo modo un solo comando copre un numero elevato di combinazioni, senza che l'elenco
+ * dei comandi debba contenerle tutte.
+ * <p>
+ * Il comando viene compilato in un automa lineare di elementi (parti letterali, enumerazioni,
+ * numeri e testo), con le parti letterali e le alternative gi normalizzate; l'automa viene
+ * percorso dal motore decisionale tramite programmazione dinamica sulle parole dell'ipotesi.
+ * Un comando senza parametri  costituito da una sola parte letterale e viene confrontato
+ * come una semplice stringa. Le istanze sono immutabili e questa classe non dipende dalle
+ * API di Android.
+ *
+ * @author vincenzo
+ */
+public final class CommandGrammar {
+
+	/** Tipo dei parametri numerici. */
+	public static final String TYPE_NUMBER = "numero";
+
+	/** Tipo del parametro di testo libero, che occupa il resto dell'enunciato. */
+	public static final String TYPE_TEXT = "testo";
+
+	/* Tipi degli elementi dell'automa. */
+	static final int ELEMENT_LITERAL = 0;
+	static final int ELEMENT_ENUM = 1;
+	static final int ELEMENT_NUMBER = 2;
+	static final int ELEMENT_TEXT = 3;
+
+	/* Numeri in lettere e valori corrispondenti. */
+	private static final char[][] NUMBER_WORDS;
+	private static final int[] NUMBER_VALUES;
+
+	/* Massimo numero di cifre di un numero. */
+	private static final int MAX_DIGITS = 9;
+
+	static {
+		String[] units = {
+			"zero", "uno", "due", "tre", "quattro", "cinque", "sei", "sette", "otto", "nove",
+			"dieci", "undici", "dodici", "tredici", "quattordici", "quindici", "sedici",
+			"diciassette", "diciotto", "diciannove"
+		};
+		String[] tens = { "venti", "trenta", "quaranta", "cinquanta", "sessanta", "settanta", "ottanta", "novanta" };
+
+		ArrayList<String> words = new ArrayList<String>();
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		for (int n=0; n < units.length; n++) {
+			words.add(units[n]);
+			values.add(n);
+		}
+		for (int t=0; t < tens.length; t++) {
+			words.add(tens[t]);
+			values.add(20 + 10*t);
+			for (int u=1; u < 10; u++) {
+				// La vocale finale cade davanti a "uno" e "otto" (ventuno, ventotto).
+				String prefix = (u == 1 || u == 8 ? tens[t].substring(0, tens[t].length() - 1) : tens[t]);
+				words.add(prefix + units[u]);
+				values.add(20 + 10*t + u);
+			}
+		}
+		words.add("cento");
+		values.add(100);
+		words.add("un");
+		values.add(1);
+		words.add("una");
+		values.add(1);
+
+		NUMBER_WORDS = new char[words.size()][];
+		NUMBER_VALUES = new int[words.size()];
+		for (int i=0; i < NUMBER_WORDS.length; i++) {
+			NUMBER_WORDS[i] = words.get(i).toCharArray();
+			NUMBER_VALUES[i] = values.get(i);
+		}
+	}
+
+	/* Comando cos come  stato specificato. */
+	private final String mPattern;
+
+	/* Elementi dell'automa: tipo, nome del parametro, alternative normalizzate e originali. */
+	private final int[] mTypes;
+	private final String[] mNames;
+	private final char[][][] mAlternatives;
+	private final String[][] mValues;
+
+
+	/* Le istanze vengono create tramite compile(). */
+	private CommandGrammar(String pattern, List<Integer> types, List<String> names,
+			List<char[][]> alternatives, List<String[]> values) {
+		mPattern = pattern;
+		mTypes = new int[types.size()];
+		for (int e=0; e < mTypes.length; e++)
+			mTypes[e] = types.get(e);
+		mNames = names.toArray(new String[names.size()]);
+		mAlternatives = alternatives.toArray(new char[alternatives.size()][][]);
+		mValues = values.toArray(new String[values.size()][]);
+	}
+
+	/**
+	 * Compila un comando, normalizzandone le parti letterali e le alternative.
+	 *
+	 * @param pattern il comando, con i parametri nella forma <code>{nome:tipo}</code>
+	 * @param normalizer il normalizzatore applicato anche alle ipotesi del riconoscitore
+	 * @return il comando compilato
+	 * @throws IllegalArgumentException se il comando non  valido
+	 */
+	public static CommandGrammar compile(String pattern, TextNormalizer normalizer) {
+		ArrayList<Integer> types = new ArrayList<Integer>();
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<char[][]> alternatives = new ArrayList<char[][]>();
+		ArrayList<String[]> values = new ArrayList<String[]>();
+
+		int pos = 0;
+		while (pos < pattern.length()) {
+			int open = pattern.indexOf('{', pos);
+			String literal = normalizer.normalize(pattern.substring(pos, open < 0 ? pattern.length() : open));
+			if (literal.length() > 0) {
+				types.add(ELEMENT_LITERAL);
+				names.add(null);
+				alternatives.add(new char[][] { literal.toCharArray() });
+				values.add(null);
+			}
+			if (open < 0)
+				break;
+
+			int close = pattern.indexOf('}', open);
+			int colon = pattern.indexOf(':', open);
+			if (close < 0 || colon < 0 || colon > close)
+				throw new IllegalArgumentException(String.format("Parametro non valido: %s", pattern));
+			String name = pattern.substring(open + 1, colon).trim();
+			String type = pattern.substring(colon + 1, close).trim();
+			if (name.length() == 0 || type.length() == 0)
+				throw new IllegalArgumentException(String.format("Parametro non valido: %s", pattern));
+
+			names.add(name);
+			if (type.equals(TYPE_NUMBER)) {
+				types.add(ELEMENT_NUMBER);
+				alternatives.add(null);
+				values.add(null);
+			}
+			else if (type.equals(TYPE_TEXT)) {
+				types.add(ELEMENT_TEXT);
+				alternatives.add(null);
+				values.add(null);
+			}
+			else {
+				List<String> options = split(type);
+				char[][] normalized = new char[options.size()][];
+				for (int a=0; a < normalized.length; a++) {
+					normalized[a] = normalizer.normalize(options.get(a)).toCharArray();
+					if (normalized[a].length == 0)
+						throw new IllegalArgumentException(String.format("Alternativa vuota: %s", pattern));
+				}
+				types.add(ELEMENT_ENUM);
+				alternatives.add(normalized);
+				values.add(options.toArray(new String[options.size()]));
+			}
+			pos = close + 1;
+		}
+
+		for (int e=0; e < types.size() - 1; e++)
+			if (types.get(e) == ELEMENT_TEXT)
+				throw new IllegalArgumentException(String.format("Il testo deve essere l'ultimo elemento: %s", pattern));
+		return new CommandGrammar(pattern, types, names, alternatives, values);
+	}
+
+	/**
+	 * Restituisce le parti letterali e le alternative di un comando, non normalizzate,
+	 * per esempio per aggiungerle al vocabolario del {@link TextNormalizer}.
+	 *
+	 * @param pattern il comando, con i parametri nella forma <code>{nome:tipo}</code>
+	 * @return le parti letterali e le alternative
+	 */
+	public static List<String> getPhrases(String pattern) {
+		ArrayList<String> phrases = new ArrayList<String>();
+		int pos = 0;
+		while (pos < pattern.length()) {
+			int open = pattern.indexOf('{', pos);
+			int close = (open < 0 ? -1 : pattern.indexOf('}', open));
+			phrases.add(pattern.substring(pos, open < 0 || close < 0 ? pattern.length() : open));
+			if (close < 0)
+				break;
+
+			int colon = pattern.indexOf(':', open);
+			if (colon >= 0 && colon < close) {
+				String type = pattern.substring(colon + 1, close).trim();
+				if (!type.equals(TYPE_NUMBER) && !type.equals(TYPE_TEXT))
+					phrases.addAll(split(type));
+			}
+			pos = close + 1;
+		}
+		return phrases;
+	}
+
+	/* Restituisce le alternative di un'enumerazione. */
+	private static List<String> split(String type) {
+		ArrayList<String> options = new ArrayList<String>();
+		for (int start=0; start <= type.length(); ) {
+			int end = type.indexOf('|', start);
+			if (end < 0)
+				end = type.length();
+			options.add(type.substring(start, end).trim());
+			start = end + 1;
+		}
+		return options;
+	}
+
+	/**
+	 * Verifica se il comando ha parametri.
+	 *
+	 * @return <code>true</code> se il comando ha almeno un parametro
+	 */
+	public boolean hasSlots() {
+		return !(mTypes.length == 1 && mTypes[0] == ELEMENT_LITERAL);
+	}
+
+	/**
+	 * Restituisce il comando normalizzato, se non ha parametri.
+	 *
+	 * @return il comando normalizzato, oppure <code>null</code> se il comando ha parametri
+	 */
+	public String getText() {
+		return (hasSlots() ? null : new String(mAlternatives[0][0]));
+	}
+
+	/**
+	 * Restituisce la parte letterale iniziale del comando, normalizzata, che precede
+	 * il primo parametro.
+	 *
+	 * @return la parte iniziale, il comando stesso se non ha parametri, oppure la
+	 *         stringa vuota se il comando inizia con un parametro
+	 */
+	public String getLiteralPrefix() {
+		return (mTypes.length > 0 && mTypes[0] == ELEMENT_LITERAL ? new String(mAlternatives[0][0]) : "");
+	}
+
+	/**
+	 * Restituisce il comando cos come  stato specificato.
+	 *
+	 * @return il comando
+	 */
+	public String getPattern() {
+		return mPattern;
+	}
+
+	@Override
+	public String toString() {
+		return mPattern;
+	}
+
+	/* Elementi dell'automa, utilizzati dal motore decisionale. */
+	int getElementCount() {
+		return mTypes.length;
+	}
+
+	int getType(int element) {
+		return mTypes[element];
+	}
+
+	String getName(int element) {
+		return mNames[element];
+	}
+
+	char[][] getAlternatives(int element) {
+		return mAlternatives[element];
+	}
+
+	String getValue(int element, int alternative) {
+		return mValues[element][alternative];
+	}
+
+	/**
+	 * Restituisce il valore del numero compreso tra le posizioni specificate.
+	 *
+	 * @param chars l'array contenente il numero
+	 * @param from la posizione del primo carattere
+	 * @param to la posizione successiva all'ultimo carattere
+	 * @return il valore del numero, oppure -1 se i caratteri non rappresentano un numero
+	 */
+	static int parseNumber(char[] chars, int from, int to) {
+		int length = to - from;
+		if (length <= 0)
+			return -1;
+
+		if (chars[from] >= '0' && chars[from] <= '9') {
+			if (length > MAX_DIGITS)
+				return -1;
+			int value = 0;
+			for (int i=from; i < to; i++) {
+				if (chars[i] < '0' || chars[i] > '9')
+					return -1;
+				value = 10 * value + (chars[i] - '0');
+			}
+			return value;
+		}
+
+		for (int w=0; w < NUMBER_WORDS.length; w++) {
+			char[] word = NUMBER_WORDS[w];
+			if (word.length != length)
+				continue;
+			int i = 0;
+			while (i < length && word[i] == chars[from + i])
+				i++;
+			if (i == length)
+				return NUMBER_VALUES[w];
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,200 @@
+package org.semm.android.vcf.util;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * La classe <code>CommandShards</code> suddivide i comandi ammessi in uno stato (le richieste
+ * di avvio, oppure i comandi dell'applicazione corrente) in partizioni, in base alla loro prima
+ * parola significativa, cio la prima parola che non  comune a tutti i comandi: per esempio
+ * "demo" in "android avvia demo" oppure "esegui" in "android esegui primo comando".
+ * <p>
+ * Il {@link DecisionEngine} confronta la parola corrispondente di ciascuna ipotesi con le chiavi
+ * delle partizioni, tramite la stessa distanza pesata, e valuta soltanto i comandi delle (al pi
+ * due) partizioni pi vicine, anzich tutti i comandi; i comandi che iniziano con un parametro
+ * (si veda {@link CommandGrammar}) o privi della parola significativa vengono valutati sempre.
+ * Vengono invece valutati tutti i comandi se nessuna chiave  abbastanza vicina, se una chiave
+ * esclusa  vicina quanto una di quelle scelte (i pareggi non vengono risolti in base
+ * all'ordine delle partizioni), oppure se il risultato non  certamente migliore di quello di
+ * qualunque comando escluso: la scelta delle partizioni non modifica quindi il risultato.
+ * <p>
+ * Le partizioni sono immutabili e possono essere utilizzate da pi thread; il numero di volte
+ * in cui ciascuna di esse  stata scelta viene conservato in contatori atomici. Questa classe
+ * non dipende dalle API di Android.
+ *
+ * @author vincenzo
+ */
+public final class CommandShards {
+
+	/* Numero di comandi e di parole iniziali comuni a tutti. */
+	private final int mCommandCount;
+	private final int mSkip;
+
+	/* Chiave (prima parola significativa) e comandi di ciascuna partizione, in ordine crescente. */
+	private final char[][] mKeys;
+	private final int[][] mMembers;
+
+	/* Comandi valutati in ogni caso. */
+	private final int[] mWildcards;
+
+	/* Numero di volte in cui ciascuna partizione  stata scelta, seguito da quello in cui nessuna lo  stata. */
+	private final AtomicLongArray mHits;
+
+
+	/**
+	 * Crea le partizioni relative ai comandi specificati.
+	 *
+	 * @param prefixes per ciascun comando, la parte iniziale normalizzata che non contiene
+	 *                 parametri (il comando stesso, se non ha parametri, oppure la stringa
+	 *                 vuota, se inizia con un parametro)
+	 */
+	public CommandShards(List<String> prefixes) {
+		mCommandCount = prefixes.size();
+
+		ArrayList<String[]> words = new ArrayList<String[]>(mCommandCount);
+		for (String prefix : prefixes)
+			words.add(prefix.length() > 0 ? prefix.split(" ") : new String[0]);
+
+		/*
+		 * Parole iniziali comuni: una parola  comune se  la stessa in tutti i comandi che
+		 * la contengono e almeno due di essi proseguono con altre parole; i comandi privi
+		 * della parola significativa vengono valutati sempre.
+		 */
+		int skip = 0;
+		for (boolean common = true; common; ) {
+			String word = null;
+			int longer = 0;
+			for (int c=0; c < mCommandCount && common; c++) {
+				String[] w = words.get(c);
+				if (w.length <= skip)
+					continue;
+				if (word == null)
+					word = w[skip];
+				else if (!word.equals(w[skip]))
+					common = false;
+				if (w.length > skip + 1)
+					longer++;
+			}
+			if (common && longer >= 2)
+				skip++;
+			else common = false;
+		}
+		mSkip = skip;
+
+		LinkedHashMap<String, List<Integer>> shards = new LinkedHashMap<String, List<Integer>>();
+		ArrayList<Integer> wildcards = new ArrayList<Integer>();
+		for (int c=0; c < mCommandCount; c++) {
+			String[] w = words.get(c);
+			if (w.length <= skip) {
+				wildcards.add(c);
+				continue;
+			}
+			List<Integer> members = shards.get(w[skip]);
+			if (members == null) {
+				members = new ArrayList<Integer>();
+				shards.put(w[skip], members);
+			}
+			members.add(c);
+		}
+
+		mKeys = new char[shards.size()][];
+		mMembers = new int[shards.size()][];
+		int s = 0;
+		for (Map.Entry<String, List<Integer>> shard : shards.entrySet()) {
+			mKeys[s] = shard.getKey().toCharArray();
+			mMembers[s] = toArray(shard.getValue());
+			s++;
+		}
+		mWildcards = toArray(wildcards);
+		mHits = new AtomicLongArray(mKeys.length + 1);
+	}
+
+	/* Converte una lista di interi in un array. */
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i=0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	/**
+	 * Restituisce il numero di comandi.
+	 *
+	 * @return il numero di comandi
+	 */
+	public int getCommandCount() {
+		return mCommandCount;
+	}
+
+	/**
+	 * Restituisce il numero di parole iniziali comuni a tutti i comandi, cio la posizione
+	 * della parola significativa nelle ipotesi.
+	 *
+	 * @return il numero di parole comuni
+	 */
+	public int getSkip() {
+		return mSkip;
+	}
+
+	/**
+	 * Restituisce il numero di partizioni.
+	 *
+	 * @return il numero di partizioni
+	 */
+	public int getShardCount() {
+		return mKeys.length;
+	}
+
+	/**
+	 * Restituisce la chiave della partizione specificata.
+	 *
+	 * @param shard l'indice della partizione
+	 * @return i caratteri della prima parola significativa, da non modificare
+	 */
+	public char[] getKey(int shard) {
+		return mKeys[shard];
+	}
+
+	/**
+	 * Restituisce i comandi della partizione specificata.
+	 *
+	 * @param shard l'indice della partizione
+	 * @return gli indici dei comandi, in ordine crescente, da non modificare
+	 */
+	public int[] getMembers(int shard) {
+		return mMembers[shard];
+	}
+
+	/**
+	 * Restituisce i comandi che non appartengono ad alcuna partizione e vengono valutati in ogni caso.
+	 *
+	 * @return gli indici dei comandi, in ordine crescente, da non modificare
+	 */
+	public int[] getWildcards() {
+		return mWildcards;
+	}
+
+	/* Registra la scelta di una partizione, oppure di tutti i comandi se shard  -1. */
+	void recordHit(int shard) {
+		mHits.incrementAndGet(shard >= 0 ? shard : mKeys.length);
+	}
+
+	/**
+	 * Scrive le partizioni, con il numero di comandi e il numero di volte in cui sono state scelte.
+	 *
+	 * @param writer il writer su cui scrivere
+	 * @param prefix il prefisso della riga
+	 */
+	public void dump(PrintWriter writer, String prefix) {
+		StringBuilder line = new StringBuilder(prefix);
+		for (int s=0; s < mKeys.length; s++)
+			line.append(String.format("%s(%d):%d ", new String(mKeys[s]), mMembers[s].length, mHits.get(s)));
+		line.append(String.format("*(%d) tutti:%d", mWildcards.length, mHits.get(mKeys.length)));
+		writer.println(line);
+	}
+
+}
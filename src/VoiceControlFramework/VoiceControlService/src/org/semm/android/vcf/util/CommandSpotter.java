@@ -0,0 +1,359 @@
+package org.semm.android.vcf.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * La classe <code>CommandSpotter</code> individua i comandi che possono comparire all'interno
+ * di un enunciato pi lungo, per esempio "per favore android avvia demo grazie", in cui le
+ * parole in pi renderebbero eccessiva la distanza tra l'intera ipotesi e il comando.
+ * <p>
+ * Le parole dei comandi (gi normalizzati) vengono numerate tramite un trie di caratteri e
+ * le sequenze di parole di ciascun comando formano un automa di Aho-Corasick; l'ipotesi viene
+ * percorsa una sola volta, parola per parola, con un costo lineare nella sua lunghezza, e per
+ * ciascun comando si ottiene:
+ * <ul>
+ * <li>{@link #EXACT}, se il comando compare per intero nell'ipotesi, per cui la sua distanza
+ *  nulla senza bisogno di ulteriori calcoli;</li>
+ * <li>altrimenti il numero di parole dell'ipotesi che appartengono al comando, escluse quelle
+ * comuni a tutti i comandi (come la parola che richiama l'attenzione): i comandi senza parole
+ * in comune con l'ipotesi non vengono confrontati con essa.</li>
+ * </ul>
+ * Gli altri comandi vengono allineati con l'ipotesi dal {@link DecisionEngine} tramite la
+ * distanza semi-globale (si veda {@link DecisionEngine#spot(CommandSpotter, HypothesisBuffer, double, DecisionResult)}).
+ * <p>
+ * Le istanze sono immutabili e possono essere utilizzate da pi thread. Questa classe non
+ * dipende dalle API di Android.
+ *
+ * @author vincenzo
+ */
+public final class CommandSpotter {
+
+	/** Valore di {@link #scan(char[], int, int, int[])} per i comandi presenti per intero. */
+	public static final int EXACT = Integer.MAX_VALUE;
+
+	/* Nodo radice del trie delle parole e dell'automa. */
+	private static final int ROOT = 0;
+
+	/* Comandi normalizzati, null per quelli che non possono essere individuati (con parametri). */
+	private final char[][] mCommands;
+
+	/* Trie delle parole: carattere, primo figlio e fratello successivo di ogni nodo, parola (o -1). */
+	private final char[] mLabels;
+	private final int[] mChildren;
+	private final int[] mSiblings;
+	private final int[] mWordTokens;
+
+	/* Comandi che contengono ciascuna parola, escluse quelle comuni a tutti. */
+	private final int[][] mTokenCommands;
+
+	/*
+	 * Automa di Aho-Corasick sulle sequenze di parole: transizioni dalla radice per parola,
+	 * parola, primo figlio e fratello successivo degli altri nodi, collegamento di fallimento,
+	 * comando che termina nel nodo (o -1) e nodo successivo con un comando lungo i fallimenti.
+	 */
+	private final int[] mRootNext;
+	private final int[] mTokens;
+	private final int[] mNext;
+	private final int[] mNextSibling;
+	private final int[] mFail;
+	private final int[] mOutput;
+	private final int[] mOutputLink;
+
+
+	/**
+	 * Crea l'automa relativo ai comandi specificati.
+	 *
+	 * @param commands i comandi normalizzati; gli elementi <code>null</code> (per esempio i
+	 *                 comandi con parametri) non vengono mai individuati
+	 */
+	public CommandSpotter(List<String> commands) {
+		int count = commands.size();
+		mCommands = new char[count][];
+
+		// Numerazione delle parole e sequenze di parole dei comandi.
+		HashMap<String, Integer> tokens = new HashMap<String, Integer>();
+		ArrayList<String> words = new ArrayList<String>();
+		int[][] sequences = new int[count][];
+		int spottable = 0;
+		for (int c=0; c < count; c++) {
+			String command = commands.get(c);
+			if (command == null || command.length() == 0)
+				continue;
+			mCommands[c] = command.toCharArray();
+			spottable++;
+
+			String[] split = command.split(" ");
+			sequences[c] = new int[split.length];
+			for (int w=0; w < split.length; w++) {
+				Integer token = tokens.get(split[w]);
+				if (token == null) {
+					token = words.size();
+					tokens.put(split[w], token);
+					words.add(split[w]);
+				}
+				sequences[c][w] = token;
+			}
+		}
+
+		// Trie delle parole.
+		CharTrie trie = new CharTrie();
+		for (int w=0; w < words.size(); w++)
+			trie.add(words.get(w), w);
+		mLabels = Arrays.copyOf(trie.labels, trie.size);
+		mChildren = Arrays.copyOf(trie.children, trie.size);
+		mSiblings = Arrays.copyOf(trie.siblings, trie.size);
+		mWordTokens = Arrays.copyOf(trie.tokens, trie.size);
+
+		// Comandi che contengono ciascuna parola, una sola volta per comando.
+		int[] frequencies = new int[words.size()];
+		ArrayList<ArrayList<Integer>> postings = new ArrayList<ArrayList<Integer>>(words.size());
+		for (int w=0; w < words.size(); w++)
+			postings.add(new ArrayList<Integer>());
+		for (int c=0; c < count; c++) {
+			if (sequences[c] == null)
+				continue;
+			for (int w=0; w < sequences[c].length; w++) {
+				ArrayList<Integer> posting = postings.get(sequences[c][w]);
+				if (posting.isEmpty() || posting.get(posting.size() - 1) != c) {
+					posting.add(c);
+					frequencies[sequences[c][w]]++;
+				}
+			}
+		}
+		mTokenCommands = new int[words.size()][];
+		for (int w=0; w < words.size(); w++) {
+			ArrayList<Integer> posting = postings.get(w);
+			boolean common = (spottable > 1 && frequencies[w] == spottable);
+			mTokenCommands[w] = new int[common ? 0 : posting.size()];
+			for (int p=0; p < mTokenCommands[w].length; p++)
+				mTokenCommands[w][p] = posting.get(p);
+		}
+
+		// Automa di Aho-Corasick: trie delle sequenze...
+		TokenTrie automaton = new TokenTrie(words.size());
+		for (int c=0; c < count; c++)
+			if (sequences[c] != null)
+				automaton.add(sequences[c], c);
+		mRootNext = automaton.rootNext;
+		mTokens = Arrays.copyOf(automaton.tokens, automaton.size);
+		mNext = Arrays.copyOf(automaton.next, automaton.size);
+		mNextSibling = Arrays.copyOf(automaton.siblings, automaton.size);
+		mOutput = Arrays.copyOf(automaton.outputs, automaton.size);
+
+		// ... e collegamenti di fallimento, in ampiezza.
+		mFail = new int[automaton.size];
+		mOutputLink = new int[automaton.size];
+		int[] queue = new int[automaton.size];
+		int head = 0, tail = 0;
+		for (int t=0; t < mRootNext.length; t++)
+			if (mRootNext[t] != ROOT)
+				queue[tail++] = mRootNext[t];
+		while (head < tail) {
+			int node = queue[head++];
+			for (int child = mNext[node]; child != ROOT; child = mNextSibling[child]) {
+				int fail = mFail[node];
+				int target = transition(fail, mTokens[child]);
+				while (fail != ROOT && target == ROOT) {
+					fail = mFail[fail];
+					target = transition(fail, mTokens[child]);
+				}
+				mFail[child] = target;
+				mOutputLink[child] = (mOutput[target] >= 0 ? target : mOutputLink[target]);
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	/**
+	 * Restituisce il numero di comandi, compresi quelli che non possono essere individuati.
+	 *
+	 * @return il numero di comandi
+	 */
+	public int getCommandCount() {
+		return mCommands.length;
+	}
+
+	/**
+	 * Restituisce il comando normalizzato specificato.
+	 *
+	 * @param index l'indice del comando
+	 * @return i caratteri del comando, da non modificare, oppure <code>null</code> se il
+	 *         comando non pu essere individuato
+	 */
+	public char[] getCommand(int index) {
+		return mCommands[index];
+	}
+
+	/**
+	 * Percorre un'ipotesi normalizzata e stabilisce, per ciascun comando, se vi compare per
+	 * intero oppure quante parole dell'ipotesi gli appartengono.
+	 *
+	 * @param t l'array contenente l'ipotesi
+	 * @param offset la posizione del primo carattere dell'ipotesi
+	 * @param length la lunghezza dell'ipotesi
+	 * @param hits l'array, con almeno {@link #getCommandCount()} elementi, in cui scrivere
+	 *             {@link #EXACT} oppure il numero di parole in comune per ciascun comando
+	 */
+	public void scan(char[] t, int offset, int length, int[] hits) {
+		Arrays.fill(hits, 0, mCommands.length, 0);
+
+		int state = ROOT;
+		int end = offset + length;
+		for (int from=offset; from < end; ) {
+			int to = from;
+			while (to < end && t[to] != ' ')
+				to++;
+
+			int token = lookup(t, from, to);
+			if (token < 0) {
+				state = ROOT;
+			}
+			else {
+				int[] commands = mTokenCommands[token];
+				for (int p=0; p < commands.length; p++)
+					if (hits[commands[p]] != EXACT)
+						hits[commands[p]]++;
+
+				int target = transition(state, token);
+				while (state != ROOT && target == ROOT) {
+					state = mFail[state];
+					target = transition(state, token);
+				}
+				state = target;
+				for (int node = (mOutput[state] >= 0 ? state : mOutputLink[state]); node != ROOT; node = mOutputLink[node])
+					hits[mOutput[node]] = EXACT;
+			}
+			from = to + 1;
+		}
+	}
+
+	/* Restituisce la parola compresa tra le posizioni specificate, oppure -1 se non appartiene ad alcun comando. */
+	private int lookup(char[] t, int from, int to) {
+		int node = ROOT;
+		for (int i=from; i < to; i++) {
+			int child = mChildren[node];
+			while (child != ROOT && mLabels[child] != t[i])
+				child = mSiblings[child];
+			if (child == ROOT)
+				return -1;
+			node = child;
+		}
+		return (node != ROOT ? mWordTokens[node] : -1);
+	}
+
+	/* Restituisce il nodo raggiunto dal nodo specificato tramite la parola, oppure ROOT. */
+	private int transition(int node, int token) {
+		if (node == ROOT)
+			return mRootNext[token];
+		for (int child = mNext[node]; child != ROOT; child = mNextSibling[child])
+			if (mTokens[child] == token)
+				return child;
+		return ROOT;
+	}
+
+
+	/* Trie di caratteri in costruzione, con i nodi rappresentati da array paralleli. */
+	private static final class CharTrie {
+
+		char[] labels = new char[16];
+		int[] children = new int[16];
+		int[] siblings = new int[16];
+		int[] tokens = new int[16];
+		int size = 1;
+
+		CharTrie() {
+			tokens[ROOT] = -1;
+		}
+
+		void add(String word, int token) {
+			int node = ROOT;
+			for (int i=0; i < word.length(); i++) {
+				char c = word.charAt(i);
+				int child = children[node];
+				while (child != ROOT && labels[child] != c)
+					child = siblings[child];
+				if (child == ROOT) {
+					child = newNode(c);
+					siblings[child] = children[node];
+					children[node] = child;
+				}
+				node = child;
+			}
+			tokens[node] = token;
+		}
+
+		private int newNode(char c) {
+			if (size == labels.length) {
+				labels = Arrays.copyOf(labels, 2 * size);
+				children = Arrays.copyOf(children, 2 * size);
+				siblings = Arrays.copyOf(siblings, 2 * size);
+				tokens = Arrays.copyOf(tokens, 2 * size);
+			}
+			labels[size] = c;
+			children[size] = ROOT;
+			siblings[size] = ROOT;
+			tokens[size] = -1;
+			return size++;
+		}
+	}
+
+	/* Trie di sequenze di parole in costruzione, con le transizioni dalla radice indicizzate per parola. */
+	private static final class TokenTrie {
+
+		final int[] rootNext;
+		int[] tokens = new int[16];
+		int[] next = new int[16];
+		int[] siblings = new int[16];
+		int[] outputs = new int[16];
+		int size = 1;
+
+		TokenTrie(int tokenCount) {
+			rootNext = new int[tokenCount];
+			outputs[ROOT] = -1;
+		}
+
+		void add(int[] sequence, int command) {
+			int node = ROOT;
+			for (int i=0; i < sequence.length; i++) {
+				int token = sequence[i];
+				int child;
+				if (node == ROOT) {
+					child = rootNext[token];
+					if (child == ROOT)
+						child = rootNext[token] = newNode(token);
+				}
+				else {
+					child = next[node];
+					while (child != ROOT && tokens[child] != token)
+						child = siblings[child];
+					if (child == ROOT) {
+						child = newNode(token);
+						siblings[child] = next[node];
+						next[node] = child;
+					}
+				}
+				node = child;
+			}
+			if (outputs[node] < 0)
+				outputs[node] = command;
+		}
+
+		private int newNode(int token) {
+			if (size == tokens.length) {
+				tokens = Arrays.copyOf(tokens, 2 * size);
+				next = Arrays.copyOf(next, 2 * size);
+				siblings = Arrays.copyOf(siblings, 2 * size);
+				outputs = Arrays.copyOf(outputs, 2 * size);
+			}
+			tokens[size] = token;
+			next[size] = ROOT;
+			siblings[size] = ROOT;
+			outputs[size] = -1;
+			return size++;
+		}
+	}
+
+}
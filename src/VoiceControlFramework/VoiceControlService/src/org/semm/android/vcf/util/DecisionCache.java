@@ -0,0 +1,204 @@
+package org.semm.android.vcf.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * La classe <code>DecisionCache</code> conserva i risultati delle decisioni pi recenti,
+ * in modo che una lista di ipotesi gi elaborata nelle stesse condizioni (tipicamente lo
+ * stesso comando ripetuto dall'utente) non debba essere elaborata nuovamente dal
+ * {@link DecisionEngine}.
+ * <p>
+ * Un risultato  identificato da una {@link Key}, che comprende tutto ci da cui dipende:
+ * lo stato del servizio e l'applicazione corrente (che determinano le stringhe ammesse),
+ * la versione della configurazione dei comandi, la versione dei pesi del motore decisionale
+ * e la lista delle ipotesi. Quando una delle versioni cambia, i risultati precedenti non
+ * vengono pi restituiti e vengono progressivamente scartati. Il numero di risultati 
+ * limitato: quando viene raggiunto il limite, viene scartato quello utilizzato meno di recente.
+ * <p>
+ * Questa classe non dipende dalle API di Android e non  thread-safe.
+ *
+ * @author vincenzo
+ */
+public class DecisionCache {
+
+	/* Risultati, in ordine di utilizzo. */
+	private final LinkedHashMap<Key, DecisionResult> mEntries;
+
+	/* Numero massimo di risultati. */
+	private final int mMaxEntries;
+
+	/* Statistiche. */
+	private long mHits = 0;
+	private long mMisses = 0;
+	private long mEvictions = 0;
+
+
+	/**
+	 * Crea una nuova cache.
+	 *
+	 * @param maxEntries il numero massimo di risultati conservati
+	 */
+	public DecisionCache(int maxEntries) {
+		mMaxEntries = maxEntries;
+		mEntries = new LinkedHashMap<Key, DecisionResult>(16, 0.75f, true);
+	}
+
+	/**
+	 * Copia nel risultato specificato quello associato alla chiave, se presente.
+	 *
+	 * @param key la chiave
+	 * @param result il risultato da compilare
+	 * @return <code>true</code> se il risultato era presente
+	 */
+	public boolean get(Key key, DecisionResult result) {
+		DecisionResult cached = mEntries.get(key);
+		if (cached == null) {
+			mMisses++;
+			return false;
+		}
+
+		mHits++;
+		result.set(cached);
+		return true;
+	}
+
+	/**
+	 * Conserva una copia del risultato specificato, associandola alla chiave.
+	 *
+	 * @param key la chiave
+	 * @param result il risultato
+	 */
+	public void put(Key key, DecisionResult result) {
+		DecisionResult cached = mEntries.get(key);
+		if (cached == null) {
+			if (mEntries.size() >= mMaxEntries) {
+				Iterator<Map.Entry<Key, DecisionResult>> it = mEntries.entrySet().iterator();
+				cached = it.next().getValue();   // riutilizzato
+				it.remove();
+				mEvictions++;
+			}
+			else cached = DecisionResult.obtain();
+			mEntries.put(key, cached);
+		}
+		cached.set(result);
+	}
+
+	/**
+	 * Scarta tutti i risultati.
+	 */
+	public void clear() {
+		for (DecisionResult cached : mEntries.values())
+			cached.recycle();
+		mEntries.clear();
+	}
+
+	/**
+	 * Restituisce il numero di risultati conservati.
+	 *
+	 * @return il numero di risultati
+	 */
+	public int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * Restituisce il numero di ricerche concluse con successo.
+	 *
+	 * @return il numero di successi
+	 */
+	public long getHitCount() {
+		return mHits;
+	}
+
+	/**
+	 * Restituisce il numero di ricerche fallite.
+	 *
+	 * @return il numero di fallimenti
+	 */
+	public long getMissCount() {
+		return mMisses;
+	}
+
+	/**
+	 * Restituisce il numero di risultati scartati per far posto ad altri.
+	 *
+	 * @return il numero di risultati scartati
+	 */
+	public long getEvictionCount() {
+		return mEvictions;
+	}
+
+	/**
+	 * Restituisce la percentuale di ricerche concluse con successo.
+	 *
+	 * @return la percentuale di successi, tra 0 e 100
+	 */
+	public double getHitRate() {
+		long total = mHits + mMisses;
+		return (total == 0 ? 0 : 100.0 * mHits / total);
+	}
+
+
+	/**
+	 * Chiave di un risultato: le condizioni in cui  stata presa la decisione e la lista
+	 * delle ipotesi. Il codice hash viene calcolato una sola volta.
+	 */
+	public static final class Key {
+
+		private final String mState;
+		private final String mApp;
+		private final int mConfigVersion;
+		private final int mModelVersion;
+		private final ArrayList<String> mHypotheses;
+		private final int mHash;
+
+		/**
+		 * Crea una nuova chiave.
+		 *
+		 * @param state lo stato del servizio
+		 * @param app l'applicazione corrente, oppure <code>null</code>
+		 * @param configVersion la versione della configurazione dei comandi
+		 * @param modelVersion la versione dei pesi del motore decisionale
+		 * @param hypotheses la lista delle ipotesi (viene copiata)
+		 */
+		public Key(String state, String app, int configVersion, int modelVersion, List<String> hypotheses) {
+			mState = state;
+			mApp = app;
+			mConfigVersion = configVersion;
+			mModelVersion = modelVersion;
+			mHypotheses = new ArrayList<String>(hypotheses);
+
+			int hash = state.hashCode();
+			hash = 31 * hash + (app == null ? 0 : app.hashCode());
+			hash = 31 * hash + configVersion;
+			hash = 31 * hash + modelVersion;
+			mHash = 31 * hash + mHypotheses.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return mHash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+
+			Key other = (Key)o;
+			return mHash == other.mHash
+					&& mConfigVersion == other.mConfigVersion
+					&& mModelVersion == other.mModelVersion
+					&& mState.equals(other.mState)
+					&& (mApp == null ? other.mApp == null : mApp.equals(other.mApp))
+					&& mHypotheses.equals(other.mHypotheses);
+		}
+	}
+
+}
@@ -1,14 +1,23 @@
 package org.semm.android.vcf.util;
 
 import java.util.ArrayList;
-
-import android.util.Log;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 
 /**
  * Esempio di motore decisionale basato sulla distanza di Damerau-Levenshtein,
  * con l'introduzione di un peso associato alle varie tipologie di modifica
  * (inserimento, cancellazione, sostituzione e trasposizione).
+ * <p>
+ * La classe non dipende dalle API di Android, per cui pu essere utilizzata
+ * anche su una JVM standard (per esempio con {@link org.semm.android.vcf.speech.ReplayRecognitionSource}).
+ * <p>
+ * Le ipotesi vengono lette direttamente da un {@link HypothesisBuffer} e le righe della matrice
+ * delle distanze vengono riutilizzate da un calcolo all'altro, per cui una decisione non crea
+ * alcun oggetto: per questo motivo le decisioni e il calcolo delle distanze devono essere
+ * eseguiti da un solo thread alla volta, mentre i pesi possono essere sostituiti da qualsiasi thread.
  * 
  * @author vincenzo
  *
@@ -29,17 +38,69 @@ public class DecisionEngine {
 	 */
 	public static final int NO_MATCH = -2;
 	
-	/** Peso relativo alla probabilit di inserimento. */
-	private double mInsertWeight;
+	/**
+	 * Pesi relativi alle probabilit di inserimento, cancellazione, sostituzione e
+	 * trasposizione: possono essere sostituiti in qualsiasi momento (per esempio con
+	 * quelli appresi da {@link EditWeightLearner}) senza interrompere le decisioni in corso.
+	 */
+	private volatile EditCosts mCosts;
+	
+	/** Versione dei pesi, incrementata ad ogni sostituzione. */
+	private volatile int mCostsVersion = 0;
+	
+	/** Statistiche relative alle decisioni. */
+	private final DecisionMetrics mMetrics = new DecisionMetrics();
+	
+	/** Lunghezza iniziale delle stringhe gestite senza ridimensionare gli array. */
+	private static final int INITIAL_LENGTH = 64;
+	
+	/**
+	 * Le ultime tre righe della matrice delle distanze (la trasposizione consulta la riga
+	 * i-2) e i caratteri delle stringhe da confrontare, riutilizzati da un calcolo all'altro.
+	 */
+	private double[] mRow0 = new double[INITIAL_LENGTH + 1];
+	private double[] mRow1 = new double[INITIAL_LENGTH + 1];
+	private double[] mRow2 = new double[INITIAL_LENGTH + 1];
+	private char[] mSource = new char[INITIAL_LENGTH];
+	private char[] mTarget = new char[INITIAL_LENGTH];
+	
+	/** Numero iniziale di parole delle ipotesi confrontate con i comandi con parametri. */
+	private static final int INITIAL_WORDS = 16;
 	
-	/** Peso relativo alla probabilit di cancellazione. */
-	private double mDeletionWeight;
+	/**
+	 * Inizio di ciascuna parola dell'ipotesi e, per ogni elemento del comando e parola
+	 * iniziale, distanza minima del resto del comando e scelte corrispondenti (parola
+	 * successiva e alternativa), utilizzati per i comandi con parametri.
+	 */
+	private int[] mWords = new int[INITIAL_WORDS + 1];
+	private int mWordCount;
+	private double[] mCells = new double[4 * (INITIAL_WORDS + 1)];
+	private int[] mNextWords = new int[4 * (INITIAL_WORDS + 1)];
+	private int[] mChoices = new int[4 * (INITIAL_WORDS + 1)];
 	
-	/** Peso relativo alla probabilit di sostituzione. */
-	private double mSubstitutionWeight;
+	/**
+	 * Peso di ogni parola dell'ipotesi ignorata tra due parole di un comando individuato
+	 * all'interno dell'ipotesi, in rapporto al peso predefinito dell'inserimento.
+	 */
+	private static final double FILLER_WORD_FACTOR = 0.5;
 	
-	/** Peso relativo alla probabilit di trasposizione. */
-	private double mTranspositionWeight;
+	/** Esito della scansione di ciascuna ipotesi e migliore distanza di ciascun comando. */
+	private int[] mHits = new int[INITIAL_WORDS];
+	private double[] mSpotDistances = new double[INITIAL_WORDS];
+	private int[] mSpotHypotheses = new int[INITIAL_WORDS];
+	
+	/** Numero massimo di partizioni valutate in una decisione (si veda {@link CommandShards}). */
+	private static final int MAX_SHARDS = 2;
+	
+	/**
+	 * Distanza di ciascuna partizione dalle ipotesi, partizioni scelte, righe da valutare e
+	 * distanza minima delle partizioni escluse.
+	 */
+	private double[] mShardDistances = new double[INITIAL_WORDS];
+	private final int[] mSelectedShards = new int[MAX_SHARDS];
+	private int[] mSelectedRows = new int[INITIAL_WORDS];
+	private int mSelectedCount;
+	private double mExcludedDistance;
 	
 	
 	/**
@@ -73,10 +134,43 @@ public class DecisionEngine {
 		// Peso relativo ad ogni tipo di evento, calcolato in base alla probabilit
 		// che si verifichi una determinata modifica e alla cardinalit dell'insieme
 		// dei simboli.
-		mInsertWeight = -Math.log(pi/pp/k);
-		mDeletionWeight = -Math.log(pd/pp);
-		mSubstitutionWeight = -Math.log(ps/pp/(k-1));
-		mTranspositionWeight = -Math.log(pt/pp);
+		mCosts = new EditCosts(
+				-Math.log(pi/pp/k),       // inserimento
+				-Math.log(pd/pp),         // cancellazione
+				-Math.log(ps/pp/(k-1)),   // sostituzione
+				-Math.log(pt/pp));        // trasposizione
+	}
+	
+	/**
+	 * Restituisce i pesi utilizzati per il calcolo delle distanze.
+	 * 
+	 * @return i pesi correnti
+	 */
+	public EditCosts getCosts() {
+		return mCosts;
+	}
+	
+	/**
+	 * Sostituisce i pesi utilizzati per il calcolo delle distanze. Le decisioni in corso
+	 * terminano con i pesi precedenti. Deve essere invocato da un solo thread alla volta.
+	 * 
+	 * @param costs i nuovi pesi
+	 */
+	public void setCosts(EditCosts costs) {
+		if (costs == null)
+			throw new IllegalArgumentException("I pesi specificati non possono essere null");
+		mCosts = costs;
+		mCostsVersion++;
+	}
+	
+	/**
+	 * Restituisce la versione dei pesi, che cambia ogni volta che vengono sostituiti:
+	 * i risultati di decisioni prese con versioni diverse possono differire.
+	 * 
+	 * @return la versione dei pesi
+	 */
+	public int getCostsVersion() {
+		return mCostsVersion;
 	}
 	
 	/**
@@ -93,76 +187,969 @@ public class DecisionEngine {
 		
 		int m = s.length();
 		int n = t.length();
+		if (mSource.length < m)
+			mSource = new char[Math.max(m, 2 * mSource.length)];
+		if (mTarget.length < n)
+			mTarget = new char[Math.max(n, 2 * mTarget.length)];
+		for (int i=0; i < m; i++)
+			mSource[i] = s.charAt(i);
+		for (int j=0; j < n; j++)
+			mTarget[j] = t.charAt(j);
+		
+		return calculateDistance(mSource, 0, m, mTarget, 0, n, Double.POSITIVE_INFINITY, mCosts);
+	}
+	
+	/**
+	 * Calcola la distanza tra le due stringhe specificate, interrompendo il calcolo
+	 * non appena risulta che la distanza supera il limite specificato.
+	 * <p>
+	 * Poich i pesi non sono negativi, la distanza non pu essere inferiore al minimo
+	 * di due righe consecutive della matrice (una trasposizione salta al pi una riga).
+	 * 
+	 * @param s l'array contenente la prima stringa
+	 * @param sOffset la posizione del primo carattere della prima stringa
+	 * @param m la lunghezza della prima stringa
+	 * @param t l'array contenente la seconda stringa
+	 * @param tOffset la posizione del primo carattere della seconda stringa
+	 * @param n la lunghezza della seconda stringa
+	 * @param bound il limite oltre il quale la distanza non  rilevante
+	 * @param costs i pesi da utilizzare
+	 * 
+	 * @return la distanza tra le due stringhe, oppure <code>Double.POSITIVE_INFINITY</code>
+	 *         se il calcolo  stato interrotto
+	 */
+	private double calculateDistance(char[] s, int sOffset, int m, char[] t, int tOffset, int n,
+			double bound, EditCosts costs) {
+		if (mRow0.length < n+1) {
+			int length = Math.max(n+1, 2 * mRow0.length);
+			mRow0 = new double[length];
+			mRow1 = new double[length];
+			mRow2 = new double[length];
+		}
+		
+		return (costs.isUniform()
+				? uniformDistance(s, sOffset, m, t, tOffset, n, bound, costs)
+				: tableDistance(s, sOffset, m, t, tOffset, n, bound, costs));
+	}
+	
+	/**
+	 * Calcola la distanza con i pesi predefiniti, uguali per tutti i caratteri.
+	 * 
+	 * @see #calculateDistance(char[], int, int, char[], int, int, double, EditCosts)
+	 */
+	private double uniformDistance(char[] s, int sOffset, int m, char[] t, int tOffset, int n,
+			double bound, EditCosts costs) {
+		double deletion = costs.deletion();
+		double insertion = costs.insertion();
+		double substitution = costs.substitution();
+		double transposition = costs.transposition();
 		
-		double[][] distance = new double[m+1][n+1];
-		for (int i=0; i <= m; i++)
-			for (int j=0; j <= n; j++)
-				distance[i][j] = 0;
+		// Righe i-2, i-1 e i della matrice.
+		double[] before = mRow0;
+		double[] previous = mRow1;
+		double[] current = mRow2;
 		
-		for (int i=1; i <= m; i++)
-			distance[i][0] = distance[i-1][0] + mDeletionWeight;
+		previous[0] = 0;
 		for (int j=1; j <= n; j++)
-			distance[0][j] = distance[0][j-1] + mInsertWeight;
+			previous[j] = previous[j-1] + insertion;
 		
-		for (int i=1; i <= m; i++)
+		double prev_rowmin = 0;   // minimo della riga 0
+		for (int i=1; i <= m; i++) {
+			char sc = s[sOffset+i-1];
+			current[0] = previous[0] + deletion;
+			
+			double rowmin = current[0];
 			for (int j=1; j <= n; j++) {
-				double replace_cost = (s.charAt(i-1) == t.charAt(j-1) ? 0 : mSubstitutionWeight);
-				distance[i][j] = Math.min(Math.min(
-						distance[i-1][j] + mDeletionWeight,   // cancellazione
-						distance[i][j-1] + mInsertWeight),   // inserimento
-						distance[i-1][j-1] + replace_cost);   // sostituzione
+				char tc = t[tOffset+j-1];
+				double replace_cost = (sc == tc ? 0 : substitution);
+				double distance = Math.min(Math.min(
+						previous[j] + deletion,   // cancellazione
+						current[j-1] + insertion),   // inserimento
+						previous[j-1] + replace_cost);   // sostituzione
 				
-				if (i > 1 && j > 1 && (s.charAt(i-1) == t.charAt(j-2)) && (s.charAt(i-2) == t.charAt(j-1)))
-            		distance[i][j] = Math.min(
-            				distance[i][j],
-            				distance[i-2][j-2] + mTranspositionWeight  // trasposizione
-            				);
+				if (i > 1 && j > 1 && (sc == t[tOffset+j-2]) && (s[sOffset+i-2] == tc))
+					distance = Math.min(
+							distance,
+							before[j-2] + transposition  // trasposizione
+							);
+				
+				current[j] = distance;
+				rowmin = Math.min(rowmin, distance);
 			}
+			
+			if (Math.min(rowmin, prev_rowmin) > bound)
+				return pruned(i, n);
+			prev_rowmin = rowmin;
+			
+			double[] free = before;
+			before = previous;
+			previous = current;
+			current = free;
+		}
 		
-		return distance[m][n];
+		return completed(m, n, previous[n]);
 	}
 	
 	/**
-	 * Restituisce l'indice di expected relativo alla stringa pi probabile.
+	 * Calcola la distanza con i pesi specifici dei caratteri, consultando le tabelle piatte
+	 * di {@link EditCosts} tramite l'alfabeto compatto.
+	 * 
+	 * @see #calculateDistance(char[], int, int, char[], int, int, double, EditCosts)
+	 */
+	private double tableDistance(char[] s, int sOffset, int m, char[] t, int tOffset, int n,
+			double bound, EditCosts costs) {
+		byte[] alphabet = costs.getAlphabet();
+		int k = costs.getSymbolCount();
+		float[] substitutions = costs.getSubstitutionTable();
+		float[] insertions = costs.getInsertionTable();
+		float[] deletions = costs.getDeletionTable();
+		double transposition = costs.transposition();
+		
+		// Righe i-2, i-1 e i della matrice.
+		double[] before = mRow0;
+		double[] previous = mRow1;
+		double[] current = mRow2;
+		
+		previous[0] = 0;
+		for (int j=1; j <= n; j++) {
+			char c = t[tOffset+j-1];
+			previous[j] = previous[j-1] + insertions[c < 256 ? alphabet[c] & 0xFF : 0];
+		}
+		
+		double prev_rowmin = 0;   // minimo della riga 0
+		for (int i=1; i <= m; i++) {
+			char sc = s[sOffset+i-1];
+			int a = (sc < 256 ? alphabet[sc] & 0xFF : 0);
+			int row = a * k;   // riga della tabella delle sostituzioni
+			double deletion = deletions[a];
+			current[0] = previous[0] + deletion;
+			
+			double rowmin = current[0];
+			for (int j=1; j <= n; j++) {
+				char tc = t[tOffset+j-1];
+				int b = (tc < 256 ? alphabet[tc] & 0xFF : 0);
+				double replace_cost = (sc == tc ? 0 : substitutions[row + b]);
+				double distance = Math.min(Math.min(
+						previous[j] + deletion,   // cancellazione
+						current[j-1] + insertions[b]),   // inserimento
+						previous[j-1] + replace_cost);   // sostituzione
+				
+				if (i > 1 && j > 1 && (sc == t[tOffset+j-2]) && (s[sOffset+i-2] == tc))
+					distance = Math.min(
+							distance,
+							before[j-2] + transposition  // trasposizione
+							);
+				
+				current[j] = distance;
+				rowmin = Math.min(rowmin, distance);
+			}
+			
+			if (Math.min(rowmin, prev_rowmin) > bound)
+				return pruned(i, n);
+			prev_rowmin = rowmin;
+			
+			double[] free = before;
+			before = previous;
+			previous = current;
+			current = free;
+		}
+		
+		return completed(m, n, previous[n]);
+	}
+	
+	/**
+	 * Calcola la distanza tra un comando con parametri e un'ipotesi, cio la minima somma delle
+	 * distanze tra le parti letterali (o le alternative) e le parole dell'ipotesi assegnate ad
+	 * esse, purch le parole assegnate ai parametri numerici e al testo siano valide. Le scelte
+	 * relative ad ogni elemento vengono conservate per l'estrazione dei parametri.
+	 * 
+	 * @param command il comando
+	 * @param t l'array contenente l'ipotesi
+	 * @param tOffset la posizione del primo carattere dell'ipotesi
+	 * @param n la lunghezza dell'ipotesi
+	 * @param bound il limite oltre il quale la distanza non  rilevante
+	 * @param costs i pesi da utilizzare
+	 * 
+	 * @return la distanza, oppure <code>Double.POSITIVE_INFINITY</code> se supera il limite
+	 *         oppure se l'ipotesi non pu rappresentare il comando
+	 */
+	private double grammarDistance(CommandGrammar command, char[] t, int tOffset, int n,
+			double bound, EditCosts costs) {
+		// Inizio delle parole; la fine dell'ultima  seguita da uno spazio virtuale.
+		int words = 0;
+		for (int j=0; j < n; j++)
+			if (j == 0 || t[tOffset+j-1] == ' ') {
+				if (words + 1 >= mWords.length)
+					mWords = Arrays.copyOf(mWords, 2 * mWords.length);
+				mWords[words++] = tOffset + j;
+			}
+		mWords[words] = tOffset + n + 1;
+		mWordCount = words;
+		
+		int elements = command.getElementCount();
+		int columns = words + 1;
+		if (mCells.length < (elements + 1) * columns) {
+			int length = Math.max((elements + 1) * columns, 2 * mCells.length);
+			mCells = new double[length];
+			mNextWords = new int[length];
+			mChoices = new int[length];
+		}
+		
+		// Ultima riga: il comando  terminato, cos come l'ipotesi.
+		int last = elements * columns;
+		for (int i=0; i < words; i++)
+			mCells[last + i] = Double.POSITIVE_INFINITY;
+		mCells[last + words] = 0;
+		
+		for (int e=elements-1; e >= 0; e--) {
+			int row = e * columns;
+			int next = row + columns;
+			int type = command.getType(e);
+			for (int i=0; i <= words; i++) {
+				double best = Double.POSITIVE_INFINITY;
+				int bestWord = -1, bestChoice = -1;
+				
+				if (type == CommandGrammar.ELEMENT_NUMBER) {
+					if (i < words && mCells[next + i + 1] <= bound
+							&& CommandGrammar.parseNumber(t, mWords[i], mWords[i+1] - 1) >= 0) {
+						best = mCells[next + i + 1];
+						bestWord = i + 1;
+					}
+				}
+				else if (type == CommandGrammar.ELEMENT_TEXT) {
+					if (i < words) {
+						best = mCells[next + words];
+						bestWord = words;
+					}
+				}
+				else {
+					// Parte letterale o enumerazione: le parole da i a j-1 (nessuna se j = i).
+					char[][] alternatives = command.getAlternatives(e);
+					for (int j=i; j <= words; j++) {
+						double rest = mCells[next + j];
+						if (rest > bound || rest >= best)
+							continue;
+						
+						int start = (j > i ? mWords[i] : 0);
+						int length = (j > i ? mWords[j] - 1 - mWords[i] : 0);
+						for (int a=0; a < alternatives.length; a++) {
+							char[] s = alternatives[a];
+							double distance = rest + calculateDistance(s, 0, s.length, t, start, length,
+									Math.min(bound, best) - rest, costs);
+							if (distance < best) {
+								best = distance;
+								bestWord = j;
+								bestChoice = a;
+							}
+						}
+					}
+				}
+				
+				mCells[row + i] = best;
+				mNextWords[row + i] = bestWord;
+				mChoices[row + i] = bestChoice;
+			}
+		}
+		
+		return (mCells[0] <= bound ? mCells[0] : Double.POSITIVE_INFINITY);
+	}
+	
+	/**
+	 * Calcola la distanza semi-globale tra un comando e un'ipotesi, cio la distanza tra il
+	 * comando e la parte dell'ipotesi che gli somiglia di pi: le parole che precedono e
+	 * seguono tale parte non contribuiscono alla distanza, mentre ogni parola inserita tra
+	 * due parole del comando vale <code>filler</code>. La parte individuata inizia e termina
+	 * sempre in corrispondenza di una parola intera.
+	 * 
+	 * @param s l'array contenente il comando
+	 * @param m la lunghezza del comando
+	 * @param t l'array contenente l'ipotesi
+	 * @param tOffset la posizione del primo carattere dell'ipotesi
+	 * @param n la lunghezza dell'ipotesi
+	 * @param bound il limite oltre il quale la distanza non  rilevante
+	 * @param costs i pesi da utilizzare
+	 * @param filler il peso di ogni parola ignorata all'interno del comando
+	 * 
+	 * @return la distanza, oppure <code>Double.POSITIVE_INFINITY</code> se il calcolo  stato interrotto
+	 */
+	private double spotDistance(char[] s, int m, char[] t, int tOffset, int n,
+			double bound, EditCosts costs, double filler) {
+		if (mRow0.length < n+1) {
+			int length = Math.max(n+1, 2 * mRow0.length);
+			mRow0 = new double[length];
+			mRow1 = new double[length];
+			mRow2 = new double[length];
+		}
+		
+		// Righe i-2, i-1 e i della matrice.
+		double[] before = mRow0;
+		double[] previous = mRow1;
+		double[] current = mRow2;
+		
+		// Il comando pu iniziare gratuitamente con qualsiasi parola dell'ipotesi.
+		previous[0] = 0;
+		for (int j=1; j <= n; j++)
+			previous[j] = (t[tOffset+j-1] == ' ' ? 0 : previous[j-1] + costs.insertion(t[tOffset+j-1]));
+		
+		double prev_rowmin = 0;   // minimo della riga 0
+		for (int i=1; i <= m; i++) {
+			char sc = s[i-1];
+			double deletion = costs.deletion(sc);
+			boolean between = (sc == ' ');   // tra due parole del comando
+			current[0] = previous[0] + deletion;
+			
+			double rowmin = current[0];
+			int word = 0;   // inizio della parola corrente dell'ipotesi
+			for (int j=1; j <= n; j++) {
+				char tc = t[tOffset+j-1];
+				double distance = Math.min(Math.min(
+						previous[j] + deletion,   // cancellazione
+						current[j-1] + costs.insertion(tc)),   // inserimento
+						previous[j-1] + (sc == tc ? 0 : costs.substitution(sc, tc)));   // sostituzione
+				
+				if (i > 1 && j > 1 && (sc == t[tOffset+j-2]) && (s[i-2] == tc))
+					distance = Math.min(
+							distance,
+							before[j-2] + costs.transposition()  // trasposizione
+							);
+				
+				if (between && tc == ' ') {
+					// Parola dell'ipotesi ignorata, dall'inizio della precedente a quello della successiva.
+					distance = Math.min(distance, current[word] + filler);
+					word = j;
+				}
+				
+				current[j] = distance;
+				rowmin = Math.min(rowmin, distance);
+			}
+			
+			if (Math.min(rowmin, prev_rowmin) > bound)
+				return pruned(i, n);
+			prev_rowmin = rowmin;
+			
+			double[] free = before;
+			before = previous;
+			previous = current;
+			current = free;
+		}
+		
+		// Il comando pu terminare gratuitamente con qualsiasi parola dell'ipotesi.
+		double distance = previous[n];
+		for (int j=0; j < n; j++)
+			if (t[tOffset+j] == ' ')
+				distance = Math.min(distance, previous[j]);
+		return completed(m, n, distance);
+	}
+	
+	/* Registra un calcolo interrotto dopo le righe specificate. */
+	private double pruned(int rows, int n) {
+		mMetrics.addCells((long)rows * n);
+		mMetrics.addCandidate(true);
+		return Double.POSITIVE_INFINITY;
+	}
+	
+	/* Registra un calcolo completato. */
+	private double completed(int m, int n, double distance) {
+		mMetrics.addCells((long)m * n);
+		mMetrics.addCandidate(false);
+		return distance;
+	}
+	
+	/**
+	 * Stabilisce quale stringa di expected  la pi probabile, conservando nel risultato
+	 * specificato anche i migliori candidati che rientrano nella soglia.
 	 * 
 	 * @param expected la lista delle stringhe ammesse
 	 * @param recognized la lista delle stringhe da verificare
 	 * @param threshold una soglia massima per la distanza
-	 *  
-	 * @return l'indice relativo alla stringa pi probabile oppure
-	 *         un codice d'errore (NO_MATCH o MULTIPLE_MATCHES)
+	 * @param result il risultato da compilare, ottenuto tramite {@link DecisionResult#obtain()}
+	 * 
+	 * @return il risultato specificato
 	 */
-	public int getExpectedString(ArrayList<String> expected, ArrayList<String> recognized, double threshold) {
-		Log.i("DecisionEngine", String.format("Pesi[i, d, s, t] = [%f, %f, %f, %f]",
-				mInsertWeight, mDeletionWeight, mSubstitutionWeight, mTranspositionWeight));
-		
-		// distanza minima corrente e riga corrispondente
-		double current_min = threshold;
-		int row_currmin = NO_MATCH;   // inizializzazione negativa
+	public DecisionResult decide(List<String> expected, ArrayList<String> recognized,
+			double threshold, DecisionResult result) {
+		HypothesisBuffer hypotheses = HypothesisBuffer.obtain().fill(recognized);
+		try {
+			return decide(expected, hypotheses, threshold, result);
+		}
+		finally {
+			hypotheses.recycle();
+		}
+	}
+	
+	/**
+	 * Stabilisce quale stringa di expected  la pi probabile tra le ipotesi normalizzate
+	 * specificate, conservando nel risultato anche i migliori candidati che rientrano nella soglia.
+	 * 
+	 * @param expected la lista delle stringhe ammesse
+	 * @param recognized le ipotesi da verificare
+	 * @param threshold una soglia massima per la distanza
+	 * @param result il risultato da compilare, ottenuto tramite {@link DecisionResult#obtain()}
+	 * 
+	 * @return il risultato specificato
+	 */
+	public DecisionResult decide(List<String> expected, HypothesisBuffer recognized,
+			double threshold, DecisionResult result) {
+		return decide(expected, null, recognized, threshold, result);
+	}
+	
+	/**
+	 * Come {@link #decide(List, HypothesisBuffer, double, DecisionResult)}, valutando soltanto
+	 * le stringhe delle partizioni pi vicine alle ipotesi (si veda {@link CommandShards});
+	 * se il risultato potrebbe essere diverso da quello della valutazione completa (si veda
+	 * {@link #isShardResultExact(CommandShards, HypothesisBuffer, EditCosts, DecisionResult)}), vengono valutate tutte le stringhe.
+	 * 
+	 * @param expected la lista delle stringhe ammesse
+	 * @param shards le partizioni delle stringhe ammesse, oppure <code>null</code>
+	 * @param recognized le ipotesi da verificare
+	 * @param threshold una soglia massima per la distanza
+	 * @param result il risultato da compilare, ottenuto tramite {@link DecisionResult#obtain()}
+	 * 
+	 * @return il risultato specificato
+	 */
+	public DecisionResult decide(List<String> expected, CommandShards shards, HypothesisBuffer recognized,
+			double threshold, DecisionResult result) {
+		long start = System.nanoTime();
 		
-		// # di righe con uguale current_min
-		int nor_currmin = 0;
+		EditCosts costs = mCosts;   // gli stessi pesi per l'intera decisione
+		int rows = selectRows(shards, recognized, threshold, costs);
+		decideRows(expected, (rows >= 0 ? mSelectedRows : null), (rows >= 0 ? rows : expected.size()),
+				recognized, threshold, costs, result);
+		if (rows >= 0 && !isShardResultExact(shards, recognized, costs, result)) {
+			mMetrics.addShardFallback();
+			decideRows(expected, null, expected.size(), recognized, threshold, costs, result);
+		}
 		
-		double distance;   // distanza (i,j)-esima
-		for (int i=0; i < expected.size(); i++) {
+		mMetrics.addDecision(result.getIndex(), result.getDistance(),
+				result.getDistance() + result.getMargin(), System.nanoTime() - start);
+		return result;
+	}
+	
+	/**
+	 * Valuta le stringhe ammesse specificate.
+	 * 
+	 * @param expected la lista delle stringhe ammesse
+	 * @param rows gli indici delle stringhe da valutare, in ordine crescente, oppure
+	 *             <code>null</code> per valutare le prime count stringhe
+	 * @param count il numero di stringhe da valutare
+	 * @param recognized le ipotesi da verificare
+	 * @param threshold una soglia massima per la distanza
+	 * @param costs i pesi da utilizzare
+	 * @param result il risultato da compilare
+	 */
+	private void decideRows(List<String> expected, int[] rows, int count, HypothesisBuffer recognized,
+			double threshold, EditCosts costs, DecisionResult result) {
+		char[] hypotheses = recognized.getChars();
+		result.clear(threshold);
+		for (int r=0; r < count; r++) {
+			int i = (rows != null ? rows[r] : r);
 			String expectedStr = expected.get(i);
+			int m = expectedStr.length();
+			if (mSource.length < m)
+				mSource = new char[Math.max(m, 2 * mSource.length)];
+			expectedStr.getChars(0, m, mSource, 0);
+			
+			// Il calcolo viene interrotto se la distanza non pu rientrare tra i candidati.
+			double bound = result.getBound();
+			
+			// distanza minima della riga i-esima e ipotesi corrispondente
+			double row_min = Double.POSITIVE_INFINITY;
+			int col_min = -1;
 			for (int j=0; j < recognized.size(); j++) {
-				distance = calculateDistance(expectedStr, recognized.get(j));
+				double distance = calculateDistance(mSource, 0, m, hypotheses,
+						recognized.getStart(j), recognized.getLength(j), bound, costs);
+				if (distance < row_min) {
+					row_min = distance;
+					col_min = j;
+				}
+			}
+			
+			if (col_min >= 0)
+				result.offer(i, col_min, row_min);
+		}
+		result.resolve();
+	}
+	
+	/**
+	 * Stabilisce quale comando  il pi probabile tra le ipotesi normalizzate specificate,
+	 * conservando nel risultato anche i migliori candidati che rientrano nella soglia. I comandi
+	 * senza parametri vengono confrontati come stringhe, quelli con parametri percorrendone
+	 * l'automa (si veda {@link CommandGrammar}).
+	 * 
+	 * @param commands la lista dei comandi ammessi
+	 * @param recognized le ipotesi da verificare
+	 * @param threshold una soglia massima per la distanza
+	 * @param result il risultato da compilare, ottenuto tramite {@link DecisionResult#obtain()}
+	 * 
+	 * @return il risultato specificato
+	 */
+	public DecisionResult decideCommands(List<CommandGrammar> commands, HypothesisBuffer recognized,
+			double threshold, DecisionResult result) {
+		return decideCommands(commands, null, recognized, threshold, result);
+	}
+	
+	/**
+	 * Come {@link #decideCommands(List, HypothesisBuffer, double, DecisionResult)}, valutando
+	 * soltanto i comandi delle partizioni pi vicine alle ipotesi (si veda {@link CommandShards});
+	 * se il risultato potrebbe essere diverso da quello della valutazione completa (si veda
+	 * {@link #isShardResultExact(CommandShards, HypothesisBuffer, EditCosts, DecisionResult)}), vengono valutati tutti i comandi.
+	 * 
+	 * @param commands la lista dei comandi ammessi
+	 * @param shards le partizioni dei comandi, oppure <code>null</code>
+	 * @param recognized le ipotesi da verificare
+	 * @param threshold una soglia massima per la distanza
+	 * @param result il risultato da compilare, ottenuto tramite {@link DecisionResult#obtain()}
+	 * 
+	 * @return il risultato specificato
+	 */
+	public DecisionResult decideCommands(List<CommandGrammar> commands, CommandShards shards,
+			HypothesisBuffer recognized, double threshold, DecisionResult result) {
+		long start = System.nanoTime();
+		
+		EditCosts costs = mCosts;   // gli stessi pesi per l'intera decisione
+		int rows = selectRows(shards, recognized, threshold, costs);
+		decideCommandRows(commands, (rows >= 0 ? mSelectedRows : null), (rows >= 0 ? rows : commands.size()),
+				recognized, threshold, costs, result);
+		if (rows >= 0 && !isShardResultExact(shards, recognized, costs, result)) {
+			mMetrics.addShardFallback();
+			decideCommandRows(commands, null, commands.size(), recognized, threshold, costs, result);
+		}
+		
+		mMetrics.addDecision(result.getIndex(), result.getDistance(),
+				result.getDistance() + result.getMargin(), System.nanoTime() - start);
+		return result;
+	}
+	
+	/**
+	 * Valuta i comandi specificati.
+	 * 
+	 * @see #decideRows(List, int[], int, HypothesisBuffer, double, EditCosts, DecisionResult)
+	 */
+	private void decideCommandRows(List<CommandGrammar> commands, int[] rows, int count,
+			HypothesisBuffer recognized, double threshold, EditCosts costs, DecisionResult result) {
+		char[] hypotheses = recognized.getChars();
+		result.clear(threshold);
+		for (int r=0; r < count; r++) {
+			int i = (rows != null ? rows[r] : r);
+			CommandGrammar command = commands.get(i);
+			char[] literal = (command.hasSlots() ? null : command.getAlternatives(0)[0]);
+			
+			// Il calcolo viene interrotto se la distanza non pu rientrare tra i candidati.
+			double bound = result.getBound();
+			
+			// distanza minima della riga i-esima e ipotesi corrispondente
+			double row_min = Double.POSITIVE_INFINITY;
+			int col_min = -1;
+			for (int j=0; j < recognized.size(); j++) {
+				double distance = (literal != null
+						? calculateDistance(literal, 0, literal.length, hypotheses,
+								recognized.getStart(j), recognized.getLength(j), bound, costs)
+						: grammarDistance(command, hypotheses,
+								recognized.getStart(j), recognized.getLength(j), bound, costs));
+				if (distance < row_min) {
+					row_min = distance;
+					col_min = j;
+				}
+			}
+			
+			if (col_min >= 0)
+				result.offer(i, col_min, row_min);
+		}
+		result.resolve();
+	}
+	
+	/**
+	 * Sceglie le partizioni (al pi {@link #MAX_SHARDS}) la cui chiave  pi vicina alla parola
+	 * significativa delle ipotesi e scrive in mSelectedRows, in ordine crescente, gli indici
+	 * dei loro comandi e di quelli valutati in ogni caso.
+	 * 
+	 * @param shards le partizioni, oppure <code>null</code>
+	 * @param recognized le ipotesi
+	 * @param threshold la soglia massima per la distanza della parola significativa
+	 * @param costs i pesi da utilizzare
+	 * 
+	 * @return il numero di righe da valutare, oppure -1 se devono essere valutate tutte
+	 */
+	private int selectRows(CommandShards shards, HypothesisBuffer recognized, double threshold, EditCosts costs) {
+		if (shards == null || shards.getShardCount() <= MAX_SHARDS) {
+			if (shards != null)
+				shards.recordHit(-1);
+			mMetrics.addShardSelection(0, 0, 0);
+			return -1;
+		}
+		
+		int count = shards.getShardCount();
+		if (mShardDistances.length < count)
+			mShardDistances = new double[Math.max(count, 2 * mShardDistances.length)];
+		Arrays.fill(mShardDistances, 0, count, Double.POSITIVE_INFINITY);
+		
+		// Distanza di ciascuna chiave dalla parola significativa pi vicina tra le ipotesi.
+		char[] t = recognized.getChars();
+		int skip = shards.getSkip();
+		for (int j=0; j < recognized.size(); j++) {
+			int from = recognized.getStart(j);
+			int end = from + recognized.getLength(j);
+			for (int w=0; w < skip && from < end; w++) {
+				while (from < end && t[from] != ' ')
+					from++;
+				from++;
+			}
+			if (from >= end)
+				continue;
+			int to = from;
+			while (to < end && t[to] != ' ')
+				to++;
+			
+			for (int s=0; s < count; s++) {
+				char[] key = shards.getKey(s);
+				double distance = calculateDistance(key, 0, key.length, t, from, to - from,
+						Math.min(threshold, mShardDistances[s]), costs);
+				if (distance < mShardDistances[s])
+					mShardDistances[s] = distance;
+			}
+		}
+		
+		// Partizioni pi vicine, entro la soglia.
+		int selected = 0;
+		for (int s=0; s < count; s++) {
+			if (!(mShardDistances[s] <= threshold))
+				continue;
+			int k = Math.min(selected, MAX_SHARDS - 1);
+			if (selected == MAX_SHARDS && mShardDistances[s] >= mShardDistances[mSelectedShards[k]])
+				continue;
+			while (k > 0 && mShardDistances[mSelectedShards[k-1]] > mShardDistances[s]) {
+				mSelectedShards[k] = mSelectedShards[k-1];
+				k--;
+			}
+			mSelectedShards[k] = s;
+			if (selected < MAX_SHARDS)
+				selected++;
+		}
+		
+		/*
+		 * La scelta non pu dipendere dall'ordine delle partizioni: se una partizione esclusa
+		 *  vicina quanto la pi lontana tra quelle scelte, vengono valutati tutti i comandi.
+		 */
+		mExcludedDistance = Double.POSITIVE_INFINITY;
+		for (int s=0; s < count; s++) {
+			boolean chosen = false;
+			for (int k=0; k < selected && !chosen; k++)
+				chosen = (mSelectedShards[k] == s);
+			if (!chosen && mShardDistances[s] < mExcludedDistance)
+				mExcludedDistance = mShardDistances[s];
+		}
+		mSelectedCount = selected;
+		if (selected == 0 || mExcludedDistance <= mShardDistances[mSelectedShards[selected - 1]]) {
+			shards.recordHit(-1);
+			mMetrics.addShardSelection(0, 0, 0);
+			return -1;
+		}
+		
+		int[] wildcards = shards.getWildcards();
+		int rows = wildcards.length;
+		for (int k=0; k < selected; k++)
+			rows += shards.getMembers(mSelectedShards[k]).length;
+		if (mSelectedRows.length < rows)
+			mSelectedRows = new int[Math.max(rows, 2 * mSelectedRows.length)];
+		
+		rows = 0;
+		for (int i=0; i < wildcards.length; i++)
+			mSelectedRows[rows++] = wildcards[i];
+		for (int k=0; k < selected; k++) {
+			int[] members = shards.getMembers(mSelectedShards[k]);
+			System.arraycopy(members, 0, mSelectedRows, rows, members.length);
+			rows += members.length;
+			shards.recordHit(mSelectedShards[k]);
+		}
+		Arrays.sort(mSelectedRows, 0, rows);   // stesso ordine, e quindi stessi pareggi, della valutazione completa
+		
+		mMetrics.addShardSelection(selected, rows, shards.getCommandCount());
+		return rows;
+	}
+	
+	/**
+	 * Verifica se il risultato della valutazione delle partizioni scelte da
+	 * {@link #selectRows(CommandShards, HypothesisBuffer, double, EditCosts)} coincide con quello
+	 * della valutazione completa, cio se il candidato migliore  pi vicino alle ipotesi di
+	 * quanto possa esserlo qualunque comando delle partizioni escluse. In caso contrario,
+	 * compresi i pareggi, un comando escluso potrebbe essere migliore o equivalente.
+	 * <p>
+	 * La distanza della parola significativa non basta, perch il riconoscitore pu spezzare
+	 * o unire le parole: per ciascuna partizione esclusa viene quindi calcolato un limite
+	 * inferiore della distanza dei suoi comandi, tramite {@link #keyBound}.
+	 * 
+	 * @param shards le partizioni
+	 * @param recognized le ipotesi
+	 * @param costs i pesi da utilizzare
+	 * @param result il risultato della valutazione delle partizioni scelte
+	 * @return <code>true</code> se non  necessario valutare tutti i comandi
+	 */
+	private boolean isShardResultExact(CommandShards shards, HypothesisBuffer recognized, EditCosts costs,
+			DecisionResult result) {
+		double best = result.getDistance();
+		if (result.getIndex() == NO_MATCH || !(best < mExcludedDistance))
+			return false;
+		
+		char[] t = recognized.getChars();
+		for (int s=0; s < shards.getShardCount(); s++) {
+			if (isSelected(s))
+				continue;
+			char[] key = shards.getKey(s);
+			for (int j=0; j < recognized.size(); j++)
+				if (keyBound(key, t, recognized.getStart(j), recognized.getLength(j), best, costs) <= best)
+					return false;
+		}
+		return true;
+	}
+	
+	/* Verifica se la partizione specificata  tra quelle scelte da selectRows(). */
+	private boolean isSelected(int shard) {
+		for (int k=0; k < mSelectedCount; k++)
+			if (mSelectedShards[k] == shard)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Calcola un limite inferiore della distanza tra un'ipotesi e qualunque stringa che contiene
+	 * la parola specificata: la distanza semi-globale della parola da una qualsiasi sottostringa
+	 * dell'ipotesi (l'allineamento di un comando, ristretto alle righe della parola,  un
+	 * allineamento della parola con una sottostringa). Le trasposizioni tra il primo o l'ultimo
+	 * carattere della parola e quello adiacente nel comando vengono rilassate, cio considerate
+	 * possibili con il solo peso della trasposizione, affinch il limite resti valido.
+	 * 
+	 * @param key la parola
+	 * @param t l'array contenente l'ipotesi
+	 * @param tOffset la posizione del primo carattere dell'ipotesi
+	 * @param n la lunghezza dell'ipotesi
+	 * @param bound il limite oltre il quale il valore non  rilevante
+	 * @param costs i pesi da utilizzare
+	 * 
+	 * @return il limite inferiore, oppure <code>Double.POSITIVE_INFINITY</code> se supera bound
+	 */
+	private double keyBound(char[] key, char[] t, int tOffset, int n, double bound, EditCosts costs) {
+		if (mRow0.length < n+1) {
+			int length = Math.max(n+1, 2 * mRow0.length);
+			mRow0 = new double[length];
+			mRow1 = new double[length];
+			mRow2 = new double[length];
+		}
+		double transposition = costs.transposition();
+		int m = key.length;
+		
+		// Righe i-2, i-1 e i della matrice; la riga 0  nulla (prefisso dell'ipotesi gratuito).
+		double[] before = mRow0;
+		double[] previous = mRow1;
+		double[] current = mRow2;
+		Arrays.fill(previous, 0, n+1, 0);
+		
+		double prev_rowmin = 0;
+		double exit = Double.POSITIVE_INFINITY;   // uscita tramite trasposizione dalla riga m-1
+		for (int i=1; i <= m; i++) {
+			char sc = key[i-1];
+			double deletion = costs.deletion(sc);
+			current[0] = previous[0] + deletion;
+			
+			double rowmin = current[0];
+			for (int j=1; j <= n; j++) {
+				char tc = t[tOffset+j-1];
+				double distance = Math.min(Math.min(
+						previous[j] + deletion,
+						current[j-1] + costs.insertion(tc)),
+						previous[j-1] + costs.substitution(sc, tc));
 				
-				int comparing = Double.compare(distance, current_min);
-				if (comparing < 0) {
-					current_min = distance; // nuovo minimo
-					row_currmin = i; // riga corrispondente
-					nor_currmin = 1;
+				if (j > 1 && sc == t[tOffset+j-2]) {
+					if (i == 1)   // trasposizione con il carattere che precede la parola
+						distance = Math.min(distance, transposition);
+					else if (key[i-2] == tc)
+						distance = Math.min(distance, before[j-2] + transposition);
 				}
-				else if (comparing == 0 && i > row_currmin) {
-					row_currmin = i; // necessario per il conteggio
-					nor_currmin++;
+				
+				current[j] = distance;
+				rowmin = Math.min(rowmin, distance);
+			}
+			
+			if (Math.min(rowmin, prev_rowmin) > bound) {
+				mMetrics.addCells((long)i * n);
+				return Double.POSITIVE_INFINITY;
+			}
+			if (i == m)
+				exit = prev_rowmin + transposition;   // trasposizione con il carattere che segue
+			prev_rowmin = rowmin;
+			
+			double[] free = before;
+			before = previous;
+			previous = current;
+			current = free;
+		}
+		mMetrics.addCells((long)m * n);
+		
+		// Suffisso dell'ipotesi gratuito.
+		return Math.min(prev_rowmin, exit);
+	}
+	
+	/**
+	 * Individua i comandi all'interno delle ipotesi normalizzate specificate, ignorando le
+	 * parole che precedono e seguono ciascun comando e, con un peso ridotto, quelle inserite
+	 * tra le sue parole: per esempio "per favore android avvia demo grazie" rappresenta
+	 * "android avvia demo" con distanza nulla. Ogni ipotesi viene percorsa dall'automa dello
+	 * {@link CommandSpotter}; i comandi presenti per intero hanno distanza nulla, quelli senza
+	 * parole in comune con l'ipotesi vengono scartati e gli altri vengono allineati con
+	 * l'ipotesi tramite la distanza semi-globale.
+	 * <p>
+	 * Poich le parole in pi possono alterare il significato dell'enunciato, questa modalit
+	 *  pensata per quando {@link #decide(List, HypothesisBuffer, double, DecisionResult)} non
+	 * individua alcun comando. Il risultato viene contrassegnato come individuato
+	 * (si veda {@link DecisionResult#isSpotted()}).
+	 * 
+	 * @param spotter l'automa relativo ai comandi ammessi
+	 * @param recognized le ipotesi da verificare
+	 * @param threshold una soglia massima per la distanza
+	 * @param result il risultato da compilare, ottenuto tramite {@link DecisionResult#obtain()}
+	 * 
+	 * @return il risultato specificato
+	 */
+	public DecisionResult spot(CommandSpotter spotter, HypothesisBuffer recognized,
+			double threshold, DecisionResult result) {
+		EditCosts costs = mCosts;   // gli stessi pesi per l'intera decisione
+		double filler = FILLER_WORD_FACTOR * costs.insertion();
+		char[] hypotheses = recognized.getChars();
+		
+		int count = spotter.getCommandCount();
+		if (mHits.length < count) {
+			int length = Math.max(count, 2 * mHits.length);
+			mHits = new int[length];
+			mSpotDistances = new double[length];
+			mSpotHypotheses = new int[length];
+		}
+		Arrays.fill(mSpotDistances, 0, count, Double.POSITIVE_INFINITY);
+		
+		for (int j=0; j < recognized.size(); j++) {
+			int start = recognized.getStart(j);
+			int length = recognized.getLength(j);
+			spotter.scan(hypotheses, start, length, mHits);
+			for (int i=0; i < count; i++) {
+				if (mHits[i] == 0 || mSpotDistances[i] == 0)
+					continue;
+				
+				char[] command = spotter.getCommand(i);
+				double distance = (mHits[i] == CommandSpotter.EXACT ? 0
+						: spotDistance(command, command.length, hypotheses, start, length,
+								Math.min(threshold, mSpotDistances[i]), costs, filler));
+				if (distance < mSpotDistances[i]) {
+					mSpotDistances[i] = distance;
+					mSpotHypotheses[i] = j;
 				}
 			}
 		}
 		
-		return (nor_currmin > 1 ? MULTIPLE_MATCHES : row_currmin);
+		result.clear(threshold);
+		result.setSpotted();
+		for (int i=0; i < count; i++)
+			if (mSpotDistances[i] != Double.POSITIVE_INFINITY)
+				result.offer(i, mSpotHypotheses[i], mSpotDistances[i]);
+		result.resolve();
+		return result;
+	}
+	
+	/**
+	 * Estrae i valori dei parametri di un comando dall'ipotesi specificata, assegnando
+	 * le parole dell'ipotesi agli elementi del comando come nel calcolo della distanza.
+	 * I numeri vengono restituiti come <code>Integer</code>, le alternative e il testo
+	 * come <code>String</code>.
+	 * 
+	 * @param command il comando
+	 * @param recognized le ipotesi
+	 * @param index l'indice dell'ipotesi
+	 * @param slots la mappa a cui aggiungere i valori, per nome del parametro
+	 * 
+	 * @return <code>true</code> se l'ipotesi pu rappresentare il comando
+	 */
+	public boolean extractSlots(CommandGrammar command, HypothesisBuffer recognized, int index,
+			Map<String, Object> slots) {
+		if (!command.hasSlots())
+			return true;
+		
+		char[] t = recognized.getChars();
+		int end = recognized.getStart(index) + recognized.getLength(index);
+		double distance = grammarDistance(command, t, recognized.getStart(index),
+				recognized.getLength(index), Double.POSITIVE_INFINITY, mCosts);
+		if (distance == Double.POSITIVE_INFINITY)
+			return false;
+		
+		int columns = mWordCount + 1;
+		int i = 0;
+		for (int e=0; e < command.getElementCount(); e++) {
+			int cell = e * columns + i;
+			int j = mNextWords[cell];
+			switch (command.getType(e)) {
+			case CommandGrammar.ELEMENT_NUMBER:
+				slots.put(command.getName(e), CommandGrammar.parseNumber(t, mWords[i], mWords[j] - 1));
+				break;
+			case CommandGrammar.ELEMENT_ENUM:
+				slots.put(command.getName(e), command.getValue(e, mChoices[cell]));
+				break;
+			case CommandGrammar.ELEMENT_TEXT:
+				slots.put(command.getName(e), new String(t, mWords[i], end - mWords[i]));
+				break;
+			}
+			i = j;
+		}
+		return true;
+	}
+	
+	/**
+	 * Stabilisce quale stringa di expected  la pi probabile.
+	 * 
+	 * @param prefix prefisso relativo alla lista delle stringhe ammesse
+	 * @param suffixes suffissi relativi alla lista delle stringhe ammesse
+	 * @param recognized la lista delle stringhe da verificare
+	 * @param threshold una soglia massima per la distanza
+	 * @param result il risultato da compilare, ottenuto tramite {@link DecisionResult#obtain()}
+	 * 
+	 * @return il risultato specificato
+	 */
+	public DecisionResult decide(String prefix, List<String> suffixes, ArrayList<String> recognized,
+			double threshold, DecisionResult result) {
+		// P.S.: non ottimizzato!
+		ArrayList<String> expected = new ArrayList<String>(suffixes.size());
+		for (String str : suffixes)
+			expected.add(prefix + str);
+		return decide(expected, recognized, threshold, result);
+	}
+	
+	/**
+	 * Restituisce l'indice di expected relativo alla stringa pi probabile.
+	 * 
+	 * @param expected la lista delle stringhe ammesse
+	 * @param recognized la lista delle stringhe da verificare
+	 * @param threshold una soglia massima per la distanza
+	 *  
+	 * @return l'indice relativo alla stringa pi probabile oppure
+	 *         un codice d'errore (NO_MATCH o MULTIPLE_MATCHES)
+	 */
+	public int getExpectedString(ArrayList<String> expected, ArrayList<String> recognized, double threshold) {
+		DecisionResult result = decide(expected, recognized, threshold, DecisionResult.obtain());
+		int index = result.getIndex();
+		result.recycle();
+		return index;
+	}
+	
+	/**
+	 * Restituisce l'indice di expected relativo alla stringa pi probabile.
+	 * 
+	 * @param expected la lista delle stringhe ammesse
+	 * @param recognized le ipotesi da verificare
+	 * @param threshold una soglia massima per la distanza
+	 *  
+	 * @return l'indice relativo alla stringa pi probabile oppure
+	 *         un codice d'errore (NO_MATCH o MULTIPLE_MATCHES)
+	 */
+	public int getExpectedString(List<String> expected, HypothesisBuffer recognized, double threshold) {
+		DecisionResult result = decide(expected, recognized, threshold, DecisionResult.obtain());
+		int index = result.getIndex();
+		result.recycle();
+		return index;
 	}
 	
 	/**
@@ -215,4 +1202,13 @@ public class DecisionEngine {
 		return getExpectedString(expected, recognized);
 	}
 	
+	/**
+	 * Restituisce le statistiche relative alle decisioni prese da questo motore.
+	 * 
+	 * @return le statistiche
+	 */
+	public DecisionMetrics getMetrics() {
+		return mMetrics;
+	}
+	
 }
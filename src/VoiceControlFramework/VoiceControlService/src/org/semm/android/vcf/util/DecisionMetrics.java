@@ -0,0 +1,290 @@
+package org.semm.android.vcf.util;
+
+import java.io.PrintWriter;
+
+/**
+ * La classe <code>DecisionMetrics</code> raccoglie le statistiche relative alle decisioni
+ * prese dal {@link DecisionEngine}: il lavoro svolto (celle della matrice delle distanze
+ * calcolate, candidati valutati e scartati in anticipo), l'esito delle decisioni, la distanza
+ * del candidato migliore, il margine rispetto al secondo e il tempo impiegato, oltre all'uso
+ * delle partizioni dei comandi (si veda {@link CommandShards}).
+ * <p>
+ * La distanza migliore e il margine vengono raccolti in istogrammi lineari con intervalli di
+ * ampiezza {@link #BUCKET_WIDTH}, in modo da poter scegliere la soglia di distanza in base
+ * alla distribuzione effettiva. Il margine  la differenza tra la distanza del secondo
+ * candidato (relativo ad una stringa ammessa diversa) e quella del primo; se nessun altro
+ * candidato rientra nella soglia, viene calcolato rispetto alla soglia stessa.
+ * <p>
+ * La registrazione non alloca memoria. Questa classe non dipende dalle API di Android e non
+ *  thread-safe.
+ *
+ * @author vincenzo
+ */
+public class DecisionMetrics {
+
+	/** Ampiezza degli intervalli degli istogrammi delle distanze. */
+	public static final double BUCKET_WIDTH = 0.5;
+
+	/** Numero di intervalli degli istogrammi delle distanze (l'ultimo include i valori maggiori). */
+	public static final int BUCKET_COUNT = 40;
+
+	/* Numero di decisioni, per esito. */
+	private long mCalls = 0;
+	private long mMatches = 0;
+	private long mMultipleMatches = 0;
+	private long mNoMatches = 0;
+
+	/* Lavoro svolto. */
+	private long mCells = 0;
+	private long mCandidates = 0;
+	private long mPruned = 0;
+
+	/*
+	 * Decisioni per numero di partizioni scelte (0 se sono stati valutati tutti i comandi),
+	 * decisioni in cui le partizioni non sono bastate, comandi valutati e comandi complessivi
+	 * delle decisioni con partizioni.
+	 */
+	private final long[] mShardSelections = new long[3];
+	private long mShardFallbacks = 0;
+	private long mShardRows = 0;
+	private long mShardTotalRows = 0;
+
+	/* Istogrammi della distanza migliore e del margine. */
+	private final long[] mBest = new long[BUCKET_COUNT];
+	private final long[] mMargin = new long[BUCKET_COUNT];
+
+	/* Tempo impiegato da ogni decisione, in microsecondi. */
+	private final LatencyHistogram mTime = new LatencyHistogram();
+
+
+	/**
+	 * Registra il numero di celle della matrice delle distanze calcolate.
+	 *
+	 * @param cells il numero di celle
+	 */
+	void addCells(long cells) {
+		mCells += cells;
+	}
+
+	/**
+	 * Registra la valutazione di un candidato (coppia stringa ammessa e ipotesi).
+	 *
+	 * @param pruned <code>true</code> se il calcolo  stato interrotto in anticipo perch
+	 *               la distanza avrebbe comunque superato quella dei candidati migliori
+	 */
+	void addCandidate(boolean pruned) {
+		mCandidates++;
+		if (pruned)
+			mPruned++;
+	}
+
+	/**
+	 * Registra la scelta delle partizioni di una decisione.
+	 *
+	 * @param shards il numero di partizioni scelte, oppure 0 se vengono valutati tutti i comandi
+	 * @param rows il numero di comandi da valutare
+	 * @param total il numero complessivo di comandi
+	 */
+	void addShardSelection(int shards, int rows, int total) {
+		mShardSelections[Math.min(shards, mShardSelections.length - 1)]++;
+		mShardRows += rows;
+		mShardTotalRows += total;
+	}
+
+	/**
+	 * Registra una decisione in cui i comandi delle partizioni scelte non rientravano nella
+	 * soglia, per cui sono stati valutati tutti i comandi.
+	 */
+	void addShardFallback() {
+		mShardFallbacks++;
+	}
+
+	/**
+	 * Registra l'esito di una decisione.
+	 *
+	 * @param result l'indice restituito oppure un codice d'errore
+	 * @param best la distanza del candidato migliore
+	 * @param second la distanza del secondo candidato, oppure la soglia
+	 * @param nanos il tempo impiegato, in nanosecondi
+	 */
+	void addDecision(int result, double best, double second, long nanos) {
+		mCalls++;
+		if (result == DecisionEngine.MULTIPLE_MATCHES)
+			mMultipleMatches++;
+		else if (result == DecisionEngine.NO_MATCH)
+			mNoMatches++;
+		else
+			mMatches++;
+
+		if (result != DecisionEngine.NO_MATCH) {
+			mBest[bucket(best)]++;
+			mMargin[bucket(second - best)]++;
+		}
+		mTime.record(nanos / 1000);
+	}
+
+	/**
+	 * Restituisce il numero di decisioni prese.
+	 *
+	 * @return il numero di decisioni
+	 */
+	public long getCallCount() {
+		return mCalls;
+	}
+
+	/**
+	 * Restituisce il numero di decisioni concluse con l'individuazione di una stringa ammessa.
+	 *
+	 * @return il numero di decisioni positive
+	 */
+	public long getMatchCount() {
+		return mMatches;
+	}
+
+	/**
+	 * Restituisce il numero di decisioni concluse con {@link DecisionEngine#MULTIPLE_MATCHES},
+	 * cio con un pareggio tra pi stringhe ammesse.
+	 *
+	 * @return il numero di pareggi
+	 */
+	public long getTieCount() {
+		return mMultipleMatches;
+	}
+
+	/**
+	 * Restituisce il numero di decisioni concluse con {@link DecisionEngine#NO_MATCH}.
+	 *
+	 * @return il numero di decisioni senza corrispondenze
+	 */
+	public long getNoMatchCount() {
+		return mNoMatches;
+	}
+
+	/**
+	 * Restituisce il numero di celle della matrice delle distanze calcolate.
+	 *
+	 * @return il numero di celle calcolate
+	 */
+	public long getCellCount() {
+		return mCells;
+	}
+
+	/**
+	 * Restituisce il numero di candidati valutati.
+	 *
+	 * @return il numero di candidati
+	 */
+	public long getCandidateCount() {
+		return mCandidates;
+	}
+
+	/**
+	 * Restituisce il numero di candidati il cui calcolo  stato interrotto in anticipo.
+	 *
+	 * @return il numero di candidati scartati
+	 */
+	public long getPrunedCount() {
+		return mPruned;
+	}
+
+	/**
+	 * Restituisce il numero di decisioni in cui  stato scelto il numero di partizioni specificato.
+	 *
+	 * @param shards il numero di partizioni (0 per le decisioni che hanno valutato tutti i comandi)
+	 * @return il numero di decisioni
+	 */
+	public long getShardSelectionCount(int shards) {
+		return mShardSelections[shards];
+	}
+
+	/**
+	 * Restituisce il numero di decisioni in cui le partizioni scelte non sono bastate.
+	 *
+	 * @return il numero di decisioni che hanno valutato in seguito tutti i comandi
+	 */
+	public long getShardFallbackCount() {
+		return mShardFallbacks;
+	}
+
+	/**
+	 * Restituisce la distribuzione del tempo impiegato da ogni decisione.
+	 *
+	 * @return l'istogramma dei tempi, in microsecondi
+	 */
+	public LatencyHistogram getTimeHistogram() {
+		return mTime;
+	}
+
+	/**
+	 * Restituisce il numero di decisioni la cui distanza migliore rientra nell'intervallo specificato.
+	 *
+	 * @param bucket l'indice dell'intervallo, tra 0 e {@link #BUCKET_COUNT}-1
+	 * @return il numero di decisioni
+	 */
+	public long getBestDistanceCount(int bucket) {
+		return mBest[bucket];
+	}
+
+	/**
+	 * Restituisce il numero di decisioni il cui margine rientra nell'intervallo specificato.
+	 *
+	 * @param bucket l'indice dell'intervallo, tra 0 e {@link #BUCKET_COUNT}-1
+	 * @return il numero di decisioni
+	 */
+	public long getMarginCount(int bucket) {
+		return mMargin[bucket];
+	}
+
+	/**
+	 * Azzera tutte le statistiche.
+	 */
+	public void reset() {
+		mCalls = mMatches = mMultipleMatches = mNoMatches = 0;
+		mCells = mCandidates = mPruned = 0;
+		for (int i=0; i < mShardSelections.length; i++)
+			mShardSelections[i] = 0;
+		mShardFallbacks = mShardRows = mShardTotalRows = 0;
+		for (int i=0; i < BUCKET_COUNT; i++)
+			mBest[i] = mMargin[i] = 0;
+		mTime.reset();
+	}
+
+	/**
+	 * Scrive le statistiche raccolte.
+	 *
+	 * @param writer il writer su cui scrivere
+	 * @param prefix il prefisso di ogni riga
+	 */
+	public void dump(PrintWriter writer, String prefix) {
+		writer.println(String.format("%sdecisioni: %d (trovate %d, pareggi %d, nessuna %d)",
+				prefix, mCalls, mMatches, mMultipleMatches, mNoMatches));
+		writer.println(String.format("%scandidati: %d (interrotti %d), celle: %d",
+				prefix, mCandidates, mPruned, mCells));
+		writer.println(String.format("%spartizioni: nessuna %d, una %d, due %d (insufficienti %d), comandi valutati %d su %d",
+				prefix, mShardSelections[0], mShardSelections[1], mShardSelections[2], mShardFallbacks,
+				mShardRows, mShardTotalRows));
+		writer.println(String.format("%stempo: %s", prefix, mTime));
+		dumpBuckets(writer, prefix + "distanza migliore:", mBest);
+		dumpBuckets(writer, prefix + "margine:", mMargin);
+	}
+
+	/* Scrive gli intervalli non vuoti di un istogramma. */
+	private static void dumpBuckets(PrintWriter writer, String title, long[] buckets) {
+		StringBuilder line = new StringBuilder(title);
+		for (int i=0; i < BUCKET_COUNT; i++) {
+			if (buckets[i] == 0)
+				continue;
+			line.append(String.format(i == BUCKET_COUNT - 1 ? " >=%.1f:%d" : " %.1f:%d",
+					i * BUCKET_WIDTH, buckets[i]));
+		}
+		writer.println(line);
+	}
+
+	/* Restituisce l'intervallo a cui appartiene la distanza. */
+	private static int bucket(double value) {
+		if (!(value >= 0))   // NaN
+			return 0;
+		return (int)Math.min(value / BUCKET_WIDTH, BUCKET_COUNT - 1);
+	}
+
+}
@@ -0,0 +1,264 @@
+package org.semm.android.vcf.util;
+
+/**
+ * La classe <code>DecisionResult</code> descrive l'esito di una decisione del
+ * {@link DecisionEngine}: oltre all'indice della stringa ammessa scelta (oppure al codice
+ * d'errore), conserva i migliori {@link #MAX_CANDIDATES} candidati che rientrano nella soglia,
+ * ordinati per distanza crescente, con l'indice dell'ipotesi pi vicina a ciascuno di essi
+ * e il margine tra il primo e il secondo.
+ * <p>
+ * In caso di {@link DecisionEngine#MULTIPLE_MATCHES} i candidati permettono di chiedere
+ * all'utente di scegliere tra di essi, anzich ripetere l'intero comando.
+ * <p>
+ * Le istanze vengono riutilizzate: devono essere ottenute mediante {@link #obtain()} e
+ * restituite mediante {@link #recycle()} quando non servono pi (come per
+ * <code>android.os.Message</code>). Questa classe non dipende dalle API di Android.
+ *
+ * @author vincenzo
+ */
+public class DecisionResult {
+
+	/** Numero massimo di candidati conservati. */
+	public static final int MAX_CANDIDATES = 3;
+
+	/* Numero massimo di istanze conservate per essere riutilizzate. */
+	private static final int MAX_POOL_SIZE = 4;
+
+	/* Istanze disponibili, collegate tramite mNext. */
+	private static final Object sPoolSync = new Object();
+	private static DecisionResult sPool;
+	private static int sPoolSize = 0;
+
+	private DecisionResult mNext;
+
+	/* Esito e soglia utilizzata. */
+	private int mIndex = DecisionEngine.NO_MATCH;
+	private double mThreshold;
+
+	/* Indica se i comandi sono stati individuati all'interno delle ipotesi. */
+	private boolean mSpotted = false;
+
+	/* Candidati, ordinati per distanza crescente. */
+	private int mCount = 0;
+	private final int[] mRows = new int[MAX_CANDIDATES];
+	private final int[] mHypotheses = new int[MAX_CANDIDATES];
+	private final double[] mDistances = new double[MAX_CANDIDATES];
+
+
+	/* Le istanze si ottengono tramite obtain(). */
+	private DecisionResult() {
+	}
+
+	/**
+	 * Restituisce un'istanza vuota, riutilizzandone una restituita in precedenza se possibile.
+	 *
+	 * @return l'istanza
+	 */
+	public static DecisionResult obtain() {
+		synchronized (sPoolSync) {
+			if (sPool != null) {
+				DecisionResult result = sPool;
+				sPool = result.mNext;
+				result.mNext = null;
+				sPoolSize--;
+				return result;
+			}
+		}
+		return new DecisionResult();
+	}
+
+	/**
+	 * Restituisce questa istanza affinch possa essere riutilizzata. Dopo l'invocazione
+	 * di questo metodo l'istanza non deve pi essere utilizzata.
+	 */
+	public void recycle() {
+		clear(DecisionEngine.NO_MATCH);
+		synchronized (sPoolSync) {
+			if (sPoolSize < MAX_POOL_SIZE) {
+				mNext = sPool;
+				sPool = this;
+				sPoolSize++;
+			}
+		}
+	}
+
+	/**
+	 * Copia l'esito e i candidati di un altro risultato.
+	 *
+	 * @param other il risultato da copiare
+	 */
+	public void set(DecisionResult other) {
+		mIndex = other.mIndex;
+		mThreshold = other.mThreshold;
+		mSpotted = other.mSpotted;
+		mCount = other.mCount;
+		System.arraycopy(other.mRows, 0, mRows, 0, mCount);
+		System.arraycopy(other.mHypotheses, 0, mHypotheses, 0, mCount);
+		System.arraycopy(other.mDistances, 0, mDistances, 0, mCount);
+	}
+
+	/**
+	 * Svuota l'elenco dei candidati e imposta la soglia della nuova decisione.
+	 *
+	 * @param threshold la soglia massima per la distanza
+	 */
+	void clear(double threshold) {
+		mIndex = DecisionEngine.NO_MATCH;
+		mThreshold = threshold;
+		mSpotted = false;
+		mCount = 0;
+	}
+
+	/* Indica che i candidati sono stati individuati all'interno delle ipotesi. */
+	void setSpotted() {
+		mSpotted = true;
+	}
+
+	/**
+	 * Restituisce la distanza oltre la quale un candidato non pu entrare nell'elenco,
+	 * cio quella dell'ultimo candidato se l'elenco  pieno, altrimenti la soglia.
+	 *
+	 * @return la distanza limite
+	 */
+	double getBound() {
+		return (mCount == MAX_CANDIDATES ? mDistances[MAX_CANDIDATES - 1] : mThreshold);
+	}
+
+	/**
+	 * Inserisce un candidato, se rientra nella soglia e tra i migliori. A parit di distanza,
+	 * i candidati inseriti per primi precedono gli altri.
+	 *
+	 * @param row l'indice della stringa ammessa
+	 * @param hypothesis l'indice dell'ipotesi pi vicina
+	 * @param distance la distanza
+	 */
+	void offer(int row, int hypothesis, double distance) {
+		if (!(distance <= getBound()) || (mCount == MAX_CANDIDATES && distance == getBound()))
+			return;
+
+		int i = Math.min(mCount, MAX_CANDIDATES - 1);
+		while (i > 0 && mDistances[i-1] > distance) {
+			mRows[i] = mRows[i-1];
+			mHypotheses[i] = mHypotheses[i-1];
+			mDistances[i] = mDistances[i-1];
+			i--;
+		}
+		mRows[i] = row;
+		mHypotheses[i] = hypothesis;
+		mDistances[i] = distance;
+		if (mCount < MAX_CANDIDATES)
+			mCount++;
+	}
+
+	/**
+	 * Stabilisce l'esito in base ai candidati inseriti.
+	 */
+	void resolve() {
+		if (mCount == 0)
+			mIndex = DecisionEngine.NO_MATCH;
+		else if (mCount > 1 && mDistances[1] == mDistances[0])
+			mIndex = DecisionEngine.MULTIPLE_MATCHES;
+		else
+			mIndex = mRows[0];
+	}
+
+	/**
+	 * Restituisce l'indice della stringa ammessa scelta.
+	 *
+	 * @return l'indice della stringa pi probabile oppure un codice d'errore
+	 *         ({@link DecisionEngine#NO_MATCH} o {@link DecisionEngine#MULTIPLE_MATCHES})
+	 */
+	public int getIndex() {
+		return mIndex;
+	}
+
+	/**
+	 * Restituisce l'indice dell'ipotesi pi vicina alla stringa ammessa scelta.
+	 *
+	 * @return l'indice dell'ipotesi, oppure -1 se non  stata scelta alcuna stringa
+	 */
+	public int getHypothesisIndex() {
+		return (mIndex >= 0 ? mHypotheses[0] : -1);
+	}
+
+	/**
+	 * Restituisce la distanza del candidato migliore.
+	 *
+	 * @return la distanza, oppure la soglia se non ci sono candidati
+	 */
+	public double getDistance() {
+		return (mCount > 0 ? mDistances[0] : mThreshold);
+	}
+
+	/**
+	 * Restituisce il margine tra il candidato migliore e il secondo, oppure la soglia se
+	 * non c' un secondo candidato. Il margine  nullo in caso di
+	 * {@link DecisionEngine#MULTIPLE_MATCHES}.
+	 *
+	 * @return il margine
+	 */
+	public double getMargin() {
+		return (mCount > 1 ? mDistances[1] : mThreshold) - getDistance();
+	}
+
+	/**
+	 * Indica se i candidati sono stati individuati all'interno delle ipotesi, che possono
+	 * quindi contenere altre parole (si veda {@link CommandSpotter}).
+	 *
+	 * @return <code>true</code> se il risultato  stato ottenuto tramite
+	 *         {@link DecisionEngine#spot(CommandSpotter, HypothesisBuffer, double, DecisionResult)}
+	 */
+	public boolean isSpotted() {
+		return mSpotted;
+	}
+
+	/**
+	 * Restituisce il numero di candidati che rientrano nella soglia (al pi {@link #MAX_CANDIDATES}).
+	 *
+	 * @return il numero di candidati
+	 */
+	public int getCandidateCount() {
+		return mCount;
+	}
+
+	/**
+	 * Restituisce l'indice della stringa ammessa relativa al candidato specificato.
+	 *
+	 * @param k la posizione del candidato, tra 0 e {@link #getCandidateCount()}-1
+	 * @return l'indice della stringa ammessa
+	 */
+	public int getCandidateIndex(int k) {
+		return mRows[k];
+	}
+
+	/**
+	 * Restituisce l'indice dell'ipotesi pi vicina al candidato specificato.
+	 *
+	 * @param k la posizione del candidato, tra 0 e {@link #getCandidateCount()}-1
+	 * @return l'indice dell'ipotesi
+	 */
+	public int getCandidateHypothesis(int k) {
+		return mHypotheses[k];
+	}
+
+	/**
+	 * Restituisce la distanza del candidato specificato.
+	 *
+	 * @param k la posizione del candidato, tra 0 e {@link #getCandidateCount()}-1
+	 * @return la distanza
+	 */
+	public double getCandidateDistance(int k) {
+		return mDistances[k];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		str.append("DecisionResult[index=").append(mIndex).append(mSpotted ? ", spotted" : "").append(", candidates=");
+		for (int k=0; k < mCount; k++)
+			str.append(k == 0 ? "" : " ").append(String.format("%d/%d:%.2f",
+					mRows[k], mHypotheses[k], mDistances[k]));
+		return str.append(']').toString();
+	}
+
+}
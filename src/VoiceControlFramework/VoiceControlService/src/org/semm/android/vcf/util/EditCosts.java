@@ -0,0 +1,262 @@
+package org.semm.android.vcf.util;
+
+import java.util.Arrays;
+
+/**
+ * La classe <code>EditCosts</code> contiene i pesi utilizzati dal {@link DecisionEngine} per
+ * calcolare la distanza tra due stringhe: quelli predefiniti relativi all'inserimento, alla
+ * cancellazione, alla sostituzione e alla trasposizione e gli eventuali pesi specifici di
+ * determinati caratteri (per esempio quelli appresi da {@link EditWeightLearner}).
+ * <p>
+ * I pesi specifici sono conservati in tabelle piatte di <code>float</code>: i caratteri con
+ * un peso specifico (al pi 255, con codice inferiore a 256) formano un alfabeto compatto, e
+ * una tabella di 256 byte associa ad ogni carattere il relativo simbolo (0 per tutti gli altri
+ * caratteri, a cui si applicano i pesi predefiniti). Il peso della sostituzione del simbolo a
+ * con il simbolo b si trova in posizione <code>a * getSymbolCount() + b</code>. Se non ci sono
+ * pesi specifici ({@link #isUniform()}), il motore decisionale utilizza direttamente i pesi
+ * predefiniti, senza consultare le tabelle.
+ * <p>
+ * Le istanze sono immutabili, per cui possono essere sostituite mentre il motore decisionale
+ *  in uso senza alcuna sincronizzazione. Questa classe non dipende dalle API di Android.
+ *
+ * @author vincenzo
+ */
+public final class EditCosts {
+
+	/**
+	 * Carattere che rappresenta l'assenza di un carattere nelle coppie passate al costruttore:
+	 * la coppia (c, GAP) indica la cancellazione di c, mentre la coppia (GAP, c) il suo inserimento.
+	 */
+	public static final char GAP = '\uFFFF';
+
+	/* Numero massimo di simboli, compreso quello relativo agli altri caratteri. */
+	private static final int MAX_SYMBOLS = 256;
+
+	/* Pesi predefiniti delle operazioni. */
+	private final double mInsert;
+	private final double mDelete;
+	private final double mSubstitution;
+	private final double mTransposition;
+
+	/* Simbolo associato a ciascun carattere e numero di simboli (null e 1 se i pesi sono uniformi). */
+	private final byte[] mAlphabet;
+	private final int mSymbols;
+
+	/* Pesi per simbolo: sostituzioni (per riga), inserimenti e cancellazioni. */
+	private final float[] mSubstitutions;
+	private final float[] mInsertions;
+	private final float[] mDeletions;
+
+
+	/**
+	 * Crea un insieme di pesi uniformi, cio senza pesi specifici.
+	 *
+	 * @param insert il peso dell'inserimento
+	 * @param delete il peso della cancellazione
+	 * @param substitution il peso della sostituzione
+	 * @param transposition il peso della trasposizione
+	 */
+	public EditCosts(double insert, double delete, double substitution, double transposition) {
+		mInsert = insert;
+		mDelete = delete;
+		mSubstitution = substitution;
+		mTransposition = transposition;
+		mAlphabet = null;
+		mSymbols = 1;
+		mSubstitutions = mInsertions = mDeletions = null;
+	}
+
+	/**
+	 * Crea un insieme di pesi a partire dai pesi predefiniti di un altro, aggiungendo i pesi
+	 * specifici delle coppie di caratteri specificate. Le coppie relative a caratteri con
+	 * codice non inferiore a 256 vengono ignorate.
+	 *
+	 * @param base i pesi predefiniti
+	 * @param pairs le coppie di caratteri (si veda {@link #pair(char, char)}), eventualmente
+	 *              con {@link #GAP} per gli inserimenti e le cancellazioni
+	 * @param costs i pesi corrispondenti
+	 * @param count il numero di coppie
+	 */
+	public EditCosts(EditCosts base, int[] pairs, double[] costs, int count) {
+		mInsert = base.mInsert;
+		mDelete = base.mDelete;
+		mSubstitution = base.mSubstitution;
+		mTransposition = base.mTransposition;
+
+		// Alfabeto compatto dei caratteri con un peso specifico.
+		mAlphabet = new byte[MAX_SYMBOLS];
+		int symbols = 1;
+		for (int i=0; i < count; i++) {
+			char s = first(pairs[i]);
+			char t = second(pairs[i]);
+			if (!isMappable(s) || !isMappable(t))
+				continue;
+			if (s != GAP && mAlphabet[s] == 0 && symbols < MAX_SYMBOLS)
+				mAlphabet[s] = (byte)symbols++;
+			if (t != GAP && mAlphabet[t] == 0 && symbols < MAX_SYMBOLS)
+				mAlphabet[t] = (byte)symbols++;
+		}
+		mSymbols = symbols;
+
+		mSubstitutions = new float[symbols * symbols];
+		mInsertions = new float[symbols];
+		mDeletions = new float[symbols];
+		Arrays.fill(mSubstitutions, (float)mSubstitution);
+		Arrays.fill(mInsertions, (float)mInsert);
+		Arrays.fill(mDeletions, (float)mDelete);
+		for (int a=1; a < symbols; a++)
+			mSubstitutions[a * symbols + a] = 0;
+
+		for (int i=0; i < count; i++) {
+			char s = first(pairs[i]);
+			char t = second(pairs[i]);
+			if (!isMappable(s) || !isMappable(t))
+				continue;
+			if (s == GAP)
+				mInsertions[symbol(t)] = (float)costs[i];
+			else if (t == GAP)
+				mDeletions[symbol(s)] = (float)costs[i];
+			else if (s != t)
+				mSubstitutions[symbol(s) * symbols + symbol(t)] = (float)costs[i];
+		}
+	}
+
+	/**
+	 * Restituisce la chiave associata ad una coppia di caratteri.
+	 *
+	 * @param s il carattere della stringa attesa, oppure {@link #GAP}
+	 * @param t il carattere della stringa riconosciuta, oppure {@link #GAP}
+	 * @return la chiave
+	 */
+	public static int pair(char s, char t) {
+		return (s << 16) | t;
+	}
+
+	/* Restituiscono i caratteri di una coppia. */
+	static char first(int pair) {
+		return (char)(pair >>> 16);
+	}
+
+	static char second(int pair) {
+		return (char)pair;
+	}
+
+	/* Verifica se il carattere pu far parte dell'alfabeto compatto. */
+	private static boolean isMappable(char c) {
+		return c < MAX_SYMBOLS || c == GAP;
+	}
+
+	/**
+	 * Verifica se i pesi sono uniformi, cio se non ci sono pesi specifici.
+	 *
+	 * @return <code>true</code> se i pesi sono uniformi
+	 */
+	public boolean isUniform() {
+		return mAlphabet == null;
+	}
+
+	/**
+	 * Restituisce il peso predefinito dell'inserimento.
+	 *
+	 * @return il peso dell'inserimento
+	 */
+	public double insertion() {
+		return mInsert;
+	}
+
+	/**
+	 * Restituisce il peso predefinito della cancellazione.
+	 *
+	 * @return il peso della cancellazione
+	 */
+	public double deletion() {
+		return mDelete;
+	}
+
+	/**
+	 * Restituisce il peso predefinito della sostituzione.
+	 *
+	 * @return il peso della sostituzione
+	 */
+	public double substitution() {
+		return mSubstitution;
+	}
+
+	/**
+	 * Restituisce il peso della trasposizione.
+	 *
+	 * @return il peso della trasposizione
+	 */
+	public double transposition() {
+		return mTransposition;
+	}
+
+	/**
+	 * Restituisce il peso dell'inserimento del carattere specificato.
+	 *
+	 * @param t il carattere inserito nella stringa riconosciuta
+	 * @return il peso specifico del carattere oppure quello predefinito
+	 */
+	public double insertion(char t) {
+		return (mAlphabet == null ? mInsert : mInsertions[symbol(t)]);
+	}
+
+	/**
+	 * Restituisce il peso della cancellazione del carattere specificato.
+	 *
+	 * @param s il carattere della stringa attesa assente da quella riconosciuta
+	 * @return il peso specifico del carattere oppure quello predefinito
+	 */
+	public double deletion(char s) {
+		return (mAlphabet == null ? mDelete : mDeletions[symbol(s)]);
+	}
+
+	/**
+	 * Restituisce il peso della sostituzione del carattere s con il carattere t.
+	 *
+	 * @param s il carattere della stringa attesa
+	 * @param t il carattere della stringa riconosciuta
+	 * @return 0 se i caratteri sono uguali, altrimenti il peso specifico della coppia
+	 *         oppure quello predefinito
+	 */
+	public double substitution(char s, char t) {
+		if (s == t)
+			return 0;
+		if (mAlphabet == null)
+			return mSubstitution;
+		return mSubstitutions[symbol(s) * mSymbols + symbol(t)];
+	}
+
+	/**
+	 * Restituisce il numero di simboli dell'alfabeto compatto, compreso quello relativo ai
+	 * caratteri senza pesi specifici.
+	 *
+	 * @return il numero di simboli
+	 */
+	public int getSymbolCount() {
+		return mSymbols;
+	}
+
+	/* Restituisce il simbolo associato al carattere (solo se i pesi non sono uniformi). */
+	int symbol(char c) {
+		return (c < MAX_SYMBOLS ? mAlphabet[c] & 0xFF : 0);
+	}
+
+	/* Tabelle dei pesi per simbolo, utilizzate dal motore decisionale (null se uniformi). */
+	byte[] getAlphabet() {
+		return mAlphabet;
+	}
+
+	float[] getSubstitutionTable() {
+		return mSubstitutions;
+	}
+
+	float[] getInsertionTable() {
+		return mInsertions;
+	}
+
+	float[] getDeletionTable() {
+		return mDeletions;
+	}
+
+}
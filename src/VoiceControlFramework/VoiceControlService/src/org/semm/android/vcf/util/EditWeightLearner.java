@@ -0,0 +1,381 @@
+package org.semm.android.vcf.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * La classe <code>EditWeightLearner</code> apprende i pesi delle sostituzioni a partire dai
+ * comandi confermati dall'utente, cio quelli eseguiti con successo dall'applicazione.
+ * <p>
+ * Ogni comando confermato viene allineato all'ipotesi del riconoscitore da cui  stato
+ * individuato, utilizzando i pesi correnti, e per ogni coppia di caratteri allineati (uguali
+ * o sostituiti), per ogni carattere cancellato e per ogni carattere inserito viene incrementato
+ * il relativo conteggio, conservato in una matrice sparsa (le cancellazioni e gli inserimenti
+ * sono coppie con {@link EditCosts#GAP}). Il peso della sostituzione del carattere s con il
+ * carattere t  il logaritmo negativo del rapporto tra il numero di sostituzioni e il numero di
+ * volte in cui s  stato riconosciuto correttamente, e analogamente per la cancellazione e
+ * l'inserimento di un carattere; il rapporto viene stimato aggiungendo {@link #PSEUDO_COUNT}
+ * osservazioni fittizie distribuite secondo i pesi iniziali, per cui in assenza di osservazioni
+ * i pesi coincidono con quelli iniziali. I pesi non possono essere negativi.
+ * <p>
+ * I conteggi possono essere salvati in un file binario compatto (intestazione, numero di
+ * coppie e, per ognuna, la coppia di caratteri e il conteggio) e ricaricati all'avvio.
+ * I pesi appresi vengono restituiti da {@link #rebuild()} sotto forma di un nuovo
+ * {@link EditCosts} immutabile, che pu essere sostituito a quello del motore decisionale.
+ * <p>
+ * Questa classe non dipende dalle API di Android e non  thread-safe, ad eccezione dei
+ * metodi che restituiscono le statistiche.
+ *
+ * @author vincenzo
+ */
+public class EditWeightLearner {
+
+	/** Numero di comandi confermati dopo il quale  opportuno ricalcolare i pesi. */
+	public static final int REBUILD_INTERVAL = 20;
+
+	/** Numero di osservazioni fittizie distribuite secondo i pesi iniziali. */
+	public static final double PSEUDO_COUNT = 10;
+
+	/* Intestazione e versione del file dei conteggi. */
+	private static final int FILE_MAGIC = 0x56434657;   // "VCFW"
+	private static final int FILE_VERSION = 1;
+
+	/* Pesi iniziali e pesi correnti, utilizzati per l'allineamento. */
+	private final EditCosts mPrior;
+	private EditCosts mCosts;
+
+	/* Conteggi delle coppie di caratteri allineati. */
+	private final CountMatrix mCounts = new CountMatrix();
+
+	/* Comandi confermati dall'ultimo ricalcolo dei pesi. */
+	private int mPending = 0;
+
+	/* Statistiche. */
+	private volatile long mObservations = 0;
+	private volatile int mRebuilds = 0;
+	private volatile int mPairs = 0;
+
+
+	/**
+	 * Crea un nuovo learner, senza alcun conteggio.
+	 *
+	 * @param prior i pesi iniziali
+	 */
+	public EditWeightLearner(EditCosts prior) {
+		mPrior = prior;
+		mCosts = prior;
+	}
+
+	/**
+	 * Registra un comando confermato.
+	 *
+	 * @param expected la stringa ammessa corrispondente al comando
+	 * @param recognized l'ipotesi del riconoscitore da cui  stato individuato
+	 * @return <code>true</code> se  opportuno ricalcolare i pesi
+	 */
+	public boolean observe(CharSequence expected, CharSequence recognized) {
+		int m = expected.length();
+		int n = recognized.length();
+
+		// Matrice delle distanze, come in DecisionEngine.
+		double[][] distance = new double[m+1][n+1];
+		for (int i=1; i <= m; i++)
+			distance[i][0] = distance[i-1][0] + mCosts.deletion(expected.charAt(i-1));
+		for (int j=1; j <= n; j++)
+			distance[0][j] = distance[0][j-1] + mCosts.insertion(recognized.charAt(j-1));
+		for (int i=1; i <= m; i++)
+			for (int j=1; j <= n; j++) {
+				distance[i][j] = Math.min(Math.min(
+						distance[i-1][j] + mCosts.deletion(expected.charAt(i-1)),
+						distance[i][j-1] + mCosts.insertion(recognized.charAt(j-1))),
+						distance[i-1][j-1] + mCosts.substitution(expected.charAt(i-1), recognized.charAt(j-1)));
+				if (isTransposition(expected, recognized, i, j))
+					distance[i][j] = Math.min(distance[i][j], distance[i-2][j-2] + mCosts.transposition());
+			}
+
+		// Ricostruisce l'allineamento a ritroso, contando le coppie allineate.
+		int i = m, j = n;
+		while (i > 0 && j > 0) {
+			char s = expected.charAt(i-1);
+			char t = recognized.charAt(j-1);
+			if (distance[i][j] == distance[i-1][j-1] + mCosts.substitution(s, t)) {
+				mCounts.increment(EditCosts.pair(s, t));
+				i--;
+				j--;
+			}
+			else if (distance[i][j] == distance[i-1][j] + mCosts.deletion(s)) {
+				mCounts.increment(EditCosts.pair(s, EditCosts.GAP));
+				i--;
+			}
+			else if (distance[i][j] == distance[i][j-1] + mCosts.insertion(t)) {
+				mCounts.increment(EditCosts.pair(EditCosts.GAP, t));
+				j--;
+			}
+			else {   // trasposizione: i caratteri sono stati riconosciuti, ma in ordine inverso
+				mCounts.increment(EditCosts.pair(s, s));
+				mCounts.increment(EditCosts.pair(t, t));
+				i -= 2;
+				j -= 2;
+			}
+		}
+		for (; i > 0; i--)
+			mCounts.increment(EditCosts.pair(expected.charAt(i-1), EditCosts.GAP));
+		for (; j > 0; j--)
+			mCounts.increment(EditCosts.pair(EditCosts.GAP, recognized.charAt(j-1)));
+
+		mObservations++;
+		mPairs = mCounts.size();
+		return (++mPending >= REBUILD_INTERVAL);
+	}
+
+	/**
+	 * Ricalcola i pesi in base ai conteggi correnti.
+	 *
+	 * @return i nuovi pesi
+	 */
+	public EditCosts rebuild() {
+		int size = mCounts.size();
+		int[] pairs = new int[size];
+		double[] costs = new double[size];
+		int count = 0;
+
+		int[] keys = mCounts.keys();
+		for (int slot=0; slot < keys.length; slot++) {
+			int key = keys[slot];
+			char s = EditCosts.first(key);
+			char t = EditCosts.second(key);
+			if (key == CountMatrix.EMPTY || s == t)
+				continue;
+
+			// Rapporto con il numero di riconoscimenti corretti del carattere, e peso iniziale.
+			char c;
+			double prior;
+			if (s == EditCosts.GAP) {
+				c = t;
+				prior = mPrior.insertion();
+			}
+			else if (t == EditCosts.GAP) {
+				c = s;
+				prior = mPrior.deletion();
+			}
+			else {
+				c = s;
+				prior = mPrior.substitution();
+			}
+
+			double ratio = (mCounts.valueAt(slot) + PSEUDO_COUNT * Math.exp(-prior))
+					/ (mCounts.get(EditCosts.pair(c, c)) + PSEUDO_COUNT);
+			pairs[count] = key;
+			costs[count] = Math.max(0, -Math.log(ratio));
+			count++;
+		}
+
+		mCosts = new EditCosts(mPrior, pairs, costs, count);
+		mPending = 0;
+		mRebuilds++;
+		return mCosts;
+	}
+
+	/**
+	 * Restituisce i pesi correnti.
+	 *
+	 * @return i pesi calcolati dall'ultimo {@link #rebuild()}, oppure quelli iniziali
+	 */
+	public EditCosts getCosts() {
+		return mCosts;
+	}
+
+	/**
+	 * Carica i conteggi dal file specificato, sostituendo quelli correnti.
+	 *
+	 * @param file il file dei conteggi
+	 * @throws IOException se il file non  leggibile o non  valido
+	 */
+	public void load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+				throw new IOException("Formato non valido: " + file);
+
+			int size = in.readInt();
+			if (size < 0)
+				throw new IOException("Formato non valido: " + file);
+
+			mCounts.clear();
+			for (int i=0; i < size; i++)
+				mCounts.put(in.readInt(), in.readInt());
+			mPairs = mCounts.size();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Salva i conteggi correnti nel file specificato. Il file viene sostituito soltanto
+	 * al termine della scrittura.
+	 *
+	 * @param file il file dei conteggi
+	 * @throws IOException se si verifica un errore durante la scrittura
+	 */
+	public void save(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(mCounts.size());
+			int[] keys = mCounts.keys();
+			for (int slot=0; slot < keys.length; slot++) {
+				if (keys[slot] == CountMatrix.EMPTY)
+					continue;
+				out.writeInt(keys[slot]);
+				out.writeInt(mCounts.valueAt(slot));
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		if (!tmp.renameTo(file))
+			throw new IOException("Impossibile sostituire " + file);
+	}
+
+	/**
+	 * Restituisce il numero di comandi confermati registrati.
+	 *
+	 * @return il numero di comandi confermati
+	 */
+	public long getObservationCount() {
+		return mObservations;
+	}
+
+	/**
+	 * Restituisce il numero di comandi confermati registrati dall'ultimo ricalcolo dei pesi.
+	 *
+	 * @return il numero di comandi non ancora considerati nei pesi
+	 */
+	public int getPendingCount() {
+		return mPending;
+	}
+
+	/**
+	 * Restituisce il numero di volte in cui i pesi sono stati ricalcolati.
+	 *
+	 * @return il numero di ricalcoli
+	 */
+	public int getRebuildCount() {
+		return mRebuilds;
+	}
+
+	/**
+	 * Restituisce il numero di coppie di caratteri osservate.
+	 *
+	 * @return il numero di coppie
+	 */
+	public int getPairCount() {
+		return mPairs;
+	}
+
+	/* Verifica se la cella (i,j) pu derivare da una trasposizione. */
+	private static boolean isTransposition(CharSequence s, CharSequence t, int i, int j) {
+		return i > 1 && j > 1 && s.charAt(i-1) == t.charAt(j-2) && s.charAt(i-2) == t.charAt(j-1);
+	}
+
+
+	/*
+	 * Matrice sparsa dei conteggi, indicizzata per coppia di caratteri: tabella hash
+	 * ad indirizzamento aperto di interi primitivi.
+	 */
+	private static class CountMatrix {
+
+		/* Chiave che indica una posizione libera (non corrisponde ad alcuna coppia di caratteri). */
+		static final int EMPTY = -1;
+
+		private int[] mKeys = newKeys(64);
+		private int[] mValues = new int[64];
+		private int mSize = 0;
+
+		void increment(int key) {
+			int slot = slot(mKeys, key);
+			if (mKeys[slot] == EMPTY) {
+				insert(slot, key, 1);
+			}
+			else if (mValues[slot] < Integer.MAX_VALUE)
+				mValues[slot]++;
+		}
+
+		void put(int key, int value) {
+			int slot = slot(mKeys, key);
+			if (mKeys[slot] == EMPTY)
+				insert(slot, key, value);
+			else mValues[slot] = value;
+		}
+
+		int get(int key) {
+			int slot = slot(mKeys, key);
+			return (mKeys[slot] == EMPTY ? 0 : mValues[slot]);
+		}
+
+		int[] keys() {
+			return mKeys;
+		}
+
+		int valueAt(int slot) {
+			return mValues[slot];
+		}
+
+		int size() {
+			return mSize;
+		}
+
+		void clear() {
+			Arrays.fill(mKeys, EMPTY);
+			mSize = 0;
+		}
+
+		private void insert(int slot, int key, int value) {
+			mKeys[slot] = key;
+			mValues[slot] = value;
+			if (++mSize * 2 > mKeys.length)
+				resize();
+		}
+
+		private void resize() {
+			int[] keys = mKeys;
+			int[] values = mValues;
+			mKeys = newKeys(keys.length * 2);
+			mValues = new int[keys.length * 2];
+			for (int i=0; i < keys.length; i++) {
+				if (keys[i] == EMPTY)
+					continue;
+				int slot = slot(mKeys, keys[i]);
+				mKeys[slot] = keys[i];
+				mValues[slot] = values[i];
+			}
+		}
+
+		private static int[] newKeys(int capacity) {
+			int[] keys = new int[capacity];
+			Arrays.fill(keys, EMPTY);
+			return keys;
+		}
+
+		private static int slot(int[] keys, int key) {
+			int mask = keys.length - 1;
+			int hash = key * 0x9E3779B9;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+	}
+
+}
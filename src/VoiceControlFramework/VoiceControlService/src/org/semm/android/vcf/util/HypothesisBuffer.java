@@ -0,0 +1,182 @@
+package org.semm.android.vcf.util;
+
+import java.util.List;
+
+/**
+ * La classe <code>HypothesisBuffer</code> contiene le ipotesi restituite dal riconoscitore
+ * vocale per un enunciato (la lista N-best), gi normalizzate e pronte per il
+ * {@link DecisionEngine}: tutte le ipotesi vengono copiate in un unico array di caratteri,
+ * normalizzate tramite un {@link TextNormalizer} in un'unica passata, e ciascuna di esse 
+ * individuata dalla sua posizione nell'array.
+ * <p>
+ * Il motore decisionale legge direttamente l'array, per cui l'elaborazione di un enunciato
+ * non crea alcuna stringa. L'array cresce quando necessario e viene conservato insieme
+ * all'istanza: le istanze vengono riutilizzate, per cui devono essere ottenute mediante
+ * {@link #obtain()} e restituite mediante {@link #recycle()} quando non servono pi (come
+ * per {@link DecisionResult}). Questa classe non dipende dalle API di Android.
+ *
+ * @author vincenzo
+ */
+public class HypothesisBuffer {
+
+	/* Capacit iniziale dell'array di caratteri e numero iniziale di ipotesi. */
+	private static final int INITIAL_CHARS = 256;
+	private static final int INITIAL_HYPOTHESES = 8;
+
+	/* Numero massimo di istanze conservate per essere riutilizzate. */
+	private static final int MAX_POOL_SIZE = 2;
+
+	/* Istanze disponibili, collegate tramite mNext. */
+	private static final Object sPoolSync = new Object();
+	private static HypothesisBuffer sPool;
+	private static int sPoolSize = 0;
+
+	private HypothesisBuffer mNext;
+
+	/* Caratteri delle ipotesi, uno di seguito all'altro. */
+	private char[] mChars = new char[INITIAL_CHARS];
+
+	/* Inizio di ciascuna ipotesi in mChars, seguito dalla fine dell'ultima. */
+	private int[] mOffsets = new int[INITIAL_HYPOTHESES + 1];
+
+	/* Numero di ipotesi. */
+	private int mCount = 0;
+
+
+	/* Le istanze si ottengono tramite obtain(). */
+	private HypothesisBuffer() {
+	}
+
+	/**
+	 * Restituisce un'istanza vuota, riutilizzandone una restituita in precedenza se possibile.
+	 *
+	 * @return l'istanza
+	 */
+	public static HypothesisBuffer obtain() {
+		synchronized (sPoolSync) {
+			if (sPool != null) {
+				HypothesisBuffer buffer = sPool;
+				sPool = buffer.mNext;
+				buffer.mNext = null;
+				sPoolSize--;
+				return buffer;
+			}
+		}
+		return new HypothesisBuffer();
+	}
+
+	/**
+	 * Restituisce questa istanza affinch possa essere riutilizzata. Dopo l'invocazione
+	 * di questo metodo l'istanza non deve pi essere utilizzata.
+	 */
+	public void recycle() {
+		mCount = 0;
+		synchronized (sPoolSync) {
+			if (sPoolSize < MAX_POOL_SIZE) {
+				mNext = sPool;
+				sPool = this;
+				sPoolSize++;
+			}
+		}
+	}
+
+	/**
+	 * Sostituisce il contenuto con le ipotesi specificate, normalizzate con la
+	 * normalizzazione predefinita (si veda {@link TextNormalizer#getDefault()}).
+	 *
+	 * @param hypotheses le ipotesi restituite dal riconoscitore vocale
+	 * @return questa istanza
+	 */
+	public HypothesisBuffer fill(List<String> hypotheses) {
+		return fill(hypotheses, TextNormalizer.getDefault());
+	}
+
+	/**
+	 * Sostituisce il contenuto con le ipotesi specificate, normalizzate.
+	 *
+	 * @param hypotheses le ipotesi restituite dal riconoscitore vocale
+	 * @param normalizer il normalizzatore da applicare alle ipotesi
+	 * @return questa istanza
+	 */
+	public HypothesisBuffer fill(List<String> hypotheses, TextNormalizer normalizer) {
+		int count = hypotheses.size();
+		int total = 0;
+		for (int h=0; h < count; h++)
+			total += normalizer.getMaxLength(hypotheses.get(h).length());
+
+		if (mChars.length < total)
+			mChars = new char[Math.max(total, 2 * mChars.length)];
+		if (mOffsets.length < count + 1)
+			mOffsets = new int[Math.max(count + 1, 2 * mOffsets.length)];
+
+		int pos = 0;
+		for (int h=0; h < count; h++) {
+			mOffsets[h] = pos;
+			pos = normalizer.normalize(hypotheses.get(h), mChars, pos);
+		}
+		mOffsets[count] = pos;
+		mCount = count;
+		return this;
+	}
+
+	/**
+	 * Restituisce il numero di ipotesi.
+	 *
+	 * @return il numero di ipotesi
+	 */
+	public int size() {
+		return mCount;
+	}
+
+	/**
+	 * Restituisce la posizione del primo carattere dell'ipotesi specificata.
+	 *
+	 * @param index l'indice dell'ipotesi
+	 * @return la posizione in {@link #getChars()}
+	 */
+	public int getStart(int index) {
+		return mOffsets[index];
+	}
+
+	/**
+	 * Restituisce la lunghezza dell'ipotesi specificata, normalizzata.
+	 *
+	 * @param index l'indice dell'ipotesi
+	 * @return il numero di caratteri
+	 */
+	public int getLength(int index) {
+		return mOffsets[index+1] - mOffsets[index];
+	}
+
+	/**
+	 * Restituisce l'array contenente i caratteri di tutte le ipotesi, che non deve essere
+	 * modificato e resta valido fino alla successiva invocazione di {@link #fill(List, TextNormalizer)}.
+	 *
+	 * @return l'array dei caratteri
+	 */
+	public char[] getChars() {
+		return mChars;
+	}
+
+	/**
+	 * Restituisce l'ipotesi specificata, normalizzata, come nuova stringa.
+	 *
+	 * @param index l'indice dell'ipotesi
+	 * @return l'ipotesi normalizzata
+	 */
+	public String getString(int index) {
+		return new String(mChars, mOffsets[index], getLength(index));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for (int h=0; h < mCount; h++) {
+			if (h > 0)
+				builder.append(", ");
+			builder.append(mChars, mOffsets[h], getLength(h));
+		}
+		return builder.append(']').toString();
+	}
+
+}
@@ -0,0 +1,157 @@
+package org.semm.android.vcf.util;
+
+/**
+ * La classe <code>LatencyHistogram</code> conserva la distribuzione di un insieme di latenze,
+ * espresse in microsecondi, con precisione relativa costante (sul modello di HdrHistogram).
+ * <p>
+ * I valori inferiori a 128 vengono conservati esattamente, mentre gli altri vengono raggruppati
+ * in intervalli la cui ampiezza  pari a 1/64 del relativo valore, per cui l'errore relativo 
+ * inferiore all'1,6% indipendentemente dall'ordine di grandezza. La memoria occupata  fissa e
+ * la registrazione di un valore richiede un tempo costante. I valori superiori a
+ * {@link #MAX_VALUE} vengono considerati pari a tale limite.
+ * <p>
+ * Questa classe non dipende dalle API di Android e non  thread-safe.
+ *
+ * @author vincenzo
+ */
+public class LatencyHistogram {
+
+	/** Valore massimo registrabile (circa 19 ore, in microsecondi). */
+	public static final long MAX_VALUE = (1L << 36) - 1;
+
+	/* Numero di bit della parte significativa di un valore. */
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+	/* Conteggi degli intervalli. */
+	private final int[] mCounts = new int[index(MAX_VALUE) + 1];
+
+	/* Numero di valori, somma, minimo e massimo. */
+	private long mTotalCount = 0;
+	private long mSum = 0;
+	private long mMin = Long.MAX_VALUE;
+	private long mMax = 0;
+
+
+	/**
+	 * Registra un valore.
+	 *
+	 * @param value il valore da registrare, in microsecondi (i valori negativi vengono ignorati)
+	 */
+	public void record(long value) {
+		if (value < 0)
+			return;
+		if (value > MAX_VALUE)
+			value = MAX_VALUE;
+
+		mCounts[index(value)]++;
+		mTotalCount++;
+		mSum += value;
+		mMin = Math.min(mMin, value);
+		mMax = Math.max(mMax, value);
+	}
+
+	/**
+	 * Rimuove tutti i valori registrati.
+	 */
+	public void reset() {
+		for (int i=0; i < mCounts.length; i++)
+			mCounts[i] = 0;
+		mTotalCount = 0;
+		mSum = 0;
+		mMin = Long.MAX_VALUE;
+		mMax = 0;
+	}
+
+	/**
+	 * Restituisce il numero di valori registrati.
+	 *
+	 * @return il numero di valori
+	 */
+	public long getTotalCount() {
+		return mTotalCount;
+	}
+
+	/**
+	 * Restituisce il valore minimo registrato.
+	 *
+	 * @return il valore minimo, oppure 0 se non  stato registrato alcun valore
+	 */
+	public long getMin() {
+		return (mTotalCount == 0 ? 0 : mMin);
+	}
+
+	/**
+	 * Restituisce il valore massimo registrato.
+	 *
+	 * @return il valore massimo, oppure 0 se non  stato registrato alcun valore
+	 */
+	public long getMax() {
+		return mMax;
+	}
+
+	/**
+	 * Restituisce la media dei valori registrati.
+	 *
+	 * @return la media, oppure 0 se non  stato registrato alcun valore
+	 */
+	public double getMean() {
+		return (mTotalCount == 0 ? 0 : (double)mSum / mTotalCount);
+	}
+
+	/**
+	 * Restituisce il valore al di sotto del quale (o uguale al quale) si trova la percentuale
+	 * specificata dei valori registrati, con la precisione dell'istogramma.
+	 *
+	 * @param percentile la percentuale, tra 0 e 100
+	 * @return il valore corrispondente, oppure 0 se non  stato registrato alcun valore
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (mTotalCount == 0)
+			return 0;
+
+		long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * mTotalCount));
+		long count = 0;
+		for (int i=0; i < mCounts.length; i++) {
+			count += mCounts[i];
+			if (count >= target)
+				return Math.min(highestEquivalentValue(i), mMax);
+		}
+		return mMax;
+	}
+
+	/**
+	 * Restituisce una descrizione sintetica della distribuzione, in millisecondi.
+	 *
+	 * @return il numero di valori, la media, i percentili 50, 90 e 99 e il massimo
+	 */
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+				mTotalCount, getMean() / 1000,
+				getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+				getValueAtPercentile(99) / 1000.0, getMax() / 1000.0);
+	}
+
+	/* Restituisce l'indice dell'intervallo a cui appartiene il valore. */
+	private static int index(long value) {
+		if (value < SUB_BUCKET_COUNT)
+			return (int)value;
+
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		int subBucket = (int)(value >>> shift);   // tra SUB_BUCKET_HALF e SUB_BUCKET_COUNT-1
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+	}
+
+	/* Restituisce il valore pi alto appartenente all'intervallo specificato. */
+	private static long highestEquivalentValue(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
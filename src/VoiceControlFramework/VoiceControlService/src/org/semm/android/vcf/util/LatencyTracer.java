@@ -0,0 +1,237 @@
+package org.semm.android.vcf.util;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * La classe <code>LatencyTracer</code> misura il tempo trascorso tra le fasi dell'elaborazione
+ * di un comando vocale, dal risultato del riconoscitore fino al termine del feedback vocale.
+ * <p>
+ * Ogni comando viene identificato da un ID, restituito da {@link #begin(long)} e trasmesso
+ * all'applicazione insieme al comando stesso, per cui anche le fasi eseguite dall'applicazione
+ * possono essere attribuite al comando corretto. Gli istanti delle fasi devono essere misurati
+ * con lo stesso orologio monotono (su Android, <code>System.nanoTime()</code>  comune a tutti
+ * i processi). Le fasi non attraversate da un comando (per esempio quelle relative all'applicazione,
+ * se il comando non viene riconosciuto) vengono semplicemente omesse.
+ * <p>
+ * Al termine di un comando, la durata di ciascuna fase (cio il tempo trascorso dalla fase
+ * precedente) viene registrata nel relativo {@link LatencyHistogram}, insieme alla durata
+ * complessiva. Il numero di comandi in corso  limitato: quelli pi vecchi non ancora terminati
+ * vengono scartati.
+ * <p>
+ * Questa classe non dipende dalle API di Android e non  thread-safe.
+ *
+ * @author vincenzo
+ */
+public class LatencyTracer {
+
+	/** Risultato restituito dal riconoscitore vocale. */
+	public static final int STAGE_RECOGNIZED = 0;
+	/** Inizio della decisione. */
+	public static final int STAGE_DECISION_START = 1;
+	/** Fine della decisione. */
+	public static final int STAGE_DECISION_END = 2;
+	/** Invio del comando all'applicazione tramite il binder. */
+	public static final int STAGE_DISPATCH = 3;
+	/** Inizio dell'esecuzione del comando nell'applicazione. */
+	public static final int STAGE_APP_EXECUTE_START = 4;
+	/** Fine dell'esecuzione del comando nell'applicazione. */
+	public static final int STAGE_APP_EXECUTE_END = 5;
+	/** Ricezione dell'esito da parte del servizio. */
+	public static final int STAGE_RESULT_RECEIVED = 6;
+	/** Inizio del feedback vocale. */
+	public static final int STAGE_TTS_START = 7;
+	/** Fine del feedback vocale. */
+	public static final int STAGE_TTS_END = 8;
+
+	/** Numero di fasi. */
+	public static final int STAGE_COUNT = 9;
+
+	/** ID che non identifica alcun comando. */
+	public static final long NO_COMMAND = 0;
+
+	/* Nomi delle fasi, utilizzati nel log strutturato e nel dump. */
+	private static final String[] STAGE_NAMES = {
+		"recognized", "decision_start", "decision_end", "dispatch", "app_execute_start",
+		"app_execute_end", "result_received", "tts_start", "tts_end"
+	};
+
+	/* Numero massimo di comandi in corso. */
+	private static final int MAX_ACTIVE = 16;
+
+	/* Istanti delle fasi dei comandi in corso (0 se la fase non  stata attraversata). */
+	private final LinkedHashMap<Long, long[]> mActive = new LinkedHashMap<Long, long[]>();
+
+	/* Durata di ciascuna fase e durata complessiva dei comandi. */
+	private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_COUNT];
+	private final LatencyHistogram mTotal = new LatencyHistogram();
+
+	/* ID precedente al primo assegnato e ultimo ID assegnato. */
+	private final long mBaseId;
+	private long mLastId;
+
+	/* Statistiche: comandi completati e scartati. */
+	private long mCompletedCount = 0;
+	private long mDroppedCount = 0;
+
+
+	/**
+	 * Crea un nuovo tracer, i cui ID partono da 1.
+	 */
+	public LatencyTracer() {
+		this(NO_COMMAND);
+	}
+
+	/**
+	 * Crea un nuovo tracer, i cui ID sono maggiori di quello specificato. Scegliendo un valore
+	 * crescente nel tempo (per esempio l'istante di creazione), gli ID restano univoci anche tra
+	 * istanze successive, per cui un ID ricevuto da un'istanza precedente non pu essere confuso
+	 * con uno assegnato da questa.
+	 *
+	 * @param baseId l'ID precedente al primo da assegnare, non negativo
+	 */
+	public LatencyTracer(long baseId) {
+		if (baseId < NO_COMMAND)
+			throw new IllegalArgumentException("ID iniziale negativo: " + baseId);
+		mBaseId = mLastId = baseId;
+		for (int i=0; i < STAGE_COUNT; i++)
+			mStages[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * Restituisce l'ID precedente al primo assegnato: gli ID non maggiori di questo sono stati
+	 * assegnati da un'istanza precedente.
+	 *
+	 * @return l'ID specificato alla creazione
+	 */
+	public long getBaseId() {
+		return mBaseId;
+	}
+
+	/**
+	 * Inizia a tracciare un nuovo comando, a partire dal risultato del riconoscitore.
+	 *
+	 * @param nanos l'istante in cui  stato ricevuto il risultato, in nanosecondi
+	 * @return l'ID del comando
+	 */
+	public long begin(long nanos) {
+		if (mActive.size() >= MAX_ACTIVE) {
+			Iterator<Map.Entry<Long, long[]>> it = mActive.entrySet().iterator();
+			it.next();
+			it.remove();
+			mDroppedCount++;
+		}
+
+		long id = ++mLastId;
+		long[] stamps = new long[STAGE_COUNT];
+		stamps[STAGE_RECOGNIZED] = nanos;
+		mActive.put(id, stamps);
+		return id;
+	}
+
+	/**
+	 * Registra l'istante in cui il comando specificato ha raggiunto una fase. Le chiamate
+	 * relative a comandi sconosciuti o gi terminati vengono ignorate.
+	 *
+	 * @param id l'ID del comando
+	 * @param stage la fase raggiunta (una delle costanti <code>STAGE_*</code>)
+	 * @param nanos l'istante in nanosecondi
+	 */
+	public void mark(long id, int stage, long nanos) {
+		long[] stamps = mActive.get(id);
+		if (stamps != null && stage >= 0 && stage < STAGE_COUNT && nanos > 0)
+			stamps[stage] = nanos;
+	}
+
+	/**
+	 * Verifica se il comando specificato  in corso.
+	 *
+	 * @param id l'ID del comando
+	 * @return <code>true</code> se il comando  in corso
+	 */
+	public boolean isActive(long id) {
+		return mActive.containsKey(id);
+	}
+
+	/**
+	 * Termina il comando specificato, registrandone le durate.
+	 *
+	 * @param id l'ID del comando
+	 * @return una riga di log strutturato (coppie chiave=valore) con la durata di ciascuna fase
+	 *         in microsecondi, oppure <code>null</code> se il comando non  in corso
+	 */
+	public String finish(long id) {
+		long[] stamps = mActive.remove(id);
+		if (stamps == null)
+			return null;
+
+		StringBuilder line = new StringBuilder();
+		line.append("cmd=").append(id);
+
+		long previous = stamps[STAGE_RECOGNIZED];
+		long last = previous;
+		for (int i=STAGE_RECOGNIZED + 1; i < STAGE_COUNT; i++) {
+			if (stamps[i] == 0)
+				continue;
+
+			long micros = (stamps[i] - previous) / 1000;
+			mStages[i].record(micros);
+			line.append(' ').append(STAGE_NAMES[i]).append("_us=").append(micros);
+			previous = stamps[i];
+			last = Math.max(last, stamps[i]);
+		}
+
+		long total = (last - stamps[STAGE_RECOGNIZED]) / 1000;
+		mTotal.record(total);
+		mCompletedCount++;
+		line.append(" total_us=").append(total);
+		return line.toString();
+	}
+
+	/**
+	 * Scarta il comando specificato senza registrarne le durate, per esempio perch il
+	 * feedback vocale  stato interrotto.
+	 *
+	 * @param id l'ID del comando
+	 */
+	public void discard(long id) {
+		if (mActive.remove(id) != null)
+			mDroppedCount++;
+	}
+
+	/**
+	 * Restituisce la distribuzione delle durate della fase specificata.
+	 *
+	 * @param stage la fase (una delle costanti <code>STAGE_*</code>)
+	 * @return l'istogramma delle durate, in microsecondi
+	 */
+	public LatencyHistogram getHistogram(int stage) {
+		return mStages[stage];
+	}
+
+	/**
+	 * Restituisce la distribuzione delle durate complessive dei comandi.
+	 *
+	 * @return l'istogramma delle durate complessive, in microsecondi
+	 */
+	public LatencyHistogram getTotalHistogram() {
+		return mTotal;
+	}
+
+	/**
+	 * Scrive le distribuzioni delle durate di tutte le fasi.
+	 *
+	 * @param writer il writer su cui scrivere
+	 * @param prefix il prefisso di ogni riga
+	 */
+	public void dump(PrintWriter writer, String prefix) {
+		writer.println(String.format("%scomandi completati: %d, scartati: %d, in corso: %d",
+				prefix, mCompletedCount, mDroppedCount, mActive.size()));
+		for (int i=STAGE_RECOGNIZED + 1; i < STAGE_COUNT; i++)
+			writer.println(String.format("%s%-18s %s", prefix, STAGE_NAMES[i], mStages[i]));
+		writer.println(String.format("%s%-18s %s", prefix, "total", mTotal));
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.semm.android.vcf.util;
+
+import java.io.PrintWriter;
+
+/**
+ * La classe <code>StartupTimeline</code> misura il tempo impiegato dal servizio per completare
+ * ciascuna fase dell'avvio, a partire dalla sua creazione. Le fasi vengono eseguite in parallelo
+ * e possono terminare in qualsiasi ordine: il riconoscitore vocale, in particolare, non attende
+ * il motore di sintesi vocale. Il tempo di completamento della fase {@link #STAGE_RECOGNIZER}
+ * rappresenta il tempo necessario affinch il servizio possa ricevere comandi.
+ * <p>
+ * Gli istanti devono essere misurati con <code>System.nanoTime()</code>. Le fasi possono essere
+ * registrate da thread diversi; soltanto la prima registrazione di ciascuna fase viene considerata.
+ * Questa classe non dipende dalle API di Android.
+ *
+ * @author vincenzo
+ */
+public class StartupTimeline {
+
+	/** Costruzione dell'indice dei comandi. */
+	public static final int STAGE_COMMAND_INDEX = 0;
+	/** Risoluzione degli intent di avvio delle applicazioni. */
+	public static final int STAGE_LAUNCH_INTENTS = 1;
+	/** Riconoscitore vocale pronto a ricevere comandi. */
+	public static final int STAGE_RECOGNIZER = 2;
+	/** Motore di sintesi vocale inizializzato. */
+	public static final int STAGE_TTS = 3;
+
+	/** Numero di fasi. */
+	public static final int STAGE_COUNT = 4;
+
+	/* Nomi delle fasi, utilizzati nel log strutturato e nel dump. */
+	private static final String[] STAGE_NAMES = {
+		"command_index", "launch_intents", "recognizer_ready", "tts_ready"
+	};
+
+	/* Istante di creazione del servizio. */
+	private final long mStart;
+
+	/* Istanti di completamento delle fasi (0 se la fase non  ancora terminata). */
+	private final long[] mStages = new long[STAGE_COUNT];
+
+	/* Numero di fasi completate. */
+	private int mCompleted = 0;
+
+
+	/**
+	 * Crea una nuova sequenza di avvio.
+	 *
+	 * @param start l'istante di creazione del servizio
+	 */
+	public StartupTimeline(long start) {
+		mStart = start;
+	}
+
+	/**
+	 * Registra il completamento di una fase.
+	 *
+	 * @param stage la fase
+	 * @param time l'istante di completamento
+	 * @return <code>true</code> se con questa fase l'avvio  completo
+	 */
+	public synchronized boolean mark(int stage, long time) {
+		if (mStages[stage] != 0)
+			return false;
+
+		mStages[stage] = Math.max(time, mStart + 1);
+		return ++mCompleted == STAGE_COUNT;
+	}
+
+	/**
+	 * Verifica se tutte le fasi sono state completate.
+	 *
+	 * @return <code>true</code> se l'avvio  completo
+	 */
+	public synchronized boolean isComplete() {
+		return mCompleted == STAGE_COUNT;
+	}
+
+	/**
+	 * Restituisce il tempo impiegato per completare la fase specificata.
+	 *
+	 * @param stage la fase
+	 * @return il tempo trascorso dalla creazione del servizio in millisecondi,
+	 *         oppure -1 se la fase non  ancora terminata
+	 */
+	public synchronized double getElapsedMillis(int stage) {
+		return (mStages[stage] == 0 ? -1 : (mStages[stage] - mStart) / 1e6);
+	}
+
+	/**
+	 * Restituisce una riga di log strutturato con i tempi delle fasi completate,
+	 * nella forma <code>startup command_index=12.3 ...</code> (in millisecondi).
+	 *
+	 * @return la riga di log
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder line = new StringBuilder("startup");
+		for (int s=0; s < STAGE_COUNT; s++)
+			if (mStages[s] != 0)
+				line.append(String.format(" %s=%.1f", STAGE_NAMES[s], (mStages[s] - mStart) / 1e6));
+		return line.toString();
+	}
+
+	/**
+	 * Scrive il tempo impiegato per completare ciascuna fase.
+	 *
+	 * @param writer il writer di destinazione
+	 * @param prefix il prefisso di ogni riga
+	 */
+	public synchronized void dump(PrintWriter writer, String prefix) {
+		for (int s=0; s < STAGE_COUNT; s++) {
+			if (mStages[s] != 0)
+				writer.println(String.format("%s%-16s %8.1f ms", prefix, STAGE_NAMES[s],
+						(mStages[s] - mStart) / 1e6));
+			else writer.println(String.format("%s%-16s in corso", prefix, STAGE_NAMES[s]));
+		}
+	}
+
+}
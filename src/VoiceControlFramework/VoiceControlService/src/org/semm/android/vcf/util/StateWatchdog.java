@@ -0,0 +1,147 @@
+package org.semm.android.vcf.util;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * La classe <code>StateWatchdog</code> gestisce le scadenze degli stati del servizio in cui si
+ * attende una risposta da parte di un'applicazione (per esempio l'esito di un comando), in modo
+ * che un'applicazione che non risponde non possa bloccare il servizio indefinitamente.
+ * <p>
+ * Ad ogni cambiamento di stato viene attivata la scadenza prevista per il nuovo stato, che
+ * sostituisce quella precedente: poich il servizio si trova in un solo stato alla volta, 
+ * sufficiente un'unica scadenza, e quindi un unico timer. Allo scadere del timer, il servizio
+ * invoca {@link #expire(long)}, che verifica se la scadenza  effettivamente trascorsa (il timer
+ * potrebbe riferirsi ad uno stato gi abbandonato) e la registra.
+ * <p>
+ * Per ciascuna applicazione vengono conservati, per stato, il numero di scadenze attivate e il
+ * numero di quelle trascorse. Questa classe non dipende dalle API di Android; i metodi sono
+ * sincronizzati, per consentire la lettura delle statistiche da un altro thread.
+ *
+ * @author vincenzo
+ */
+public class StateWatchdog {
+
+	/** Valore restituito da {@link #expire(long)} se la scadenza non  trascorsa. */
+	public static final int NO_STATE = -1;
+
+	/* Nome e durata massima (in millisecondi, 0 se illimitata) di ciascuno stato. */
+	private final String[] mNames;
+	private final long[] mTimeouts;
+
+	/* Stato e applicazione della scadenza attiva e istante in cui scade (NO_STATE se non attiva). */
+	private int mArmedState = NO_STATE;
+	private String mArmedApp;
+	private long mDeadline;
+
+	/* Per applicazione: scadenze attivate, per stato, seguite da quelle trascorse. */
+	private final LinkedHashMap<String, long[]> mCounts = new LinkedHashMap<String, long[]>();
+
+
+	/**
+	 * Crea un watchdog con le durate massime specificate.
+	 *
+	 * @param names i nomi degli stati, per le statistiche
+	 * @param timeouts la durata massima di ciascuno stato, in millisecondi, oppure 0 se lo
+	 *                 stato non ha una scadenza
+	 */
+	public StateWatchdog(String[] names, long[] timeouts) {
+		if (names.length != timeouts.length)
+			throw new IllegalArgumentException("Numero di stati e di durate diverso");
+		mNames = names.clone();
+		mTimeouts = timeouts.clone();
+	}
+
+	/**
+	 * Attiva la scadenza dello stato specificato, in sostituzione di quella attiva.
+	 *
+	 * @param state il nuovo stato
+	 * @param appId l'applicazione di cui si attende la risposta, oppure <code>null</code>
+	 * @param now l'istante corrente, in millisecondi
+	 * @return l'istante della scadenza, in millisecondi, oppure 0 se lo stato non ha una scadenza
+	 */
+	public synchronized long arm(int state, String appId, long now) {
+		if (mTimeouts[state] <= 0) {
+			mArmedState = NO_STATE;
+			mArmedApp = null;
+			return 0;
+		}
+
+		mArmedState = state;
+		mArmedApp = appId;
+		mDeadline = now + mTimeouts[state];
+		getCounts(appId)[state]++;
+		return mDeadline;
+	}
+
+	/**
+	 * Verifica se la scadenza attiva  trascorsa e, in tal caso, la registra e la disattiva.
+	 *
+	 * @param now l'istante corrente, in millisecondi
+	 * @return lo stato la cui scadenza  trascorsa, oppure {@link #NO_STATE}
+	 */
+	public synchronized int expire(long now) {
+		if (mArmedState == NO_STATE || now < mDeadline)
+			return NO_STATE;
+
+		int state = mArmedState;
+		getCounts(mArmedApp)[mTimeouts.length + state]++;
+		mArmedState = NO_STATE;
+		mArmedApp = null;
+		return state;
+	}
+
+	/**
+	 * Restituisce la durata massima dello stato specificato.
+	 *
+	 * @param state lo stato
+	 * @return la durata massima, in millisecondi, oppure 0 se lo stato non ha una scadenza
+	 */
+	public long getTimeout(int state) {
+		return mTimeouts[state];
+	}
+
+	/**
+	 * Restituisce il numero di scadenze trascorse per l'applicazione e lo stato specificati.
+	 *
+	 * @param appId l'applicazione, oppure <code>null</code>
+	 * @param state lo stato
+	 * @return il numero di scadenze trascorse
+	 */
+	public synchronized long getTimeoutCount(String appId, int state) {
+		long[] counts = mCounts.get(appId);
+		return counts != null ? counts[mTimeouts.length + state] : 0;
+	}
+
+	/* Restituisce i contatori dell'applicazione specificata, creandoli se necessario. */
+	private long[] getCounts(String appId) {
+		long[] counts = mCounts.get(appId);
+		if (counts == null) {
+			counts = new long[2 * mTimeouts.length];
+			mCounts.put(appId, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Scrive, per ciascuna applicazione e per ciascuno stato con scadenza, il numero di
+	 * scadenze trascorse e di quelle attivate.
+	 *
+	 * @param writer il writer su cui scrivere
+	 * @param prefix il prefisso di ogni riga
+	 */
+	public synchronized void dump(PrintWriter writer, String prefix) {
+		if (mCounts.isEmpty())
+			writer.println(String.format("%snessuna scadenza attivata", prefix));
+		for (Map.Entry<String, long[]> app : mCounts.entrySet()) {
+			StringBuilder line = new StringBuilder(prefix).append(app.getKey()).append(':');
+			long[] counts = app.getValue();
+			for (int s=0; s < mTimeouts.length; s++)
+				if (mTimeouts[s] > 0)
+					line.append(String.format(" %s %d/%d", mNames[s], counts[mTimeouts.length + s], counts[s]));
+			writer.println(line);
+		}
+	}
+
+}
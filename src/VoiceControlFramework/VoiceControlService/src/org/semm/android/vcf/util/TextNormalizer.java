@@ -0,0 +1,316 @@
+package org.semm.android.vcf.util;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * La classe <code>TextNormalizer</code> riduce le ipotesi del riconoscitore vocale e le stringhe
+ * ammesse ad una forma comune, prima che il {@link DecisionEngine} ne calcoli la distanza, in
+ * modo che le differenze irrilevanti non contribuiscano alla distanza:
+ * <ul>
+ * <li>le lettere vengono convertite in minuscolo e private degli accenti ("Citt" diventa
+ * "citta"), mentre i caratteri non validi (U+FFFD) vengono scartati;</li>
+ * <li>la punteggiatura viene trattata come spazio e gli spazi vengono normalizzati (nessuno
+ * spazio all'inizio e alla fine, un solo spazio tra le parole);</li>
+ * <li>le parole spezzate o unite dal riconoscitore vengono riparate: per esempio "e segui"
+ * diventa "esegui" e "avviademo" diventa "avvia demo".</li>
+ * </ul>
+ * Le conversioni dei caratteri sono contenute in una tabella precalcolata, mentre le riparazioni
+ * (ciascuna relativa ad una o due parole consecutive) in una tabella hash ad indirizzamento aperto
+ * costruita da {@link Builder}, a partire dal vocabolario delle stringhe ammesse e da un elenco di
+ * riparazioni note. Ogni stringa viene elaborata in un'unica passata, scrivendo direttamente
+ * nell'array di destinazione senza creare oggetti.
+ * <p>
+ * Le istanze sono immutabili e possono essere utilizzate da pi thread. Questa classe non
+ * dipende dalle API di Android.
+ *
+ * @author vincenzo
+ */
+public final class TextNormalizer {
+
+	/* Conversione dei caratteri con codice inferiore a 256: ' ' per i separatori, SKIP per quelli da scartare. */
+	private static final char[] FOLD = new char[256];
+
+	/* Carattere da scartare. */
+	private static final char SKIP = 0;
+
+	/* Lettere accentate e lettere corrispondenti senza accento. */
+	private static final String ACCENTED = "";
+	private static final String UNACCENTED = "aaaaaaaaaaaacceeeeeeeeiiiiiiiinnoooooooooooouuuuuuuuyyy";
+
+	/* Punteggiatura trattata come spazio. */
+	private static final String SEPARATORS = ".,;:!?\"()[]{}-_/";
+
+	static {
+		for (char c=0; c < FOLD.length; c++)
+			FOLD[c] = (Character.isWhitespace(c) || Character.isSpaceChar(c) || Character.isISOControl(c)
+					? ' ' : Character.toLowerCase(c));
+		for (int i=0; i < ACCENTED.length(); i++)
+			FOLD[ACCENTED.charAt(i)] = UNACCENTED.charAt(i);
+		for (int i=0; i < SEPARATORS.length(); i++)
+			FOLD[SEPARATORS.charAt(i)] = ' ';
+		FOLD[0] = SKIP;
+	}
+
+	/* Normalizzazione senza riparazioni. */
+	private static final TextNormalizer DEFAULT = new TextNormalizer(new LinkedHashMap<String, String>());
+
+	/* Parole o coppie di parole da riparare e relative sostituzioni (null se non ce ne sono). */
+	private final char[][] mKeys;
+	private final char[][] mValues;
+	private final int[] mHashes;
+
+	/* Massimo aumento di lunghezza dovuto ad una riparazione. */
+	private final int mMaxGrowth;
+
+
+	/* Le istanze vengono create tramite Builder. */
+	private TextNormalizer(Map<String, String> repairs) {
+		if (repairs.isEmpty()) {
+			mKeys = mValues = null;
+			mHashes = null;
+			mMaxGrowth = 0;
+			return;
+		}
+
+		int capacity = Integer.highestOneBit(repairs.size() * 2 - 1) << 1;
+		mKeys = new char[capacity][];
+		mValues = new char[capacity][];
+		mHashes = new int[capacity];
+
+		int growth = 0;
+		for (Map.Entry<String, String> repair : repairs.entrySet()) {
+			String key = repair.getKey();
+			int hash = key.hashCode();
+			int slot = hash & (capacity - 1);
+			while (mKeys[slot] != null)
+				slot = (slot + 1) & (capacity - 1);
+			mKeys[slot] = key.toCharArray();
+			mValues[slot] = repair.getValue().toCharArray();
+			mHashes[slot] = hash;
+			growth = Math.max(growth, repair.getValue().length() - key.length());
+		}
+		mMaxGrowth = growth;
+	}
+
+	/**
+	 * Restituisce la normalizzazione predefinita, senza riparazioni.
+	 *
+	 * @return il normalizzatore predefinito
+	 */
+	public static TextNormalizer getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Restituisce la lunghezza massima del risultato della normalizzazione di una stringa.
+	 *
+	 * @param length la lunghezza della stringa
+	 * @return la lunghezza massima della stringa normalizzata
+	 */
+	public int getMaxLength(int length) {
+		return length + (length + 1) / 2 * mMaxGrowth;
+	}
+
+	/**
+	 * Normalizza una stringa, scrivendo il risultato nell'array specificato.
+	 *
+	 * @param text la stringa da normalizzare
+	 * @param out l'array di destinazione, con almeno {@link #getMaxLength(int)} posizioni
+	 *            libere a partire da offset
+	 * @param offset la posizione del primo carattere da scrivere
+	 * @return la posizione successiva all'ultimo carattere scritto
+	 */
+	public int normalize(CharSequence text, char[] out, int offset) {
+		int pos = offset;
+		int start = -1;       // inizio della parola corrente
+		int previous = -1;    // inizio della parola precedente, se pu essere riparata insieme alla corrente
+		for (int i=0, n=text.length(); i <= n; i++) {
+			char c = (i < n ? fold(text.charAt(i)) : ' ');
+			if (c == SKIP)
+				continue;
+
+			if (c != ' ') {
+				if (start < 0) {
+					if (pos > offset)
+						out[pos++] = ' ';
+					start = pos;
+				}
+				out[pos++] = c;
+				continue;
+			}
+
+			if (start < 0)
+				continue;
+
+			// Fine di una parola: ripara le due parole insieme, oppure l'ultima.
+			int end = (previous >= 0 ? repair(out, previous, pos) : -1);
+			if (end < 0)
+				end = repair(out, start, pos);
+			if (end >= 0) {
+				pos = end;
+				previous = -1;   // le parole riparate non vengono riparate nuovamente
+			}
+			else previous = start;
+			start = -1;
+		}
+		return pos;
+	}
+
+	/**
+	 * Normalizza una stringa.
+	 *
+	 * @param text la stringa da normalizzare
+	 * @return la stringa normalizzata
+	 */
+	public String normalize(String text) {
+		char[] out = new char[getMaxLength(text.length())];
+		return new String(out, 0, normalize(text, out, 0));
+	}
+
+	/* Converte un carattere: minuscolo senza accenti, ' ' per i separatori, SKIP per quelli da scartare. */
+	private static char fold(char c) {
+		if (c < FOLD.length)
+			return FOLD[c];
+		if (c == '\uFFFD')
+			return SKIP;
+		return (Character.isWhitespace(c) ? ' ' : Character.toLowerCase(c));
+	}
+
+	/*
+	 * Se i caratteri compresi tra from e to formano una parola (o una coppia di parole) da
+	 * riparare, li sostituisce e restituisce la posizione successiva alla sostituzione,
+	 * altrimenti restituisce -1.
+	 */
+	private int repair(char[] out, int from, int to) {
+		if (mKeys == null)
+			return -1;
+
+		int hash = 0;
+		for (int i=from; i < to; i++)
+			hash = 31 * hash + out[i];
+
+		int mask = mKeys.length - 1;
+		for (int slot = hash & mask; mKeys[slot] != null; slot = (slot + 1) & mask) {
+			char[] key = mKeys[slot];
+			if (mHashes[slot] != hash || key.length != to - from)
+				continue;
+
+			int i = 0;
+			while (i < key.length && key[i] == out[from + i])
+				i++;
+			if (i == key.length) {
+				char[] value = mValues[slot];
+				System.arraycopy(value, 0, out, from, value.length);
+				return from + value.length;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Costruisce un normalizzatore con le riparazioni relative ad un vocabolario e quelle
+	 * specificate esplicitamente, che prevalgono sulle prime.
+	 */
+	public static final class Builder {
+
+		private final LinkedHashMap<String, String> mRepairs = new LinkedHashMap<String, String>();
+		private final HashSet<String> mWords = new HashSet<String>();
+		private final HashSet<String> mPairs = new HashSet<String>();
+
+		/**
+		 * Aggiunge una riparazione esplicita, per esempio da "a via" ad "avvia". Entrambe
+		 * le stringhe vengono normalizzate.
+		 *
+		 * @param from la parola o la coppia di parole da riparare
+		 * @param to la sostituzione, non vuota
+		 * @return questo builder
+		 */
+		public Builder addRepair(String from, String to) {
+			String key = DEFAULT.normalize(from);
+			String value = DEFAULT.normalize(to);
+			if (key.length() == 0 || value.length() == 0 || key.indexOf(' ') != key.lastIndexOf(' '))
+				throw new IllegalArgumentException(String.format("Riparazione non valida: %s=%s", from, to));
+			mRepairs.put(key, value);
+			return this;
+		}
+
+		/**
+		 * Aggiunge le riparazioni esplicite specificate nella forma "da=a" (per esempio
+		 * "a via=avvia"), tipicamente lette da una risorsa.
+		 *
+		 * @param repairs le riparazioni
+		 * @return questo builder
+		 */
+		public Builder addRepairs(String[] repairs) {
+			for (String repair : repairs) {
+				int separator = repair.indexOf('=');
+				if (separator < 0)
+					throw new IllegalArgumentException(String.format("Riparazione non valida: %s", repair));
+				addRepair(repair.substring(0, separator), repair.substring(separator + 1));
+			}
+			return this;
+		}
+
+		/**
+		 * Aggiunge le parole delle frasi specificate (per esempio le stringhe ammesse) al
+		 * vocabolario. Ogni parola spezzata in due parti che non appartengono entrambe al
+		 * vocabolario viene riunita, e ogni coppia di parole consecutive in una frase viene
+		 * separata se il riconoscitore la restituisce come un'unica parola.
+		 *
+		 * @param phrases le frasi
+		 * @return questo builder
+		 */
+		public Builder addVocabulary(Collection<String> phrases) {
+			for (String phrase : phrases) {
+				String normalized = DEFAULT.normalize(phrase);
+				String last = null;
+				for (int start=0; start < normalized.length(); ) {
+					int end = normalized.indexOf(' ', start);
+					if (end < 0)
+						end = normalized.length();
+					String word = normalized.substring(start, end);
+					mWords.add(word);
+					if (last != null)
+						mPairs.add(last + ' ' + word);
+					last = word;
+					start = end + 1;
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Crea il normalizzatore.
+		 *
+		 * @return il nuovo normalizzatore
+		 */
+		public TextNormalizer build() {
+			LinkedHashMap<String, String> repairs = new LinkedHashMap<String, String>();
+
+			// Parole spezzate.
+			for (String word : mWords)
+				for (int k=1; k < word.length(); k++) {
+					String head = word.substring(0, k);
+					String tail = word.substring(k);
+					if (!mWords.contains(head) || !mWords.contains(tail))
+						repairs.put(head + ' ' + tail, word);
+				}
+
+			// Parole unite.
+			for (String pair : mPairs) {
+				int separator = pair.indexOf(' ');
+				String joined = pair.substring(0, separator) + pair.substring(separator + 1);
+				if (!mWords.contains(joined) && !repairs.containsKey(joined))
+					repairs.put(joined, pair);
+			}
+
+			repairs.putAll(mRepairs);
+			return new TextNormalizer(repairs);
+		}
+	}
+
+}